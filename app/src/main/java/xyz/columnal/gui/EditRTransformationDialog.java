@@ -30,6 +30,8 @@ import javafx.beans.property.SimpleObjectProperty;
 import javafx.collections.ListChangeListener;
 import javafx.geometry.Point2D;
 import javafx.scene.Node;
+import javafx.scene.control.CheckBox;
+import javafx.scene.control.Label;
 import javafx.scene.control.TextArea;
 import javafx.scene.control.TextField;
 import javafx.scene.input.MouseButton;
@@ -70,6 +72,7 @@ import xyz.columnal.utility.gui.FXUtility;
 import xyz.columnal.utility.gui.FancyList;
 import xyz.columnal.utility.gui.FocusTracker;
 import xyz.columnal.utility.gui.LabelledGrid;
+import xyz.columnal.utility.gui.LabelledGrid.Row;
 import xyz.columnal.utility.gui.ScrollPaneFill;
 
 import java.util.Arrays;
@@ -84,6 +87,7 @@ public class EditRTransformationDialog extends ErrorableLightDialog<RDetails>
     private final TableList tableList;
     private final TextArea expressionTextArea;
     private final TextField packageField;
+    private final CheckBox useResultCache;
     private final FocusTracker focusTracker = new FocusTracker();
 
     public static class RDetails
@@ -91,12 +95,14 @@ public class EditRTransformationDialog extends ErrorableLightDialog<RDetails>
         public final ImmutableList<TableId> includedTables;
         public final ImmutableList<String> packages;
         public final String rExpression;
+        public final boolean useResultCache;
 
-        public RDetails(ImmutableList<TableId> includedTables, ImmutableList<String> packages, String rExpression)
+        public RDetails(ImmutableList<TableId> includedTables, ImmutableList<String> packages, String rExpression, boolean useResultCache)
         {
             this.includedTables = includedTables;
             this.packages = packages;
             this.rExpression = rExpression;
+            this.useResultCache = useResultCache;
         }
     }
     
@@ -118,6 +124,9 @@ public class EditRTransformationDialog extends ErrorableLightDialog<RDetails>
         // For some reason, this seems to produce a width similar to 70 chars:
         expressionTextArea.setPrefColumnCount(30);
         expressionTextArea.setPrefRowCount(6);
+        Pair<CheckBox, Row> useResultCacheRow = LabelledGrid.tickGridRow("edit.r.useResultCache", "edit-r/cache", new Label());
+        useResultCache = useResultCacheRow.getFirst();
+        useResultCache.setSelected(existing.isUsingResultCache());
         Text text = new Text("Variables: <none>");
         TextFlow textFlow = new TextFlow(text);
         textFlow.setPrefWidth(100); // Stop it enlarging window
@@ -169,6 +178,7 @@ public class EditRTransformationDialog extends ErrorableLightDialog<RDetails>
             LabelledGrid.labelledGridRow("edit.r.srcTables", "edit-r/srctables", tableList.getNode()),
             LabelledGrid.labelledGridRow("edit.r.variables", "edit-r/variables", scroll),
             LabelledGrid.labelledGridRow("edit.r.expression", "edit-r/expression", expressionTextArea),
+            useResultCacheRow.getSecond(),
             LabelledGrid.fullWidthRow(getErrorLabel())
         ));
         focusTracker.addNode(expressionTextArea);
@@ -269,7 +279,7 @@ public class EditRTransformationDialog extends ErrorableLightDialog<RDetails>
         String rExpression = expressionTextArea.getText().trim();
         if (rExpression.isEmpty())
             return Either.<@Localized String, RDetails>left("R expression cannot be blank");
-        return Either.<@Localized String, RDetails>right(new RDetails(tables.build(), Arrays.stream(packageField.getText().split(",")).map(s -> s.trim()).filter(s -> !s.isEmpty()).collect(ImmutableList.<String>toImmutableList()), rExpression));
+        return Either.<@Localized String, RDetails>right(new RDetails(tables.build(), Arrays.stream(packageField.getText().split(",")).map(s -> s.trim()).filter(s -> !s.isEmpty()).collect(ImmutableList.<String>toImmutableList()), rExpression, useResultCache.isSelected()));
     }
 
 
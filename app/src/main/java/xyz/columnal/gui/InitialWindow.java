@@ -40,7 +40,6 @@ import javafx.scene.layout.HBox;
 import javafx.scene.layout.VBox;
 import javafx.stage.FileChooser;
 import javafx.stage.Stage;
-import org.apache.commons.io.FileUtils;
 import org.checkerframework.checker.nullness.qual.Nullable;
 import xyz.columnal.error.InternalException;
 import xyz.columnal.error.UserException;
@@ -48,7 +47,6 @@ import xyz.columnal.gui.Main.UpgradeInfo;
 import threadchecker.OnThread;
 import threadchecker.Tag;
 import xyz.columnal.gui.dialog.AboutDialog;
-import xyz.columnal.utility.adt.Pair;
 import xyz.columnal.utility.TranslationUtility;
 import xyz.columnal.utility.Utility;
 import xyz.columnal.utility.gui.DimmableParent.Undimmed;
@@ -185,13 +183,16 @@ public class InitialWindow
     {
         try
         {
-            MainWindow.show(new Stage(), src, new Pair<>(src, FileUtils.readFileToString(src, "UTF-8")), upgradeInfo);
+            // The file is read when loading, but check now so that we stay open if it can't be:
+            if (!src.canRead())
+                throw new UserException("Cannot read file: " + src.getAbsolutePath());
+            MainWindow.show(new Stage(), src, src, upgradeInfo);
             Utility.usedFile(src);
             // Only hide us if the load and show completed successfully:
             parent.hide();
             return true;
         }
-        catch (IOException | InternalException | UserException ex)
+        catch (InternalException | UserException ex)
         {
             FXUtility.logAndShowError("error.readingfile", ex);
             return false;
@@ -34,7 +34,6 @@ import javafx.scene.text.TextFlow;
 import javafx.stage.Stage;
 import xyz.columnal.log.ErrorHandler;
 import xyz.columnal.log.Log;
-import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.SystemUtils;
 import org.checkerframework.checker.i18n.qual.Localized;
@@ -55,7 +54,6 @@ import xyz.columnal.styled.StyledCSS;
 import xyz.columnal.styled.StyledString;
 import threadchecker.OnThread;
 import threadchecker.Tag;
-import xyz.columnal.utility.adt.Pair;
 import xyz.columnal.utility.ResourceUtility;
 import xyz.columnal.utility.Utility;
 import xyz.columnal.utility.gui.FXUtility;
@@ -185,7 +183,7 @@ public class Main extends Application
                 if (param.endsWith(EXTENSION_INCL_DOT))
                 {
                     Log.normal("Showing main window, to load file: \"" + paramFile.getAbsolutePath() + "\"");
-                    MainWindow.show(new Stage(), paramFile, new Pair<>(paramFile, FileUtils.readFileToString(paramFile, StandardCharsets.UTF_8)), upgradeInfo);
+                    MainWindow.show(new Stage(), paramFile, paramFile, upgradeInfo);
                 }
                 else if (!param.startsWith("-") && !param.equals(getClass().getName()))
                 {
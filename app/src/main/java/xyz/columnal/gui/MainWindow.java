@@ -21,7 +21,6 @@
 package xyz.columnal.gui;
 
 import com.google.common.collect.ImmutableList;
-import com.google.common.hash.Hashing;
 import javafx.application.Platform;
 import javafx.geometry.Insets;
 import javafx.geometry.Pos;
@@ -45,6 +44,7 @@ import org.checkerframework.checker.nullness.qual.NonNull;
 import org.checkerframework.checker.nullness.qual.Nullable;
 import xyz.columnal.data.CellPosition;
 import xyz.columnal.data.DataSource;
+import xyz.columnal.data.ProjectContentIndex;
 import xyz.columnal.data.Table.TableDisplayBase;
 import xyz.columnal.data.TableManager;
 import xyz.columnal.error.InternalException;
@@ -61,7 +61,6 @@ import xyz.columnal.transformations.Check;
 import threadchecker.OnThread;
 import threadchecker.Tag;
 import xyz.columnal.utility.adt.Either;
-import xyz.columnal.utility.adt.Pair;
 import xyz.columnal.utility.Workers;
 import xyz.columnal.utility.Workers.Priority;
 import xyz.columnal.utility.gui.FXUtility;
@@ -72,7 +71,6 @@ import xyz.columnal.utility.gui.SmallDeleteButton;
 
 import java.io.File;
 import java.net.MalformedURLException;
-import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
 import java.util.IdentityHashMap;
 import java.util.Map;
@@ -119,13 +117,13 @@ public class MainWindow
     }
 
     // If src is null, make new
-    public static MainWindowActions show(final Stage stage, File destinationFile, @Nullable Pair<File, String> src, @Nullable CompletionStage<Optional<UpgradeInfo>> upgradeInfo) throws UserException, InternalException
+    public static MainWindowActions show(final Stage stage, File destinationFile, @Nullable File src, @Nullable CompletionStage<Optional<UpgradeInfo>> upgradeInfo) throws UserException, InternalException
     {
         MainWindow mainWindow = new MainWindow(stage, destinationFile, src, upgradeInfo);
         return mainWindow.getActions();
     }
 
-    private MainWindow(final Stage stage, File destinationFile, @Nullable Pair<File, String> src, @Nullable CompletionStage<Optional<UpgradeInfo>> upgradeInfo) throws UserException, InternalException
+    private MainWindow(final Stage stage, File destinationFile, @Nullable File src, @Nullable CompletionStage<Optional<UpgradeInfo>> upgradeInfo) throws UserException, InternalException
     {
         this.stage = stage;
         v = new View(destinationFile);
@@ -272,13 +270,18 @@ public class MainWindow
 
         if (src != null)
         {
-            @NonNull Pair<File, String> srcFinal = src;
-            Workers.onWorkerThread("Load", Priority.LOAD_FROM_DISK, () -> FXUtility.alertOnError_(TranslationUtility.getString("error.loading", srcFinal.getFirst().getName()), err -> {
+            @NonNull File srcFinal = src;
+            Workers.onWorkerThread("Load", Priority.LOAD_FROM_DISK, () -> FXUtility.alertOnError_(TranslationUtility.getString("error.loading", srcFinal.getName()), err -> {
                 Platform.runLater(() -> updateBanner(v, banner, false));
-                return TranslationUtility.getString("error.loading.file", srcFinal.getFirst().getAbsolutePath(), err);
+                return TranslationUtility.getString("error.loading.file", srcFinal.getAbsolutePath(), err);
             }, () -> {
-                v.getManager().setBanAllR(!View.checkHashMatch(srcFinal.getFirst(), Hashing.sha256().hashString(srcFinal.getSecond(), StandardCharsets.UTF_8)));
-                v.getManager().loadAll(srcFinal.getSecond(), v::loadColumnWidths);
+                // Hashed and loaded straight from the file, without reading it all into memory.
+                // The hash is of the same content that is loaded, even if the file is replaced meanwhile:
+                try (ProjectContentIndex index = ProjectContentIndex.open(srcFinal))
+                {
+                    v.getManager().setBanAllR(!View.checkHashMatch(srcFinal, index.getContentHash()));
+                    v.getManager().loadAll(index, v::loadColumnWidths);
+                }
                 v.getManager().setBanAllR(false);
                 Platform.runLater(() -> {
                     v.enableWriting();
@@ -20,129 +20,185 @@
 
 package xyz.columnal.gui;
 
+import com.google.common.collect.ImmutableList;
 import com.google.common.hash.HashCode;
-import com.google.common.hash.HashFunction;
 import com.google.common.hash.Hashing;
-import com.google.common.io.Files;
 import com.google.common.primitives.Ints;
 import xyz.columnal.log.Log;
 import org.apache.commons.io.FileUtils;
 import org.checkerframework.checker.nullness.qual.Nullable;
 import threadchecker.OnThread;
 import threadchecker.Tag;
-import xyz.columnal.utility.adt.Pair;
 import xyz.columnal.utility.Utility;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.time.Instant;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.HashMap;
-import java.util.Objects;
+import java.util.HashSet;
 import java.util.stream.Collectors;
 
+/**
+ * Keeps previous versions of saved files, so that saves can be undone.
+ * 
+ * Rather than copying the whole file each time, a file is split into blocks, and
+ * each block is stored once, named by the hash of its content.  A backup is then
+ * just the list of its blocks, so a save which changes one table only stores the
+ * blocks for that table.  Blocks are deleted once no backup refers to them.
+ * 
+ * A block ends after each @END line, so each table, unit, etc is in separate blocks.
+ * Large tables are further split after any line whose hash has its low bits zero.  As
+ * this depends only on the line's content, inserting or changing a row only changes the
+ * block around it; the boundaries of the blocks after it are unaffected.
+ * 
+ * Each UndoManager keeps its files in its own new sub-directory of the undo directory,
+ * so the reference counts held here account for every use of those block files, even
+ * with several windows or several copies of the application open.
+ */
 @OnThread(Tag.Simulation)
 public class UndoManager
 {
     // Max number of backups for each file
     private static final int MAX_DETAILS = 20;
-    private final HashFunction hashFunction = Hashing.goodFastHash(32);
+    // A block is split after a line with all these bits of its hash code zero, so about 1 in 1024 lines:
+    private static final int SPLIT_MASK = 1024 - 1;
+    // In case of many identical lines, we split after this many lines regardless:
+    private static final int MAX_BLOCK_LINES = 65536;
     // From https://stackoverflow.com/questions/893977/java-how-to-find-out-whether-a-file-name-is-valids
     private static final int[] ILLEGAL_CHARACTERS = { '/', '\n', '\r', '\t', '\0', '\f', '`', '?', '*', '\\', '<', '>', '|', '\"', ':' };
 
 
     class SaveDetails
     {
-        // Path of the backed up file, not the original which was backed up:
-        private final File backupFile;
+        // Small file listing the blocks, so that the backup can be recovered by hand if need be: 
+        private final File manifestFile;
         private final Instant instant;
-        private final @Nullable HashCode hash;
+        // Names of the block files, in order; the content is their concatenation:
+        private final ImmutableList<String> blocks;
 
-        public SaveDetails(File backupFile, Instant instant, @Nullable HashCode hash)
+        public SaveDetails(File manifestFile, Instant instant, ImmutableList<String> blocks)
         {
-            this.backupFile = backupFile;
+            this.manifestFile = manifestFile;
             this.instant = instant;
-            this.hash = hash;
+            this.blocks = blocks;
         }
 
         public String _debug_detailsAndContent()
         {
             try
             {
-                String content = FileUtils.readFileToString(backupFile, StandardCharsets.UTF_8);
-                String indented = Arrays.stream(content.split(System.getProperty("line.separator")))
+                String content = readContent(this);
+                String indented = content.lines()
                         .filter(s -> !s.isEmpty())
                         .map(s -> "   " + s.trim())
                         .collect(Collectors.joining("\n"));
-                return "@" + instant + "#" + hash + ":\n" + indented;
+                return "@" + instant + "#" + blocks.size() + ":\n" + indented;
             }
             catch (IOException e)
             {
                 e.printStackTrace();
-                return "@" + instant + "#" + hash + ": " + e.getLocalizedMessage();
+                return "@" + instant + "#" + blocks.size() + ": " + e.getLocalizedMessage();
             }
         }
     }
     
+    // Null means use Utility.getUndoDirectory():
+    @OnThread(Tag.Any)
+    private final @Nullable File undoDirectory;
+    // Our own sub-directory of the undo directory, made when first needed:
+    @OnThread(value = Tag.Any, requireSynchronized = true)
+    private @Nullable File sessionDirectory;
     // Lists are held in chronological order:
+    @OnThread(value = Tag.Any, requireSynchronized = true)
     private final HashMap<File, ArrayList<SaveDetails>> backups = new HashMap<>();
+    // The first backup of each file is kept after we exit, as a safety copy of how it
+    // was before we started.  These stay in here even once undone, but are removed
+    // if they are trimmed from the list of backups:
+    @OnThread(value = Tag.Any, requireSynchronized = true)
+    private final HashMap<File, SaveDetails> safetyCopies = new HashMap<>();
+    // The number of references to each block file, from backups and safety copies:
+    @OnThread(value = Tag.Any, requireSynchronized = true)
+    private final HashMap<String, Integer> blockReferences = new HashMap<>();
     
     @OnThread(Tag.Any)
     public UndoManager()
     {
+        this.undoDirectory = null;
+    }
+
+    /**
+     * Uses a sub-directory of the given directory rather than of the usual undo directory.
+     */
+    @OnThread(Tag.Any)
+    public UndoManager(File undoDirectory)
+    {
+        this.undoDirectory = undoDirectory;
     }
     
-    public void backupForUndo(File file, Instant saveTime)
+    public synchronized void backupForUndo(File file, Instant saveTime)
     {
-        @Nullable File undoPath = null;
-        @Nullable HashCode hashCode = null;
+        // Don't backup empty file:
+        if (!file.exists() || file.length() == 0L)
+            return;
+        
+        ArrayList<SaveDetails> details = backups.computeIfAbsent(file, f -> new ArrayList<>());
+        @Nullable SaveDetails newSave = null;
+        // Blocks we have referenced so far, in case we fail part way:
+        ArrayList<String> blocks = new ArrayList<>();
         try
         {
-            File f = new File(Utility.getUndoDirectory(),
-                    "undo-" + munge(file) + "-" + saveTime.toEpochMilli()
-                    );
-            
-            // Don't backup empty file:
-            if (!file.exists() || file.length() == 0L)
-                return;
-            
-            Files.copy(file, f);
-            // Only record once it's copied:
-            undoPath = f;
+            File dir = getSessionDirectory();
+            try (BlockReader reader = new BlockReader(file))
+            {
+                @Nullable String block;
+                while ((block = reader.readBlock()) != null)
+                {
+                    blocks.add(storeBlock(dir, block));
+                }
+            }
             
-            // Hash last as we can survive if it fails:
-            hashCode = hashContent(file);
+            File manifest = new File(dir, "undo-" + munge(file) + "-" + saveTime.toEpochMilli());
+            FileUtils.writeLines(manifest, "UTF-8", blocks);
+            // Only record once it's all stored:
+            newSave = new SaveDetails(manifest, saveTime, ImmutableList.copyOf(blocks));
         }
         catch (IOException e)
         {
             Log.log("Problem backing up", e);
+            release(blocks);
         }
         
-        if (undoPath != null)
+        if (newSave != null)
         {
-            ArrayList<SaveDetails> details = backups.merge(file, new ArrayList<>(), (old, blank) -> old);
-            SaveDetails newSave = new SaveDetails(undoPath, saveTime, hashCode);
-            if (!details.isEmpty() && Objects.equals(details.get(details.size() - 1).hash, hashCode))
-            {
-                // We always replace, as in rare case of hash collision, we will
-                // at least keep most recent version:
-                details.set(details.size() - 1, newSave);
-            }
-            else
+            if (!details.isEmpty() && details.get(details.size() - 1).blocks.equals(newSave.blocks))
             {
-                details.add(newSave);
+                // Same content as last time, so just replace:
+                remove(file, details.remove(details.size() - 1));
             }
-            
-            if (details.size() >= 2)
+            if (details.isEmpty() && !safetyCopies.containsKey(file))
             {
-                details.get(details.size() - 1).backupFile.deleteOnExit();
+                safetyCopies.put(file, newSave);
+                // The safety copy holds its own references:
+                for (String block : newSave.blocks)
+                {
+                    blockReferences.merge(block, 1, Integer::sum);
+                }
             }
+            details.add(newSave);
             
             while (details.size() > MAX_DETAILS)
             {
-                details.remove(0).backupFile.delete();
+                SaveDetails trimmed = details.remove(0);
+                remove(file, trimmed);
+                // As before, the safety copy doesn't outlast the undo history:
+                if (safetyCopies.get(file) == trimmed)
+                    removeSafetyCopy(file);
             }
 
             //Log.logStackTrace("Saving!");
@@ -156,9 +212,168 @@ public class UndoManager
         }
     }
 
-    private HashCode hashContent(File file) throws IOException
+    /**
+     * Reads blocks from a file, keeping all the line endings so that
+     * the concatenation of the blocks is exactly the original content.
+     */
+    private static class BlockReader implements AutoCloseable
     {
-        return Files.asByteSource(file).hash(hashFunction);
+        private final Reader reader;
+        private final char[] buffer = new char[64 * 1024];
+        private int bufferPos = 0;
+        private int bufferLength = 0;
+
+        public BlockReader(File file) throws IOException
+        {
+            this.reader = new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8);
+        }
+
+        /**
+         * Returns null if at the end of the file.
+         */
+        public @Nullable String readBlock() throws IOException
+        {
+            StringBuilder block = new StringBuilder();
+            int lineStart = 0;
+            int lines = 0;
+            while (true)
+            {
+                if (bufferPos == bufferLength)
+                {
+                    bufferLength = reader.read(buffer);
+                    bufferPos = 0;
+                    if (bufferLength <= 0)
+                    {
+                        bufferLength = 0;
+                        return block.length() == 0 ? null : block.toString();
+                    }
+                }
+                char c = buffer[bufferPos++];
+                block.append(c);
+                if (c == '\n')
+                {
+                    lines += 1;
+                    String line = block.substring(lineStart).trim();
+                    if (line.startsWith("@END") || (line.hashCode() & SPLIT_MASK) == 0 || lines >= MAX_BLOCK_LINES)
+                        return block.toString();
+                    lineStart = block.length();
+                }
+            }
+        }
+
+        @Override
+        @OnThread(Tag.Any)
+        public void close() throws IOException
+        {
+            reader.close();
+        }
+    }
+
+    /**
+     * Stores the block in our directory, if it is not already there, and
+     * returns the name of the block file.
+     */
+    @OnThread(Tag.Any)
+    private synchronized String storeBlock(File dir, String block) throws IOException
+    {
+        HashCode hash = Hashing.sha256().hashString(block, StandardCharsets.UTF_8);
+        String name = "block-" + hash;
+        if (!blockReferences.containsKey(name))
+        {
+            FileUtils.writeStringToFile(new File(dir, name), block, StandardCharsets.UTF_8);
+        }
+        blockReferences.merge(name, 1, Integer::sum);
+        return name;
+    }
+
+    // Removes the backup's references, deleting its files unless still used:
+    @OnThread(Tag.Any)
+    private synchronized void remove(File file, SaveDetails details)
+    {
+        if (safetyCopies.get(file) != details)
+            details.manifestFile.delete();
+        release(details.blocks);
+    }
+
+    @OnThread(Tag.Any)
+    private synchronized void removeSafetyCopy(File file)
+    {
+        SaveDetails safetyCopy = safetyCopies.remove(file);
+        if (safetyCopy != null)
+        {
+            safetyCopy.manifestFile.delete();
+            release(safetyCopy.blocks);
+        }
+    }
+
+    @OnThread(Tag.Any)
+    private synchronized void release(Iterable<String> blocks)
+    {
+        for (String block : blocks)
+        {
+            Integer references = blockReferences.merge(block, -1, Integer::sum);
+            if (references == null || references <= 0)
+            {
+                blockReferences.remove(block);
+                if (sessionDirectory != null)
+                    new File(sessionDirectory, block).delete();
+            }
+        }
+    }
+
+    @OnThread(Tag.Any)
+    private synchronized File getSessionDirectory() throws IOException
+    {
+        if (sessionDirectory == null)
+        {
+            File parent = undoDirectory != null ? undoDirectory : Utility.getUndoDirectory();
+            File dir = Files.createTempDirectory(parent.toPath(), "session-").toFile();
+            sessionDirectory = dir;
+            Runtime.getRuntime().addShutdownHook(new Thread(this::deleteAllButSafetyCopies));
+            return dir;
+        }
+        return sessionDirectory;
+    }
+
+    /**
+     * Deletes all our files apart from those needed for the safety copies.  Called when
+     * we exit; the files for the safety copies are left behind for manual recovery.
+     */
+    @OnThread(Tag.Any)
+    public synchronized void deleteAllButSafetyCopies()
+    {
+        File dir = sessionDirectory;
+        if (dir == null)
+            return;
+        HashSet<String> keep = new HashSet<>();
+        for (SaveDetails safetyCopy : safetyCopies.values())
+        {
+            keep.add(safetyCopy.manifestFile.getName());
+            keep.addAll(safetyCopy.blocks);
+        }
+        File[] files = dir.listFiles();
+        if (files != null)
+        {
+            for (File f : files)
+            {
+                if (!keep.contains(f.getName()))
+                    f.delete();
+            }
+        }
+        if (keep.isEmpty())
+            dir.delete();
+    }
+
+    @OnThread(Tag.Any)
+    private synchronized String readContent(SaveDetails details) throws IOException
+    {
+        File dir = getSessionDirectory();
+        StringBuilder content = new StringBuilder();
+        for (String block : details.blocks)
+        {
+            content.append(FileUtils.readFileToString(new File(dir, block), StandardCharsets.UTF_8));
+        }
+        return content.toString();
     }
 
     private static String munge(File file)
@@ -171,42 +386,30 @@ public class UndoManager
     /**
      * Undoes last change and returns the content as a String.
      */
-    public @Nullable String undo(File file)
+    public synchronized @Nullable String undo(File file)
     {
         ArrayList<SaveDetails> details = backups.get(file);
-        if (details != null)
+        if (details != null && !details.isEmpty())
         {
             /* // For debugging:
-            try
-            {
-                System.out.println("State at undo, cur #" + hashContent(file) + ":\n" + FileUtils.readFileToString(file, StandardCharsets.UTF_8) + "\n Undo possibilities:\n");
-                for (SaveDetails detail : details)
-                {
-                    System.out.println(detail._debug_detailsAndContent());
-                }
-            }
-            catch (IOException e)
+            for (SaveDetails detail : details)
             {
-                e.printStackTrace();
+                System.out.println(detail._debug_detailsAndContent());
             }
             */
             
-            Pair<Integer, SaveDetails> latest = details.isEmpty() ? null : new Pair<>(details.size() - 1, details.get(details.size() - 1));
-            
-            if (latest != null)
+            SaveDetails latest = details.get(details.size() - 1);
+            try
             {
-                try
-                {
-                    String content = FileUtils.readFileToString(latest.getSecond().backupFile, StandardCharsets.UTF_8);
-                    // Important cast, to remove by index, not Integer object:
-                    details.remove((int)latest.getFirst());
-                    return content;
-                }
-                catch (IOException e)
-                {
-                    Log.log(e);
-                    return null;
-                }
+                String content = readContent(latest);
+                details.remove(details.size() - 1);
+                remove(file, latest);
+                return content;
+            }
+            catch (IOException e)
+            {
+                Log.log(e);
+                return null;
             }
         }
         return null;
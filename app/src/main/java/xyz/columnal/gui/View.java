@@ -25,6 +25,8 @@ import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.hash.HashCode;
 import com.google.common.hash.Hashing;
+import com.google.common.hash.HashingOutputStream;
+import com.google.common.io.CountingOutputStream;
 import javafx.application.Platform;
 import javafx.beans.binding.ObjectExpression;
 import javafx.beans.property.ObjectProperty;
@@ -60,6 +62,7 @@ import xyz.columnal.data.ImmediateDataSource;
 import xyz.columnal.data.RecordSet;
 import xyz.columnal.data.Settings;
 import xyz.columnal.data.Table;
+import xyz.columnal.data.Table.SaveFilePosition;
 import xyz.columnal.data.TableManager;
 import xyz.columnal.data.Transformation;
 import xyz.columnal.gui.dialog.NewTableDialog;
@@ -141,9 +144,16 @@ import xyz.columnal.utility.gui.DimmableParent;
 import xyz.columnal.utility.gui.FXUtility;
 
 import javax.swing.filechooser.FileSystemView;
+import java.io.BufferedWriter;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.time.Instant;
 import java.util.ArrayList;
 import java.util.Collection;
@@ -214,20 +224,64 @@ public class View extends StackPane implements DimmableParent, ExpressionEditor.
         {
             FullSaver fetcher = new FullSaver(displayDetailLines);
             tableManager.save(dest, fetcher);
-            String completeFile = fetcher.getCompleteFile();
+            @Nullable HashCode contentHash = null;
             Utility.saveLock.lock();
             Instant now = Instant.now();
             try
             {
-                // This will do backup for undo, but also for
-                // files being replaced, in extreme cases:
-                if (dest.exists() && keepPrevForUndo)
+                // We write to a temporary file in the same directory, then move it over the
+                // original, so that a failed or interrupted save never leaves a half-written file:
+                // (Not File.createTempFile, as that would give the saved file restricted permissions.)
+                File temp = new File(dest.getAbsoluteFile().getParentFile(), dest.getName() + ".saving");
+                try
                 {
-                    undoManager.backupForUndo(dest, now);
+                    HashingOutputStream hashingStream = new HashingOutputStream(Hashing.sha256(), new FileOutputStream(temp));
+                    CountingOutputStream countingStream = new CountingOutputStream(hashingStream);
+                    ArrayList<SimulationRunnable> afterSave = new ArrayList<>();
+                    try (Writer writer = new BufferedWriter(new OutputStreamWriter(countingStream, StandardCharsets.UTF_8)))
+                    {
+                        fetcher.writeCompleteFile(writer, new SaveFilePosition()
+                        {
+                            @Override
+                            public File getDestination()
+                            {
+                                return dest;
+                            }
+
+                            @Override
+                            public long getBytePosition() throws IOException
+                            {
+                                writer.flush();
+                                return countingStream.getCount();
+                            }
+
+                            @Override
+                            public void onSaved(SimulationRunnable action)
+                            {
+                                afterSave.add(action);
+                            }
+                        });
+                    }
+                    // This will do backup for undo, but also for
+                    // files being replaced, in extreme cases:
+                    if (dest.exists() && keepPrevForUndo)
+                    {
+                        undoManager.backupForUndo(dest, now);
+                    }
+                    moveOver(temp, dest);
+                    contentHash = hashingStream.hash();
+                    for (SimulationRunnable action : afterSave)
+                    {
+                        action.run();
+                    }
+                }
+                finally
+                {
+                    // Only exists still if something went wrong:
+                    temp.delete();
                 }
-                FileUtils.writeStringToFile(dest, completeFile, "UTF-8");
             }
-            catch (IOException ex)
+            catch (IOException | InternalException ex)
             {
                 FXUtility.logAndShowError("save.error", ex);
             }
@@ -236,12 +290,26 @@ public class View extends StackPane implements DimmableParent, ExpressionEditor.
                 Utility.saveLock.unlock();
             }
             boolean hasBannedR = tableManager.getAllTables().stream().anyMatch(t -> t instanceof RTransformation && tableManager.isBannedRExpression(((RTransformation)t).getRExpression()));
-            if (!hasBannedR)
-                recordFileHash(dest, Hashing.sha256().hashString(completeFile, StandardCharsets.UTF_8));
+            if (!hasBannedR && contentHash != null)
+                recordFileHash(dest, contentHash);
             Platform.runLater(() -> lastSaveTime.setValue(now));
         });
     }
 
+    // Moves the source over the destination, atomically if the file system allows it:
+    @OnThread(Tag.Simulation)
+    private static void moveOver(File src, File dest) throws IOException
+    {
+        try
+        {
+            Files.move(src.toPath(), dest.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch (AtomicMoveNotSupportedException e)
+        {
+            Files.move(src.toPath(), dest.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
     @OnThread(Tag.Any)
     private synchronized @NonNull List<Table> getAllTables()
     {
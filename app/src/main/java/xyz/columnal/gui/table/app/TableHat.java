@@ -648,7 +648,7 @@ class TableHat extends FloatingItem<TableHatDisplay>
         new EditRTransformationDialog(parent, rTransformation, selectWholeExpression).showAndWait().ifPresent(details -> {
             Workers.onWorkerThread("Editing R transformation", Priority.SAVE, () -> FXUtility.alertOnError_(TranslationUtility.getString("error.editing.r.transformation"), () -> {
                 parent.getManager().unban(details.rExpression);
-                parent.getManager().edit(rTransformation, id -> new RTransformation(parent.getManager(), rTransformation.getDetailsForCopy(id), details.includedTables, details.packages, details.rExpression), renameOnEdit.apply(RTransformation.suggestedName(details.rExpression)));
+                parent.getManager().edit(rTransformation, id -> new RTransformation(parent.getManager(), rTransformation.getDetailsForCopy(id), details.includedTables, details.packages, details.rExpression, details.useResultCache), renameOnEdit.apply(RTransformation.suggestedName(details.rExpression)));
             }));
         });
     }
@@ -105,6 +105,13 @@ public class BooleanColumnStorage extends SparseErrorColumnStorage<Boolean> impl
         }
     }
 
+    // Like add, but avoids boxing the value
+    public void addBoolean(boolean b)
+    {
+        data.set(length, b);
+        length += 1;
+    }
+
     @OnThread(Tag.Any)
     public DataTypeValue getType()
     {
@@ -23,8 +23,10 @@ package xyz.columnal.data;
 import xyz.columnal.id.ColumnId;
 import xyz.columnal.log.Log;
 import org.checkerframework.checker.nullness.qual.NonNull;
+import org.checkerframework.checker.nullness.qual.Nullable;
 import xyz.columnal.data.ColumnStorage.BeforeGet;
 import xyz.columnal.data.datatype.DataTypeValue;
+import xyz.columnal.data.datatype.ProgressListener;
 import xyz.columnal.error.InternalException;
 import xyz.columnal.error.UserException;
 import threadchecker.OnThread;
@@ -34,26 +36,88 @@ import xyz.columnal.utility.function.ExFunction;
 import xyz.columnal.utility.function.FunctionInt;
 import xyz.columnal.utility.Utility;
 
-import java.util.stream.Stream;
+import java.util.ArrayList;
 
 /**
  * Created by neil on 14/01/2017.
  */
 public class CachedCalculatedColumn<T, S extends ColumnStorage<T>> extends CalculatedColumn<S>
 {
+    // The default number of rows calculated by each call to fillNextCacheChunk:
+    public static final int DEFAULT_BLOCK_SIZE = 256;
+
     private final S cache;
+    // The BeforeGet given to our cache, which we pass on to any column which takes over the cache:
+    private final CacheOwner<S> cacheOwner;
     private final ExFunction<Integer, @NonNull T> calculateItem;
+    private final @Nullable CalculateBlock<S> calculateBlock;
+    private final int blockSize;
     @OnThread(Tag.Any)
     private final DataTypeValue cacheType;
 
+    /**
+     * Calculates a block of rows at once, adding them to the end of the cache.
+     */
+    public static interface CalculateBlock<S>
+    {
+        public void addBlock(S cache, int startRowIncl, int endRowExcl) throws InternalException;
+    }
+
     public CachedCalculatedColumn(RecordSet recordSet, ColumnId name, FunctionInt<BeforeGet<S>, S> cache, ExFunction<Integer, @NonNull T> calculateItem, FunctionInt<DataTypeValue, DataTypeValue> addManualEdit) throws InternalException
+    {
+        this(recordSet, name, cache, calculateItem, null, addManualEdit);
+    }
+
+    public CachedCalculatedColumn(RecordSet recordSet, ColumnId name, FunctionInt<BeforeGet<S>, S> cache, ExFunction<Integer, @NonNull T> calculateItem, @Nullable CalculateBlock<S> calculateBlock, FunctionInt<DataTypeValue, DataTypeValue> addManualEdit) throws InternalException
+    {
+        this(recordSet, name, cache, calculateItem, calculateBlock, DEFAULT_BLOCK_SIZE, addManualEdit);
+    }
+
+    /**
+     * The cache is filled blockSize rows at a time.  Larger blocks have less overhead
+     * per row, but calculate further ahead of the rows which have been asked for.
+     */
+    public CachedCalculatedColumn(RecordSet recordSet, ColumnId name, FunctionInt<BeforeGet<S>, S> cache, ExFunction<Integer, @NonNull T> calculateItem, @Nullable CalculateBlock<S> calculateBlock, int blockSize, FunctionInt<DataTypeValue, DataTypeValue> addManualEdit) throws InternalException
     {
         super(recordSet, name);
         this.calculateItem = calculateItem;
-        this.cache = cache.apply(Utility.later(this));
+        this.calculateBlock = calculateBlock;
+        this.blockSize = Math.max(1, blockSize);
+        this.cacheOwner = new CacheOwner<>(Utility.later(this));
+        this.cache = cache.apply(cacheOwner);
         this.cacheType = addManualEdit.apply(this.cache.getType());
     }
 
+    /**
+     * Makes a column which takes over the values already calculated by the given
+     * column, and calculates the rest using the given functions.  Afterwards the
+     * values no longer refer to the given column, so it (and its record set) can
+     * be discarded.  The given column should not be used again.
+     */
+    public CachedCalculatedColumn(RecordSet recordSet, ColumnId name, CachedCalculatedColumn<T, S> takeOverFrom, ExFunction<Integer, @NonNull T> calculateItem, @Nullable CalculateBlock<S> calculateBlock, FunctionInt<DataTypeValue, DataTypeValue> addManualEdit) throws InternalException
+    {
+        super(recordSet, name);
+        this.calculateItem = calculateItem;
+        this.calculateBlock = calculateBlock;
+        this.blockSize = takeOverFrom.blockSize;
+        this.cacheOwner = takeOverFrom.cacheOwner;
+        this.cache = takeOverFrom.cache;
+        this.cacheOwner.column = Utility.later(this);
+        this.cacheType = addManualEdit.apply(this.cache.getType());
+    }
+
+    /**
+     * Gets this column with the given storage class, for passing to the constructor
+     * above.  Throws an InternalException if our cache is not of that class.
+     */
+    @SuppressWarnings("unchecked")
+    public <T2, S2 extends ColumnStorage<T2>> CachedCalculatedColumn<T2, S2> withStorageClass(Class<S2> storageClass) throws InternalException
+    {
+        if (!storageClass.isInstance(cache))
+            throw new InternalException("Cannot take over cache of class " + cache.getClass() + " as " + storageClass + " for column " + getName());
+        return (CachedCalculatedColumn<T2, S2>)(CachedCalculatedColumn<?, ?>)this;
+    }
+
     @Override
     @OnThread(Tag.Any)
     public DataTypeValue getType() throws InternalException, UserException
@@ -62,21 +126,35 @@ public class CachedCalculatedColumn<T, S extends ColumnStorage<T>> extends Calcu
     }
 
     @Override
-    protected void fillNextCacheChunk() throws InternalException
+    protected void fillNextCacheChunk() throws InternalException, UserException
     {
-        Either<String, @NonNull T> value;
-        try
+        int start = cache.filled();
+        // Always calculate at least one row, so that the cache keeps growing:
+        int end = Math.max(start + 1, Math.min(start + blockSize, getLength()));
+        if (calculateBlock != null)
         {
-            value = Either.right(calculateItem.apply(cache.filled()));
+            calculateBlock.addBlock(cache, start, end);
+            return;
         }
-        catch (InternalException | UserException e)
+
+        ArrayList<Either<String, @NonNull T>> values = new ArrayList<>(end - start);
+        for (int row = start; row < end; row++)
         {
-            if (e instanceof InternalException)
-                Log.log(e);
-            value = Either.left(e.getLocalizedMessage());
+            Either<String, @NonNull T> value;
+            try
+            {
+                value = Either.right(calculateItem.apply(row));
+            }
+            catch (InternalException | UserException e)
+            {
+                if (e instanceof InternalException)
+                    Log.log(e);
+                value = Either.left(e.getLocalizedMessage());
+            }
+            values.add(value);
         }
         
-        cache.addAll(Stream.<Either<String, @NonNull T>>of(value));
+        cache.addAll(values.stream());
     }
 
     @Override
@@ -90,4 +168,24 @@ public class CachedCalculatedColumn<T, S extends ColumnStorage<T>> extends Calcu
     {
         return AlteredState.OVERWRITTEN;
     }
+
+    /**
+     * Calculates values for whichever column currently owns the cache, so that
+     * the cache doesn't keep a column alive once another column has taken it over.
+     */
+    private static class CacheOwner<S extends ColumnStorage<?>> implements BeforeGet<S>
+    {
+        private CalculatedColumn<S> column;
+
+        private CacheOwner(CalculatedColumn<S> column)
+        {
+            this.column = column;
+        }
+
+        @Override
+        public void beforeGet(S storage, int index, @Nullable ProgressListener progressListener) throws InternalException, UserException
+        {
+            column.beforeGet(storage, index, progressListener);
+        }
+    }
 }
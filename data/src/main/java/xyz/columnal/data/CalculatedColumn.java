@@ -120,7 +120,8 @@ public abstract class CalculatedColumn<S extends ColumnStorage<?>> extends Colum
             return; // Will later throw out of bounds problem
 
         int filled = getCacheFilled();
-        // Fetch values:
+        int startFilled = filled;
+        // Fetch values, one chunk at a time:
         while (index >= filled)
         {
             int prevFilled = filled;
@@ -130,6 +131,8 @@ public abstract class CalculatedColumn<S extends ColumnStorage<?>> extends Colum
             {
                 throw new InternalException("Looking for index " + index + " but cache not growing beyond size " + filled + " length should be: " + getLength());
             }
+            if (progressListener != null)
+                progressListener.progressUpdate(Math.min(1.0, (double)(filled - startFilled) / (double)(index + 1 - startFilled)));
         }
     }
 
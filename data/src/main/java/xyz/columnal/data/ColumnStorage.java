@@ -55,6 +55,10 @@ public interface ColumnStorage<T>
 
     public ImmutableList<Either<String, T>> getAllCollapsed(int fromIncl, int toExcl) throws InternalException;
 
+    // Changes each time a value is set, or rows are inserted or removed.
+    // Adding values to the end does not change it.
+    public int getModificationCount();
+
     // Returns revert operation
     public SimulationRunnable insertRows(int index, List<Either<String, T>> items) throws InternalException;
     // Returns revert operation
@@ -24,9 +24,11 @@ import annotation.identifier.qual.ExpressionIdentifier;
 import annotation.qual.Value;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import org.checkerframework.checker.nullness.qual.NonNull;
 import org.checkerframework.checker.nullness.qual.Nullable;
 import threadchecker.OnThread;
 import threadchecker.Tag;
+import xyz.columnal.data.CachedCalculatedColumn.CalculateBlock;
 import xyz.columnal.data.ColumnStorage.BeforeGet;
 import xyz.columnal.data.datatype.DataType;
 import xyz.columnal.data.datatype.DataType.DataTypeVisitor;
@@ -55,80 +57,125 @@ import java.util.List;
 
 public class ColumnUtility
 {
+    /**
+     * Calculates a block of rows of a calculated column in one go, adding them directly
+     * to the end of the column's storage.  Only used for number and boolean columns.
+     */
+    public static interface BlockCalculator
+    {
+        @OnThread(Tag.Simulation)
+        public void addNumbers(NumericColumnStorage storage, int startRowIncl, int endRowExcl) throws InternalException;
+
+        @OnThread(Tag.Simulation)
+        public void addBooleans(BooleanColumnStorage storage, int startRowIncl, int endRowExcl) throws InternalException;
+    }
+
+    // Static, so that the calculation functions of columns made by makeCalculatedColumn
+    // don't refer to its visitor, and thus to any column being taken over.
+    @SuppressWarnings("valuetype")
+    private static <T> @Value T castTo(Class<T> cls, @Value Object value, ColumnId name) throws InternalException
+    {
+        if (!cls.isAssignableFrom(value.getClass()))
+            throw new InternalException("Type inconsistency: should be " + cls + " but is " + value.getClass() + " for column: " + name);
+        return cls.cast(value);
+    }
+
     @OnThread(Tag.Simulation)
     public static Column makeCalculatedColumn(DataType dataType, RecordSet rs, ColumnId name, ExFunction<Integer, @Value Object> getItem, FunctionInt<DataTypeValue, DataTypeValue> addManualEdit) throws InternalException
+    {
+        return makeCalculatedColumn(dataType, rs, name, getItem, null, addManualEdit);
+    }
+
+    /**
+     * Like makeCalculatedColumn, but if blockCalculator is non-null, it is used instead
+     * of getItem to calculate blocks of rows for number and boolean columns.
+     */
+    @OnThread(Tag.Simulation)
+    public static Column makeCalculatedColumn(DataType dataType, RecordSet rs, ColumnId name, ExFunction<Integer, @Value Object> getItem, @Nullable BlockCalculator blockCalculator, FunctionInt<DataTypeValue, DataTypeValue> addManualEdit) throws InternalException
+    {
+        return makeCalculatedColumn(dataType, rs, name, getItem, blockCalculator, addManualEdit, null);
+    }
+
+    /**
+     * Like makeCalculatedColumn, but if takeOverFrom is non-null, the new column takes over
+     * the values it has already calculated (see CachedCalculatedColumn).  takeOverFrom must
+     * have been calculating the same values, with the same type.
+     */
+    @OnThread(Tag.Simulation)
+    public static Column makeCalculatedColumn(DataType dataType, RecordSet rs, ColumnId name, ExFunction<Integer, @Value Object> getItem, @Nullable BlockCalculator blockCalculator, FunctionInt<DataTypeValue, DataTypeValue> addManualEdit, @Nullable CachedCalculatedColumn<?, ?> takeOverFrom) throws InternalException
     {
         return dataType.apply(new DataTypeVisitorEx<Column, InternalException>()
         {
-            @SuppressWarnings("valuetype")
-            private <T> @Value T castTo(Class<T> cls, @Value Object value) throws InternalException
+            @OnThread(Tag.Simulation)
+            private <T, S extends ColumnStorage<T>> Column make(Class<S> storageClass, FunctionInt<BeforeGet<S>, S> makeCache, ExFunction<Integer, @NonNull T> calculateItem, @Nullable CalculateBlock<S> calculateBlock) throws InternalException
             {
-                if (!cls.isAssignableFrom(value.getClass()))
-                    throw new InternalException("Type inconsistency: should be " + cls + " but is " + value.getClass() + " for column: " + name);
-                return cls.cast(value);
+                if (takeOverFrom != null)
+                    return new CachedCalculatedColumn<T, S>(rs, name, takeOverFrom.<T, S>withStorageClass(storageClass), calculateItem, calculateBlock, addManualEdit);
+                else
+                    return new CachedCalculatedColumn<T, S>(rs, name, makeCache, calculateItem, calculateBlock, addManualEdit);
             }
 
             @Override
             @OnThread(Tag.Simulation)
             public Column number(NumberInfo displayInfo) throws InternalException
             {
-                return new CachedCalculatedColumn<Number, NumericColumnStorage>(rs, name, (BeforeGet<NumericColumnStorage> g) -> new NumericColumnStorage(displayInfo, g, false), i -> {
-                    return castTo(Number.class, getItem.apply(i));
-                }, addManualEdit);
+                return this.<Number, NumericColumnStorage>make(NumericColumnStorage.class, (BeforeGet<NumericColumnStorage> g) -> new NumericColumnStorage(displayInfo, g, false), i -> {
+                    return castTo(Number.class, getItem.apply(i), name);
+                }, blockCalculator == null ? null : blockCalculator::addNumbers);
             }
 
             @Override
             @OnThread(Tag.Simulation)
             public Column text() throws InternalException
             {
-                return new CachedCalculatedColumn<String, StringColumnStorage>(rs, name, (BeforeGet<StringColumnStorage> g) -> new StringColumnStorage(g, false), i -> {
-                    return castTo(String.class, getItem.apply(i));
-                }, addManualEdit);
+                return this.<String, StringColumnStorage>make(StringColumnStorage.class, (BeforeGet<StringColumnStorage> g) -> new StringColumnStorage(g, false), i -> {
+                    return castTo(String.class, getItem.apply(i), name);
+                }, null);
             }
 
             @Override
             @OnThread(Tag.Simulation)
             public Column date(DateTimeInfo dateTimeInfo) throws InternalException
             {
-                return new CachedCalculatedColumn<TemporalAccessor, TemporalColumnStorage>(rs, name, (BeforeGet<TemporalColumnStorage> g) -> new TemporalColumnStorage(dateTimeInfo, g, false), i -> {
-                    return castTo(TemporalAccessor.class, getItem.apply(i));
-                }, addManualEdit);
+                return this.<TemporalAccessor, TemporalColumnStorage>make(TemporalColumnStorage.class, (BeforeGet<TemporalColumnStorage> g) -> new TemporalColumnStorage(dateTimeInfo, g, false), i -> {
+                    return castTo(TemporalAccessor.class, getItem.apply(i), name);
+                }, null);
             }
 
             @Override
             @OnThread(Tag.Simulation)
             public Column bool() throws InternalException
             {
-                return new CachedCalculatedColumn<Boolean, BooleanColumnStorage>(rs, name, (BeforeGet<BooleanColumnStorage> g) -> new BooleanColumnStorage(g, false), i -> {
-                    return castTo(Boolean.class, getItem.apply(i));
-                }, addManualEdit);
+                return this.<Boolean, BooleanColumnStorage>make(BooleanColumnStorage.class, (BeforeGet<BooleanColumnStorage> g) -> new BooleanColumnStorage(g, false), i -> {
+                    return castTo(Boolean.class, getItem.apply(i), name);
+                }, blockCalculator == null ? null : blockCalculator::addBooleans);
             }
 
             @Override
             @OnThread(Tag.Simulation)
             public Column tagged(TypeId typeName, ImmutableList<Either<Unit, DataType>> typeVars, ImmutableList<TagType<DataType>> tags) throws InternalException
             {
-                return new CachedCalculatedColumn<@Value TaggedValue, TaggedColumnStorage>(rs, name, (BeforeGet<TaggedColumnStorage> g) -> new TaggedColumnStorage(typeName, typeVars, tags, g, false), i -> {
-                    return castTo(TaggedValue.class, getItem.apply(i));
-                }, addManualEdit);
+                return this.<@Value TaggedValue, TaggedColumnStorage>make(TaggedColumnStorage.class, (BeforeGet<TaggedColumnStorage> g) -> new TaggedColumnStorage(typeName, typeVars, tags, g, false), i -> {
+                    return castTo(TaggedValue.class, getItem.apply(i), name);
+                }, null);
             }
 
             @Override
             @OnThread(Tag.Simulation)
             public Column record(ImmutableMap<@ExpressionIdentifier String, DataType> fields) throws InternalException
             {
-                return new CachedCalculatedColumn<@Value Record, RecordColumnStorage>(rs, name, (BeforeGet<RecordColumnStorage> g) -> new RecordColumnStorage(fields, g, false), i -> {
-                    return castTo(Record.class, getItem.apply(i));
-                }, addManualEdit);
+                return this.<@Value Record, RecordColumnStorage>make(RecordColumnStorage.class, (BeforeGet<RecordColumnStorage> g) -> new RecordColumnStorage(fields, g, false), i -> {
+                    return castTo(Record.class, getItem.apply(i), name);
+                }, null);
             }
 
             @Override
             @OnThread(Tag.Simulation)
             public Column array(DataType inner) throws InternalException
             {
-                return new CachedCalculatedColumn<ListEx, ArrayColumnStorage>(rs, name, (BeforeGet<ArrayColumnStorage> g) -> new ArrayColumnStorage(inner, g, false), i -> {
-                    return castTo(ListEx.class, getItem.apply(i));
-                }, addManualEdit);
+                return this.<ListEx, ArrayColumnStorage>make(ArrayColumnStorage.class, (BeforeGet<ArrayColumnStorage> g) -> new ArrayColumnStorage(inner, g, false), i -> {
+                    return castTo(ListEx.class, getItem.apply(i), name);
+                }, null);
             }
         });
     }
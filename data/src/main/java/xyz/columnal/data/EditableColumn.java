@@ -56,6 +56,10 @@ public abstract class EditableColumn extends Column
     @OnThread(Tag.Any)
     public abstract @NonNull @Value Object getDefaultValue();
 
+    // See ColumnStorage.getModificationCount
+    @OnThread(Tag.Simulation)
+    public abstract int getModificationCount();
+
     @Override
     public @OnThread(Tag.Any) AlteredState getAlteredState()
     {
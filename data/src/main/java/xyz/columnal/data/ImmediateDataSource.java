@@ -21,6 +21,11 @@
 package xyz.columnal.data;
 
 import annotation.qual.Value;
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.CharStreams;
+import xyz.columnal.data.Table.SaveFilePosition;
+import xyz.columnal.id.SaveTag;
 import xyz.columnal.id.ColumnId;
 import xyz.columnal.id.TableAndColumnRenames;
 import xyz.columnal.id.TableId;
@@ -28,6 +33,8 @@ import xyz.columnal.log.ErrorHandler;
 import org.checkerframework.checker.nullness.qual.Nullable;
 import org.checkerframework.checker.i18n.qual.Localized;
 import xyz.columnal.data.TableOperations.DeleteColumn;
+import xyz.columnal.error.InternalException;
+import xyz.columnal.error.UserException;
 import xyz.columnal.grammar.FormatLexer;
 import xyz.columnal.grammar.MainLexer;
 import xyz.columnal.loadsave.OutputBuilder;
@@ -36,13 +43,27 @@ import threadchecker.Tag;
 import xyz.columnal.utility.TranslationUtility;
 
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.OptionalInt;
 
 /**
  * Created by neil on 09/11/2016.
  */
 public class ImmediateDataSource extends DataSource
 {
+    private static final int ROWS_PER_WRITE = 1000;
     private final EditableRecordSet data;
+    // Where our values were in the last project file we saved.  If nothing has
+    // changed since, the next save copies them from that file instead of writing
+    // every value out again.
+    @OnThread(Tag.Simulation)
+    private @Nullable SavedValues lastSavedValues;
     
     public ImmediateDataSource(TableManager mgr, InitialLoadDetails initialLoadDetails, EditableRecordSet data)
     {
@@ -89,26 +110,175 @@ public class ImmediateDataSource extends DataSource
         });
         b.end().t(MainLexer.FORMAT).nl();
         b.t(MainLexer.VALUES).begin().nl();
-        ErrorHandler.getErrorHandler().alertOnError_(errorTitle, () -> {
-            for (int i = 0; data.indexValid(i); i++)
+        OutputBuilder after = new OutputBuilder();
+        after.pushPrefix(saveTag);
+        after.end().t(MainLexer.VALUES).nl();
+        savePosition(after);
+        after.pop();
+        after.end().raw(saveTag.getTag()).t(MainLexer.DATA, MainLexer.VOCABULARY).nl();
+        @Nullable SavedValues current = getCurrentValues();
+        @Nullable SavedValues last = lastSavedValues;
+        @Nullable SavedValues unchanged = last != null && last.sameValuesAs(current) ? last : null;
+        // The values can be large, so they are written straight to the output (if the saver
+        // supports it) rather than being gathered into one String:
+        then.saveTable(b.toString(), (out, position) -> writeValues(out, position, current, unchanged, errorTitle), after.toString());
+    }
+
+    // Gets the details of our current values, without a file position.  Null if
+    // we can't tell when the values change, in which case they are never copied.
+    @OnThread(Tag.Simulation)
+    private @Nullable SavedValues getCurrentValues()
+    {
+        try
+        {
+            ImmutableList<Column> columns = ImmutableList.copyOf(data.getColumns());
+            int[] modificationCounts = new int[columns.size()];
+            for (int i = 0; i < columns.size(); i++)
+            {
+                OptionalInt count = columns.get(i).getType().getModificationCount();
+                if (!count.isPresent())
+                    return null;
+                modificationCounts[i] = count.getAsInt();
+            }
+            return new SavedValues(saveTag, columns, modificationCounts, data.getLength(), null, 0, 0, 0, 0);
+        }
+        catch (InternalException | UserException e)
+        {
+            // Just write the values out as usual, which will report the problem:
+            return null;
+        }
+    }
+
+    // Writes the values, copying them from the last saved file if they are unchanged,
+    // and notes where they were written if the output is a project file.
+    @OnThread(Tag.Simulation)
+    private void writeValues(Writer out, @Nullable SaveFilePosition position, @Nullable SavedValues current, @Nullable SavedValues unchanged, @Localized String errorTitle) throws IOException
+    {
+        long start = position == null ? 0 : position.getBytePosition();
+        boolean written;
+        try
+        {
+            written = (unchanged != null && unchanged.copyTo(out)) || writeValueLines(out, errorTitle);
+        }
+        catch (IOException e)
+        {
+            // Don't try copying from that file again:
+            lastSavedValues = null;
+            throw e;
+        }
+        if (position != null && current != null && written)
+        {
+            SavedValues saved = current;
+            long end = position.getBytePosition();
+            File destination = position.getDestination();
+            position.onSaved(() -> {
+                lastSavedValues = saved.savedIn(destination, start, end);
+            });
+        }
+    }
+
+    // Writes the VALUES lines, including the prefix, each followed by a newline.
+    // They are made a block of rows at a time, to avoid holding all their text at once.
+    // Returns false if there was an error (which has been shown to the user).
+    @OnThread(Tag.Simulation)
+    private boolean writeValueLines(Writer out, @Localized String errorTitle) throws IOException
+    {
+        try
+        {
+            List<Column> columns = data.getColumns();
+            int length = data.getLength();
+            for (int start = 0; start < length; start += ROWS_PER_WRITE)
             {
-                b.indent();
-                boolean first = true;
-                for (Column c : data.getColumns())
+                OutputBuilder b = new OutputBuilder();
+                b.pushPrefix(saveTag);
+                for (int i = start; i < Math.min(length, start + ROWS_PER_WRITE); i++)
                 {
-                    if (!first)
-                        b.raw(",");
-                    b.data(c.getType(), i);
-                    first = false;
+                    b.indent();
+                    boolean first = true;
+                    for (Column c : columns)
+                    {
+                        if (!first)
+                            b.raw(",");
+                        b.data(c.getType(), i);
+                        first = false;
+                    }
+                    b.nl();
                 }
-                b.nl();
+                out.write(b.toString());
             }
-        });
-        b.end().t(MainLexer.VALUES).nl();
-        savePosition(b);
-        b.pop();
-        b.end().raw(saveTag.getTag()).t(MainLexer.DATA, MainLexer.VOCABULARY).nl();
-        then.saveTable(b.toString());
+            return true;
+        }
+        catch (InternalException | UserException e)
+        {
+            ErrorHandler.getErrorHandler().showError(errorTitle, e);
+            return false;
+        }
+    }
+
+    /**
+     * The columns (and their modification counts) that a table had when it was saved,
+     * and where the VALUES lines were written in the file.  The lines can be copied
+     * from the file while the save tag (which prefixes each line), the columns, their
+     * counts and the length are all unchanged, and the file is as we left it.
+     */
+    @OnThread(Tag.Simulation)
+    private static class SavedValues
+    {
+        private final SaveTag saveTag;
+        private final ImmutableList<Column> columns;
+        private final int[] modificationCounts;
+        private final int length;
+        private final @Nullable File file;
+        private final long fileLength;
+        private final long fileModified;
+        // Byte positions of the VALUES lines in the file:
+        private final long start;
+        private final long end;
+
+        private SavedValues(SaveTag saveTag, ImmutableList<Column> columns, int[] modificationCounts, int length, @Nullable File file, long fileLength, long fileModified, long start, long end)
+        {
+            this.saveTag = saveTag;
+            this.columns = columns;
+            this.modificationCounts = modificationCounts;
+            this.length = length;
+            this.file = file;
+            this.fileLength = fileLength;
+            this.fileModified = fileModified;
+            this.start = start;
+            this.end = end;
+        }
+
+        public SavedValues savedIn(File file, long start, long end)
+        {
+            return new SavedValues(saveTag, columns, modificationCounts, length, file, file.length(), file.lastModified(), start, end);
+        }
+
+        public boolean sameValuesAs(@Nullable SavedValues current)
+        {
+            if (current == null || !saveTag.getTag().equals(current.saveTag.getTag()) || length != current.length || columns.size() != current.columns.size())
+                return false;
+            for (int i = 0; i < columns.size(); i++)
+            {
+                // Compare by identity; a column which is replaced may have different values:
+                if (columns.get(i) != current.columns.get(i))
+                    return false;
+            }
+            return Arrays.equals(modificationCounts, current.modificationCounts);
+        }
+
+        // Copies the lines from the file, or returns false (having written nothing)
+        // if the file has been changed or removed since we saved it.
+        public boolean copyTo(Writer out) throws IOException
+        {
+            if (file == null || !file.isFile() || file.length() != fileLength || file.lastModified() != fileModified)
+                return false;
+            try (FileInputStream in = new FileInputStream(file))
+            {
+                ByteStreams.skipFully(in, start);
+                CharStreams.copy(new InputStreamReader(ByteStreams.limit(in, end - start), StandardCharsets.UTF_8), out);
+            }
+            return true;
+        }
     }
 
     @Override
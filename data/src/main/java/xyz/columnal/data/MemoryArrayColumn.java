@@ -92,6 +92,13 @@ public class MemoryArrayColumn extends EditableColumn
         return storage.removeRows(index, count);
     }
 
+    @Override
+    @OnThread(Tag.Simulation)
+    public int getModificationCount()
+    {
+        return storage.getModificationCount();
+    }
+
     @Override
     @OnThread(Tag.Any)
     public @Value Object getDefaultValue()
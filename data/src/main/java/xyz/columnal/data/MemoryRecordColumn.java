@@ -105,6 +105,13 @@ public class MemoryRecordColumn extends EditableColumn
         return storage.removeRows(index, count);
     }
 
+    @Override
+    @OnThread(Tag.Simulation)
+    public int getModificationCount()
+    {
+        return storage.getModificationCount();
+    }
+
     @Override
     @OnThread(Tag.Any)
     public @Value Record getDefaultValue()
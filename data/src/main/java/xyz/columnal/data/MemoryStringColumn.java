@@ -81,6 +81,13 @@ public class MemoryStringColumn extends EditableColumn
         return storage.removeRows(index, count);
     }
 
+    @Override
+    @OnThread(Tag.Simulation)
+    public int getModificationCount()
+    {
+        return storage.getModificationCount();
+    }
+
     @Override
     @OnThread(Tag.Any)
     public @Value Object getDefaultValue()
@@ -589,6 +589,19 @@ public class NumericColumnStorage extends SparseErrorColumnStorage<Number> imple
     {
         set(OptionalInt.empty(), n);
     }
+
+    // Like add, but avoids boxing the number
+    public void addLong(long n) throws InternalException
+    {
+        if ((byte) n == n)
+            addByte(OptionalInt.empty(), (byte) n);
+        else if ((short) n == n)
+            addShort(OptionalInt.empty(), (short) n);
+        else if ((int) n == n)
+            addInteger(OptionalInt.empty(), (int) n);
+        else
+            addLong(OptionalInt.empty(), n, false);
+    }
 /*
     public int getNumericTag()
     {
@@ -0,0 +1,548 @@
+/*
+ * Columnal: Safer, smoother data table processing.
+ * Copyright (c) Neil Brown, 2016-2020, 2022.
+ *
+ * This file is part of Columnal.
+ *
+ * Columnal is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * Columnal is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with Columnal. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package xyz.columnal.data;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import threadchecker.OnThread;
+import threadchecker.Tag;
+import xyz.columnal.error.UserException;
+import xyz.columnal.id.SaveTag;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * An index of the top-level content blocks in a version two (or later) saved file.
+ * Each block looks like:
+ *
+ * DATA @BEGIN TAG
+ * TAG ...
+ * TAG ...
+ * @END TAG DATA
+ *
+ * This is the same structure as the content rule in MainParser2, but rather than
+ * lexing and parsing the whole file at once (which holds a token and parse tree node
+ * for every line of every table), we just record where each block's lines are.  The
+ * detail of a block is only extracted when it is asked for, so only one block's
+ * detail need be in memory at once.  When indexing a file, the file is read a line
+ * at a time, and read again for each detail, so the file content is never held
+ * in memory as a whole.
+ *
+ * A file is opened once, and every read (including the hash of its content,
+ * made while indexing) goes through that same channel until the index is
+ * closed.  So if the file is replaced while we are loading it (e.g. by another
+ * save, which renames a new file over it), we carry on reading the content
+ * we indexed and hashed, rather than mixing old offsets with new content.
+ */
+@OnThread(Tag.Any)
+public final class ProjectContentIndex implements AutoCloseable
+{
+    private final Source src;
+    private final ImmutableList<String> headerLines;
+    private final ImmutableList<ContentBlock> blocks;
+    // If the content was not in the block structure (e.g. the first file version),
+    // the problem found, which is thrown by getBlocks:
+    private final @Nullable UserException formatError;
+    private final HashCode contentHash;
+
+    private ProjectContentIndex(Source src, ImmutableList<String> headerLines, ImmutableList<ContentBlock> blocks, @Nullable UserException formatError, HashCode contentHash)
+    {
+        this.src = src;
+        this.headerLines = headerLines;
+        this.blocks = blocks;
+        this.formatError = formatError;
+        this.contentHash = contentHash;
+    }
+
+    /**
+     * Scans the given file content.  The first two non-blank lines must be the
+     * COLUMNAL and VERSION header lines (see TableManager.detectVersion).
+     */
+    public static ProjectContentIndex scan(CharSequence src) throws UserException
+    {
+        ProjectContentIndex index = scan(new CharSequenceSource(src), Hashing.sha256().newHasher());
+        if (index.formatError != null)
+            throw index.formatError;
+        return index;
+    }
+
+    /**
+     * Opens and scans the given UTF-8 file.  Unlike scan(CharSequence), content
+     * which is not in the block structure is not an error until getBlocks is called,
+     * so that the header lines and hash can be used for files in the first file version.
+     * The index must be closed after use, which closes the file.
+     */
+    public static ProjectContentIndex open(File file) throws UserException
+    {
+        FileChannel channel;
+        try
+        {
+            channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        }
+        catch (IOException e)
+        {
+            throw new UserException("Problem reading file: " + e.getLocalizedMessage(), e);
+        }
+        try
+        {
+            return scan(new FileSource(channel), Hashing.sha256().newHasher());
+        }
+        catch (UserException | RuntimeException e)
+        {
+            try
+            {
+                channel.close();
+            }
+            catch (IOException closeEx)
+            {
+                e.addSuppressed(closeEx);
+            }
+            throw e;
+        }
+    }
+
+    // All the content is passed to the hasher while scanning, to give the content hash.
+    private static ProjectContentIndex scan(Source src, Hasher hasher) throws UserException
+    {
+        ImmutableList.Builder<String> headerLines = ImmutableList.builder();
+        ImmutableList.Builder<ContentBlock> blocks = ImmutableList.builder();
+        @Nullable UserException formatError = null;
+        int headerLinesToSkip = 2;
+        int lineNumber = 0;
+        // The block we are currently inside, if any:
+        @Nullable String curType = null;
+        @Nullable String curTag = null;
+        long curDetailStart = 0;
+        int curLineNumber = 0;
+        try (LineReader lines = src.readLines(0, Long.MAX_VALUE, hasher))
+        {
+            @Nullable String rawLine;
+            while ((rawLine = lines.nextLine()) != null)
+            {
+                lineNumber += 1;
+                String line = rawLine.trim();
+                if (formatError != null)
+                {
+                    // Just reading to the end, for the hash
+                }
+                else if (curType == null || curTag == null)
+                {
+                    if (line.isEmpty())
+                    {
+                        // Blank lines are allowed between blocks
+                    }
+                    else if (headerLinesToSkip > 0)
+                    {
+                        headerLinesToSkip -= 1;
+                        headerLines.add(line);
+                    }
+                    else
+                    {
+                        String[] items = line.split("[ \t]+");
+                        if (items.length != 3 || !items[1].equals("@BEGIN") || !isTag(items[2]))
+                            formatError = new UserException("Error on line " + lineNumber + ": expected start of content but found \"" + abbreviate(line) + "\"");
+                        else
+                        {
+                            curType = items[0];
+                            curTag = items[2];
+                            curDetailStart = lines.nextLineStart;
+                            curLineNumber = lineNumber;
+                        }
+                    }
+                }
+                else if (line.startsWith(curTag))
+                {
+                    // Detail line, nothing to do until we reach the end
+                }
+                else if (line.startsWith("@END"))
+                {
+                    String[] items = line.split("[ \t]+");
+                    if (items.length != 3 || !items[0].equals("@END") || !items[1].equals(curTag) || !items[2].equals(curType))
+                        formatError = new UserException("Error on line " + lineNumber + ": expected \"@END " + curTag + " " + curType + "\" but found \"" + abbreviate(line) + "\"");
+                    else
+                        blocks.add(new ContentBlock(curType, new SaveTag(curTag), curDetailStart, lines.lineStart, curLineNumber));
+                    curType = null;
+                    curTag = null;
+                }
+                else if (!line.isEmpty())
+                {
+                    formatError = new UserException("Error on line " + lineNumber + ": expected line beginning with " + curTag + " but found \"" + abbreviate(line) + "\"");
+                }
+            }
+        }
+        catch (IOException e)
+        {
+            throw new UserException("Problem reading file: " + e.getLocalizedMessage(), e);
+        }
+        if (formatError == null && curType != null)
+            formatError = new UserException("Content " + curType + " beginning on line " + curLineNumber + " has no @END");
+        return new ProjectContentIndex(src, headerLines.build(), blocks.build(), formatError, hasher.hash());
+    }
+
+    /**
+     * The first two non-blank lines, trimmed, which should be the file header.
+     */
+    public ImmutableList<String> getHeaderLines()
+    {
+        return headerLines;
+    }
+
+    /**
+     * Throws an exception if the content was not in the block structure.
+     */
+    public ImmutableList<ContentBlock> getBlocks() throws UserException
+    {
+        if (formatError != null)
+            throw formatError;
+        return blocks;
+    }
+
+    /**
+     * The SHA-256 hash of the content, as UTF-8.  For a file, this is the hash of
+     * exactly the bytes which were indexed, and which the detail will be read from.
+     */
+    public HashCode getContentHash()
+    {
+        return contentHash;
+    }
+
+    /**
+     * Reads all of the content, for the first file version which is parsed as a whole.
+     */
+    public String readAll() throws UserException
+    {
+        try
+        {
+            return src.readAll();
+        }
+        catch (IOException e)
+        {
+            throw new UserException("Problem reading file: " + e.getLocalizedMessage(), e);
+        }
+    }
+
+    @Override
+    public void close() throws UserException
+    {
+        try
+        {
+            src.close();
+        }
+        catch (IOException e)
+        {
+            throw new UserException("Problem closing file: " + e.getLocalizedMessage(), e);
+        }
+    }
+
+    /**
+     * Gets the detail of the block, with the prefix removed from each line, and
+     * blank lines removed.  This is the same as Utility.getDetail on the
+     * equivalent MainParser2.DetailContext.
+     */
+    public String getDetail(ContentBlock block) throws UserException
+    {
+        StringBuilder r = new StringBuilder();
+        String prefix = block.saveTag.getTag();
+        try (LineReader lines = src.readLines(block.detailStart, block.detailEnd, null))
+        {
+            @Nullable String rawLine;
+            while ((rawLine = lines.nextLine()) != null)
+            {
+                String line = rawLine.trim();
+                if (line.startsWith(prefix))
+                {
+                    String content = line.substring(prefix.length()).trim();
+                    if (!content.isEmpty())
+                        r.append(content).append("\n");
+                }
+            }
+        }
+        catch (IOException e)
+        {
+            throw new UserException("Problem reading file: " + e.getLocalizedMessage(), e);
+        }
+        return r.toString();
+    }
+
+    // Same as the tag in the DETAIL_BEGIN rule of MainLexer2:
+    private static boolean isTag(String s)
+    {
+        return s.length() >= 2 && s.chars().allMatch(c -> c >= 'A' && c <= 'Z');
+    }
+
+    private static String abbreviate(String line)
+    {
+        return line.length() > 100 ? line.substring(0, 100) + "..." : line;
+    }
+
+    /**
+     * The location of one content block.  The detail runs from the line after
+     * the @BEGIN line up to (but not including) the @END line.
+     */
+    @OnThread(Tag.Any)
+    public static final class ContentBlock
+    {
+        public final String contentType;
+        public final SaveTag saveTag;
+        private final long detailStart;
+        private final long detailEnd;
+        // One-based, for error messages:
+        public final int lineNumber;
+
+        private ContentBlock(String contentType, SaveTag saveTag, long detailStart, long detailEnd, int lineNumber)
+        {
+            this.contentType = contentType;
+            this.saveTag = saveTag;
+            this.detailStart = detailStart;
+            this.detailEnd = detailEnd;
+            this.lineNumber = lineNumber;
+        }
+    }
+
+    // The content being indexed.  Positions are chars for a CharSequence, bytes for a file:
+    private static interface Source
+    {
+        // Reads the lines which begin at or after start, and before end.  If hasher is non-null,
+        // all content read is passed to it:
+        public LineReader readLines(long start, long end, @Nullable Hasher hasher) throws IOException;
+
+        public String readAll() throws IOException;
+
+        public void close() throws IOException;
+    }
+
+    private static final class CharSequenceSource implements Source
+    {
+        private final CharSequence src;
+
+        private CharSequenceSource(CharSequence src)
+        {
+            this.src = src;
+        }
+
+        @Override
+        public LineReader readLines(long start, long end, @Nullable Hasher hasher)
+        {
+            CharSequenceLineReader reader = new CharSequenceLineReader(src, start, end);
+            // It's all in memory anyway, so we can hash it all at once:
+            if (hasher != null)
+                hasher.putString(src.subSequence((int)start, (int)reader.end), StandardCharsets.UTF_8);
+            return reader;
+        }
+
+        @Override
+        public String readAll()
+        {
+            return src.toString();
+        }
+
+        @Override
+        public void close()
+        {
+        }
+    }
+
+    private static final class FileSource implements Source
+    {
+        private final FileChannel channel;
+
+        private FileSource(FileChannel channel)
+        {
+            this.channel = channel;
+        }
+
+        @Override
+        public LineReader readLines(long start, long end, @Nullable Hasher hasher)
+        {
+            return new FileLineReader(new ChannelInputStream(channel, start, hasher), start, end);
+        }
+
+        @Override
+        public String readAll() throws IOException
+        {
+            try (InputStream in = new ChannelInputStream(channel, 0, null))
+            {
+                return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+            }
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            channel.close();
+        }
+    }
+
+    /**
+     * Reads from a position in a channel, without using or changing the channel's
+     * own position, so that several readers can use the same channel in turn.
+     */
+    private static final class ChannelInputStream extends InputStream
+    {
+        private final FileChannel channel;
+        private long position;
+        private final @Nullable Hasher hasher;
+
+        private ChannelInputStream(FileChannel channel, long position, @Nullable Hasher hasher)
+        {
+            this.channel = channel;
+            this.position = position;
+            this.hasher = hasher;
+        }
+
+        @Override
+        public int read() throws IOException
+        {
+            byte[] b = new byte[1];
+            int n = read(b, 0, 1);
+            return n == -1 ? -1 : (b[0] & 0xFF);
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException
+        {
+            if (len == 0)
+                return 0;
+            int n = channel.read(ByteBuffer.wrap(b, off, len), position);
+            if (n > 0)
+            {
+                position += n;
+                if (hasher != null)
+                    hasher.putBytes(b, off, n);
+            }
+            return n;
+        }
+    }
+
+    private static abstract class LineReader implements AutoCloseable
+    {
+        // The position of the line last returned by nextLine, and of the line after it:
+        protected long lineStart;
+        protected long nextLineStart;
+        protected final long end;
+
+        protected LineReader(long start, long end)
+        {
+            this.nextLineStart = start;
+            this.end = end;
+        }
+
+        // Gets the next line, without its \n, \r or \r\n, or null if there are no more
+        public abstract @Nullable String nextLine() throws IOException;
+
+        @Override
+        public void close() throws IOException
+        {
+        }
+    }
+
+    private static final class CharSequenceLineReader extends LineReader
+    {
+        private final CharSequence src;
+
+        private CharSequenceLineReader(CharSequence src, long start, long end)
+        {
+            super(start, Math.min(end, src.length()));
+            this.src = src;
+        }
+
+        @Override
+        public @Nullable String nextLine()
+        {
+            if (nextLineStart >= end)
+                return null;
+            int start = (int)nextLineStart;
+            int lineEnd = start;
+            while (lineEnd < src.length() && src.charAt(lineEnd) != '\n' && src.charAt(lineEnd) != '\r')
+                lineEnd += 1;
+            int next = lineEnd;
+            if (next < src.length() && src.charAt(next) == '\r')
+                next += 1;
+            if (next < src.length() && src.charAt(next) == '\n')
+                next += 1;
+            lineStart = start;
+            nextLineStart = next;
+            return src.subSequence(start, lineEnd).toString();
+        }
+    }
+
+    private static final class FileLineReader extends LineReader
+    {
+        private final InputStream in;
+        private final ByteArrayOutputStream line = new ByteArrayOutputStream();
+
+        // The stream must be positioned at start.  Closing this reader doesn't close the channel it reads from.
+        private FileLineReader(InputStream in, long start, long end)
+        {
+            super(start, end);
+            this.in = new BufferedInputStream(in, 64 * 1024);
+        }
+
+        @Override
+        public @Nullable String nextLine() throws IOException
+        {
+            if (nextLineStart >= end)
+                return null;
+            line.reset();
+            long next = nextLineStart;
+            int b;
+            // \r, \n and the bytes of the tags are all ASCII, so can't be part of a multi-byte UTF-8 character:
+            while ((b = in.read()) != -1)
+            {
+                next += 1;
+                if (b == '\n')
+                    break;
+                if (b == '\r')
+                {
+                    in.mark(1);
+                    if (in.read() == '\n')
+                        next += 1;
+                    else
+                        in.reset();
+                    break;
+                }
+                line.write(b);
+            }
+            if (next == nextLineStart)
+                return null;
+            lineStart = nextLineStart;
+            nextLineStart = next;
+            return line.toString(StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            in.close();
+        }
+    }
+}
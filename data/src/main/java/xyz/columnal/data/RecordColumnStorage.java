@@ -27,6 +27,7 @@ import org.checkerframework.checker.nullness.qual.Nullable;
 import xyz.columnal.data.datatype.DataType;
 import xyz.columnal.data.datatype.DataTypeUtility;
 import xyz.columnal.data.datatype.DataTypeValue;
+import xyz.columnal.data.datatype.DataTypeValue.GetModificationCount;
 import xyz.columnal.data.datatype.DataTypeValue.GetValue;
 import xyz.columnal.data.datatype.ProgressListener;
 import xyz.columnal.error.InternalException;
@@ -68,38 +69,49 @@ public class RecordColumnStorage extends SparseErrorColumnStorage<@Value Record>
             builder.put(field.getKey(), ColumnUtility.makeColumnStorage(field.getValue(), beforeGet, isImmediateData));
         }
         storage = builder.build();
-        type = DataTypeValue.record(Utility.<@ExpressionIdentifier String, ColumnStorage<?>, DataType>mapValues(storage, s -> s.getType().getType()), new GetValue<@Value Record>()
+        type = DataTypeValue.record(Utility.<@ExpressionIdentifier String, ColumnStorage<?>, DataType>mapValues(storage, s -> s.getType().getType()), new GetRecord());
+    }
+
+    // Not anonymous, as it implements two interfaces:
+    private class GetRecord implements GetValue<@Value Record>, GetModificationCount
+    {
+        @Override
+        @OnThread(Tag.Simulation)
+        public @Value Record getWithProgress(int index, @Nullable ProgressListener progressListener) throws UserException, InternalException
         {
-            @Override
-            @OnThread(Tag.Simulation)
-            public @Value Record getWithProgress(int index, @Nullable ProgressListener progressListener) throws UserException, InternalException
+            ImmutableMap.Builder<@ExpressionIdentifier String, @Value Object> record = ImmutableMap.builderWithExpectedSize(storage.size());
+            for (Entry<@ExpressionIdentifier String, ColumnStorage<?>> entry : storage.entrySet())
             {
-                ImmutableMap.Builder<@ExpressionIdentifier String, @Value Object> record = ImmutableMap.builderWithExpectedSize(fields.size());
+                record.put(entry.getKey(), entry.getValue().getType().getCollapsed(index));
+            }
+            return DataTypeUtility.value(new RecordMap(record.build()));
+        }
+
+        @Override
+        public @OnThread(Tag.Simulation) void set(int index, Either<String, @Value Record> value) throws InternalException, UserException
+        {
+            value.eitherEx_(err -> {
+                setError(index, err);
+                for (ColumnStorage<?> columnStorage : storage.values())
+                {
+                    columnStorage.getType().setCollapsed(index, Either.left(err));
+                }
+            }, record -> {
+                unsetError(index);
                 for (Entry<@ExpressionIdentifier String, ColumnStorage<?>> entry : storage.entrySet())
                 {
-                    record.put(entry.getKey(), entry.getValue().getType().getCollapsed(index));
+                    entry.getValue().getType().setCollapsed(index, Either.right(record.getField(entry.getKey())));
                 }
-                return DataTypeUtility.value(new RecordMap(record.build()));
-            }
+            });
+            markModified();
+        }
 
-            @Override
-            public @OnThread(Tag.Simulation) void set(int index, Either<String, @Value Record> value) throws InternalException, UserException
-            {
-                value.eitherEx_(err -> {
-                    setError(index, err);
-                    for (ColumnStorage<?> columnStorage : storage.values())
-                    {
-                        columnStorage.getType().setCollapsed(index, Either.left(err));
-                    }
-                }, record -> {
-                    unsetError(index);
-                    for (Entry<@ExpressionIdentifier String, ColumnStorage<?>> entry : storage.entrySet())
-                    {
-                        entry.getValue().getType().setCollapsed(index, Either.right(record.getField(entry.getKey())));
-                    }
-                });
-            }
-        });
+        @Override
+        @OnThread(Tag.Simulation)
+        public int getModificationCount()
+        {
+            return RecordColumnStorage.this.getModificationCount();
+        }
     }
 
     @Override
@@ -26,6 +26,7 @@ import org.checkerframework.checker.initialization.qual.UnknownInitialization;
 import org.checkerframework.checker.nullness.qual.NonNull;
 import org.checkerframework.checker.nullness.qual.Nullable;
 import xyz.columnal.data.datatype.ProgressListener;;
+import xyz.columnal.data.datatype.DataTypeValue.GetModificationCount;
 import xyz.columnal.data.datatype.DataTypeValue.GetValue;
 import xyz.columnal.error.InternalException;
 import xyz.columnal.error.InvalidImmediateValueException;
@@ -49,12 +50,28 @@ public abstract class SparseErrorColumnStorage<T> implements ColumnStorage<T>
     private HashMap<Integer, String> errorEntries = new HashMap<>();
     // Max of errorEntries.keySet() or -1 if empty
     private int latestError = -1;
+    // Incremented once on every set, insert or remove (but not on add), so that
+    // anyone who has copied the values can tell if they are out of date.
+    // The error helpers below don't change it; the operations which call them do.
+    private int modificationCount = 0;
 
     protected SparseErrorColumnStorage(boolean isImmediateData)
     {
         this.isImmediateData = isImmediateData;
     }
 
+    @Override
+    public final int getModificationCount()
+    {
+        return modificationCount;
+    }
+
+    // For subclasses which set values other than through GetValueOrError
+    protected final void markModified(@UnknownInitialization(SparseErrorColumnStorage.class) SparseErrorColumnStorage<T> this)
+    {
+        modificationCount += 1;
+    }
+
     protected final @Nullable String getError(int row)
     {
         return errorEntries.get(row);
@@ -152,7 +169,9 @@ public abstract class SparseErrorColumnStorage<T> implements ColumnStorage<T>
         }
         
         SimulationRunnable revert = _insertRows(index, items);
+        modificationCount += 1;
         return () -> {
+            modificationCount += 1;
             revert.run();
             mapErrors(i -> i < index ? i : (i >= index + itemsSize ? i - itemsSize : null));
         };
@@ -163,21 +182,30 @@ public abstract class SparseErrorColumnStorage<T> implements ColumnStorage<T>
     public final SimulationRunnable removeRows(int index, int count) throws InternalException
     {
         SimulationRunnable revert = _removeRows(index, count);
+        modificationCount += 1;
         HashMap<Integer, String> removed = mapErrors(i -> i < index ? i : (i < index + count ? null : i - count));
         return () -> {
+            modificationCount += 1;
             mapErrors(i -> i < index ? i : i + count);
             removed.forEach(this::setError);
             revert.run();
         };
     }
     
-    protected abstract class GetValueOrError<V extends @Value @NonNull Object> implements GetValue<@Value V>
+    protected abstract class GetValueOrError<V extends @Value @NonNull Object> implements GetValue<@Value V>, GetModificationCount
     {
         @OnThread(Tag.Any)
         public GetValueOrError()
         {
         }
 
+        @Override
+        @OnThread(Tag.Simulation)
+        public final int getModificationCount()
+        {
+            return SparseErrorColumnStorage.this.getModificationCount();
+        }
+
         @Override
         public final @NonNull @Value V getWithProgress(int index, @Nullable ProgressListener progressListener) throws UserException, InternalException
         {
@@ -204,6 +232,7 @@ public abstract class SparseErrorColumnStorage<T> implements ColumnStorage<T>
         {
             value.eitherEx_(err -> {setError(index, err); _set(index, null);},
                 v -> {errorEntries.remove(index); _set(index, v);});
+            modificationCount += 1;
         }
 
         @OnThread(Tag.Simulation)
@@ -23,6 +23,7 @@ package xyz.columnal.data;
 import annotation.qual.Value;
 import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
 import org.checkerframework.checker.nullness.qual.Nullable;
+import xyz.columnal.data.datatype.DataTypeValue.GetDictionaryCode;
 import xyz.columnal.data.datatype.ProgressListener;;
 import xyz.columnal.data.datatype.DataTypeUtility;
 import xyz.columnal.data.datatype.DataTypeValue;
@@ -30,23 +31,32 @@ import xyz.columnal.error.InternalException;
 import xyz.columnal.error.UserException;
 import threadchecker.OnThread;
 import threadchecker.Tag;
-import xyz.columnal.utility.DumbObjectPool;
 import xyz.columnal.utility.adt.Either;
 import xyz.columnal.utility.function.simulation.SimulationRunnable;
 import xyz.columnal.utility.Utility;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
 import java.util.stream.Stream;
 
 /**
  * Created by neil on 04/11/2016.
+ *
+ * Values are stored as int codes into a dictionary of the distinct values,
+ * which uses much less memory for columns with many repeated values (and lets
+ * us share the codes, see DataTypeValue.GetDictionaryCode).  If a column turns
+ * out to have too many distinct values for that to be worthwhile, we permanently
+ * switch to storing the values directly.
  */
 public class StringColumnStorage extends SparseErrorColumnStorage<String> implements ColumnStorage<String>
 {
-    private final ArrayList<@Value String> values;
-    @SuppressWarnings("unchecked")
-    private final DumbObjectPool<@Value String> pool = new DumbObjectPool<>((Class<@Value String>)(Class)String.class, 1000, null);
+    // We switch to storing values directly once there are more than this many
+    // distinct values, and they make up more than half the rows:
+    private static final int DICTIONARY_FALLBACK_MINIMUM = 65536;
+    
+    private Store store;
     private final @Nullable BeforeGet<StringColumnStorage> beforeGet;
     
     @OnThread(value = Tag.Any,requireSynchronized = true)
@@ -55,7 +65,7 @@ public class StringColumnStorage extends SparseErrorColumnStorage<String> implem
     public StringColumnStorage(@Nullable BeforeGet<StringColumnStorage> beforeGet, boolean isImmediateData)
     {
         super(isImmediateData);
-        values = new ArrayList<>();
+        store = new DictionaryStore();
         this.beforeGet = beforeGet;
     }
 
@@ -67,14 +77,14 @@ public class StringColumnStorage extends SparseErrorColumnStorage<String> implem
     @Override
     public int filled()
     {
-        return values.size();
+        return store.size();
     }
     
     private @Value String get(int index, @Nullable ProgressListener progressListener) throws InternalException, UserException
     {
-        if (index < 0 || index >= values.size())
-            throw new UserException("Attempting to access invalid element: " + index + " of " + values.size());
-        return values.get(index);
+        if (index < 0 || index >= store.size())
+            throw new UserException("Attempting to access invalid element: " + index + " of " + store.size());
+        return store.get(index);
     }
 
     @Override
@@ -83,11 +93,24 @@ public class StringColumnStorage extends SparseErrorColumnStorage<String> implem
         for (Either<String, String> item : Utility.iterableStream(items))
         {
             String s = item.either(err -> "", v -> v);
-            item.ifLeft(err -> setError(this.values.size(), err));
-            this.values.add(pool.pool(DataTypeUtility.value(s)));
+            item.ifLeft(err -> setError(store.size(), err));
+            store.add(DataTypeUtility.value(s));
+            checkCardinality();
         }
     }
 
+    // Is this column (still) stored as dictionary codes?
+    public boolean isDictionaryEncoded()
+    {
+        return store instanceof DictionaryStore;
+    }
+
+    private void checkCardinality()
+    {
+        if (store.isHighCardinality())
+            store = new PlainStore(store);
+    }
+
     @OnThread(Tag.Any)
     public synchronized DataTypeValue getType()
     {
@@ -101,62 +124,38 @@ public class StringColumnStorage extends SparseErrorColumnStorage<String> implem
         */
         if (dataType == null)
         {
-            dataType = DataTypeValue.text(new GetValueOrError<@Value String>()
-            {
-                @Override
-                protected @OnThread(Tag.Simulation) void _beforeGet(int index, @Nullable ProgressListener progressListener) throws InternalException, UserException
-                {
-                    if (beforeGet != null)
-                        beforeGet.beforeGet(StringColumnStorage.this, index, progressListener);
-
-                }
-
-                @Override
-                public @Value String _getWithProgress(int i, @Nullable ProgressListener prog) throws UserException, InternalException
-                {
-                    return StringColumnStorage.this.get(i, prog);
-                }
-
-                @Override
-                public @OnThread(Tag.Simulation) void _set(int index, @Nullable @Value String value) throws InternalException
-                {
-                    if (value == null)
-                        value = DataTypeUtility.value("");
-                    
-                    setValue(index, value);
-                }
-            });
+            dataType = DataTypeValue.text(new GetStringOrError());
         }
         return dataType;
     }
 
     public void setValue(int index, @Value String value) throws InternalException
     {
-        if (index == values.size())
+        if (index == store.size())
         {
-            values.add(pool.pool(value));
-
+            store.add(value);
         }
         else
         {
-            values.set(index, pool.pool(value));
+            store.set(index, value);
         }
+        checkCardinality();
     }
 
     @Override
     public SimulationRunnable _insertRows(int index, List<@Nullable String> items) throws InternalException
     {
-        if (index < 0 || index > values.size())
-            throw new InternalException("Trying to insert rows at invalid index: " + index + " length is: " + values.size());
-        values.ensureCapacity(values.size() + items.size());
-        int curIndex = index;
+        if (index < 0 || index > store.size())
+            throw new InternalException("Trying to insert rows at invalid index: " + index + " length is: " + store.size());
+        ArrayList<@Value String> values = new ArrayList<>(items.size());
         for (String item : items)
         {
             if (item == null)
                 item = "";
-            values.add(curIndex, pool.pool(DataTypeUtility.value(item)));
-            curIndex += 1;
+            values.add(DataTypeUtility.value(item));
         }
+        store.insert(index, values);
+        checkCardinality();
         int count = items.size();
         return () -> _removeRows(index, count);
     }
@@ -164,10 +163,271 @@ public class StringColumnStorage extends SparseErrorColumnStorage<String> implem
     @Override
     public SimulationRunnable _removeRows(int index, int count) throws InternalException
     {
-        if (index < 0 || index + count > values.size())
-            throw new InternalException("Trying to remove rows at invalid index: " + index + " + " + count + " length is: " + values.size());
-        List<@Value String> old = new ArrayList<>(values.subList(index, index + count));
-        values.subList(index, index + count).clear();
-        return () -> values.addAll(index, old);
+        if (index < 0 || index + count > store.size())
+            throw new InternalException("Trying to remove rows at invalid index: " + index + " + " + count + " length is: " + store.size());
+        List<@Value String> old = store.remove(index, count);
+        // Must use the store at the time of reverting, which may have changed:
+        return () -> store.insert(index, old);
+    }
+    
+    private class GetStringOrError extends GetValueOrError<@Value String> implements GetDictionaryCode
+    {
+        @Override
+        protected @OnThread(Tag.Simulation) void _beforeGet(int index, @Nullable ProgressListener progressListener) throws InternalException, UserException
+        {
+            if (beforeGet != null)
+                beforeGet.beforeGet(StringColumnStorage.this, index, progressListener);
+
+        }
+
+        @Override
+        public @Value String _getWithProgress(int i, @Nullable ProgressListener prog) throws UserException, InternalException
+        {
+            return StringColumnStorage.this.get(i, prog);
+        }
+
+        @Override
+        public @OnThread(Tag.Simulation) void _set(int index, @Nullable @Value String value) throws InternalException
+        {
+            if (value == null)
+                value = DataTypeUtility.value("");
+            
+            setValue(index, value);
+        }
+
+        @Override
+        @OnThread(Tag.Simulation)
+        public int getCode(int index) throws UserException, InternalException
+        {
+            // This does the loading and error checks for us:
+            getWithProgress(index, null);
+            return store.getCode(index);
+        }
+
+        @Override
+        @OnThread(Tag.Simulation)
+        public @Value String getDictionaryValue(int code) throws InternalException
+        {
+            return store.getDictionaryValue(code);
+        }
+
+        @Override
+        @OnThread(Tag.Simulation)
+        public int getCodeOf(@Value String value)
+        {
+            return store.getCodeOf(value);
+        }
+    }
+    
+    private static interface Store
+    {
+        public int size();
+        
+        public @Value String get(int index);
+        
+        public void add(@Value String value);
+        
+        public void set(int index, @Value String value);
+        
+        public void insert(int index, List<@Value String> values);
+        
+        // Returns the removed values
+        public List<@Value String> remove(int index, int count);
+        
+        // Should we switch to storing the values directly?
+        public boolean isHighCardinality();
+        
+        // -1 if not dictionary encoded
+        public int getCode(int index);
+
+        // -1 if not dictionary encoded, or value not in dictionary
+        public int getCodeOf(@Value String value);
+        
+        public @Value String getDictionaryValue(int code) throws InternalException;
+    }
+
+    /**
+     * Each row is a code into a dictionary.  The dictionary only ever grows, so that
+     * codes handed out remain valid; values which are no longer used stay in
+     * the dictionary.
+     */
+    private static class DictionaryStore implements Store
+    {
+        private final ArrayList<@Value String> dictionary = new ArrayList<>();
+        private final HashMap<String, Integer> codes = new HashMap<>();
+        private int[] rows = new int[16];
+        private int size = 0;
+
+        private int code(@Value String value)
+        {
+            Integer code = codes.get(value);
+            if (code == null)
+            {
+                code = dictionary.size();
+                dictionary.add(value);
+                codes.put(value, code);
+            }
+            return code;
+        }
+
+        private void ensureCapacity(int capacity)
+        {
+            if (capacity > rows.length)
+                rows = Arrays.copyOf(rows, Math.max(capacity, rows.length * 2));
+        }
+
+        @Override
+        public int size()
+        {
+            return size;
+        }
+
+        @Override
+        public @Value String get(int index)
+        {
+            return dictionary.get(rows[index]);
+        }
+
+        @Override
+        public void add(@Value String value)
+        {
+            ensureCapacity(size + 1);
+            rows[size] = code(value);
+            size += 1;
+        }
+
+        @Override
+        public void set(int index, @Value String value)
+        {
+            rows[index] = code(value);
+        }
+
+        @Override
+        public void insert(int index, List<@Value String> values)
+        {
+            ensureCapacity(size + values.size());
+            System.arraycopy(rows, index, rows, index + values.size(), size - index);
+            for (int i = 0; i < values.size(); i++)
+            {
+                rows[index + i] = code(values.get(i));
+            }
+            size += values.size();
+        }
+
+        @Override
+        public List<@Value String> remove(int index, int count)
+        {
+            ArrayList<@Value String> removed = new ArrayList<>(count);
+            for (int i = index; i < index + count; i++)
+            {
+                removed.add(dictionary.get(rows[i]));
+            }
+            System.arraycopy(rows, index + count, rows, index, size - (index + count));
+            size -= count;
+            return removed;
+        }
+
+        @Override
+        public boolean isHighCardinality()
+        {
+            return dictionary.size() > DICTIONARY_FALLBACK_MINIMUM && dictionary.size() > size / 2;
+        }
+
+        @Override
+        public int getCode(int index)
+        {
+            return rows[index];
+        }
+
+        @Override
+        public int getCodeOf(@Value String value)
+        {
+            Integer code = codes.get(value);
+            return code == null ? -1 : code;
+        }
+
+        @Override
+        public @Value String getDictionaryValue(int code) throws InternalException
+        {
+            if (code < 0 || code >= dictionary.size())
+                throw new InternalException("Invalid dictionary code: " + code + " of " + dictionary.size());
+            return dictionary.get(code);
+        }
+    }
+
+    private static class PlainStore implements Store
+    {
+        private final ArrayList<@Value String> values;
+
+        public PlainStore(Store original)
+        {
+            values = new ArrayList<>(original.size());
+            for (int i = 0; i < original.size(); i++)
+            {
+                values.add(original.get(i));
+            }
+        }
+
+        @Override
+        public int size()
+        {
+            return values.size();
+        }
+
+        @Override
+        public @Value String get(int index)
+        {
+            return values.get(index);
+        }
+
+        @Override
+        public void add(@Value String value)
+        {
+            values.add(value);
+        }
+
+        @Override
+        public void set(int index, @Value String value)
+        {
+            values.set(index, value);
+        }
+
+        @Override
+        public void insert(int index, List<@Value String> items)
+        {
+            values.addAll(index, items);
+        }
+
+        @Override
+        public List<@Value String> remove(int index, int count)
+        {
+            List<@Value String> old = new ArrayList<>(values.subList(index, index + count));
+            values.subList(index, index + count).clear();
+            return old;
+        }
+
+        @Override
+        public boolean isHighCardinality()
+        {
+            return false;
+        }
+
+        @Override
+        public int getCode(int index)
+        {
+            return -1;
+        }
+
+        @Override
+        public int getCodeOf(@Value String value)
+        {
+            return -1;
+        }
+
+        @Override
+        public @Value String getDictionaryValue(int code) throws InternalException
+        {
+            throw new InternalException("Asking for dictionary value from column which is not dictionary encoded");
+        }
     }
 }
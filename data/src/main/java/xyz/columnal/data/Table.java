@@ -55,6 +55,9 @@ import xyz.columnal.utility.function.simulation.SimulationRunnable;
 import xyz.columnal.utility.Utility;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.function.Predicate;
@@ -157,11 +160,63 @@ public abstract class Table
     @OnThread(Tag.Any)
     public abstract RecordSet getData() throws UserException, InternalException;
 
+    /**
+     * Writes part of a table's saved source, such as a large number of data values,
+     * straight to the output, rather than making it into one String first.
+     * The position is null unless the output is a project file (see SaveFilePosition).
+     */
+    @FunctionalInterface
+    public static interface ContentWriter
+    {
+        @OnThread(Tag.Simulation)
+        public void write(Writer out, @Nullable SaveFilePosition position) throws IOException;
+    }
+
+    /**
+     * Details of the project file being written.  A table can note where in the file
+     * its content went, so that a later save can copy the content from that file
+     * rather than writing it out again.
+     */
+    @OnThread(Tag.Simulation)
+    public static interface SaveFilePosition
+    {
+        // The file as it will be named once it has been saved
+        public File getDestination();
+
+        // The number of bytes written to the file so far (flushes the output)
+        public long getBytePosition() throws IOException;
+
+        // Runs the action once the file has been saved successfully
+        public void onSaved(SimulationRunnable action);
+    }
+
     public static interface Saver
     {
         @OnThread(Tag.Simulation)
         public void saveTable(String tableSrc);
 
+        /**
+         * Saves a table whose source is start, then the content, then end.  By default
+         * the content is written straight away, and the whole source passed to saveTable(String).
+         */
+        @OnThread(Tag.Simulation)
+        public default void saveTable(String start, ContentWriter content, String end)
+        {
+            StringWriter tableSrc = new StringWriter();
+            tableSrc.write(start);
+            try
+            {
+                content.write(tableSrc, null);
+            }
+            catch (IOException e)
+            {
+                // Shouldn't happen when writing to a String:
+                Log.log(e);
+            }
+            tableSrc.write(end);
+            saveTable(tableSrc.toString());
+        }
+
         @OnThread(Tag.Simulation)
         public void saveUnit(String unitSrc);
 
@@ -204,7 +259,7 @@ public abstract class Table
     {
         private final List<String> units = new ArrayList<>();
         private final List<String> types = new ArrayList<>();
-        private final List<String> tables = new ArrayList<>();
+        private final List<ContentWriter> tables = new ArrayList<>();
         private final List<String> comments = new ArrayList<>();
         private final @Nullable ImmutableList<String> displayDetailLines;
 
@@ -216,7 +271,18 @@ public abstract class Table
         @Override
         public @OnThread(Tag.Simulation) void saveTable(String tableSrc)
         {
-            tables.add(tableSrc);
+            tables.add((out, position) -> out.write(tableSrc));
+        }
+
+        @Override
+        public @OnThread(Tag.Simulation) void saveTable(String start, ContentWriter content, String end)
+        {
+            // The content is only written when the file is:
+            tables.add((out, position) -> {
+                out.write(start);
+                content.write(out, position);
+                out.write(end);
+            });
         }
 
         @Override
@@ -242,15 +308,42 @@ public abstract class Table
         @OnThread(Tag.Simulation)
         public String getCompleteFile()
         {
-            return "COLUMNAL\nVERSION " + OverallVersion.latest().asNumber() + "\n\nUNITS @BEGIN UU\n"
+            StringWriter file = new StringWriter();
+            try
+            {
+                writeCompleteFile(file, null);
+            }
+            catch (IOException e)
+            {
+                // Shouldn't happen when writing to a String:
+                Log.log(e);
+            }
+            return file.toString();
+        }
+
+        /**
+         * Writes the complete file to the given output.  Tables may write their content
+         * straight from their data (see Saver), which saves making the whole file into one
+         * large String, but means the data must not be altered between saving and writing.
+         * The position should be given if the output is the project file.
+         */
+        @OnThread(Tag.Simulation)
+        public void writeCompleteFile(Writer out, @Nullable SaveFilePosition position) throws IOException
+        {
+            out.write("COLUMNAL\nVERSION " + OverallVersion.latest().asNumber() + "\n\nUNITS @BEGIN UU\n"
                 + units.stream().map(u -> "UU " + u).collect(Collectors.joining())
                 + "@END UU UNITS\n\nTYPES @BEGIN TT\n"
                 + types.stream().map(t -> "TT " + t).collect(Collectors.joining())
-                + "@END TT TYPES\n"
-                + tables.stream().collect(Collectors.joining("\n"))
-                + comments.stream().collect(Collectors.joining("\n"))
+                + "@END TT TYPES\n");
+            for (int i = 0; i < tables.size(); i++)
+            {
+                if (i > 0)
+                    out.write("\n");
+                tables.get(i).write(out, position);
+            }
+            out.write(comments.stream().collect(Collectors.joining("\n"))
                 + (displayDetailLines == null ? "" : ("DISPLAY @BEGIN DD" + displayDetailLines.stream().map(d -> "\nDD " + d).collect(Collectors.joining()) + "\n@END DD DISPLAY"))
-                + "\n";
+                + "\n");
         }
     }
 
@@ -409,6 +502,9 @@ public abstract class Table
 
     public synchronized InitialLoadDetails getDetailsForCopy(@UnknownInitialization(Table.class) Table this, TableId overrideId)
     {
+        // As in savePosition, the display has the latest position:
+        if (display != null)
+            prevPosition = display.getMostRecentPosition();
         return new InitialLoadDetails(overrideId, saveTag, prevPosition, showColumns);
     }
     
@@ -47,6 +47,7 @@ import org.checkerframework.checker.nullness.qual.NonNull;
 import org.checkerframework.checker.nullness.qual.Nullable;
 import org.checkerframework.checker.nullness.qual.PolyNull;
 import org.checkerframework.dataflow.qual.Pure;
+import xyz.columnal.data.ProjectContentIndex.ContentBlock;
 import xyz.columnal.data.Table.BlankSaver;
 import xyz.columnal.data.Table.Saver;
 import xyz.columnal.data.Table.TableDisplayBase;
@@ -74,6 +75,7 @@ import xyz.columnal.utility.adt.Either;
 import xyz.columnal.utility.GraphUtility;
 import xyz.columnal.utility.IdentifierUtility;
 import xyz.columnal.utility.adt.Pair;
+import xyz.columnal.utility.function.ExSupplier;
 import xyz.columnal.utility.function.simulation.SimulationConsumer;
 import xyz.columnal.utility.function.simulation.SimulationFunctionInt;
 import xyz.columnal.utility.TranslationUtility;
@@ -237,9 +239,14 @@ public class TableManager
     }
 
     public static OverallVersion detectVersion(String completeSrc) throws UserException
+    {
+        return detectVersion(Pattern.compile("\\r?\\n").splitAsStream(completeSrc));
+    }
+
+    private static OverallVersion detectVersion(Stream<String> allLines) throws UserException
     {
         // Bit of manual parsing to find file version:
-        Iterator<String> lines = Utility.<String>iterableStream(Pattern.compile("\\r?\\n").splitAsStream(completeSrc).map(s -> s.trim()).filter(s -> !s.isEmpty())).iterator();
+        Iterator<String> lines = Utility.<String>iterableStream(allLines.map(s -> s.trim()).filter(s -> !s.isEmpty())).iterator();
         if (lines.hasNext())
         {
             String top = lines.next();
@@ -339,13 +346,42 @@ public class TableManager
     @OnThread(Tag.Simulation)
     public synchronized Loaded loadAll(String completeSrc,  SimulationConsumer<ImmutableList<Pair<Integer, Double>>> setColumnWidths) throws UserException, InternalException
     {
-        OverallVersion version = detectVersion(completeSrc);
+        return loadAll(detectVersion(completeSrc), () -> completeSrc, () -> ProjectContentIndex.scan(completeSrc), setColumnWidths);
+    }
+
+    /**
+     * Loads the given saved file.  Files in the current format are read a block
+     * at a time as they are loaded, rather than reading the whole file into memory.
+     */
+    @OnThread(Tag.Simulation)
+    public synchronized Loaded loadAll(File file,  SimulationConsumer<ImmutableList<Pair<Integer, Double>>> setColumnWidths) throws UserException, InternalException
+    {
+        try (ProjectContentIndex index = ProjectContentIndex.open(file))
+        {
+            return loadAll(index, setColumnWidths);
+        }
+    }
+
+    /**
+     * Loads from an index which has already been opened (e.g. so that its content hash
+     * can be checked first).  The index is not closed; that is up to the caller.
+     */
+    @OnThread(Tag.Simulation)
+    public synchronized Loaded loadAll(ProjectContentIndex index,  SimulationConsumer<ImmutableList<Pair<Integer, Double>>> setColumnWidths) throws UserException, InternalException
+    {
+        return loadAll(detectVersion(index.getHeaderLines().stream()), index::readAll, () -> index, setColumnWidths);
+    }
+
+    // The complete source is only fetched for the first file version, which is parsed as a whole:
+    @OnThread(Tag.Simulation)
+    private synchronized Loaded loadAll(OverallVersion version, ExSupplier<String> getCompleteSrc, ExSupplier<ProjectContentIndex> getIndex, SimulationConsumer<ImmutableList<Pair<Integer, Double>>> setColumnWidths) throws UserException, InternalException
+    {
         ImmutableList.Builder<Table> loaded = ImmutableList.builder();
         ImmutableList.Builder<StyledString> errors = ImmutableList.builder();
         List<Exception> exceptions = new ArrayList<>();
         if (Versions.getMainVersion(version) == MainVersion.ONE)
         {
-            FileContext file = Utility.parseAsOne(completeSrc, MainLexer::new, MainParser::new, p -> p.file());
+            FileContext file = Utility.parseAsOne(getCompleteSrc.get(), MainLexer::new, MainParser::new, p -> p.file());
             unitManager.clearAllUser();
             unitManager.loadUserUnits(Utility.getDetail(file.units().detail()));
             typeManager.clearAllUser();
@@ -376,7 +412,8 @@ public class TableManager
         }
         else if (Versions.getMainVersion(version) == MainVersion.TWO)
         {
-            MainParser2.FileContext file = Utility.parseAsOne(completeSrc, MainLexer2::new, MainParser2::new, p -> p.file());
+            // Only indexes the blocks; each block's detail is extracted when it is loaded:
+            ProjectContentIndex index = getIndex.get();
             
             HashMap<String, SimulationConsumer<Pair<SaveTag, String>>> contentHandlers = new HashMap<>();
             typeManager.clearAllUser();
@@ -421,10 +458,22 @@ public class TableManager
                 }
             }
             
-            for (ContentContext contentContext : file.content())
+            // Types and units are loaded first, as tables may refer to them.  Other content
+            // is loaded in file order, so that each table is shown as soon as it is loaded:
+            List<ContentBlock> definitionsFirst = new ArrayList<>();
+            List<ContentBlock> rest = new ArrayList<>();
+            for (ContentBlock block : index.getBlocks())
+            {
+                if (block.contentType.equals("TYPES") || block.contentType.equals("UNITS"))
+                    definitionsFirst.add(block);
+                else
+                    rest.add(block);
+            }
+            definitionsFirst.addAll(rest);
+            
+            for (ContentBlock block : definitionsFirst)
             {
-                String contentType = contentContext.ATOM(0).getText();
-                SimulationConsumer<Pair<SaveTag, String>> handler = contentHandlers.get(contentType);
+                SimulationConsumer<Pair<SaveTag, String>> handler = contentHandlers.get(block.contentType);
                 if (handler == null)
                 {
                     // TODO give warning, but keep content for writing again
@@ -433,7 +482,7 @@ public class TableManager
                 {
                     try
                     {
-                        handler.consume(new Pair<>(new SaveTag(contentContext.detail()), Utility.getDetail(contentContext.detail())));
+                        handler.consume(new Pair<>(block.saveTag, index.getDetail(block)));
                     }
                     catch (Exception e)
                     {
@@ -727,6 +776,12 @@ public class TableManager
      * The saved scripts are then re-run with the new data (which may mean they
      * contain errors where they did not before)
      *
+     * If nothing is being renamed, single-source transformations are not saved,
+     * but are re-created directly from the old transformation (at the same
+     * position), which avoids saving and re-parsing their whole script.  A
+     * transformation may then keep the values of columns whose inputs have not
+     * changed (see Calculate.withNewSource); everything else is calculated afresh.
+     *
      * @param affectedTableId The TableId which is affected, i.e. the table for which all dependents will need to be re-run/
      *                        If makeReplacement is non-null, this table will be removed
      * @param makeReplacement If null, existing table will be
@@ -753,10 +808,11 @@ public class TableManager
 
         // Find first affected:
         int processFrom = affected.stream().mapToInt(o -> linearised.indexOf(o)).min().orElse(-1);
-        // If it's not in affected itself, serialise it:
-        List<String> reRun = new ArrayList<>();
+        // If it's not in affected itself, serialise it (or keep it to re-create).
+        // Items are null until their script is saved:
+        List<@Nullable Either<String, SingleSourceTransformation>> reRun = new ArrayList<>();
         AtomicInteger toSave = new AtomicInteger(1); // Keep one extra until we've lined up all jobs
-        CompletableFuture<List<String>> savedToReRun = new CompletableFuture<>();
+        CompletableFuture<List<@Nullable Either<String, SingleSourceTransformation>>> savedToReRun = new CompletableFuture<>();
 
         if (processFrom != -1)
         {
@@ -765,15 +821,26 @@ public class TableManager
                 // Don't include the original changed transformation itself, unless it got renamed:
                 if (!affected.contains(linearised.get(i)) || (makeReplacement == null && renames.isRenamingTableId(linearised.get(i))))
                 {
+                    TableId dependentId = linearised.get(i);
+                    @Nullable Table existing = getSingleTableOrNull(dependentId);
+                    if (renames.isEmpty() && existing instanceof SingleSourceTransformation)
+                    {
+                        removeAndSerialise(dependentId, null, renames);
+                        reRun.add(Either.right((SingleSourceTransformation) existing));
+                        continue;
+                    }
+                    
                     // Add job:
+                    int reRunIndex = reRun.size();
+                    reRun.add(null);
                     toSave.incrementAndGet();
-                    removeAndSerialise(linearised.get(i), new Table.BlankSaver()
+                    removeAndSerialise(dependentId, new Table.BlankSaver()
                     {
                         // Ignore types and units because they are all already loaded
                         @Override
                         public @OnThread(Tag.Simulation) void saveTable(String script)
                         {
-                            reRun.add(script);
+                            reRun.set(reRunIndex, Either.left(script));
                             if (toSave.decrementAndGet() == 0)
                             {
                                 // Saved all of them
@@ -906,23 +973,31 @@ public class TableManager
     }
 
     /**
-     * Re-runs the list of scripts to re-insert a set of transformations.
+     * Re-runs the list of scripts (or re-creates the single-source transformations)
+     * to re-insert a set of tables.
      *
      * They will be re-run in order, so it is important to pass them in
      * an order where each item only depends on those before it in the list.
      */
     @OnThread(Tag.Simulation)
-    private void reAddAll(List<String> scripts)
+    private void reAddAll(List<@Nullable Either<String, SingleSourceTransformation>> toReAdd)
     {
-        for (String script : scripts)
+        for (@Nullable Either<String, SingleSourceTransformation> item : toReAdd)
         {
-            Log.debug("Reloading:\n" + script);
+            if (item == null)
+                continue;
             ErrorHandler.getErrorHandler().alertOnError_(TranslationUtility.getString("error.rerunning.transformations"), () -> {
-                ContentContext ctxt = Utility.parseAsOne(script, MainLexer2::new, MainParser2::new, (MainParser2 p) -> p.content());
-                if (ctxt.ATOM(0).getText().equals("DATA"))
-                    loadOneDataTable(new Pair<SaveTag, String>(new SaveTag(ctxt.detail()), Utility.getDetail(ctxt.detail())));
-                else if (ctxt.ATOM(0).getText().equals("TRANSFORMATION"))
-                    loadOneTransformation(new Pair<>(new SaveTag(ctxt.detail()), Utility.getDetail(ctxt.detail())), ExpressionVersion.latest());
+                item.eitherEx_(script -> {
+                    Log.debug("Reloading:\n" + script);
+                    ContentContext ctxt = Utility.parseAsOne(script, MainLexer2::new, MainParser2::new, (MainParser2 p) -> p.content());
+                    if (ctxt.ATOM(0).getText().equals("DATA"))
+                        loadOneDataTable(new Pair<SaveTag, String>(new SaveTag(ctxt.detail()), Utility.getDetail(ctxt.detail())));
+                    else if (ctxt.ATOM(0).getText().equals("TRANSFORMATION"))
+                        loadOneTransformation(new Pair<>(new SaveTag(ctxt.detail()), Utility.getDetail(ctxt.detail())), ExpressionVersion.latest());
+                }, transformation -> {
+                    // Same source, but looked up again, and all values calculated afresh:
+                    record(transformation.withNewSource(transformation.getSrcTableId()));
+                });
             });
         }
     }
@@ -25,32 +25,59 @@ import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
 import org.checkerframework.checker.nullness.qual.Nullable;
 import xyz.columnal.data.datatype.ProgressListener;;
 import xyz.columnal.data.datatype.DataType.DateTimeInfo;
+import xyz.columnal.data.datatype.DataType.DateTimeInfo.DateTimeType;
 import xyz.columnal.data.datatype.DataTypeUtility;
 import xyz.columnal.data.datatype.DataTypeValue;
 import xyz.columnal.error.InternalException;
 import xyz.columnal.error.UserException;
 import threadchecker.OnThread;
 import threadchecker.Tag;
-import xyz.columnal.utility.DumbObjectPool;
 import xyz.columnal.utility.adt.Either;
 import xyz.columnal.utility.function.simulation.SimulationRunnable;
 import xyz.columnal.utility.Utility;
 
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.YearMonth;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
 import java.time.temporal.TemporalAccessor;
 import java.util.ArrayList;
-import java.util.Comparator;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
 import java.util.stream.Stream;
 
 /**
  * Created by neil on 04/11/2016.
+ *
+ * Values are stored as primitives, and only made into TemporalAccessor objects
+ * when they are fetched.  The primary value for each row is:
+ *  - dates: the epoch day
+ *  - year-months: year * 12 + (month - 1)
+ *  - times: the nano of day
+ *  - date-times: the epoch second of the date-time at UTC
+ *  - zoned date-times: the epoch second of the instant
+ * Date-times also store the nano of second, and zoned date-times an index
+ * into a table of the zones used.
  */
 public class TemporalColumnStorage extends SparseErrorColumnStorage<TemporalAccessor> implements ColumnStorage<TemporalAccessor>
 {
-    private final ArrayList<@Value TemporalAccessor> values;
-    private final DumbObjectPool<@Value TemporalAccessor> pool;
+    private static final int INITIAL_CAPACITY = 16;
+    
     @OnThread(Tag.Any)
     private final DateTimeInfo dateTimeInfo;
+    private long[] primary = new long[INITIAL_CAPACITY];
+    // Nano of second for date-times; null until we need to store a non-zero value:
+    private int @Nullable [] nanos;
+    // Index into zones for each row.  Null unless we are zoned date-times:
+    private int @Nullable [] zoneIndexes;
+    private final ArrayList<ZoneId> zones = new ArrayList<>();
+    private final HashMap<ZoneId, Integer> zoneIndexOf = new HashMap<>();
+    private int size = 0;
     
     @OnThread(value = Tag.Any,requireSynchronized = true)
     private @MonotonicNonNull DataTypeValue dataType;
@@ -64,23 +91,23 @@ public class TemporalColumnStorage extends SparseErrorColumnStorage<TemporalAcce
     public TemporalColumnStorage(DateTimeInfo dateTimeInfo, @Nullable BeforeGet<TemporalColumnStorage> beforeGet, boolean isImmediateData) throws InternalException
     {
         super(isImmediateData);
-        this.values = new ArrayList<>();
-        this.pool = new DumbObjectPool<>((Class<@Value TemporalAccessor>)TemporalAccessor.class, 1000, (Comparator<@Value TemporalAccessor>)dateTimeInfo.getComparator(true));
         this.dateTimeInfo = dateTimeInfo;
         this.beforeGet = beforeGet;
+        if (dateTimeInfo.getType() == DateTimeType.DATETIMEZONED)
+            this.zoneIndexes = new int[INITIAL_CAPACITY];
     }
 
     @Override
     public int filled()
     {
-        return values.size();
+        return size;
     }
 
     private @Value TemporalAccessor get(int index, @Nullable ProgressListener progressListener) throws InternalException, UserException
     {
         if (index < 0 || index >= filled())
             throw new UserException("Attempting to access invalid element: " + index + " of " + filled());
-        return values.get(index);
+        return load(index);
     }
 
     @Override
@@ -89,16 +116,18 @@ public class TemporalColumnStorage extends SparseErrorColumnStorage<TemporalAcce
         for (Either<String, TemporalAccessor> item : Utility.iterableStream(items))
         {
             TemporalAccessor t = item.eitherInt(err -> {
-                setError(values.size(), err);
+                setError(size, err);
                 return dateTimeInfo.getDefaultValue();
             }, v -> v);
             @Value TemporalAccessor value = DataTypeUtility.value(dateTimeInfo, t);
             if (value == null)
             {
-                setError(values.size(), t.toString());
+                setError(size, t.toString());
                 value = dateTimeInfo.getDefaultValue();
             }
-            this.values.add(pool.pool(value));
+            ensureCapacity(size + 1);
+            store(size, value);
+            size += 1;
         }
     }
 
@@ -133,8 +162,10 @@ public class TemporalColumnStorage extends SparseErrorColumnStorage<TemporalAcce
                 @Override
                 public void _set(int index, @Nullable @Value TemporalAccessor value) throws InternalException, UserException
                 {
+                    if (index < 0 || index >= size)
+                        throw new InternalException("Trying to set value at invalid index: " + index + " length is: " + size);
                     if (value != null)
-                        values.set(index, value);
+                        store(index, value);
                 }
             });
         }
@@ -144,20 +175,17 @@ public class TemporalColumnStorage extends SparseErrorColumnStorage<TemporalAcce
     @Override
     public SimulationRunnable _insertRows(int index, List<@Nullable TemporalAccessor> items) throws InternalException
     {
-        if (index < 0 || index > values.size())
-            throw new InternalException("Trying to insert rows at invalid index: " + index + " length is: " + values.size());
-        values.ensureCapacity(values.size() + items.size());
+        if (index < 0 || index > size)
+            throw new InternalException("Trying to insert rows at invalid index: " + index + " length is: " + size);
+        openGap(index, items.size());
         int curIndex = index;
         for (@Nullable TemporalAccessor item : items)
         {
             @Value TemporalAccessor itemValue = item == null ? null : DataTypeUtility.value(dateTimeInfo, item);
             if (itemValue == null)
-            {
-                @Value TemporalAccessor dummy = dateTimeInfo.getDefaultValue();
-                values.add(curIndex, pool.pool(dummy));
-            }
+                store(curIndex, dateTimeInfo.getDefaultValue());
             else
-                values.add(curIndex, pool.pool(itemValue));
+                store(curIndex, itemValue);
             
             curIndex += 1;
         }
@@ -168,10 +196,136 @@ public class TemporalColumnStorage extends SparseErrorColumnStorage<TemporalAcce
     @Override
     public SimulationRunnable _removeRows(int index, int count) throws InternalException
     {
-        if (index < 0 || index > values.size())
-            throw new InternalException("Trying to remove rows at invalid index: " + index + " length is: " + values.size());
-        List<@Value TemporalAccessor> old = new ArrayList<>(values.subList(index, index + count));
-        values.subList(index, index + count).clear();
-        return () -> values.addAll(index, old);
+        if (index < 0 || index + count > size)
+            throw new InternalException("Trying to remove rows at invalid index: " + index + " + " + count + " length is: " + size);
+        List<@Value TemporalAccessor> old = new ArrayList<>(count);
+        for (int i = index; i < index + count; i++)
+        {
+            old.add(load(i));
+        }
+        closeGap(index, count);
+        return () -> {
+            openGap(index, old.size());
+            for (int i = 0; i < old.size(); i++)
+            {
+                store(index + i, old.get(i));
+            }
+        };
+    }
+
+    private void ensureCapacity(int capacity)
+    {
+        if (capacity > primary.length)
+        {
+            int newLength = Math.max(capacity, primary.length * 2);
+            primary = Arrays.copyOf(primary, newLength);
+            if (nanos != null)
+                nanos = Arrays.copyOf(nanos, newLength);
+            if (zoneIndexes != null)
+                zoneIndexes = Arrays.copyOf(zoneIndexes, newLength);
+        }
+    }
+
+    // Makes space for count rows at index, moving the later rows up.  The new rows must then be stored.
+    private void openGap(int index, int count)
+    {
+        ensureCapacity(size + count);
+        System.arraycopy(primary, index, primary, index + count, size - index);
+        if (nanos != null)
+            System.arraycopy(nanos, index, nanos, index + count, size - index);
+        if (zoneIndexes != null)
+            System.arraycopy(zoneIndexes, index, zoneIndexes, index + count, size - index);
+        size += count;
+    }
+
+    private void closeGap(int index, int count)
+    {
+        System.arraycopy(primary, index + count, primary, index, size - (index + count));
+        if (nanos != null)
+            System.arraycopy(nanos, index + count, nanos, index, size - (index + count));
+        if (zoneIndexes != null)
+            System.arraycopy(zoneIndexes, index + count, zoneIndexes, index, size - (index + count));
+        size -= count;
+    }
+
+    // Index must be less than the capacity.  Value must be of the type for our DateTimeInfo
+    private void store(int index, @Value TemporalAccessor value) throws InternalException
+    {
+        switch (dateTimeInfo.getType())
+        {
+            case YEARMONTHDAY:
+                primary[index] = Utility.cast(value, LocalDate.class).toEpochDay();
+                break;
+            case YEARMONTH:
+                YearMonth yearMonth = Utility.cast(value, YearMonth.class);
+                primary[index] = yearMonth.getYear() * 12L + (yearMonth.getMonthValue() - 1);
+                break;
+            case TIMEOFDAY:
+                primary[index] = Utility.cast(value, LocalTime.class).toNanoOfDay();
+                break;
+            case DATETIME:
+                LocalDateTime dateTime = Utility.cast(value, LocalDateTime.class);
+                primary[index] = dateTime.toEpochSecond(ZoneOffset.UTC);
+                storeNano(index, dateTime.getNano());
+                break;
+            case DATETIMEZONED:
+                ZonedDateTime zonedDateTime = Utility.cast(value, ZonedDateTime.class);
+                primary[index] = zonedDateTime.toEpochSecond();
+                storeNano(index, zonedDateTime.getNano());
+                storeZone(index, zonedDateTime.getZone());
+                break;
+        }
+    }
+
+    private void storeNano(int index, int nano)
+    {
+        int[] nanos = this.nanos;
+        if (nanos == null)
+        {
+            // All zero so far, so no need to store:
+            if (nano == 0)
+                return;
+            nanos = new int[primary.length];
+            this.nanos = nanos;
+        }
+        nanos[index] = nano;
+    }
+
+    private void storeZone(int index, ZoneId zone) throws InternalException
+    {
+        int[] zoneIndexes = this.zoneIndexes;
+        if (zoneIndexes == null)
+            throw new InternalException("Storing zone for non-zoned date-time");
+        Integer zoneIndex = zoneIndexOf.get(zone);
+        if (zoneIndex == null)
+        {
+            zoneIndex = zones.size();
+            zones.add(zone);
+            zoneIndexOf.put(zone, zoneIndex);
+        }
+        zoneIndexes[index] = zoneIndex;
+    }
+
+    @SuppressWarnings("valuetype")
+    private @Value TemporalAccessor load(int index) throws InternalException
+    {
+        long p = primary[index];
+        int nano = nanos == null ? 0 : nanos[index];
+        switch (dateTimeInfo.getType())
+        {
+            case YEARMONTHDAY:
+                return LocalDate.ofEpochDay(p);
+            case YEARMONTH:
+                return YearMonth.of((int)Math.floorDiv(p, 12L), (int)Math.floorMod(p, 12L) + 1);
+            case TIMEOFDAY:
+                return LocalTime.ofNanoOfDay(p);
+            case DATETIME:
+                return LocalDateTime.ofEpochSecond(p, nano, ZoneOffset.UTC);
+            case DATETIMEZONED:
+                if (zoneIndexes == null)
+                    throw new InternalException("Missing zones for zoned date-time");
+                return ZonedDateTime.ofInstant(Instant.ofEpochSecond(p, nano), zones.get(zoneIndexes[index]));
+        }
+        throw new InternalException("Unknown date type: " + dateTimeInfo.getType());
     }
 }
@@ -41,8 +41,8 @@ import xyz.columnal.utility.function.ExBiConsumer;
 import xyz.columnal.utility.function.ExFunction;
 import xyz.columnal.utility.function.FunctionInt;
 import xyz.columnal.utility.TaggedValue;
+import xyz.columnal.utility.TextFileRowReader;
 import xyz.columnal.utility.Utility;
-import xyz.columnal.utility.Utility.ReadState;
 
 import java.io.IOException;
 import java.time.temporal.TemporalAccessor;
@@ -55,31 +55,27 @@ import java.util.function.UnaryOperator;
  */
 public final class TextFileColumn extends Column
 {
-    private final @Nullable String sep;
     private final int columnIndex;
-    private final boolean lastColumn;
-    private ReadState reader;
+    // Shared with the other columns from the same file:
+    private final TextFileRowReader reader;
     @OnThread(Tag.Any)
     private final DataTypeValue type;
 
-    protected <S extends ColumnStorage<?>> TextFileColumn(RecordSet recordSet, ReadState reader, @Nullable String sep, @Nullable String quote,
-                                                          ColumnId columnName, int columnIndex, int totalColumns,
+    protected <S extends ColumnStorage<?>> TextFileColumn(RecordSet recordSet, TextFileRowReader reader,
+                                                          ColumnId columnName, int columnIndex,
                                                           ExFunction<@Nullable BeforeGet<S>, S> createStorage,
                                                           ExBiConsumer<S, ArrayList<String>> addValues) throws InternalException, UserException
     {
         super(recordSet, columnName);
-        this.sep = sep;
         this.reader = reader;
         this.columnIndex = columnIndex;
-        this.lastColumn = columnIndex == totalColumns - 1;
         S theStorage = createStorage.apply((storage, rowIndex, prog) -> {
             try
             {
                 while (rowIndex >= storage.filled())
                 {
-                    // Should we share loading across columns for the same file?
                     ArrayList<String> next = new ArrayList<>();
-                    this.reader = Utility.readColumnChunk(this.reader, sep, quote, columnIndex, next);
+                    reader.readColumnChunk(columnIndex, next);
                     addValues.accept(storage, next);
                     // If we're not adding any more, give up and thus prevent infinite loop:
                     if (next.isEmpty())
@@ -102,18 +98,18 @@ public final class TextFileColumn extends Column
         return type;
     }
 
-    public static TextFileColumn dateColumn(RecordSet recordSet, ReadState reader, @Nullable String sep, @Nullable String quote, ColumnId columnName, int columnIndex, int totalColumns, DateTimeInfo dateTimeInfo, FunctionInt<String, Either<String, TemporalAccessor>> parse) throws InternalException, UserException
+    public static TextFileColumn dateColumn(RecordSet recordSet, TextFileRowReader reader, ColumnId columnName, int columnIndex, DateTimeInfo dateTimeInfo, FunctionInt<String, Either<String, TemporalAccessor>> parse) throws InternalException, UserException
     {
-        return new TextFileColumn(recordSet, reader, sep, quote, columnName, columnIndex, totalColumns, 
+        return new TextFileColumn(recordSet, reader, columnName, columnIndex, 
             (BeforeGet<TemporalColumnStorage> fill) -> new TemporalColumnStorage(dateTimeInfo, fill, true),
             (storage, values) -> storage.addAll(Utility.<String, Either<String, TemporalAccessor>>mapListInt(values, parse).stream())
         );
 
     }
 
-    public static TextFileColumn numericColumn(RecordSet recordSet, ReadState reader, @Nullable String sep, @Nullable String quote, ColumnId columnName, int columnIndex, int totalColumns, NumberInfo numberInfo, @Nullable UnaryOperator<String> processString) throws InternalException, UserException
+    public static TextFileColumn numericColumn(RecordSet recordSet, TextFileRowReader reader, ColumnId columnName, int columnIndex, NumberInfo numberInfo, @Nullable UnaryOperator<String> processString) throws InternalException, UserException
     {
-        return new TextFileColumn(recordSet, reader, sep, quote, columnName, columnIndex, totalColumns, 
+        return new TextFileColumn(recordSet, reader, columnName, columnIndex, 
             (BeforeGet<NumericColumnStorage> fill) -> new NumericColumnStorage(numberInfo, fill, true),
             (storage, values) ->
             {
@@ -128,17 +124,17 @@ public final class TextFileColumn extends Column
         );
     }
 
-    public static TextFileColumn stringColumn(RecordSet recordSet, ReadState reader, @Nullable String sep, @Nullable String quote, ColumnId columnName, int columnIndex, int totalColumns) throws InternalException, UserException
+    public static TextFileColumn stringColumn(RecordSet recordSet, TextFileRowReader reader, ColumnId columnName, int columnIndex) throws InternalException, UserException
     {
-        return new TextFileColumn(recordSet, reader, sep, quote, columnName, columnIndex, totalColumns,
+        return new TextFileColumn(recordSet, reader, columnName, columnIndex,
             (BeforeGet<StringColumnStorage> fill) -> new StringColumnStorage(fill, true),
             (storage, values) -> storage.addAll(values.stream().map(x -> Either.<String, String>right(x)))
         );
     }
 
-    public static <DT extends DataType> TextFileColumn taggedColumn(RecordSet recordSet, ReadState reader, @Nullable String sep, @Nullable String quote, ColumnId columnName, int columnIndex, int totalColumns, TypeId typeName, ImmutableList<Either<Unit, DataType>> typeVars, List<TagType<DT>> tagTypes, ExFunction<String, Either<String, TaggedValue>> parseValue) throws InternalException, UserException
+    public static <DT extends DataType> TextFileColumn taggedColumn(RecordSet recordSet, TextFileRowReader reader, ColumnId columnName, int columnIndex, TypeId typeName, ImmutableList<Either<Unit, DataType>> typeVars, List<TagType<DT>> tagTypes, ExFunction<String, Either<String, TaggedValue>> parseValue) throws InternalException, UserException
     {
-        return new TextFileColumn(recordSet, reader, sep, quote, columnName, columnIndex, totalColumns,
+        return new TextFileColumn(recordSet, reader, columnName, columnIndex,
             (BeforeGet<TaggedColumnStorage> fill) -> new TaggedColumnStorage(typeName, typeVars, tagTypes, fill, true),
             (storage, values) -> {
                 storage.addAll(Utility.mapListEx(values, parseValue).stream());
@@ -0,0 +1,1152 @@
+/*
+ * Columnal: Safer, smoother data table processing.
+ * Copyright (c) Neil Brown, 2016-2020, 2022.
+ *
+ * This file is part of Columnal.
+ *
+ * Columnal is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * Columnal is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with Columnal. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package xyz.columnal.transformations.expression;
+
+import annotation.identifier.qual.ExpressionIdentifier;
+import annotation.qual.Value;
+import annotation.recorded.qual.Recorded;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import org.checkerframework.checker.nullness.qual.NonNull;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import threadchecker.OnThread;
+import threadchecker.Tag;
+import xyz.columnal.data.datatype.DataType;
+import xyz.columnal.data.datatype.DataType.DateTimeInfo;
+import xyz.columnal.data.datatype.DataType.DateTimeInfo.DateTimeType;
+import xyz.columnal.data.datatype.DataType.TagType;
+import xyz.columnal.data.datatype.DataTypeUtility;
+import xyz.columnal.data.datatype.DataTypeValue;
+import xyz.columnal.data.datatype.DataTypeValue.DataTypeVisitorGetEx;
+import xyz.columnal.data.datatype.DataTypeValue.GetValue;
+import xyz.columnal.data.datatype.NumberInfo;
+import xyz.columnal.data.datatype.TypeId;
+import xyz.columnal.data.datatype.TypeManager;
+import xyz.columnal.data.unit.Unit;
+import xyz.columnal.error.InternalException;
+import xyz.columnal.error.UserException;
+import xyz.columnal.log.Log;
+import xyz.columnal.transformations.expression.AddSubtractExpression.AddSubtractOp;
+import xyz.columnal.transformations.expression.ComparisonExpression.ComparisonOperator;
+import xyz.columnal.transformations.expression.MatchExpression.MatchClause;
+import xyz.columnal.transformations.expression.MatchExpression.Pattern;
+import xyz.columnal.transformations.expression.visitor.ExpressionVisitorFlat;
+import xyz.columnal.styled.StyledString;
+import xyz.columnal.utility.Utility;
+import xyz.columnal.utility.Utility.ListEx;
+import xyz.columnal.utility.Utility.Record;
+import xyz.columnal.utility.TaggedValue;
+import xyz.columnal.utility.adt.Either;
+
+import java.math.BigDecimal;
+import java.time.temporal.TemporalAccessor;
+import java.util.Arrays;
+import java.util.List;
+import java.util.OptionalInt;
+
+/**
+ * Evaluates a type-checked expression for a whole block of rows at once, rather than
+ * calling calculateValue once per row.  Numbers are held in primitive arrays where possible,
+ * and no explanations are recorded.
+ *
+ * Only some kinds of expression are evaluated this way: literals, column references, the row number,
+ * arithmetic (other than raise), comparisons, equality, and/or, if-then-else, text concatenation
+ * and matches where every pattern is a literal or "_".  Any other sub-expression is evaluated
+ * using calculateValue for each row.
+ *
+ * Rows where evaluation fails are marked as failed in the result, rather than recording the error.
+ * The caller should evaluate those rows again using calculateValue, to get the exact value or error.
+ */
+@OnThread(Tag.Simulation)
+public final class BatchEvaluator
+{
+    private final Node root;
+
+    private BatchEvaluator(Node root)
+    {
+        this.root = root;
+    }
+
+    /**
+     * Makes a batch evaluator for the given expression, which must have been type-checked.
+     * Returns null if the outermost part of the expression can't be evaluated in batches,
+     * as there would then be no benefit over using calculateValue for each row.
+     */
+    public static @Nullable BatchEvaluator compile(Expression expression, TypeManager typeManager)
+    {
+        return compile(expression, typeManager, null);
+    }
+
+    /**
+     * Like compile, but any parts of the expression evaluated by calculateValue
+     * will use the given cache for their row-invariant parts.
+     */
+    public static @Nullable BatchEvaluator compile(Expression expression, TypeManager typeManager, @Nullable RowInvariantCache invariantCache)
+    {
+        @Nullable Node root = compileNode(expression, typeManager, invariantCache);
+        return root == null ? null : new BatchEvaluator(root);
+    }
+
+    /**
+     * Evaluates the expression for rows startRow (inclusive) to startRow + count (exclusive).
+     * Item i in the result is for row startRow + i.
+     */
+    public Vector evaluate(int startRow, int count) throws InternalException
+    {
+        return root.evaluate(startRow, count, null);
+    }
+
+    /**
+     * The results of evaluating a block of rows.
+     */
+    public static abstract class Vector
+    {
+        protected final boolean[] failed;
+
+        private Vector(int count)
+        {
+            this.failed = new boolean[count];
+        }
+
+        public final int size()
+        {
+            return failed.length;
+        }
+
+        /**
+         * If true, the row could not be evaluated, and should be evaluated again using calculateValue.
+         */
+        public final boolean isFailed(int index)
+        {
+            return failed[index];
+        }
+
+        /**
+         * Gets the value.  Only valid if isFailed(index) is false.
+         */
+        public abstract @Value Object get(int index) throws InternalException;
+    }
+
+    public static final class NumberVector extends Vector
+    {
+        private final long[] longs;
+        // Allocated on demand.  A non-null item takes precedence over the long (used for BigDecimal):
+        private @Nullable @Value Number @Nullable [] numbers;
+
+        private NumberVector(int count)
+        {
+            super(count);
+            this.longs = new long[count];
+        }
+
+        /**
+         * If true, the value is an integer available from getLong without boxing.
+         */
+        public boolean isLong(int index)
+        {
+            return numbers == null || numbers[index] == null;
+        }
+
+        public long getLong(int index)
+        {
+            return longs[index];
+        }
+
+        @Override
+        public @Value Number get(int index)
+        {
+            if (numbers != null)
+            {
+                @Nullable @Value Number n = numbers[index];
+                if (n != null)
+                    return n;
+            }
+            return DataTypeUtility.value(longs[index]);
+        }
+
+        private void set(int index, @Value Number n)
+        {
+            if (n instanceof BigDecimal)
+            {
+                if (numbers == null)
+                    numbers = new Number[longs.length];
+                numbers[index] = n;
+            }
+            else
+            {
+                longs[index] = n.longValue();
+            }
+        }
+
+        private void copyFrom(int index, NumberVector src)
+        {
+            if (src.isLong(index))
+                longs[index] = src.longs[index];
+            else
+                set(index, src.get(index));
+        }
+    }
+
+    public static final class BooleanVector extends Vector
+    {
+        private final boolean[] values;
+
+        private BooleanVector(int count)
+        {
+            super(count);
+            this.values = new boolean[count];
+        }
+
+        public boolean getBoolean(int index)
+        {
+            return values[index];
+        }
+
+        @Override
+        public @Value Boolean get(int index)
+        {
+            return DataTypeUtility.value(values[index]);
+        }
+    }
+
+    public static final class ObjectVector extends Vector
+    {
+        private final @Nullable @Value Object[] values;
+
+        private ObjectVector(int count)
+        {
+            super(count);
+            this.values = new Object[count];
+        }
+
+        @Override
+        public @Value Object get(int index) throws InternalException
+        {
+            @Nullable @Value Object value = values[index];
+            if (value == null)
+                throw new InternalException("Fetching value from failed row " + index);
+            return value;
+        }
+    }
+
+    /**
+     * A compiled expression.
+     */
+    private static interface Node
+    {
+        /**
+         * Evaluates the rows.  If active is non-null, rows where it is false do not need to be
+         * evaluated, and are marked as failed in the result.
+         */
+        public Vector evaluate(int startRow, int count, boolean @Nullable [] active) throws InternalException;
+    }
+
+    private static boolean isActive(boolean @Nullable [] active, int index)
+    {
+        return active == null || active[index];
+    }
+
+    private static Node compileOrPerRow(Expression expression, TypeManager typeManager, @Nullable RowInvariantCache invariantCache)
+    {
+        @Nullable Node node = compileNode(expression, typeManager, invariantCache);
+        return node != null ? node : new PerRowNode(expression, typeManager, invariantCache);
+    }
+
+    private static ImmutableList<Node> compileAll(List<@Recorded Expression> expressions, TypeManager typeManager, @Nullable RowInvariantCache invariantCache)
+    {
+        return Utility.<@Recorded Expression, Node>mapListI(expressions, e -> compileOrPerRow(e, typeManager, invariantCache));
+    }
+
+    // If any are an implicit lambda argument, the parent expression is a function, which we don't handle:
+    private static boolean anyImplicitLambda(List<@Recorded Expression> expressions)
+    {
+        return expressions.stream().anyMatch(e -> e instanceof ImplicitLambdaArg);
+    }
+
+    // Pattern matches in an "and" or an "if" condition can declare variables for use in later
+    // parts of the expression, which we can't handle as each part is evaluated separately.
+    @SuppressWarnings("recorded")
+    private static boolean declaresVariables(Expression expression)
+    {
+        return expression.visit(new ExpressionVisitorFlat<Boolean>()
+        {
+            @Override
+            protected Boolean makeDef(Expression expression)
+            {
+                return false;
+            }
+
+            @Override
+            public Boolean equal(EqualExpression self, ImmutableList<@Recorded Expression> expressions, boolean lastIsPattern)
+            {
+                return lastIsPattern;
+            }
+
+            @Override
+            public Boolean and(AndExpression self, ImmutableList<@Recorded Expression> expressions)
+            {
+                return expressions.stream().anyMatch(e -> declaresVariables(e));
+            }
+        });
+    }
+
+    @SuppressWarnings("recorded")
+    private static @Nullable Node compileNode(Expression expression, TypeManager typeManager, @Nullable RowInvariantCache invariantCache)
+    {
+        return expression.visit(new ExpressionVisitorFlat<@Nullable Node>()
+        {
+            @Override
+            protected @Nullable Node makeDef(Expression expression)
+            {
+                return null;
+            }
+
+            private @Nullable Node constant(Expression literal)
+            {
+                try
+                {
+                    return new ConstantNode(literal.calculateValue(new EvaluateState(typeManager, OptionalInt.empty())).value);
+                }
+                catch (InternalException | UserException e)
+                {
+                    Log.log(e);
+                    return null;
+                }
+            }
+
+            @Override
+            public @Nullable Node litNumber(NumericLiteral self, @Value Number value, @Nullable UnitExpression unit)
+            {
+                return new ConstantNode(value);
+            }
+
+            @Override
+            public @Nullable Node litBoolean(BooleanLiteral self, @Value Boolean value)
+            {
+                return new ConstantNode(value);
+            }
+
+            @Override
+            public @Nullable Node litText(StringLiteral self, String rawValue)
+            {
+                return constant(self);
+            }
+
+            @Override
+            public @Nullable Node litTemporal(TemporalLiteral self, DateTimeType literalType, String content, Either<StyledString, TemporalAccessor> value)
+            {
+                return constant(self);
+            }
+
+            @Override
+            public @Nullable Node ident(@Recorded IdentExpression self, @Nullable @ExpressionIdentifier String namespace, ImmutableList<@ExpressionIdentifier String> idents, boolean isVariable)
+            {
+                if (isVariable)
+                {
+                    // The only variable which can be in scope outside all our supported expressions is the row number:
+                    return idents.size() == 1 && idents.get(0).equals(TypeState.ROW_NUMBER) ? new RowNumberNode() : null;
+                }
+                @Nullable DataTypeValue column = self.getResolvedColumn();
+                if (column == null)
+                    return null;
+                try
+                {
+                    return ColumnNode.make(column);
+                }
+                catch (InternalException e)
+                {
+                    Log.log(e);
+                    return null;
+                }
+            }
+
+            @Override
+            public @Nullable Node addSubtract(AddSubtractExpression self, ImmutableList<@Recorded Expression> expressions, ImmutableList<AddSubtractOp> ops)
+            {
+                if (anyImplicitLambda(expressions))
+                    return null;
+                return new ArithmeticNode(compileAll(expressions, typeManager, invariantCache), ops, false);
+            }
+
+            @Override
+            public @Nullable Node multiply(TimesExpression self, ImmutableList<@Recorded Expression> expressions)
+            {
+                if (anyImplicitLambda(expressions))
+                    return null;
+                return new ArithmeticNode(compileAll(expressions, typeManager, invariantCache), ImmutableList.of(), true);
+            }
+
+            @Override
+            public @Nullable Node divide(DivideExpression self, @Recorded Expression lhs, @Recorded Expression rhs)
+            {
+                if (anyImplicitLambda(ImmutableList.of(lhs, rhs)))
+                    return null;
+                return new DivideNode(compileOrPerRow(lhs, typeManager, invariantCache), compileOrPerRow(rhs, typeManager, invariantCache));
+            }
+
+            @Override
+            public @Nullable Node comparison(ComparisonExpression self, ImmutableList<@Recorded Expression> expressions, ImmutableList<ComparisonOperator> operators)
+            {
+                if (anyImplicitLambda(expressions))
+                    return null;
+                return new ComparisonNode(compileAll(expressions, typeManager, invariantCache), Utility.<ComparisonOperator, CompareTest>mapListI(operators, BatchEvaluator::test), false);
+            }
+
+            @Override
+            public @Nullable Node equal(EqualExpression self, ImmutableList<@Recorded Expression> expressions, boolean lastIsPattern)
+            {
+                if (lastIsPattern || anyImplicitLambda(expressions))
+                    return null;
+                ImmutableList.Builder<CompareTest> tests = ImmutableList.builder();
+                for (int i = 1; i < expressions.size(); i++)
+                {
+                    tests.add(c -> c == 0);
+                }
+                return new ComparisonNode(compileAll(expressions, typeManager, invariantCache), tests.build(), true);
+            }
+
+            @Override
+            public @Nullable Node notEqual(NotEqualExpression self, @Recorded Expression lhs, @Recorded Expression rhs)
+            {
+                if (anyImplicitLambda(ImmutableList.of(lhs, rhs)))
+                    return null;
+                return new ComparisonNode(compileAll(ImmutableList.of(lhs, rhs), typeManager, invariantCache), ImmutableList.<CompareTest>of(c -> c != 0), false);
+            }
+
+            @Override
+            public @Nullable Node and(AndExpression self, ImmutableList<@Recorded Expression> expressions)
+            {
+                if (anyImplicitLambda(expressions) || expressions.stream().anyMatch(e -> declaresVariables(e)))
+                    return null;
+                return new AndOrNode(compileAll(expressions, typeManager, invariantCache), true);
+            }
+
+            @Override
+            public @Nullable Node or(OrExpression self, ImmutableList<@Recorded Expression> expressions)
+            {
+                if (anyImplicitLambda(expressions))
+                    return null;
+                return new AndOrNode(compileAll(expressions, typeManager, invariantCache), false);
+            }
+
+            @Override
+            public @Nullable Node ifThenElse(IfThenElseExpression self, @Recorded Expression condition, @Recorded Expression thenExpression, @Recorded Expression elseExpression)
+            {
+                if (anyImplicitLambda(ImmutableList.of(condition, thenExpression, elseExpression)) || declaresVariables(condition))
+                    return null;
+                return new ChoiceNode(compileOrPerRow(condition, typeManager, invariantCache), ImmutableList.<ImmutableList<ConstantNode>>of(ImmutableList.of(new ConstantNode(DataTypeUtility.value(true))), ImmutableList.<ConstantNode>of()), ImmutableList.of(compileOrPerRow(thenExpression, typeManager, invariantCache), compileOrPerRow(elseExpression, typeManager, invariantCache)));
+            }
+
+            @Override
+            public @Nullable Node match(MatchExpression self, @Recorded Expression expression, ImmutableList<MatchClause> clauses)
+            {
+                ImmutableList.Builder<ImmutableList<ConstantNode>> clausePatterns = ImmutableList.builder();
+                ImmutableList.Builder<Node> outcomes = ImmutableList.builder();
+                for (MatchClause clause : clauses)
+                {
+                    ImmutableList.Builder<ConstantNode> patterns = ImmutableList.builder();
+                    boolean matchesAnything = false;
+                    for (Pattern pattern : clause.getPatterns())
+                    {
+                        if (pattern.getGuard() != null)
+                            return null;
+                        if (pattern.getPattern() instanceof MatchAnythingExpression)
+                        {
+                            matchesAnything = true;
+                            continue;
+                        }
+                        @Nullable Node patternNode = pattern.getPattern() instanceof Literal ? compileNode(pattern.getPattern(), typeManager, invariantCache) : null;
+                        if (!(patternNode instanceof ConstantNode))
+                            return null;
+                        patterns.add((ConstantNode) patternNode);
+                    }
+                    // An empty list of patterns means match anything:
+                    clausePatterns.add(matchesAnything ? ImmutableList.of() : patterns.build());
+                    outcomes.add(compileOrPerRow(clause.getOutcome(), typeManager, invariantCache));
+                }
+                return new ChoiceNode(compileOrPerRow(expression, typeManager, invariantCache), clausePatterns.build(), outcomes.build());
+            }
+
+            @Override
+            public @Nullable Node concatText(StringConcatExpression self, ImmutableList<@Recorded Expression> expressions)
+            {
+                if (anyImplicitLambda(expressions))
+                    return null;
+                return new ConcatNode(compileAll(expressions, typeManager, invariantCache));
+            }
+        });
+    }
+
+    private static NumberVector asNumbers(Vector vector) throws InternalException
+    {
+        if (vector instanceof NumberVector)
+            return (NumberVector) vector;
+        NumberVector r = new NumberVector(vector.size());
+        for (int i = 0; i < r.size(); i++)
+        {
+            if (vector.failed[i])
+                r.failed[i] = true;
+            else
+                r.set(i, Utility.cast(vector.get(i), Number.class));
+        }
+        return r;
+    }
+
+    private static BooleanVector asBooleans(Vector vector) throws InternalException
+    {
+        if (vector instanceof BooleanVector)
+            return (BooleanVector) vector;
+        BooleanVector r = new BooleanVector(vector.size());
+        for (int i = 0; i < r.size(); i++)
+        {
+            if (vector.failed[i])
+                r.failed[i] = true;
+            else
+                r.values[i] = Utility.cast(vector.get(i), Boolean.class);
+        }
+        return r;
+    }
+
+    // Compares the same row in two vectors, with the same semantics as Utility.compareValues
+    private static int compare(Vector a, Vector b, int index) throws InternalException, UserException
+    {
+        if (a instanceof NumberVector && b instanceof NumberVector && ((NumberVector) a).isLong(index) && ((NumberVector) b).isLong(index))
+            return Long.compare(((NumberVector) a).getLong(index), ((NumberVector) b).getLong(index));
+        return Utility.compareValues(a.get(index), b.get(index));
+    }
+
+    private static interface CompareTest
+    {
+        // Given result of compare, is the comparison true?
+        public boolean test(int compareResult);
+    }
+
+    private static CompareTest test(ComparisonOperator operator)
+    {
+        switch (operator)
+        {
+            case LESS_THAN:
+                return c -> c < 0;
+            case LESS_THAN_OR_EQUAL_TO:
+                return c -> c <= 0;
+            case GREATER_THAN:
+                return c -> c > 0;
+            case GREATER_THAN_OR_EQUAL_TO:
+            default:
+                return c -> c >= 0;
+        }
+    }
+
+    private static final class ConstantNode implements Node
+    {
+        private final @Value Object value;
+
+        public ConstantNode(@Value Object value)
+        {
+            this.value = value;
+        }
+
+        @Override
+        public Vector evaluate(int startRow, int count, boolean @Nullable [] active)
+        {
+            if (value instanceof Number)
+            {
+                NumberVector r = new NumberVector(count);
+                for (int i = 0; i < count; i++)
+                {
+                    r.set(i, (@Value Number) value);
+                }
+                return r;
+            }
+            else if (value instanceof Boolean)
+            {
+                BooleanVector r = new BooleanVector(count);
+                Arrays.fill(r.values, (Boolean) value);
+                return r;
+            }
+            else
+            {
+                ObjectVector r = new ObjectVector(count);
+                Arrays.fill(r.values, value);
+                return r;
+            }
+        }
+    }
+
+    private static final class RowNumberNode implements Node
+    {
+        @Override
+        public Vector evaluate(int startRow, int count, boolean @Nullable [] active)
+        {
+            NumberVector r = new NumberVector(count);
+            for (int i = 0; i < count; i++)
+            {
+                // Row numbers are one-based in expressions:
+                r.longs[i] = startRow + i + 1;
+            }
+            return r;
+        }
+    }
+
+    private static abstract class ColumnNode implements Node
+    {
+        public static Node make(DataTypeValue column) throws InternalException
+        {
+            return column.applyGet(new DataTypeVisitorGetEx<Node, InternalException>()
+            {
+                @Override
+                public Node number(GetValue<@Value Number> g, NumberInfo displayInfo)
+                {
+                    return new ColumnNode()
+                    {
+                        @Override
+                        protected Vector make(int count)
+                        {
+                            return new NumberVector(count);
+                        }
+
+                        @Override
+                        protected void fetch(Vector dest, int index, int row) throws InternalException, UserException
+                        {
+                            ((NumberVector) dest).set(index, g.get(row));
+                        }
+                    };
+                }
+
+                @Override
+                public Node bool(GetValue<@Value Boolean> g)
+                {
+                    return new ColumnNode()
+                    {
+                        @Override
+                        protected Vector make(int count)
+                        {
+                            return new BooleanVector(count);
+                        }
+
+                        @Override
+                        protected void fetch(Vector dest, int index, int row) throws InternalException, UserException
+                        {
+                            ((BooleanVector) dest).values[index] = g.get(row);
+                        }
+                    };
+                }
+
+                private <T extends @NonNull @Value Object> Node object(GetValue<T> g)
+                {
+                    return new ColumnNode()
+                    {
+                        @Override
+                        protected Vector make(int count)
+                        {
+                            return new ObjectVector(count);
+                        }
+
+                        @Override
+                        protected void fetch(Vector dest, int index, int row) throws InternalException, UserException
+                        {
+                            ((ObjectVector) dest).values[index] = g.get(row);
+                        }
+                    };
+                }
+
+                @Override
+                public Node text(GetValue<@Value String> g)
+                {
+                    return object(g);
+                }
+
+                @Override
+                public Node date(DateTimeInfo dateTimeInfo, GetValue<@Value TemporalAccessor> g)
+                {
+                    return object(g);
+                }
+
+                @Override
+                public Node tagged(TypeId typeName, ImmutableList<Either<Unit, DataType>> typeVars, ImmutableList<TagType<DataType>> tagTypes, GetValue<@Value TaggedValue> g)
+                {
+                    return object(g);
+                }
+
+                @Override
+                public Node record(ImmutableMap<@ExpressionIdentifier String, DataType> types, GetValue<@Value Record> g)
+                {
+                    return object(g);
+                }
+
+                @Override
+                public Node array(DataType inner, GetValue<@Value ListEx> g)
+                {
+                    return object(g);
+                }
+            });
+        }
+
+        protected abstract Vector make(int count);
+
+        protected abstract void fetch(Vector dest, int index, int row) throws InternalException, UserException;
+
+        @Override
+        public Vector evaluate(int startRow, int count, boolean @Nullable [] active)
+        {
+            Vector r = make(count);
+            for (int i = 0; i < count; i++)
+            {
+                if (!isActive(active, i))
+                {
+                    r.failed[i] = true;
+                    continue;
+                }
+                try
+                {
+                    fetch(r, i, startRow + i);
+                }
+                catch (InternalException | UserException e)
+                {
+                    r.failed[i] = true;
+                }
+            }
+            return r;
+        }
+    }
+
+    /**
+     * An expression we can't handle directly, so we use calculateValue for each row.
+     */
+    private static final class PerRowNode implements Node
+    {
+        private final Expression expression;
+        private final TypeManager typeManager;
+        private final @Nullable RowInvariantCache invariantCache;
+
+        public PerRowNode(Expression expression, TypeManager typeManager, @Nullable RowInvariantCache invariantCache)
+        {
+            this.expression = expression;
+            this.typeManager = typeManager;
+            this.invariantCache = invariantCache;
+        }
+
+        @Override
+        public Vector evaluate(int startRow, int count, boolean @Nullable [] active)
+        {
+            ObjectVector r = new ObjectVector(count);
+            for (int i = 0; i < count; i++)
+            {
+                if (!isActive(active, i))
+                {
+                    r.failed[i] = true;
+                    continue;
+                }
+                try
+                {
+                    r.values[i] = expression.calculateValueCached(new EvaluateState(typeManager, OptionalInt.of(startRow + i), invariantCache)).value;
+                }
+                catch (InternalException | UserException e)
+                {
+                    // The row will be evaluated again by the caller, which will report the error:
+                    r.failed[i] = true;
+                }
+            }
+            return r;
+        }
+    }
+
+    private static final class ArithmeticNode implements Node
+    {
+        private final ImmutableList<Node> operands;
+        // Only used if not times; ops.get(i) is between operands i and i + 1
+        private final ImmutableList<AddSubtractOp> ops;
+        private final boolean times;
+
+        public ArithmeticNode(ImmutableList<Node> operands, ImmutableList<AddSubtractOp> ops, boolean times)
+        {
+            this.operands = operands;
+            this.ops = ops;
+            this.times = times;
+        }
+
+        @Override
+        public Vector evaluate(int startRow, int count, boolean @Nullable [] active) throws InternalException
+        {
+            NumberVector r = new NumberVector(count);
+            NumberVector first = asNumbers(operands.get(0).evaluate(startRow, count, active));
+            for (int i = 0; i < count; i++)
+            {
+                r.failed[i] = first.failed[i];
+                if (!r.failed[i])
+                    r.copyFrom(i, first);
+            }
+            for (int n = 1; n < operands.size(); n++)
+            {
+                NumberVector next = asNumbers(operands.get(n).evaluate(startRow, count, active));
+                boolean add = times || ops.get(n - 1) == AddSubtractOp.ADD;
+                for (int i = 0; i < count; i++)
+                {
+                    if (r.failed[i] || next.failed[i])
+                    {
+                        r.failed[i] = true;
+                        continue;
+                    }
+                    if (r.isLong(i) && next.isLong(i))
+                    {
+                        try
+                        {
+                            if (times)
+                                r.longs[i] = Math.multiplyExact(r.longs[i], next.longs[i]);
+                            else if (add)
+                                r.longs[i] = Math.addExact(r.longs[i], next.longs[i]);
+                            else
+                                r.longs[i] = Math.subtractExact(r.longs[i], next.longs[i]);
+                            continue;
+                        }
+                        catch (ArithmeticException e)
+                        {
+                            // Fall through to the general case below, which will use BigDecimal
+                        }
+                    }
+                    @Value Number result = times ? Utility.multiplyNumbers(r.get(i), next.get(i)) : Utility.addSubtractNumbers(r.get(i), next.get(i), add);
+                    if (r.numbers != null)
+                        r.numbers[i] = null;
+                    r.set(i, result);
+                }
+            }
+            return r;
+        }
+    }
+
+    private static final class DivideNode implements Node
+    {
+        private final Node lhs;
+        private final Node rhs;
+
+        public DivideNode(Node lhs, Node rhs)
+        {
+            this.lhs = lhs;
+            this.rhs = rhs;
+        }
+
+        @Override
+        public Vector evaluate(int startRow, int count, boolean @Nullable [] active) throws InternalException
+        {
+            NumberVector r = new NumberVector(count);
+            NumberVector top = asNumbers(lhs.evaluate(startRow, count, active));
+            NumberVector bottom = asNumbers(rhs.evaluate(startRow, count, active));
+            for (int i = 0; i < count; i++)
+            {
+                if (top.failed[i] || bottom.failed[i])
+                {
+                    r.failed[i] = true;
+                    continue;
+                }
+                if (top.isLong(i) && bottom.isLong(i))
+                {
+                    long t = top.longs[i];
+                    long b = bottom.longs[i];
+                    // Same test as Utility.divideNumbers for exact division:
+                    if (b != 0 && t % b == 0 && (t != Long.MIN_VALUE || b != -1))
+                    {
+                        r.longs[i] = t / b;
+                        continue;
+                    }
+                }
+                try
+                {
+                    r.set(i, Utility.divideNumbers(top.get(i), bottom.get(i)));
+                }
+                catch (UserException e)
+                {
+                    r.failed[i] = true;
+                }
+            }
+            return r;
+        }
+    }
+
+    /**
+     * A chain of comparisons, which is true if all the tests are true.  The tests are either
+     * between adjacent operands, or (for equals) between the first operand and each later operand.
+     */
+    private static final class ComparisonNode implements Node
+    {
+        private final ImmutableList<Node> operands;
+        // tests.get(i) is the test between operands i and i + 1 (or 0 and i + 1 if compareToFirst)
+        private final ImmutableList<CompareTest> tests;
+        private final boolean compareToFirst;
+
+        public ComparisonNode(ImmutableList<Node> operands, ImmutableList<CompareTest> tests, boolean compareToFirst)
+        {
+            this.operands = operands;
+            this.tests = tests;
+            this.compareToFirst = compareToFirst;
+        }
+
+        @Override
+        public Vector evaluate(int startRow, int count, boolean @Nullable [] active) throws InternalException
+        {
+            ImmutableList.Builder<Vector> valuesBuilder = ImmutableList.builderWithExpectedSize(operands.size());
+            for (Node operand : operands)
+            {
+                valuesBuilder.add(operand.evaluate(startRow, count, active));
+            }
+            ImmutableList<Vector> values = valuesBuilder.build();
+
+            BooleanVector r = new BooleanVector(count);
+            for (int i = 0; i < count; i++)
+            {
+                if (values.get(0).failed[i])
+                {
+                    r.failed[i] = true;
+                    continue;
+                }
+                // Like the interpreter, stop at the first false comparison, so later errors don't count:
+                r.values[i] = true;
+                for (int n = 1; n < values.size(); n++)
+                {
+                    Vector next = values.get(n);
+                    if (next.failed[i])
+                    {
+                        r.failed[i] = true;
+                        break;
+                    }
+                    try
+                    {
+                        if (!tests.get(n - 1).test(compare(values.get(compareToFirst ? 0 : n - 1), next, i)))
+                        {
+                            r.values[i] = false;
+                            break;
+                        }
+                    }
+                    catch (UserException e)
+                    {
+                        r.failed[i] = true;
+                        break;
+                    }
+                }
+            }
+            return r;
+        }
+    }
+
+    private static final class AndOrNode implements Node
+    {
+        private final ImmutableList<Node> operands;
+        private final boolean and;
+
+        public AndOrNode(ImmutableList<Node> operands, boolean and)
+        {
+            this.operands = operands;
+            this.and = and;
+        }
+
+        @Override
+        public Vector evaluate(int startRow, int count, boolean @Nullable [] active) throws InternalException
+        {
+            BooleanVector r = new BooleanVector(count);
+            // Rows where we haven't yet found the answer:
+            boolean[] undecided = new boolean[count];
+            for (int i = 0; i < count; i++)
+            {
+                undecided[i] = isActive(active, i);
+                r.failed[i] = !undecided[i];
+                r.values[i] = and;
+            }
+            for (Node operand : operands)
+            {
+                // Only evaluate rows which the interpreter would get to:
+                BooleanVector next = asBooleans(operand.evaluate(startRow, count, undecided.clone()));
+                for (int i = 0; i < count; i++)
+                {
+                    if (!undecided[i])
+                        continue;
+                    if (next.failed[i])
+                    {
+                        r.failed[i] = true;
+                        undecided[i] = false;
+                    }
+                    else if (next.values[i] != and)
+                    {
+                        r.values[i] = !and;
+                        undecided[i] = false;
+                    }
+                }
+            }
+            return r;
+        }
+    }
+
+    /**
+     * Picks one of several outcomes, based on comparing a subject to constants.
+     * Used for if-then-else (where the subject is the condition and the first
+     * choice matches true) and match.  A choice with no constants matches anything.
+     */
+    private static final class ChoiceNode implements Node
+    {
+        private final Node subject;
+        private final ImmutableList<ImmutableList<ConstantNode>> choices;
+        private final ImmutableList<Node> outcomes;
+
+        public ChoiceNode(Node subject, ImmutableList<ImmutableList<ConstantNode>> choices, ImmutableList<Node> outcomes)
+        {
+            this.subject = subject;
+            this.choices = choices;
+            this.outcomes = outcomes;
+        }
+
+        @Override
+        public Vector evaluate(int startRow, int count, boolean @Nullable [] active) throws InternalException
+        {
+            Vector subjectValues = subject.evaluate(startRow, count, active);
+            // -1 means failed or no match:
+            int[] chosen = new int[count];
+            Arrays.fill(chosen, -1);
+            for (int c = 0; c < choices.size(); c++)
+            {
+                ImmutableList<ConstantNode> constants = choices.get(c);
+                ImmutableList.Builder<Vector> constantValues = ImmutableList.builderWithExpectedSize(constants.size());
+                for (ConstantNode constant : constants)
+                {
+                    constantValues.add(constant.evaluate(startRow, count, null));
+                }
+                for (Vector constantValue : constantValues.build())
+                {
+                    for (int i = 0; i < count; i++)
+                    {
+                        if (chosen[i] != -1 || subjectValues.failed[i])
+                            continue;
+                        try
+                        {
+                            if (compare(subjectValues, constantValue, i) == 0)
+                                chosen[i] = c;
+                        }
+                        catch (UserException e)
+                        {
+                            subjectValues.failed[i] = true;
+                        }
+                    }
+                }
+                if (constants.isEmpty())
+                {
+                    for (int i = 0; i < count; i++)
+                    {
+                        if (chosen[i] == -1 && !subjectValues.failed[i])
+                            chosen[i] = c;
+                    }
+                }
+            }
+
+            ImmutableList.Builder<Vector> outcomeValues = ImmutableList.builderWithExpectedSize(outcomes.size());
+            for (int c = 0; c < outcomes.size(); c++)
+            {
+                boolean[] outcomeActive = new boolean[count];
+                for (int i = 0; i < count; i++)
+                {
+                    outcomeActive[i] = chosen[i] == c;
+                }
+                outcomeValues.add(outcomes.get(c).evaluate(startRow, count, outcomeActive));
+            }
+            return merge(outcomeValues.build(), chosen);
+        }
+
+        private static Vector merge(ImmutableList<Vector> sources, int[] chosen) throws InternalException
+        {
+            int count = chosen.length;
+            if (sources.stream().allMatch(s -> s instanceof NumberVector))
+            {
+                NumberVector r = new NumberVector(count);
+                for (int i = 0; i < count; i++)
+                {
+                    if (chosen[i] == -1 || sources.get(chosen[i]).failed[i])
+                        r.failed[i] = true;
+                    else
+                        r.copyFrom(i, (NumberVector) sources.get(chosen[i]));
+                }
+                return r;
+            }
+            else if (sources.stream().allMatch(s -> s instanceof BooleanVector))
+            {
+                BooleanVector r = new BooleanVector(count);
+                for (int i = 0; i < count; i++)
+                {
+                    if (chosen[i] == -1 || sources.get(chosen[i]).failed[i])
+                        r.failed[i] = true;
+                    else
+                        r.values[i] = ((BooleanVector) sources.get(chosen[i])).values[i];
+                }
+                return r;
+            }
+            else
+            {
+                ObjectVector r = new ObjectVector(count);
+                for (int i = 0; i < count; i++)
+                {
+                    if (chosen[i] == -1 || sources.get(chosen[i]).failed[i])
+                        r.failed[i] = true;
+                    else
+                        r.values[i] = sources.get(chosen[i]).get(i);
+                }
+                return r;
+            }
+        }
+    }
+
+    private static final class ConcatNode implements Node
+    {
+        private final ImmutableList<Node> operands;
+
+        public ConcatNode(ImmutableList<Node> operands)
+        {
+            this.operands = operands;
+        }
+
+        @Override
+        public Vector evaluate(int startRow, int count, boolean @Nullable [] active) throws InternalException
+        {
+            @Nullable StringBuilder[] builders = new StringBuilder[count];
+            ObjectVector r = new ObjectVector(count);
+            for (Node operand : operands)
+            {
+                Vector next = operand.evaluate(startRow, count, active);
+                for (int i = 0; i < count; i++)
+                {
+                    if (r.failed[i] || next.failed[i])
+                    {
+                        r.failed[i] = true;
+                        continue;
+                    }
+                    @Nullable StringBuilder builder = builders[i];
+                    if (builder == null)
+                    {
+                        builder = new StringBuilder();
+                        builders[i] = builder;
+                    }
+                    builder.append(Utility.cast(next.get(i), String.class));
+                }
+            }
+            for (int i = 0; i < count; i++)
+            {
+                @Nullable StringBuilder builder = builders[i];
+                if (!r.failed[i])
+                    r.values[i] = DataTypeUtility.value(builder == null ? "" : builder.toString());
+            }
+            return r;
+        }
+    }
+}
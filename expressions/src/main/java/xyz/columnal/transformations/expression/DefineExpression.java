@@ -79,7 +79,7 @@ public class DefineExpression extends Expression
         @OnThread(Tag.Simulation)
         public @Nullable EvaluateState evaluate(EvaluateState state) throws InternalException, EvaluationException
         {
-            ValueResult valueResult = rhsValue.calculateValue(state);
+            ValueResult valueResult = rhsValue.calculateValueCached(state);
             valueResult = lhsPattern.matchAsPattern(valueResult.value, valueResult.evaluateState);
             if (Utility.cast(valueResult.value, Boolean.class))
                 return valueResult.evaluateState;
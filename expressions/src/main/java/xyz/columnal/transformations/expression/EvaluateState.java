@@ -56,23 +56,31 @@ public final class EvaluateState
     private final ImmutableMap<String, @Value Object> variables;
     private final OptionalInt rowIndex;
     private final boolean recordExplanation;
+    // If non-null, used to avoid recalculating parts of the expression which are the same for every row:
+    private final @Nullable RowInvariantCache rowInvariantCache;
 
     public EvaluateState(TypeManager typeManager, OptionalInt rowIndex)
     {
-        this(makeVariables(rowIndex), typeManager, rowIndex, false);
+        this(makeVariables(rowIndex), typeManager, rowIndex, false, null);
     }
 
     public EvaluateState(TypeManager typeManager, OptionalInt rowIndex, boolean recordExplanation)
     {
-        this(makeVariables(rowIndex), typeManager, rowIndex, recordExplanation);
+        this(makeVariables(rowIndex), typeManager, rowIndex, recordExplanation, null);
     }
 
-    private EvaluateState(ImmutableMap<String, @Value Object> variables, TypeManager typeManager, OptionalInt rowIndex, boolean recordExplanation)
+    public EvaluateState(TypeManager typeManager, OptionalInt rowIndex, @Nullable RowInvariantCache rowInvariantCache)
+    {
+        this(makeVariables(rowIndex), typeManager, rowIndex, false, rowInvariantCache);
+    }
+
+    private EvaluateState(ImmutableMap<String, @Value Object> variables, TypeManager typeManager, OptionalInt rowIndex, boolean recordExplanation, @Nullable RowInvariantCache rowInvariantCache)
     {
         this.variables = variables;
         this.typeManager = typeManager;
         this.rowIndex = rowIndex;
         this.recordExplanation = recordExplanation;
+        this.rowInvariantCache = rowInvariantCache;
     }
 
     private static ImmutableMap<String, @Value Object> makeVariables(OptionalInt rowIndex)
@@ -89,7 +97,7 @@ public final class EvaluateState
         }
         copy.putAll(variables);
         copy.put(varName, value);
-        return new EvaluateState(ImmutableMap.copyOf(copy), typeManager, rowIndex, recordExplanation);
+        return new EvaluateState(ImmutableMap.copyOf(copy), typeManager, rowIndex, recordExplanation, rowInvariantCache);
     }
 
     /**
@@ -130,9 +138,17 @@ public final class EvaluateState
         return recordExplanation;
     }
 
+    /**
+     * The cache of row-invariant values to use, or null if there is none or we are recording explanations.
+     */
+    public @Nullable RowInvariantCache getRowInvariantCache()
+    {
+        return recordExplanation ? null : rowInvariantCache;
+    }
+
     public EvaluateState varFilteredTo(ImmutableSet<String> variableNames)
     {
-        return new EvaluateState(ImmutableMap.<String, @Value Object>copyOf(Maps.<String, @Value Object>filterEntries(variables, (Entry<String, @Value Object> e) -> e != null && variableNames.contains(e.getKey()))), typeManager, rowIndex, recordExplanation);
+        return new EvaluateState(ImmutableMap.<String, @Value Object>copyOf(Maps.<String, @Value Object>filterEntries(variables, (Entry<String, @Value Object> e) -> e != null && variableNames.contains(e.getKey()))), typeManager, rowIndex, recordExplanation, rowInvariantCache);
     }
 
     // Equals and hashCode on EvaluateState are only used by
@@ -475,6 +475,24 @@ public abstract class Expression extends ExpressionBase implements StyledShowabl
      */
     @OnThread(Tag.Simulation)
     public abstract ValueResult calculateValue(EvaluateState state) throws EvaluationException, InternalException;
+
+    /**
+     * Like calculateValue, but if the state has a RowInvariantCache and this expression
+     * doesn't depend on the row, uses the cached value (calculating and caching it if needed).
+     */
+    @OnThread(Tag.Simulation)
+    public final ValueResult calculateValueCached(EvaluateState state) throws EvaluationException, InternalException
+    {
+        @Nullable RowInvariantCache cache = state.getRowInvariantCache();
+        if (cache == null || !cache.canCache(this))
+            return calculateValue(state);
+        @Nullable @Value Object cached = cache.get(this);
+        if (cached != null)
+            return result(cached, state);
+        ValueResult result = calculateValue(state);
+        cache.put(this, result.value);
+        return result;
+    }
     
     // Fetches a sub-expression and adjusts stack trace and explanation if there is an exception.  If not, adds to passed builder and returns
     @OnThread(Tag.Simulation)
@@ -482,7 +500,7 @@ public abstract class Expression extends ExpressionBase implements StyledShowabl
     {
         try
         {
-            ValueResult result = subExpression.calculateValue(state);
+            ValueResult result = subExpression.calculateValueCached(state);
             subExpressionsSoFar.add(result);
             return result;
         }
@@ -25,6 +25,7 @@ import annotation.recorded.qual.Recorded;
 import annotation.units.CanonicalLocation;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 import xyz.columnal.grammar.ExpressionParser.AddSubtractExpressionContext;
 import xyz.columnal.grammar.ExpressionParser.AndExpressionContext;
 import xyz.columnal.grammar.ExpressionParser.AnyContext;
@@ -73,6 +74,7 @@ import org.apache.commons.lang3.StringUtils;
 import org.checkerframework.checker.nullness.qual.NonNull;
 import org.checkerframework.checker.nullness.qual.Nullable;
 import xyz.columnal.id.ColumnId;
+import xyz.columnal.id.TableAndColumnRenames;
 import xyz.columnal.id.TableId;
 import xyz.columnal.data.datatype.DataType;
 import xyz.columnal.data.datatype.DataType.DateTimeInfo.DateTimeType;
@@ -94,6 +96,7 @@ import xyz.columnal.jellytype.JellyType;
 import xyz.columnal.transformations.expression.AddSubtractExpression.AddSubtractOp;
 import xyz.columnal.transformations.expression.ComparisonExpression.ComparisonOperator;
 import xyz.columnal.transformations.expression.DefineExpression.Definition;
+import xyz.columnal.transformations.expression.Expression.SaveDestination;
 import xyz.columnal.transformations.expression.MatchExpression.MatchClause;
 import xyz.columnal.transformations.expression.MatchExpression.Pattern;
 import xyz.columnal.transformations.expression.NaryOpExpression.TypeProblemDetails;
@@ -209,6 +212,48 @@ public class ExpressionUtil
         });
     }
     
+    /**
+     * Only valid after type-checking.  If every column or table that the expression refers to
+     * is a column of the default table, read at the current row, returns the names of those
+     * columns.  Otherwise (e.g. if it refers to a whole table, a column of another table,
+     * or anything that could not be resolved) returns null.
+     */
+    @SuppressWarnings("recorded")
+    public static @Nullable ImmutableSet<ColumnId> sameRowColumnsFromExpression(Expression expression)
+    {
+        ImmutableSet.Builder<ColumnId> columns = ImmutableSet.builder();
+        List<Pair<IdentExpression, ImmutableList<@ExpressionIdentifier String>>> idents = expression.visit(new ExpressionVisitorStream<Pair<IdentExpression, ImmutableList<@ExpressionIdentifier String>>>()
+        {
+            @Override
+            public Stream<Pair<IdentExpression, ImmutableList<@ExpressionIdentifier String>>> ident(IdentExpression self, @Nullable @ExpressionIdentifier String namespace, ImmutableList<@ExpressionIdentifier String> idents, boolean isVariable)
+            {
+                return Stream.of(new Pair<>(self, idents));
+            }
+        }).collect(Collectors.toList());
+        for (Pair<IdentExpression, ImmutableList<@ExpressionIdentifier String>> ident : idents)
+        {
+            if (ident.getFirst().isResolvedTable())
+                return null;
+            if (ident.getFirst().getResolvedColumn() != null)
+            {
+                // Two identifiers means a column of a named table:
+                if (ident.getSecond().size() != 1)
+                    return null;
+                columns.add(new ColumnId(ident.getSecond().get(0)));
+            }
+        }
+        // References to tables or columns which were not resolved are found by name:
+        if (tablesFromExpression(expression).findAny().isPresent())
+            return null;
+        for (Pair<@Nullable TableId, ColumnId> column : columnsFromExpressions(Stream.of(expression)).collect(Collectors.toList()))
+        {
+            if (column.getFirst() != null)
+                return null;
+            columns.add(column.getSecond());
+        }
+        return columns.build();
+    }
+
     @SuppressWarnings("recorded")
     @OnThread(Tag.Any)
     public static List<QuickFix<Expression>> quickFixesForTypeError(TypeManager typeManager, FunctionLookup functionLookup, Expression src, @Nullable DataType fix)
@@ -328,6 +373,25 @@ public class ExpressionUtil
         }
     }
 
+    /**
+     * Makes an independent copy of the given expression by saving it and parsing it again.
+     * Expressions record their resolved columns and types when they are checked, so
+     * a re-created transformation must not share its expressions with the old one,
+     * which may still be evaluating them.
+     */
+    public static Expression copy(Expression expression, TypeManager typeManager, FunctionLookup functionLookup) throws InternalException
+    {
+        String src = expression.save(SaveDestination.TO_FILE, BracketedStatus.DONT_NEED_BRACKETS, TableAndColumnRenames.EMPTY);
+        try
+        {
+            return parse(null, src, ExpressionVersion.latest(), typeManager, functionLookup);
+        }
+        catch (UserException e)
+        {
+            throw new InternalException("Could not re-load saved expression: " + src, e);
+        }
+    }
+
     @SuppressWarnings("recorded")
     private static class CompileExpression extends ExpressionParserBaseVisitor<Expression>
     {
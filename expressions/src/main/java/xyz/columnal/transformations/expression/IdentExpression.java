@@ -33,6 +33,7 @@ import xyz.columnal.id.TableId;
 import xyz.columnal.data.datatype.DataType;
 import xyz.columnal.data.datatype.DataTypeUtility;
 import xyz.columnal.data.datatype.DataTypeValue;
+import xyz.columnal.data.datatype.DataTypeValue.ColumnList;
 import xyz.columnal.data.datatype.TypeManager;
 import xyz.columnal.data.datatype.TypeManager.TagInfo;
 import xyz.columnal.data.unit.Unit;
@@ -465,6 +466,23 @@ public class IdentExpression extends NonOperatorExpression
         return resolution != null ? resolution.getResolvedFunctionDefinition() : null;
     }
 
+    /**
+     * Only valid to call after type-checking.  If this refers to a column,
+     * gets the column's values, otherwise returns null.
+     */
+    public @Nullable DataTypeValue getResolvedColumn()
+    {
+        return resolution instanceof ColumnResolution ? ((ColumnResolution) resolution).column : null;
+    }
+
+    /**
+     * Only valid to call after type-checking.  Does this refer to a whole table?
+     */
+    public boolean isResolvedTable()
+    {
+        return resolution instanceof TableResolution;
+    }
+
     private static interface Resolution
     {
         public default boolean isDeclarationInMatch()
@@ -664,7 +682,7 @@ public class IdentExpression extends NonOperatorExpression
                     }
                 }
 
-                class ColumnAsList extends ListEx
+                class ColumnAsList extends ListEx implements ColumnList
                 {
                     private final DataTypeValue dataTypeValue;
 
@@ -673,6 +691,13 @@ public class IdentExpression extends NonOperatorExpression
                         this.dataTypeValue = dataTypeValue;
                     }
 
+                    @Override
+                    @OnThread(Tag.Any)
+                    public DataTypeValue getColumn()
+                    {
+                        return dataTypeValue;
+                    }
+
                     @Override
                     public int size() throws InternalException, UserException
                     {
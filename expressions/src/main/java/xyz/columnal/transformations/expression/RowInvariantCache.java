@@ -0,0 +1,101 @@
+/*
+ * Columnal: Safer, smoother data table processing.
+ * Copyright (c) Neil Brown, 2016-2020, 2022.
+ *
+ * This file is part of Columnal.
+ *
+ * Columnal is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * Columnal is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with Columnal. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package xyz.columnal.transformations.expression;
+
+import annotation.identifier.qual.ExpressionIdentifier;
+import annotation.qual.Value;
+import com.google.common.collect.ImmutableList;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import threadchecker.OnThread;
+import threadchecker.Tag;
+import xyz.columnal.transformations.expression.visitor.ExpressionVisitorStream;
+
+import java.util.IdentityHashMap;
+import java.util.stream.Stream;
+
+/**
+ * Holds the values of the parts of an expression which are the same for every row,
+ * so that they are only calculated once, rather than once per row.  For example, in
+ * "value / sum(table\col)", the sum does not depend on the row.
+ *
+ * A part of an expression is row-invariant if it does not use a column of the current
+ * row or any variable (which includes the row number and implicit lambda arguments).
+ * References to whole tables, functions and tags are all row-invariant.
+ *
+ * Values are only calculated when first needed, because an invariant part may only be
+ * evaluated for some rows (e.g. in one branch of an if).  Errors are not cached.  Values
+ * are not used when recording explanations.
+ *
+ * A cache must only be used while the tables it refers to are unchanged.  Transformations
+ * are re-created when their sources change, so one cache per calculated column suffices.
+ */
+@OnThread(Tag.Simulation)
+public final class RowInvariantCache
+{
+    // Both are identity-based, as equal expressions in different places may be resolved differently:
+    private final IdentityHashMap<Expression, Boolean> invariant = new IdentityHashMap<>();
+    private final IdentityHashMap<Expression, @Value Object> values = new IdentityHashMap<>();
+
+    /**
+     * Is the expression row-invariant, and non-trivial enough that it's worth caching?
+     */
+    public synchronized boolean canCache(Expression expression)
+    {
+        // Cheap to evaluate anyway:
+        if (expression instanceof Literal || expression instanceof IdentExpression)
+            return false;
+        Boolean r = invariant.get(expression);
+        if (r == null)
+        {
+            r = !dependsOnRow(expression);
+            invariant.put(expression, r);
+        }
+        return r;
+    }
+
+    public synchronized @Nullable @Value Object get(Expression expression)
+    {
+        return values.get(expression);
+    }
+
+    public synchronized void put(Expression expression, @Value Object value)
+    {
+        values.put(expression, value);
+    }
+
+    @SuppressWarnings("recorded")
+    private static boolean dependsOnRow(Expression expression)
+    {
+        return expression.visit(new ExpressionVisitorStream<Boolean>() {
+            @Override
+            public Stream<Boolean> ident(IdentExpression self, @Nullable @ExpressionIdentifier String namespace, ImmutableList<@ExpressionIdentifier String> idents, boolean isVariable)
+            {
+                return Stream.of(isVariable || self.getResolvedColumn() != null);
+            }
+
+            @Override
+            public Stream<Boolean> implicitLambdaArg(ImplicitLambdaArg self)
+            {
+                return Stream.of(true);
+            }
+        }).anyMatch(b -> b);
+    }
+}
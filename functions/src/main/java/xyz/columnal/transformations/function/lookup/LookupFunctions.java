@@ -22,8 +22,12 @@ package xyz.columnal.transformations.function.lookup;
 
 import annotation.qual.Value;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.MapMaker;
+import org.checkerframework.checker.nullness.qual.Nullable;
 import xyz.columnal.data.datatype.DataType;
 import xyz.columnal.data.datatype.DataTypeUtility;
+import xyz.columnal.data.datatype.DataTypeValue;
+import xyz.columnal.data.datatype.DataTypeValue.ColumnList;
 import xyz.columnal.data.datatype.TypeManager;
 import xyz.columnal.data.unit.Unit;
 import xyz.columnal.error.InternalException;
@@ -34,16 +38,27 @@ import threadchecker.Tag;
 import xyz.columnal.utility.adt.Either;
 import xyz.columnal.utility.function.simulation.SimulationFunction;
 import xyz.columnal.utility.function.simulation.SimulationSupplier;
+import xyz.columnal.utility.IntList;
 import xyz.columnal.utility.Utility;
 import xyz.columnal.utility.Utility.ListEx;
 import xyz.columnal.transformations.expression.function.ValueFunction;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.OptionalInt;
+import java.util.concurrent.ConcurrentMap;
 
 public class LookupFunctions
 {
+    // A new list is made each time a column is referred to, so indexes for whole columns are kept
+    // against the column.  Columns can be edited, so these are checked against the column's
+    // modification count before use.  Weak keys means we don't keep columns alive, and
+    // also makes the map compare keys by identity, which is what we want.
+    private static final ConcurrentMap<DataTypeValue, LookupIndex> columnIndexCache = new MapMaker().weakKeys().makeMap();
+    // Other lists are immutable values, so we can key on the list's identity:
+    private static final ConcurrentMap<ListEx, LookupIndex> listIndexCache = new MapMaker().weakKeys().makeMap();
+
     public static List<FunctionDefinition> getLookupFunctions() throws InternalException
     {
         return ImmutableList.of(
@@ -136,8 +151,31 @@ public class LookupFunctions
 
     // Gets the next index, or empty if successfully reached end of list and found no more:
     @OnThread(Tag.Simulation)
-    private static SimulationSupplier<OptionalInt> lookupIndexes(ListEx targetList, @Value Object item)
+    private static SimulationSupplier<OptionalInt> lookupIndexes(ListEx targetList, @Value Object item) throws InternalException, UserException
     {
+        @Nullable HashMap<Integer, IntList> rowsByHash = getIndex(targetList);
+        if (rowsByHash != null)
+        {
+            // Only need to check the rows with the same hash:
+            IntList candidates = rowsByHash.getOrDefault(Utility.hashValue(item), new IntList(1));
+            return new SimulationSupplier<OptionalInt>()
+            {
+                int nextCandidate = 0;
+
+                @Override
+                public OptionalInt get() throws InternalException, UserException
+                {
+                    while (nextCandidate < candidates.size())
+                    {
+                        int i = candidates.get(nextCandidate++);
+                        if (Utility.compareValues(targetList.get(i), item) == 0)
+                            return OptionalInt.of(i);
+                    }
+                    return OptionalInt.empty();
+                }
+            };
+        }
+        
         return new SimulationSupplier<OptionalInt>()
         {
             int nextToCheck = 0;
@@ -157,4 +195,82 @@ public class LookupFunctions
             }
         };
     }
+
+    /**
+     * Gets a hash index for the list, mapping the hash of each value (see Utility.hashValue)
+     * to the indexes in the list with that hash, in ascending order.  The index is only built
+     * the second time a list (or column) is looked up in, as building it is not worth it for
+     * a single lookup.  Returns null if there is no index for the list (yet), in which case
+     * the list should be scanned.
+     */
+    @OnThread(Tag.Simulation)
+    private static @Nullable HashMap<Integer, IntList> getIndex(ListEx targetList) throws InternalException, UserException
+    {
+        LookupIndex index;
+        int modificationCount = 0;
+        if (targetList instanceof ColumnList)
+        {
+            DataTypeValue column = ((ColumnList) targetList).getColumn();
+            OptionalInt count = column.getModificationCount();
+            // If we can't tell when the column changes, we can't keep an index for it:
+            if (!count.isPresent())
+                return null;
+            modificationCount = count.getAsInt();
+            index = columnIndexCache.computeIfAbsent(column, c -> new LookupIndex());
+        }
+        else
+        {
+            index = listIndexCache.computeIfAbsent(targetList, l -> new LookupIndex());
+        }
+        
+        synchronized (index)
+        {
+            // A stored column's values only change by editing, which changes the modification count.
+            // A calculated column may get longer as it is calculated, which changes the size:
+            int size = targetList.size();
+            if (index.size != size || index.modificationCount != modificationCount)
+            {
+                index.rowsByHash = null;
+                index.failed = false;
+            }
+            @Nullable HashMap<Integer, IntList> existing = index.rowsByHash;
+            if (existing != null)
+                return existing;
+            index.uses += 1;
+            if (index.uses < 2 || index.failed)
+                return null;
+            
+            index.size = size;
+            index.modificationCount = modificationCount;
+            HashMap<Integer, IntList> rowsByHash = new HashMap<>();
+            try
+            {
+                for (int i = 0; i < size; i++)
+                {
+                    rowsByHash.computeIfAbsent(Utility.hashValue(targetList.get(i)), h -> new IntList()).add(i);
+                }
+            }
+            catch (UserException e)
+            {
+                // e.g. an error in one of the items.  Scanning will give the same error as before,
+                // but only if it gets that far:
+                index.failed = true;
+                return null;
+            }
+            index.rowsByHash = rowsByHash;
+            return rowsByHash;
+        }
+    }
+
+    private static class LookupIndex
+    {
+        // Number of times looked up in without an index:
+        private int uses = 0;
+        // True if we tried to build an index for the current size and modification count but couldn't:
+        private boolean failed = false;
+        // Size of list and modification count of column (zero if not a column) when we last tried to build rowsByHash:
+        private int size = 0;
+        private int modificationCount = 0;
+        private @Nullable HashMap<Integer, IntList> rowsByHash;
+    }
 }
@@ -143,6 +143,12 @@ public class TableAndColumnRenames
         return details != null && (details.getFirst() != null || !details.getSecond().isEmpty());
     }
 
+    // Are we not renaming any table or column?
+    public boolean isEmpty()
+    {
+        return renames.values().stream().allMatch(details -> details.getFirst() == null && details.getSecond().isEmpty());
+    }
+
     // Copies all renames forward from srcTableId to id
     public void useColumnsFromTo(TableId srcTableId, TableId id)
     {
@@ -22,16 +22,6 @@ package xyz.columnal.importers;
 
 import com.google.common.collect.ImmutableList;
 import javafx.stage.Window;
-import org.apache.poi.openxml4j.exceptions.InvalidFormatException;
-import org.apache.poi.ss.usermodel.Cell;
-import org.apache.poi.ss.usermodel.CellType;
-import org.apache.poi.ss.usermodel.DateUtil;
-import org.apache.poi.ss.usermodel.Row;
-import org.apache.poi.ss.usermodel.Sheet;
-import org.apache.poi.ss.usermodel.Workbook;
-import org.apache.poi.ss.util.CellAddress;
-import org.apache.poi.ss.util.CellRangeAddress;
-import org.apache.poi.xssf.usermodel.XSSFWorkbook;
 import org.checkerframework.checker.i18n.qual.Localized;
 import org.checkerframework.checker.nullness.qual.NonNull;
 import org.checkerframework.checker.nullness.qual.Nullable;
@@ -61,10 +51,7 @@ import java.io.File;
 import java.io.IOException;
 import java.net.URL;
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
 
 public class ExcelImporter implements Importer
 {
@@ -80,65 +67,13 @@ public class ExcelImporter implements Importer
         return ImmutableList.of("*.xls", "*.xlsx", "*.xlsm");
     }
 
-    @SuppressWarnings("deprecation")
     @Override
     public @OnThread(Tag.FXPlatform) void importFile(Window parent, TableManager mgr, CellPosition destination, File src, URL origin, SimulationConsumerNoError<DataSource> recordLoadedTable)
     {
         try
         {
-            Workbook workbook = new XSSFWorkbook(src);
             // TODO offer sheet list as import choice
-            Sheet datatypeSheet = workbook.getSheetAt(0);
-            
-            List<ArrayList<String>> vals = new ArrayList<>();
-            List<ColumnInfo> columnInfos = new ArrayList<>();
-
-            Map<CellAddress, CellRangeAddress> mergedRegions = new HashMap<>();
-            for (CellRangeAddress mergedRegion : datatypeSheet.getMergedRegions())
-            {
-                for (int row = mergedRegion.getFirstRow(); row <= mergedRegion.getLastRow(); row++)
-                {
-                    for (int col = mergedRegion.getFirstColumn(); col <= mergedRegion.getLastColumn(); col++)
-                    {
-                        mergedRegions.put(new CellAddress(row, col), mergedRegion);
-                    }
-                }
-            }
-            
-
-            Iterator<Row> iterator = datatypeSheet.iterator();
-            while (iterator.hasNext())
-            {
-                Row currentRow = iterator.next();
-                Iterator<Cell> cellIterator = currentRow.iterator();
-
-                while (cellIterator.hasNext())
-                {
-                    Cell currentCell = cellIterator.next();
-                    String val = getCellValueAsString(currentCell, currentCell.getCellType());
-                    // No need to set if empty, that's the default:
-                    if (!val.isEmpty())
-                    {
-                        CellRangeAddress merged = mergedRegions.get(currentCell.getAddress());
-                        if (merged != null)
-                        {
-                            for (int row = merged.getFirstRow(); row <= merged.getLastRow(); row++)
-                            {
-                                for (int col = merged.getFirstColumn(); col <= merged.getLastColumn(); col++)
-                                {
-                                    setValue(vals, row, col, val);
-                                }
-                            }
-                        }
-                        else
-                        {
-                            setValue(vals, currentCell.getRowIndex(), currentCell.getColumnIndex(), val);
-                        }
-                    }
-                }
-            }
-            workbook.close();
-            
+            List<ArrayList<String>> vals = ExcelSheetReader.readSheet(src, 0);
             
             ImporterUtility.rectangulariseAndRemoveBlankRows(vals);
             int numSrcColumns = vals.isEmpty() ? 0 : vals.get(0).size();
@@ -173,28 +108,12 @@ public class ExcelImporter implements Importer
                 }));
             }
         }
-        catch (IOException | InvalidFormatException e)
+        catch (IOException e)
         {
             // TODO report an error
         }
     }
 
-    protected void setValue(List<ArrayList<String>> vals, int rowIndex, int columnIndex, String val)
-    {
-        while (vals.size() <= rowIndex)
-        {
-            // Can't use Collections.emptyList because this may be later
-            // modified by rectangulariseAndRemoveBlankRows
-            vals.add(new ArrayList<>());
-        }
-        ArrayList<String> row = vals.get(rowIndex);
-        while (row.size() <= columnIndex)
-        {
-            row.add("");
-        }
-        row.set(columnIndex, val);
-    }
-
     @SuppressWarnings("identifier")
     private static ColumnId excelColumnName(int columnIndex)
     {
@@ -214,31 +133,4 @@ public class ExcelImporter implements Importer
 
         return new ColumnId(s);
     }
-
-    @SuppressWarnings("deprecation")
-    private String getCellValueAsString(Cell currentCell, CellType cellType)
-    {
-        //getCellTypeEnum shown as deprecated for version 3.15
-        //getCellTypeEnum ill be renamed to getCellType starting from version 4.0
-        switch (cellType)
-        {
-            case NUMERIC:
-                if (DateUtil.isCellDateFormatted(currentCell))
-                    return String.format("%tF", currentCell.getDateCellValue());
-                else
-                    return String.format("%f", currentCell.getNumericCellValue());
-            case STRING:
-                return currentCell.getStringCellValue();
-            case FORMULA:
-                return getCellValueAsString(currentCell, currentCell.getCachedFormulaResultType());
-            case BOOLEAN:
-                return Boolean.toString(currentCell.getBooleanCellValue()).toUpperCase();
-            case _NONE:
-            case BLANK:
-            case ERROR:
-            default:
-                return "";
-        }
-    }
-
 }
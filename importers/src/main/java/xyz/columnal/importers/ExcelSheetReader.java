@@ -0,0 +1,353 @@
+/*
+ * Columnal: Safer, smoother data table processing.
+ * Copyright (c) Neil Brown, 2016-2020, 2022.
+ *
+ * This file is part of Columnal.
+ *
+ * Columnal is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * Columnal is distributed in the hope that it will be useful, but WITHOUT 
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or 
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for 
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along 
+ * with Columnal. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package xyz.columnal.importers;
+
+import org.apache.poi.openxml4j.exceptions.OpenXML4JException;
+import org.apache.poi.openxml4j.opc.OPCPackage;
+import org.apache.poi.openxml4j.opc.PackageAccess;
+import org.apache.poi.ss.usermodel.DateUtil;
+import org.apache.poi.ss.util.CellRangeAddress;
+import org.apache.poi.ss.util.CellReference;
+import org.apache.poi.util.XMLHelper;
+import org.apache.poi.xssf.eventusermodel.ReadOnlySharedStringsTable;
+import org.apache.poi.xssf.eventusermodel.XSSFReader;
+import org.apache.poi.xssf.model.StylesTable;
+import org.apache.poi.xssf.usermodel.XSSFCellStyle;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.DefaultHandler;
+import threadchecker.OnThread;
+import threadchecker.Tag;
+
+import javax.xml.parsers.ParserConfigurationException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Reads the cell values of a sheet in an .xlsx file by streaming through
+ * the sheet's XML, rather than loading the whole workbook into memory as
+ * XSSFWorkbook does.  The shared strings and styles are read once up front.
+ *
+ * Values are formatted the same way as ExcelImporter always has: numbers with %f,
+ * dates with %tF, booleans as TRUE/FALSE, and errors as blank.
+ */
+@OnThread(Tag.Any)
+public class ExcelSheetReader
+{
+    /**
+     * Reads the values of the sheet with the given index (zero-based).  The
+     * outer list is rows, the inner lists are columns; rows may be different
+     * lengths.  Every cell in a merged region gets the value of the region.
+     */
+    public static List<ArrayList<String>> readSheet(File src, int sheetIndex) throws IOException
+    {
+        OPCPackage pkg;
+        try
+        {
+            pkg = OPCPackage.open(src, PackageAccess.READ);
+        }
+        catch (OpenXML4JException e)
+        {
+            throw new IOException(e);
+        }
+        try
+        {
+            XSSFReader reader = new XSSFReader(pkg);
+            boolean use1904Dates = uses1904Dates(reader);
+            ReadOnlySharedStringsTable sharedStrings = new ReadOnlySharedStringsTable(pkg);
+            StylesTable styles = reader.getStylesTable();
+            Iterator<InputStream> sheets = reader.getSheetsData();
+            for (int i = 0; sheets.hasNext(); i++)
+            {
+                try (InputStream sheet = sheets.next())
+                {
+                    if (i == sheetIndex)
+                    {
+                        SheetHandler handler = new SheetHandler(sharedStrings, styles, use1904Dates);
+                        parse(sheet, handler);
+                        return handler.getValues();
+                    }
+                }
+            }
+            throw new IOException("Sheet " + sheetIndex + " not found in " + src.getName());
+        }
+        catch (OpenXML4JException | SAXException e)
+        {
+            throw new IOException(e);
+        }
+        finally
+        {
+            // Don't use close, which is for saving:
+            pkg.revert();
+        }
+    }
+
+    private static void parse(InputStream src, DefaultHandler handler) throws IOException, SAXException
+    {
+        try
+        {
+            XMLReader xmlReader = XMLHelper.newXMLReader();
+            xmlReader.setContentHandler(handler);
+            xmlReader.parse(new InputSource(src));
+        }
+        catch (ParserConfigurationException e)
+        {
+            throw new IOException(e);
+        }
+    }
+
+    // Does the workbook use the 1904 date system (workbookPr date1904 attribute)?
+    private static boolean uses1904Dates(XSSFReader reader) throws IOException, OpenXML4JException, SAXException
+    {
+        boolean[] use1904 = new boolean[] {false};
+        try (InputStream workbook = reader.getWorkbookData())
+        {
+            parse(workbook, new DefaultHandler() {
+                @Override
+                public void startElement(String uri, String localName, String qName, Attributes attributes)
+                {
+                    if (name(localName, qName).equals("workbookPr"))
+                    {
+                        String date1904 = attributes.getValue("date1904");
+                        use1904[0] = "1".equals(date1904) || "true".equals(date1904);
+                    }
+                }
+            });
+        }
+        return use1904[0];
+    }
+
+    private static String name(String localName, String qName)
+    {
+        if (!localName.isEmpty())
+            return localName;
+        // Not namespace aware, so strip any prefix:
+        int colon = qName.indexOf(':');
+        return colon == -1 ? qName : qName.substring(colon + 1);
+    }
+
+    static void setValue(List<ArrayList<String>> vals, int rowIndex, int columnIndex, String val)
+    {
+        while (vals.size() <= rowIndex)
+        {
+            // Can't use Collections.emptyList because this may be later
+            // modified by rectangulariseAndRemoveBlankRows
+            vals.add(new ArrayList<>());
+        }
+        ArrayList<String> row = vals.get(rowIndex);
+        while (row.size() <= columnIndex)
+        {
+            row.add("");
+        }
+        row.set(columnIndex, val);
+    }
+
+    private static String getValue(List<ArrayList<String>> vals, int rowIndex, int columnIndex)
+    {
+        if (rowIndex >= vals.size())
+            return "";
+        ArrayList<String> row = vals.get(rowIndex);
+        return columnIndex < row.size() ? row.get(columnIndex) : "";
+    }
+
+    /**
+     * Handles the XML of one sheet.  The parts we care about look like:
+     *
+     * <sheetData>
+     *   <row r="1">
+     *     <c r="A1" s="2" t="s"><v>0</v></c>
+     *     <c r="B1" t="inlineStr"><is><t>Hello</t></is></c>
+     *   </row>
+     * </sheetData>
+     * <mergeCells>
+     *   <mergeCell ref="A1:B2"/>
+     * </mergeCells>
+     *
+     * The merged cells come after all the rows, so we apply them at the end.
+     */
+    private static class SheetHandler extends DefaultHandler
+    {
+        private final ReadOnlySharedStringsTable sharedStrings;
+        private final StylesTable styles;
+        private final boolean use1904Dates;
+        private final List<ArrayList<String>> vals = new ArrayList<>();
+        private final List<CellRangeAddress> mergedRegions = new ArrayList<>();
+        // The row and column are optional in the file, in which case we count:
+        private int rowIndex = -1;
+        private int columnIndex = -1;
+        // Details of the current cell:
+        private @Nullable String cellType;
+        private int styleIndex;
+        private boolean inInlineString;
+        private boolean inValue;
+        private final StringBuilder value = new StringBuilder();
+
+        public SheetHandler(ReadOnlySharedStringsTable sharedStrings, StylesTable styles, boolean use1904Dates)
+        {
+            this.sharedStrings = sharedStrings;
+            this.styles = styles;
+            this.use1904Dates = use1904Dates;
+        }
+
+        @Override
+        public void startElement(String uri, String localName, String qName, Attributes attributes)
+        {
+            switch (name(localName, qName))
+            {
+                case "row":
+                    String rowRef = attributes.getValue("r");
+                    rowIndex = rowRef != null ? Integer.parseInt(rowRef) - 1 : rowIndex + 1;
+                    columnIndex = -1;
+                    break;
+                case "c":
+                    String cellRef = attributes.getValue("r");
+                    columnIndex = cellRef != null ? new CellReference(cellRef).getCol() : columnIndex + 1;
+                    cellType = attributes.getValue("t");
+                    String style = attributes.getValue("s");
+                    styleIndex = style != null ? Integer.parseInt(style) : 0;
+                    value.setLength(0);
+                    break;
+                case "is":
+                    inInlineString = true;
+                    break;
+                case "v":
+                    inValue = true;
+                    break;
+                case "t":
+                    // Includes the text of each run of rich text:
+                    if (inInlineString)
+                        inValue = true;
+                    break;
+                case "mergeCell":
+                    String mergeRef = attributes.getValue("ref");
+                    if (mergeRef != null)
+                        mergedRegions.add(CellRangeAddress.valueOf(mergeRef));
+                    break;
+            }
+        }
+
+        @Override
+        public void characters(char[] ch, int start, int length)
+        {
+            if (inValue)
+                value.append(ch, start, length);
+        }
+
+        @Override
+        public void endElement(String uri, String localName, String qName)
+        {
+            switch (name(localName, qName))
+            {
+                case "v":
+                case "t":
+                    inValue = false;
+                    break;
+                case "is":
+                    inInlineString = false;
+                    break;
+                case "c":
+                    String val = getCellValueAsString();
+                    // No need to set if empty, that's the default:
+                    if (!val.isEmpty() && rowIndex >= 0 && columnIndex >= 0)
+                        setValue(vals, rowIndex, columnIndex, val);
+                    break;
+            }
+        }
+
+        private String getCellValueAsString()
+        {
+            String raw = value.toString();
+            if (raw.isEmpty())
+                return "";
+            switch (cellType == null ? "n" : cellType)
+            {
+                case "s":
+                    return sharedStrings.getItemAt(Integer.parseInt(raw.trim())).getString();
+                case "inlineStr":
+                case "str":
+                    // Plain text, or text result of formula
+                    return raw;
+                case "b":
+                    return raw.trim().equals("1") ? "TRUE" : "FALSE";
+                case "e":
+                    return "";
+                case "n":
+                    double number = Double.parseDouble(raw.trim());
+                    if (isDateFormatted(number))
+                        return String.format("%tF", DateUtil.getJavaDate(number, use1904Dates));
+                    else
+                        return String.format("%f", number);
+                default:
+                    // ISO dates (type d) are already readable:
+                    return raw;
+            }
+        }
+
+        // Same as DateUtil.isCellDateFormatted, but using the style index
+        private boolean isDateFormatted(double number)
+        {
+            if (styleIndex < 0 || styleIndex >= styles.getNumCellStyles())
+                return false;
+            XSSFCellStyle style = styles.getStyleAt(styleIndex);
+            if (style == null)
+                return false;
+            String formatString = style.getDataFormatString();
+            return formatString != null && DateUtil.isValidExcelDate(number) && DateUtil.isADateFormat(style.getDataFormat(), formatString);
+        }
+
+        public List<ArrayList<String>> getValues()
+        {
+            for (CellRangeAddress merged : mergedRegions)
+            {
+                // The value is normally in the top-left cell, but if any cell in the region
+                // has a value, the region gets that value (the last one, if several):
+                String val = "";
+                for (int row = merged.getFirstRow(); row <= merged.getLastRow() && row < vals.size(); row++)
+                {
+                    for (int col = merged.getFirstColumn(); col <= merged.getLastColumn(); col++)
+                    {
+                        String cellVal = getValue(vals, row, col);
+                        if (!cellVal.isEmpty())
+                            val = cellVal;
+                    }
+                }
+                if (!val.isEmpty())
+                {
+                    for (int row = merged.getFirstRow(); row <= merged.getLastRow(); row++)
+                    {
+                        for (int col = merged.getFirstColumn(); col <= merged.getLastColumn(); col++)
+                        {
+                            setValue(vals, row, col, val);
+                        }
+                    }
+                }
+            }
+            return vals;
+        }
+    }
+}
@@ -60,8 +60,8 @@ import xyz.columnal.utility.IdentifierUtility;
 import xyz.columnal.utility.function.simulation.SimulationConsumerNoError;
 import xyz.columnal.utility.function.simulation.SimulationFunction;
 import xyz.columnal.utility.TaggedValue;
+import xyz.columnal.utility.TextFileRowReader;
 import xyz.columnal.utility.Utility;
-import xyz.columnal.utility.Utility.ReadState;
 import xyz.columnal.utility.Workers;
 import xyz.columnal.utility.Workers.Priority;
 import xyz.columnal.utility.gui.FXUtility;
@@ -85,6 +85,7 @@ import java.util.Set;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeoutException;
+import java.util.stream.IntStream;
 
 /**
  * Created by neil on 31/10/2016.
@@ -172,14 +173,14 @@ public class TextImporter implements Importer
     public static RecordSet makeSrcRecordSet(File textFile, Charset charset, @Nullable String separator, @Nullable String quote, int totalColumns) throws IOException, InternalException, UserException
     {
         List<SimulationFunction<RecordSet, Column>> columns = new ArrayList<>();
+        // One reader shared by all columns:
+        TextFileRowReader reader = new TextFileRowReader(textFile, charset, 0, separator, quote, IntStream.range(0, totalColumns).toArray());
         for (int i = 0; i < totalColumns; i++)
         {
-            // Must be one per column:
-            ReadState reader = Utility.skipFirstNRows(textFile, charset, 0);
             int iFinal = i;
             columns.add(rs -> {
                 ColumnId columnName = new ColumnId(IdentifierUtility.identNum("Column", (iFinal + 1)));
-                return TextFileColumn.stringColumn(rs, reader, separator, quote, columnName, iFinal, totalColumns);
+                return TextFileColumn.stringColumn(rs, reader, columnName, iFinal);
             });
         }
 
@@ -191,11 +192,10 @@ public class TextImporter implements Importer
     {
         List<SimulationFunction<RecordSet, Column>> columns = new ArrayList<>();
         int totalColumns = format.columnTypes.size();
+        // One reader shared by all columns:
+        TextFileRowReader reader = new TextFileRowReader(textFile, format.initialTextFormat.charset, format.trimChoice.trimFromTop, format.initialTextFormat.separator, format.initialTextFormat.quote, IntStream.range(format.trimChoice.trimFromLeft, format.trimChoice.trimFromLeft + totalColumns).toArray());
         for (int i = 0; i < totalColumns; i++)
         {
-            // Must be one per column:
-            ReadState reader = Utility.skipFirstNRows(textFile, format.initialTextFormat.charset, format.trimChoice.trimFromTop);
-
             ColumnInfo columnInfo = format.columnTypes.get(i);
             int columnIndexInSrc = i + format.trimChoice.trimFromLeft;
             if (columnInfo.type instanceof NumericColumnType)
@@ -203,7 +203,7 @@ public class TextImporter implements Importer
                 columns.add(rs ->
                 {
                     NumericColumnType numericColumnType = (NumericColumnType) columnInfo.type;
-                    return TextFileColumn.numericColumn(rs, reader, format.initialTextFormat.separator, format.initialTextFormat.quote, columnInfo.title, columnIndexInSrc, totalColumns, new NumberInfo(numericColumnType.unit), numericColumnType::removePrefixAndSuffix);
+                    return TextFileColumn.numericColumn(rs, reader, columnInfo.title, columnIndexInSrc, new NumberInfo(numericColumnType.unit), numericColumnType::removePrefixAndSuffix);
                 });
             }
             else if (columnInfo.type instanceof OrBlankColumnType)
@@ -215,7 +215,7 @@ public class TextImporter implements Importer
                     DataType numberType = DataType.number(new NumberInfo(numericColumnType.unit));
                     DataType numberOrBlank = typeManager.getMaybeType().instantiate(ImmutableList.of(Either.<Unit, DataType>right(numberType)), typeManager);
                     columns.add(rs -> {
-                        return TextFileColumn.<DataType>taggedColumn(rs, reader, format.initialTextFormat.separator, format.initialTextFormat.quote, columnInfo.title, columnIndexInSrc, totalColumns, DataTypeUtility.getTaggedTypeName(numberOrBlank), ImmutableList.of(Either.<Unit, DataType>right(numberType)), DataTypeUtility.getTagTypes(numberOrBlank), str -> {
+                        return TextFileColumn.<DataType>taggedColumn(rs, reader, columnInfo.title, columnIndexInSrc, DataTypeUtility.getTaggedTypeName(numberOrBlank), ImmutableList.of(Either.<Unit, DataType>right(numberType)), DataTypeUtility.getTagTypes(numberOrBlank), str -> {
                             if (str.equals(orBlankColumnType.getBlankString()))
                             {
                                 return Either.<String, TaggedValue>right(new TaggedValue(0, null, typeManager.getMaybeType()));
@@ -234,14 +234,14 @@ public class TextImporter implements Importer
             }
             else if (columnInfo.type instanceof TextColumnType || columnInfo.type instanceof BlankColumnType)
             {
-                columns.add(rs -> TextFileColumn.stringColumn(rs, reader, format.initialTextFormat.separator, format.initialTextFormat.quote, columnInfo.title, columnIndexInSrc, totalColumns));
+                columns.add(rs -> TextFileColumn.stringColumn(rs, reader, columnInfo.title, columnIndexInSrc));
             }
             else if (columnInfo.type instanceof CleanDateColumnType)
             {
                 columns.add(rs ->
                 {
                     CleanDateColumnType dateColumnType = (CleanDateColumnType) columnInfo.type;
-                    return TextFileColumn.dateColumn(rs, reader, format.initialTextFormat.separator, format.initialTextFormat.quote, columnInfo.title, columnIndexInSrc, totalColumns, dateColumnType.getDateTimeInfo(), dateColumnType::parse);
+                    return TextFileColumn.dateColumn(rs, reader, columnInfo.title, columnIndexInSrc, dateColumnType.getDateTimeInfo(), dateColumnType::parse);
                 });
             }
             else
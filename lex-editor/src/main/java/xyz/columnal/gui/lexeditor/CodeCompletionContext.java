@@ -21,26 +21,36 @@
 package xyz.columnal.gui.lexeditor;
 
 import annotation.units.CanonicalLocation;
+import com.google.common.base.Suppliers;
 import com.google.common.collect.ImmutableList;
 import xyz.columnal.gui.lexeditor.completion.LexCompletionGroup;
 import xyz.columnal.utility.Utility;
 
+import java.util.function.Supplier;
+
 public class CodeCompletionContext
 {
-    protected final ImmutableList<LexCompletionGroup> completions;
+    // The lexer makes a context for every chunk on every edit, but completions
+    // are only asked for at the caret, so they are calculated when first asked for:
+    private final Supplier<ImmutableList<LexCompletionGroup>> completions;
 
     public CodeCompletionContext(ImmutableList<LexCompletionGroup> completions)
     {
-        this.completions = completions;
+        this.completions = () -> completions;
+    }
+
+    public CodeCompletionContext(Supplier<ImmutableList<LexCompletionGroup>> calculateCompletions)
+    {
+        this.completions = Suppliers.memoize(calculateCompletions::get);
     }
 
     public CodeCompletionContext(CodeCompletionContext nestedCompletions, @CanonicalLocation int offsetBy)
     {
-        this(Utility.mapListI(nestedCompletions.completions, cc -> cc.offsetBy(offsetBy)));
+        this(() -> Utility.mapListI(nestedCompletions.completions.get(), cc -> cc.offsetBy(offsetBy)));
     }
 
     public ImmutableList<LexCompletionGroup> getCompletionsFor(@CanonicalLocation int caretPos)
     {
-        return completions.stream().flatMap(g -> Utility.streamNullable(g.filterForPos(caretPos))).collect(ImmutableList.<LexCompletionGroup>toImmutableList());
+        return completions.get().stream().flatMap(g -> Utility.streamNullable(g.filterForPos(caretPos))).collect(ImmutableList.<LexCompletionGroup>toImmutableList());
     }
 }
@@ -28,6 +28,7 @@ import com.google.common.collect.ImmutableMap;
 import com.google.common.primitives.Ints;
 import javafx.scene.Node;
 import javafx.scene.text.Text;
+import javafx.util.Duration;
 import xyz.columnal.log.Log;
 import org.checkerframework.checker.nullness.qual.Nullable;
 import xyz.columnal.gui.lexeditor.EditorLocationAndErrorRecorder.ErrorDetails;
@@ -41,12 +42,16 @@ import xyz.columnal.styled.StyledString;
 import xyz.columnal.utility.function.fx.FXPlatformRunnable;
 import xyz.columnal.utility.adt.Pair;
 import xyz.columnal.utility.Utility;
+import xyz.columnal.utility.gui.FXUtility;
 
 import java.util.ArrayList;
 import java.util.List;
 
 public final class EditorContent<EXPRESSION extends StyledShowable, CODE_COMPLETION_CONTEXT extends CodeCompletionContext> implements InsertListener
 {
+    // How long to wait after an edit before making the checks left out while typing
+    // (see Lexer.processWithoutChecks).  Another edit in that time restarts the wait.
+    private static final Duration CHECK_DELAY = Duration.millis(200);
     private LexerResult<EXPRESSION, CODE_COMPLETION_CONTEXT> curContent;
     private @CanonicalLocation int curCaretPosition;
     private @CanonicalLocation int curAnchorPosition;
@@ -54,6 +59,9 @@ public final class EditorContent<EXPRESSION extends StyledShowable, CODE_COMPLET
     private final ArrayList<CaretPositionListener> caretPositionListeners = new ArrayList<>();
     private final ArrayList<FXPlatformRunnable> contentListeners = new ArrayList<>();
     private final UndoManager undoManager;
+    // Counts edits, so that checks of content which has since changed can be dropped:
+    private int editCount = 0;
+    private @Nullable FXPlatformRunnable cancelScheduledChecks;
     
     @SuppressWarnings("units")
     public EditorContent(String originalContent, Lexer<EXPRESSION, CODE_COMPLETION_CONTEXT> lexer)
@@ -133,12 +141,13 @@ public final class EditorContent<EXPRESSION extends StyledShowable, CODE_COMPLET
             newCaretPos = startIncl + content.length();
         else
             newCaretPos = curCaretPosition - (endExcl - startIncl) + content.length();
-        this.curContent = lexer.process(newText, newCaretPos, this);
+        this.curContent = lexer.processWithoutChecks(newText, newCaretPos, this);
         if (setCaretPos != null)
             this.curCaretPosition = setCaretPos;
         else
             this.curCaretPosition = curContent.removedChars.map(newCaretPos);
         this.curAnchorPosition = curCaretPosition;
+        scheduleChecks();
         Log.debug(">>>" + curContent.adjustedContent + " //" + curCaretPosition);
         for (FXPlatformRunnable contentListener : contentListeners)
         {
@@ -149,6 +158,13 @@ public final class EditorContent<EXPRESSION extends StyledShowable, CODE_COMPLET
     
     public void forceSaveAsIfUnfocused()
     {
+        // We make all the checks now, so any pending ones are not needed:
+        editCount += 1;
+        if (cancelScheduledChecks != null)
+        {
+            cancelScheduledChecks.run();
+            cancelScheduledChecks = null;
+        }
         this.curContent = lexer.process(getText(), null, this);
         @SuppressWarnings("units")
         @RawInputLocation int oldPos = getCaretPosition();
@@ -161,6 +177,28 @@ public final class EditorContent<EXPRESSION extends StyledShowable, CODE_COMPLET
         notifyCaretPositionListeners(CaretMoveReason.FORCED_SAVE);
     }
 
+    private void scheduleChecks()
+    {
+        editCount += 1;
+        int checkingEditCount = editCount;
+        if (cancelScheduledChecks != null)
+            cancelScheduledChecks.run();
+        cancelScheduledChecks = FXUtility.runAfterDelay(CHECK_DELAY, () -> {
+            cancelScheduledChecks = null;
+            String checkingText = getText();
+            @SuppressWarnings("units")
+            @RawInputLocation int caretPos = getCaretPosition();
+            lexer.processInBackground(checkingText, caretPos, this, checked -> {
+                // Drop the result if there has been an edit since:
+                if (editCount == checkingEditCount && checked.adjustedContent.equals(checkingText))
+                {
+                    this.curContent = checked;
+                    notifyCaretPositionListeners(CaretMoveReason.CHECKED);
+                }
+            });
+        });
+    }
+
     public String getText()
     {
         return curContent.adjustedContent;
@@ -319,7 +357,9 @@ public final class EditorContent<EXPRESSION extends StyledShowable, CODE_COMPLET
     
     public static enum CaretMoveReason
     {
-        FORCED_SAVE, CARET_MOVED, FOCUSED, TEXT_CHANGED
+        FORCED_SAVE, CARET_MOVED, FOCUSED, TEXT_CHANGED,
+        // The checks left out while editing have been made, so the errors and display may have changed:
+        CHECKED
 
     }
     
@@ -339,7 +339,7 @@ public final class EditorDisplay extends TextEditorBase implements TimedFocusabl
         });
         
         content.addChangeListener(() -> render(true));
-        content.addCaretPositionListener((c, r) -> render(false));
+        content.addCaretPositionListener((c, r) -> render(r == CaretMoveReason.CHECKED));
         render(true);
     }
 
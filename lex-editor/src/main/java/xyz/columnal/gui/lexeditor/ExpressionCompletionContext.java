@@ -24,6 +24,8 @@ import annotation.units.CanonicalLocation;
 import com.google.common.collect.ImmutableList;
 import xyz.columnal.gui.lexeditor.completion.LexCompletionGroup;
 
+import java.util.function.Supplier;
+
 public class ExpressionCompletionContext extends CodeCompletionContext
 {
     public ExpressionCompletionContext(ImmutableList<LexCompletionGroup> completions)
@@ -31,6 +33,11 @@ public class ExpressionCompletionContext extends CodeCompletionContext
         super(completions);
     }
 
+    public ExpressionCompletionContext(Supplier<ImmutableList<LexCompletionGroup>> calculateCompletions)
+    {
+        super(calculateCompletions);
+    }
+
     public ExpressionCompletionContext(CodeCompletionContext nestedCompletions, @CanonicalLocation int offsetBy)
     {
         super(nestedCompletions, offsetBy);
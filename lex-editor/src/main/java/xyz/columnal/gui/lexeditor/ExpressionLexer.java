@@ -48,6 +48,7 @@ import xyz.columnal.error.UserException;
 import xyz.columnal.grammar.GrammarUtility;
 import xyz.columnal.transformations.expression.BooleanLiteral;
 import xyz.columnal.transformations.expression.CanonicalSpan;
+import xyz.columnal.transformations.expression.ErrorAndTypeRecorder;
 import xyz.columnal.gui.lexeditor.EditorLocationAndErrorRecorder.ErrorDetails;
 import xyz.columnal.gui.lexeditor.completion.InsertListener;
 import xyz.columnal.gui.lexeditor.completion.LexCompletion;
@@ -84,6 +85,7 @@ import xyz.columnal.styled.StyledString;
 import threadchecker.OnThread;
 import threadchecker.Tag;
 import xyz.columnal.utility.adt.Either;
+import xyz.columnal.utility.function.fx.FXPlatformConsumer;
 import xyz.columnal.utility.function.fx.FXPlatformSupplierInt;
 import xyz.columnal.utility.IdentifierUtility;
 import xyz.columnal.utility.IdentifierUtility.Consumed;
@@ -91,6 +93,8 @@ import xyz.columnal.utility.adt.Pair;
 import xyz.columnal.utility.Utility;
 import xyz.columnal.utility.gui.FXUtility;
 import xyz.columnal.utility.TranslationUtility;
+import xyz.columnal.utility.Workers;
+import xyz.columnal.utility.Workers.Priority;
 
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -256,6 +260,63 @@ public class ExpressionLexer extends Lexer<Expression, ExpressionCompletionConte
 
     @Override
     public LexerResult<Expression, ExpressionCompletionContext> process(String content, @Nullable @RawInputLocation Integer curCaretPos, InsertListener insertListener)
+    {
+        Lexed lexed = lex(content, curCaretPos, insertListener);
+        TypeCheckOutcome outcome;
+        try
+        {
+            outcome = typeCheck(lexed.saved, columnLookup.get(), makeTypeState.get(), lexed.saver.locationRecorder.getRecorder());
+        }
+        catch (InternalException e)
+        {
+            Log.log(e);
+            outcome = new TypeCheckOutcome(null, e.getStyledMessage());
+        }
+        lexed.recordTypeCheck(outcome);
+        return lexed.makeResult();
+    }
+
+    /**
+     * Leaves out the type check, which can take a while with a lot of tables and
+     * columns.  It is instead made by processInBackground once editing pauses.
+     */
+    @Override
+    public LexerResult<Expression, ExpressionCompletionContext> processWithoutChecks(String content, @Nullable @RawInputLocation Integer curCaretPos, InsertListener insertListener)
+    {
+        return lex(content, curCaretPos, insertListener).makeResult();
+    }
+
+    @Override
+    public void processInBackground(String content, @Nullable @RawInputLocation Integer curCaretPos, InsertListener insertListener, FXPlatformConsumer<LexerResult<Expression, ExpressionCompletionContext>> withChecks)
+    {
+        Lexed lexed = lex(content, curCaretPos, insertListener);
+        ColumnLookup lookup = columnLookup.get();
+        TypeState typeState;
+        try
+        {
+            typeState = makeTypeState.get();
+        }
+        catch (InternalException e)
+        {
+            Log.log(e);
+            lexed.recordTypeCheck(new TypeCheckOutcome(null, e.getStyledMessage()));
+            withChecks.consume(lexed.makeResult());
+            return;
+        }
+        // This lexed expression and its recorder are only used by the worker until
+        // the outcome is passed back, so nothing else sees them part-way through:
+        @Recorded Expression saved = lexed.saved;
+        ErrorAndTypeRecorder recorder = lexed.saver.locationRecorder.getRecorder();
+        Workers.onWorkerThread("Type checking expression", Priority.FETCH, () -> {
+            TypeCheckOutcome outcome = typeCheck(saved, lookup, typeState, recorder);
+            FXUtility.runFX(() -> {
+                lexed.recordTypeCheck(outcome);
+                withChecks.consume(lexed.makeResult());
+            });
+        });
+    }
+
+    private Lexed lex(String content, @Nullable @RawInputLocation Integer curCaretPos, InsertListener insertListener)
     {
         ExpressionSaver saver = new ExpressionSaver(typeManager, functionLookup, insertListener);
         @RawInputLocation int curIndex = RawInputLocation.ZERO;
@@ -454,60 +515,124 @@ public class ExpressionLexer extends Lexer<Expression, ExpressionCompletionConte
             curIndex += RawInputLocation.ONE;
         }
         @Recorded Expression saved = saver.finish(removedChars.map(curIndex, curIndex));
+        return new Lexed(saver, saved, removedChars.map(RawInputLocation.ZERO, curIndex), removedChars, chunks, nestedCompletions.build(), lexOnMove, suppressBracketMatching, insertListener);
+    }
+
+    // The errors from type checking which the type checker doesn't record itself:
+    private static class TypeCheckOutcome
+    {
+        // Error if the type doesn't match the expected type:
+        private final @Nullable StyledString expectedTypeError;
+        // Error if the type check threw an exception:
+        private final @Nullable StyledString exceptionError;
+
+        public TypeCheckOutcome(@Nullable StyledString expectedTypeError, @Nullable StyledString exceptionError)
+        {
+            this.expectedTypeError = expectedTypeError;
+            this.exceptionError = exceptionError;
+        }
+    }
+
+    // Only uses the given recorder, not the saver, so can be run on the worker thread.
+    @OnThread(Tag.Any)
+    private TypeCheckOutcome typeCheck(@Recorded Expression saved, ColumnLookup columnLookup, TypeState typeState, ErrorAndTypeRecorder recorder)
+    {
+        @Nullable StyledString expectedTypeError = null;
         try
         {
-            TypeExp typeExp = saved.checkExpression(columnLookup.get(), makeTypeState.get(), saver.locationRecorder.getRecorder());
+            @Nullable TypeExp typeExp = saved.checkExpression(columnLookup, typeState, recorder);
             
             if (typeExp != null)
             {
                 // Must be concrete:
                 if (expectedType != null)
-                    TypeExp.unifyTypes(typeExp, TypeExp.fromDataType(null, expectedType)).ifLeft(err -> saver.locationRecorder.addErrorAndFixes(saver.recorderFor(saved), err.getMessage(), ImmutableList.of()));
-                @RawInputLocation int lastIndex = curIndex;
-                saver.locationRecorder.getRecorder().recordLeftError(typeManager, functionLookup, saved, typeExp.toConcreteType(typeManager, false));
+                    expectedTypeError = TypeExp.unifyTypes(typeExp, TypeExp.fromDataType(null, expectedType)).<@Nullable StyledString>either(err -> err.getMessage(), t -> null);
+                recorder.recordLeftError(typeManager, functionLookup, saved, typeExp.toConcreteType(typeManager, false));
             }
+            return new TypeCheckOutcome(expectedTypeError, null);
         }
         catch (InternalException | UserException e)
         {
             if (e instanceof InternalException)
                 Log.log(e);
-            saver.locationRecorder.addErrorAndFixes(removedChars.map(RawInputLocation.ZERO, curIndex), ((ExceptionWithStyle) e).getStyledMessage(), ImmutableList.of());
+            return new TypeCheckOutcome(expectedTypeError, ((ExceptionWithStyle) e).getStyledMessage());
         }
-        
-        if (chunks.isEmpty())
-        {
-            chunks.add(new ContentChunk("", ChunkType.IDENT));
-        }
-        
-        String internalContent = chunks.stream().map(c -> c.internalContent).collect(Collectors.joining());
-        StyledString display = chunks.stream().map(c -> c.displayContent).filter(d -> d.getLength() > 0).collect(StyledString.joining(""));
-        Pair<ArrayList<CaretPos>, ImmutableList<@CanonicalLocation Integer>> caretPos = calculateCaretPos(chunks);
+    }
 
-        ImmutableList<ErrorDetails> errors = saver.getErrors();
-        try
+    /**
+     * An expression which has been lexed, but not yet type checked.
+     */
+    private class Lexed
+    {
+        private final ExpressionSaver saver;
+        private final @Recorded Expression saved;
+        // The whole content, for errors which can't be placed more precisely:
+        private final CanonicalSpan wholeLocation;
+        private final RemovedCharacters removedChars;
+        private final ArrayList<ContentChunk> chunks;
+        private final ImmutableList<AutoCompleteDetails<ExpressionCompletionContext>> nestedCompletions;
+        private final boolean lexOnMove;
+        private final BitSet suppressBracketMatching;
+        private final InsertListener insertListener;
+
+        public Lexed(ExpressionSaver saver, @Recorded Expression saved, CanonicalSpan wholeLocation, RemovedCharacters removedChars, ArrayList<ContentChunk> chunks, ImmutableList<AutoCompleteDetails<ExpressionCompletionContext>> nestedCompletions, boolean lexOnMove, BitSet suppressBracketMatching, InsertListener insertListener)
         {
-            display = addIndents(display, caretPos.getFirst(), saved, saver.locationRecorder);
+            this.saver = saver;
+            this.saved = saved;
+            this.wholeLocation = wholeLocation;
+            this.removedChars = removedChars;
+            this.chunks = chunks;
+            this.nestedCompletions = nestedCompletions;
+            this.lexOnMove = lexOnMove;
+            this.suppressBracketMatching = suppressBracketMatching;
+            this.insertListener = insertListener;
         }
-        catch (InternalException e)
+
+        public void recordTypeCheck(TypeCheckOutcome outcome)
         {
-            // Just abandon adding the indents, user will live without
-            Log.log(e);
+            if (outcome.expectedTypeError != null)
+                saver.locationRecorder.addErrorAndFixes(saver.recorderFor(saved), outcome.expectedTypeError, ImmutableList.of());
+            if (outcome.exceptionError != null)
+                saver.locationRecorder.addErrorAndFixes(wholeLocation, outcome.exceptionError, ImmutableList.of());
         }
-        display = Lexer.padZeroWidthErrors(display, caretPos.getFirst(), errors);
-        
 
-        return new LexerResult<Expression, ExpressionCompletionContext>(saved, internalContent, removedChars, lexOnMove, ImmutableList.copyOf(caretPos.getFirst()), ImmutableList.copyOf(caretPos.getSecond()), display, errors, saver.locationRecorder, Utility.concatI(Lexer.<ExpressionCompletionContext>makeCompletions(chunks, new MakeCompletions<ExpressionCompletionContext>()
+        public LexerResult<Expression, ExpressionCompletionContext> makeResult()
         {
-            // Must be anon inner class (rather than lambda) to avoid lambda annotation bug in checker framework
-            // https://github.com/typetools/checker-framework/issues/2173
-            // Can be swapped back in Java 9
+            if (chunks.isEmpty())
+            {
+                chunks.add(new ContentChunk("", ChunkType.IDENT));
+            }
+            
+            String internalContent = chunks.stream().map(c -> c.internalContent).collect(Collectors.joining());
+            StyledString display = chunks.stream().map(c -> c.displayContent).filter(d -> d.getLength() > 0).collect(StyledString.joining(""));
+            Pair<ArrayList<CaretPos>, ImmutableList<@CanonicalLocation Integer>> caretPos = calculateCaretPos(chunks);
 
-            @Override
-            public ExpressionCompletionContext makeCompletions(String chunk, @CanonicalLocation int canonIndex, ChunkType curChunk, ChunkType precedingChunk)
+            ImmutableList<ErrorDetails> errors = saver.getErrors();
+            try
             {
-                return ExpressionLexer.this.makeCompletions(chunk, canonIndex, curChunk, precedingChunk, insertListener);
+                display = addIndents(display, caretPos.getFirst(), saved, saver.locationRecorder);
             }
-        }), nestedCompletions.build()), suppressBracketMatching, !saver.hasUnmatchedBrackets(), saver::getDisplayFor);
+            catch (InternalException e)
+            {
+                // Just abandon adding the indents, user will live without
+                Log.log(e);
+            }
+            display = Lexer.padZeroWidthErrors(display, caretPos.getFirst(), errors);
+            
+
+            return new LexerResult<Expression, ExpressionCompletionContext>(saved, internalContent, removedChars, lexOnMove, ImmutableList.copyOf(caretPos.getFirst()), ImmutableList.copyOf(caretPos.getSecond()), display, errors, saver.locationRecorder, Utility.concatI(Lexer.<ExpressionCompletionContext>makeCompletions(chunks, new MakeCompletions<ExpressionCompletionContext>()
+            {
+                // Must be anon inner class (rather than lambda) to avoid lambda annotation bug in checker framework
+                // https://github.com/typetools/checker-framework/issues/2173
+                // Can be swapped back in Java 9
+
+                @Override
+                public ExpressionCompletionContext makeCompletions(String chunk, @CanonicalLocation int canonIndex, ChunkType curChunk, ChunkType precedingChunk)
+                {
+                    return ExpressionLexer.this.makeCompletions(chunk, canonIndex, curChunk, precedingChunk, insertListener);
+                }
+            }), nestedCompletions), suppressBracketMatching, !saver.hasUnmatchedBrackets(), saver::getDisplayFor);
+        }
     }
 
     private StyledString addIndents(StyledString display, ArrayList<CaretPos> caretPos, @Recorded Expression expression, EditorLocationAndErrorRecorder locations) throws InternalException
@@ -565,6 +690,12 @@ public class ExpressionLexer extends Lexer<Expression, ExpressionCompletionConte
     }
 
     private ExpressionCompletionContext makeCompletions(String stem, @CanonicalLocation int canonIndex, ChunkType curChunk, ChunkType precedingChunk, InsertListener insertListener)
+    {
+        // Only calculated if asked for, which is only at the caret position:
+        return new ExpressionCompletionContext(() -> calculateCompletions(stem, canonIndex, curChunk, precedingChunk, insertListener));
+    }
+
+    private ImmutableList<LexCompletionGroup> calculateCompletions(String stem, @CanonicalLocation int canonIndex, ChunkType curChunk, ChunkType precedingChunk, InsertListener insertListener)
     {
         // Large size to avoid reallocations:
         Builder<Pair<CompletionStatus, ExpressionCompletion>> completions = ImmutableList.builderWithExpectedSize(1000);
@@ -609,7 +740,7 @@ public class ExpressionLexer extends Lexer<Expression, ExpressionCompletionConte
         
         ImmutableList<LexCompletion> operators = getOperatorCompletions(canonIndex, stem, curChunk, precedingChunk);
         
-        return new ExpressionCompletionContext(sort(directAndRelated, operators, ImmutableList.copyOf(guides)));
+        return sort(directAndRelated, operators, ImmutableList.copyOf(guides));
     }
 
     private Pair<CompletionStatus, ExpressionCompletion> excludeFirstPos(Pair<CompletionStatus, ExpressionCompletion> original)
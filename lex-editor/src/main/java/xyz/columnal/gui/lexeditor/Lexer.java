@@ -40,6 +40,7 @@ import xyz.columnal.styled.StyledCSS;
 import xyz.columnal.styled.StyledShowable;
 import xyz.columnal.styled.StyledString;
 import xyz.columnal.utility.function.fx.FXPlatformBiFunction;
+import xyz.columnal.utility.function.fx.FXPlatformConsumer;
 import xyz.columnal.utility.IdentifierUtility.Consumed;
 import xyz.columnal.utility.adt.Pair;
 import xyz.columnal.utility.Utility;
@@ -346,6 +347,24 @@ public abstract class Lexer<EXPRESSION extends StyledShowable, CODE_COMPLETION_C
     // Takes latest content, lexes it, returns result
     public abstract LexerResult<EXPRESSION, CODE_COMPLETION_CONTEXT> process(String content, @Nullable @RawInputLocation Integer caretPos, InsertListener insertListener);
 
+    /**
+     * Like process, but may leave out checks which are too slow to make on every edit.
+     * Those are then made by processInBackground.  By default, the same as process.
+     */
+    public LexerResult<EXPRESSION, CODE_COMPLETION_CONTEXT> processWithoutChecks(String content, @Nullable @RawInputLocation Integer caretPos, InsertListener insertListener)
+    {
+        return process(content, caretPos, insertListener);
+    }
+
+    /**
+     * If processWithoutChecks leaves out any checks, lexes the content again and makes
+     * them in the background, then passes the full result (as process would give) to
+     * withChecks on the FX thread.  By default, does nothing.
+     */
+    public void processInBackground(String content, @Nullable @RawInputLocation Integer caretPos, InsertListener insertListener, FXPlatformConsumer<LexerResult<EXPRESSION, CODE_COMPLETION_CONTEXT>> withChecks)
+    {
+    }
+
     protected static StyledString padZeroWidthErrors(StyledString display, ArrayList<CaretPos> caretPos, ImmutableList<ErrorDetails> errors)
     {
 
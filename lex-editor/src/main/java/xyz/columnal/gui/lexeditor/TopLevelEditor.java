@@ -138,7 +138,7 @@ public class TopLevelEditor<EXPRESSION extends StyledShowable, LEXER extends Lex
             @Override
             public void caretMoved(@CanonicalLocation int caretPos, CaretMoveReason caretMoveReason)
             {
-                if (caretMoveReason != CaretMoveReason.FORCED_SAVE)
+                if (caretMoveReason != CaretMoveReason.FORCED_SAVE && caretMoveReason != CaretMoveReason.CHECKED)
                 {
                     display.showCompletions(content.getLexerResult().getCompletionsFor(caretPos));
                 }
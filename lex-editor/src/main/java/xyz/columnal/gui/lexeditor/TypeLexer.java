@@ -340,7 +340,8 @@ public class TypeLexer extends Lexer<TypeExpression, CodeCompletionContext>
     
     private CodeCompletionContext makeCompletions(String stem, @CanonicalLocation int canonIndex, ChunkType curType, ChunkType preceding)
     {
-        return new CodeCompletionContext(curType != ChunkType.IDENT ? ImmutableList.of() : ImmutableList.of(new LexCompletionGroup(
+        // Only calculated if asked for, which is only at the caret position:
+        return new CodeCompletionContext(() -> curType != ChunkType.IDENT ? ImmutableList.<LexCompletionGroup>of() : ImmutableList.<LexCompletionGroup>of(new LexCompletionGroup(
             Stream.<LexCompletion>concat(
                 Stream.<LexCompletion>concat(
                     streamConcreteDataTypes().<LexCompletion>map(t -> {
@@ -66,10 +66,22 @@ import java.util.TreeSet;
 
 public class ConvertToR
 {
+    /**
+     * Converts the table to an R data frame or tibble.  Each column is only converted
+     * when the column is visited (and again on each visit), so that writing the table
+     * with RWrite only holds one converted column in memory at a time.
+     */
     public static RValue convertTableToR(RecordSet recordSet, TableType tableType) throws UserException, InternalException
     {
         // A table is a generic list of columns with class data.frame
-        return RUtility.genericVector(Utility.mapListExI(recordSet.getColumns(), c -> convertColumnToR(c, tableType)),
+        return RUtility.genericVector(Utility.<Column, RValue>mapListI(recordSet.getColumns(), c -> new RValue()
+            {
+                @Override
+                public <T> T visit(RVisitor<T> visitor) throws InternalException, UserException
+                {
+                    return convertColumnToR(c, tableType).visit(visitor);
+                }
+            }),
             RUtility.makeClassAttributes(tableType == TableType.DATA_FRAME ? RUtility.CLASS_DATA_FRAME : RUtility.CLASS_TIBBLE, ImmutableMap.<String, RValue>of(
                 "names", RUtility.stringVector(Utility.<Column, Optional<@Value String>>mapListExI(recordSet.getColumns(), c -> Optional.of(DataTypeUtility.value(usToRColumn(c.getName(), tableType, false)))), null),
                 "row.names", RUtility.intVector(new int[] {RUtility.NA_AS_INTEGER, -recordSet.getLength()}, null)
@@ -22,10 +22,11 @@ package xyz.columnal.rinterop;
 
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.io.BaseEncoding;
 import xyz.columnal.log.Log;
-import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.SystemUtils;
 import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
+import org.checkerframework.checker.nullness.qual.Nullable;
 import xyz.columnal.data.RecordSet;
 import xyz.columnal.data.Settings;
 import xyz.columnal.data.TableManager;
@@ -36,13 +37,20 @@ import threadchecker.OnThread;
 import threadchecker.Tag;
 import xyz.columnal.utility.Utility;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.PrintStream;
-import java.io.StringWriter;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
 import java.util.Map.Entry;
 import java.util.concurrent.TimeUnit;
 
@@ -50,6 +58,21 @@ public class RExecution
 {
     // Uses $PATH by default:
     private static String rExecFromPath = "R";
+    // The R executable we found when there was no path in the settings:
+    private static @Nullable String rExecFound;
+    private static final long TIMEOUT_SECONDS = 300;
+    private static final int MAX_IDLE_SESSIONS_PER_PACKAGES = 2;
+    // Sessions not in use, by the R executable, library path and packages they have loaded:
+    private static final HashMap<ImmutableList<String>, ArrayList<RSession>> idleSessions = new HashMap<>();
+    // Sessions in use, with their key for idleSessions.  Also guarded by idleSessions:
+    private static final IdentityHashMap<RSession, ImmutableList<String>> busySessions = new IdentityHashMap<>();
+    // The output of R describing the versions of R and each package, by session key.  Also guarded by idleSessions:
+    private static final HashMap<ImmutableList<String>, String> versions = new HashMap<>();
+    
+    static
+    {
+        Runtime.getRuntime().addShutdownHook(new Thread(RExecution::destroyAllSessions));
+    }
     
     public static RValue runRExpression(String rExpression) throws UserException, InternalException
     {
@@ -57,9 +80,142 @@ public class RExecution
     }
     
     public static RValue runRExpression(String rExpression, ImmutableList<String> packages, ImmutableMap<String, RecordSet> tablesToPass) throws UserException, InternalException
+    {
+        return runRExpression(rExpression, packages, tablesToPass, null, false);
+    }
+
+    /**
+     * Runs the given R expression, with the given tables available as variables, and returns the
+     * value of the last line.
+     * 
+     * If a cache is given, the result is stored in it, keyed on the expression, the tables' content,
+     * the R installation and the versions of R and the packages.  If useCachedResult is also true and
+     * the cache already has a result for that key, it is returned without running the expression.
+     */
+    public static RValue runRExpression(String rExpression, ImmutableList<String> packages, ImmutableMap<String, RecordSet> tablesToPass, @Nullable RResultCache cache, boolean useCachedResult) throws UserException, InternalException
     {
         Settings settings = TableManager.getSettings();
+        
+        try (TemporaryFileHandler rdsFile = new TemporaryFileHandler())
+        {
+            String rExec = findRExecutable(settings);
+            if (rExec == null)
+            {
+                throw new UserException("R not found on your system; set the R path in the settings");
+            }
+            
+            File rLibsDir = null;
+            if (settings.useColumnalRLibs)
+            {
+                rLibsDir = new File(Utility.getStorageDirectory(), "Rlibs");
+                if (!rLibsDir.exists() && !rLibsDir.mkdir())
+                {
+                    throw new IOException("Could not create local R libs directory: " + rLibsDir.getAbsolutePath());
+                }
+            }
+            ImmutableList<String> sessionKey = makeSessionKey(rExec, rLibsDir, Utility.prependToList("tibble", packages));
+            
+            MessageDigest cacheKey = MessageDigest.getInstance("SHA-256");
+            addToKey(cacheKey, rExpression);
+            for (String item : sessionKey)
+            {
+                addToKey(cacheKey, item);
+            }
+            
+            ArrayList<String> rCode = new ArrayList<>();
+            for (Entry<String, RecordSet> entry : tablesToPass.entrySet())
+            {
+                File tableFile = rdsFile.addRDSFile("table");
+                RValue rTable = ConvertToR.convertTableToR(entry.getValue(), TableType.TIBBLE);
+                //System.out.println(RData.prettyPrint(rTable));
+                addToKey(cacheKey, entry.getKey());
+                // The written file is a complete record of the table's content, so it serves as the fingerprint.
+                // We digest it as it is written, rather than reading it back in:
+                try (OutputStream out = new BufferedOutputStream(new DigestOutputStream(new FileOutputStream(tableFile), cacheKey)))
+                {
+                    RWrite.writeRData(out, rTable);
+                }
+                String read = entry.getKey() + " <- readRDS(" + RUtility.escapeString(tableFile.getAbsolutePath(), true) + ")";
+                rCode.add(read);
+            }
+            
+            @Nullable RSession session = null;
+            try
+            {
+                @Nullable String cacheKeyHex = null;
+                if (cache != null)
+                {
+                    // The versions are found when a session is started, so we may need to start one to know them:
+                    String versions = getVersions(sessionKey);
+                    if (versions == null)
+                    {
+                        session = takeSession(sessionKey);
+                        versions = getVersions(sessionKey);
+                        if (versions == null)
+                            throw new InternalException("R versions not found after starting session");
+                    }
+                    addToKey(cacheKey, versions);
+                    cacheKeyHex = BaseEncoding.base16().lowerCase().encode(cacheKey.digest());
+                    if (useCachedResult)
+                    {
+                        RValue cached = cache.get(cacheKeyHex);
+                        if (cached != null)
+                            return cached;
+                    }
+                }
+                
+                String[] lines = Utility.splitLines(rExpression);
+                File outputFile = rdsFile.addRDSFile("output");
+                lines[lines.length - 1] = "saveRDS(" + lines[lines.length - 1] + ", file=" + RUtility.escapeString(outputFile.getAbsolutePath(), true) + ", compress=FALSE)";
+                rCode.add(String.join("\n", lines));
+                
+                if (session == null)
+                    session = takeSession(sessionKey);
+                session.evaluate(rCode, TIMEOUT_SECONDS, TimeUnit.SECONDS);
+                RValue result = RRead.readRData(outputFile);
+                if (cache != null && cacheKeyHex != null)
+                    cache.put(cacheKeyHex, outputFile);
+                return result;
+            }
+            finally
+            {
+                if (session != null)
+                    returnSession(session);
+            }
+        }
+        catch (IOException | InterruptedException e)
+        {
+            throw new UserException("Problem running R", e);
+        }
+        catch (NoSuchAlgorithmException e)
+        {
+            throw new InternalException("SHA-256 not available", e);
+        }
+    }
+    
+    // Adds the string to the key, with its length first so that the boundaries between items can't be confused:
+    private static void addToKey(MessageDigest key, String item)
+    {
+        byte[] bytes = item.getBytes(StandardCharsets.UTF_8);
+        key.update(ByteBuffer.allocate(4).putInt(bytes.length).array());
+        key.update(bytes);
+    }
+
+    // The versions of R and the packages, for sessions with the given key, or null if no such session has been started yet:
+    private static @Nullable String getVersions(ImmutableList<String> sessionKey)
+    {
+        synchronized (idleSessions)
+        {
+            return versions.get(sessionKey);
+        }
+    }
+
+    private static @Nullable String findRExecutable(Settings settings)
+    {
         String rExec = Utility.onNullable(settings.pathToRExecutable, f -> f.getAbsolutePath());
+        // Starting R just to find it would undo the benefit of keeping sessions, so only look once:
+        if (rExec == null)
+            rExec = rExecFound;
         if (rExec == null)
         {            
             try
@@ -94,122 +250,134 @@ public class RExecution
             {
                 // Hit and hope...
             }
+            rExecFound = rExec;
         }
-        
-        if (rExec == null)
-        {
-            throw new UserException("R not found on your system; set the R path in the settings");
-        }
-        
-        try (TemporaryFileHandler rdsFile = new TemporaryFileHandler())
+        return rExec;
+    }
+
+    // The key for idleSessions: the R executable, the library directory (or empty) then the packages
+    private static ImmutableList<String> makeSessionKey(String rExec, @Nullable File rLibsDir, ImmutableList<String> packages)
+    {
+        return ImmutableList.<String>builder().add(rExec, rLibsDir == null ? "" : rLibsDir.getAbsolutePath()).addAll(packages).build();
+    }
+
+    /**
+     * Gets an idle session with the given key (see makeSessionKey), or starts a new one.
+     */
+    private static RSession takeSession(ImmutableList<String> key) throws IOException, UserException, InterruptedException
+    {
+        String rExec = key.get(0);
+        @Nullable File rLibsDir = key.get(1).isEmpty() ? null : new File(key.get(1));
+        List<String> packages = key.subList(2, key.size());
+        synchronized (idleSessions)
         {
-            File rLibsDir = null;
-            if (settings.useColumnalRLibs)
+            ArrayList<RSession> idle = idleSessions.get(key);
+            while (idle != null && !idle.isEmpty())
             {
-                rLibsDir = new File(Utility.getStorageDirectory(), "Rlibs");
-                if (!rLibsDir.exists() && !rLibsDir.mkdir())
+                RSession session = idle.remove(idle.size() - 1);
+                if (!session.isBroken())
                 {
-                    throw new IOException("Could not create local R libs directory: " + rLibsDir.getAbsolutePath());
+                    busySessions.put(session, key);
+                    return session;
                 }
             }
-            
-            Process p = Runtime.getRuntime().exec(new String[]{rExec, "--vanilla", "--slave"});
-            PrintStream cmdStream = new PrintStream(p.getOutputStream(), false, StandardCharsets.UTF_8);
-            
-            for (String pkg : Utility.prependToList("tibble", packages))
-            {
-                StringBuilder require = new StringBuilder();
-                require.append("require(").append(RUtility.escapeString(pkg, true));
-                if (rLibsDir != null)
-                {
-                    require.append(", lib.loc=c(").append(RUtility.escapeString(rLibsDir.getAbsolutePath(), true)).append(", .libPaths())");
-                }
-                require.append(")");
-                StringBuilder reqOrInstall = new StringBuilder();
-                reqOrInstall.append("if (!").append(require).append(") { install.packages(").append(RUtility.escapeString(pkg, true)).append(", repos=\"https://cloud.r-project.org/\"");
-                if (rLibsDir != null)
-                {
-                    reqOrInstall.append(", lib=c(").append(RUtility.escapeString(rLibsDir.getAbsolutePath(), true)).append(")");
-                }
-                reqOrInstall.append(");").append(require).append(";}");
-
-                Log.debug("Sending:\n" + reqOrInstall.toString());
-                cmdStream.println(reqOrInstall.toString());
-            }
-
-            for (Entry<String, RecordSet> entry : tablesToPass.entrySet())
+        }
+        
+        RSession session = new RSession(ImmutableList.of(rExec, "--vanilla", "--slave"));
+        synchronized (idleSessions)
+        {
+            busySessions.put(session, key);
+        }
+        ArrayList<String> loadPackages = new ArrayList<>();
+        for (String pkg : packages)
+        {
+            StringBuilder require = new StringBuilder();
+            require.append("require(").append(RUtility.escapeString(pkg, true));
+            if (rLibsDir != null)
             {
-                File tableFile = rdsFile.addRDSFile("table");
-                RValue rTable = ConvertToR.convertTableToR(entry.getValue(), TableType.TIBBLE);
-                //System.out.println(RData.prettyPrint(rTable));
-                RWrite.writeRData(tableFile, rTable);
-                String read = entry.getKey() + " <- readRDS(" + RUtility.escapeString(tableFile.getAbsolutePath(), true) + ")";
-                cmdStream.println(read);
+                require.append(", lib.loc=c(").append(RUtility.escapeString(rLibsDir.getAbsolutePath(), true)).append(", .libPaths())");
             }
-            
-            String[] lines = Utility.splitLines(rExpression);
-            File outputFile = rdsFile.addRDSFile("output");
-            lines[lines.length - 1] = "saveRDS(" + lines[lines.length - 1] + ", file=" + RUtility.escapeString(outputFile.getAbsolutePath(), true) + ")";
-            
-            for (String line : lines)
+            require.append(")");
+            StringBuilder reqOrInstall = new StringBuilder();
+            reqOrInstall.append("if (!").append(require).append(") { install.packages(").append(RUtility.escapeString(pkg, true)).append(", repos=\"https://cloud.r-project.org/\"");
+            if (rLibsDir != null)
             {
-                System.out.println(line);
-                cmdStream.println(line);
+                reqOrInstall.append(", lib=c(").append(RUtility.escapeString(rLibsDir.getAbsolutePath(), true)).append(")");
             }
-            cmdStream.println("quit();");
-            cmdStream.flush();
-            CopyStreamThread copyOut = new CopyStreamThread(p.getInputStream());
-            CopyStreamThread copyErr = new CopyStreamThread(p.getErrorStream());
-            try
+            reqOrInstall.append(");").append(require).append(";}");
+
+            Log.debug("Sending:\n" + reqOrInstall.toString());
+            loadPackages.add(reqOrInstall.toString());
+        }
+        boolean loaded = false;
+        try
+        {
+            session.evaluate(loadPackages, TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            // Results depend on the versions, so they form part of the cache key.  We ask the loaded
+            // namespace, as packageVersion would not look in our own library directory:
+            StringBuilder findVersions = new StringBuilder("cat(R.version.string, \"\\n\", sep=\"\")\n");
+            for (String pkg : packages)
             {
-                copyOut.start();
-                copyErr.start();
-                if (!p.waitFor(300, TimeUnit.SECONDS))
-                    throw new UserException("R process took too long to complete, giving up.\nOutput was:\n" + copyOut.destination.getBuffer().toString() + "\nError was:\n" + copyErr.destination.getBuffer().toString());
-                if (p.exitValue() != 0)
-                    throw new UserException("Exit code from running R (" + p.exitValue() + ") indicates error.  Output was:\n" + copyOut.destination.getBuffer().toString() + "\nError was:\n" + copyErr.destination.getBuffer().toString());
-                return RRead.readRData(outputFile);
+                findVersions.append("cat(").append(RUtility.escapeString(pkg, true)).append(", as.character(getNamespaceVersion(").append(RUtility.escapeString(pkg, true)).append(")), \"\\n\")\n");
             }
-            finally
+            String foundVersions = session.evaluate(ImmutableList.of(findVersions.toString()), TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            synchronized (idleSessions)
             {
-                p.destroyForcibly();
-                copyOut.interrupt();
-                copyErr.interrupt();
+                versions.put(key, foundVersions);
             }
+            // Each later evaluation starts from the state we have now, with the packages loaded:
+            session.saveBaseline(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            loaded = true;
         }
-        catch (IOException | InterruptedException | IllegalThreadStateException e)
+        finally
         {
-            throw new UserException("Problem running R", e);
+            if (!loaded)
+            {
+                // Don't want to keep a session with only some of the packages:
+                session.destroy();
+                returnSession(session);
+            }
         }
+        return session;
     }
-    
-    private static class CopyStreamThread extends Thread
-    {
-        private final StringWriter destination = new StringWriter();
-        private final InputStream source;
 
-        private CopyStreamThread(InputStream source)
+    /**
+     * Returns a session after use, to be used again unless it is broken.
+     */
+    private static void returnSession(RSession session)
+    {
+        synchronized (idleSessions)
         {
-            this.source = source;
+            ImmutableList<String> key = busySessions.remove(session);
+            if (key == null || session.isBroken())
+                return;
+            ArrayList<RSession> idle = idleSessions.computeIfAbsent(key, k -> new ArrayList<>());
+            if (idle.size() < MAX_IDLE_SESSIONS_PER_PACKAGES)
+                idle.add(session);
+            else
+                session.destroy();
         }
+    }
 
-        @Override
-        public void run()
+    // Stops all the R processes, when we are exiting:
+    @OnThread(Tag.Any)
+    private static void destroyAllSessions()
+    {
+        synchronized (idleSessions)
         {
-            try
-            {
-                IOUtils.copy(source, destination, StandardCharsets.UTF_8);
-            }
-            catch (IOException e)
+            for (ArrayList<RSession> idle : idleSessions.values())
             {
-                Log.log(e);
+                for (RSession session : idle)
+                {
+                    session.destroy();
+                }
             }
-            /*
-            catch (InterruptedException e)
+            idleSessions.clear();
+            for (RSession session : busySessions.keySet())
             {
-                // Just finish...
+                session.destroy();
             }
-             */
+            busySessions.clear();
         }
     }
 
@@ -46,6 +46,9 @@ import java.util.zip.GZIPInputStream;
 
 public class RRead
 {
+    // Vectors are read a value at a time, so a large buffer saves a lot of small reads:
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+
     private static int addAtom(HashMap<Integer, String> atoms, String atom)
     {
         int newKey = atoms.size() + 1;
@@ -63,7 +66,14 @@ public class RRead
 
     public static RValue readRData(File rFilePath) throws IOException, InternalException, UserException
     {
-        InputStream rds = openInputStream(rFilePath);
+        try (InputStream rds = openInputStream(rFilePath))
+        {
+            return readRData(rds);
+        }
+    }
+
+    private static RValue readRData(InputStream rds) throws IOException, InternalException, UserException
+    {
         DataInputStream d = new DataInputStream(rds);
         byte[] header = new byte[5];
         d.mark(10);
@@ -396,16 +406,20 @@ public class RRead
         return new String(chars, StandardCharsets.UTF_8);
     }
 
+    // Files we exchange with R are uncompressed, but files from elsewhere are usually gzipped:
     private static BufferedInputStream openInputStream(File rFilePath) throws IOException, UserException
     {
         byte[] firstBytes = new byte[10];
-        new DataInputStream(new FileInputStream(rFilePath)).readFully(firstBytes);
+        try (DataInputStream probe = new DataInputStream(new FileInputStream(rFilePath)))
+        {
+            probe.readFully(firstBytes);
+        }
         if (firstBytes[0] == 0x1F && Byte.toUnsignedInt(firstBytes[1]) == 0x8B)
         {
-            return new BufferedInputStream(new GZIPInputStream(new FileInputStream(rFilePath))); 
+            return new BufferedInputStream(new GZIPInputStream(new FileInputStream(rFilePath), READ_BUFFER_SIZE), READ_BUFFER_SIZE); 
         }
         //throw new UserException("Unrecognised file format");
-        return new BufferedInputStream(new FileInputStream(rFilePath));
+        return new BufferedInputStream(new FileInputStream(rFilePath), READ_BUFFER_SIZE);
     }
 
     private static interface RClassLoad
@@ -0,0 +1,141 @@
+/*
+ * Columnal: Safer, smoother data table processing.
+ * Copyright (c) Neil Brown, 2016-2020, 2022.
+ *
+ * This file is part of Columnal.
+ *
+ * Columnal is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * Columnal is distributed in the hope that it will be useful, but WITHOUT 
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or 
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for 
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along 
+ * with Columnal. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package xyz.columnal.rinterop;
+
+import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import xyz.columnal.error.InternalException;
+import xyz.columnal.error.UserException;
+import xyz.columnal.log.Log;
+import xyz.columnal.utility.Utility;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * A directory of R results (as uncompressed RDS files), each named by a key which is
+ * a hash of everything that the result depends on.  Once the files take up more than
+ * the size limit, the least recently used results are removed.
+ * 
+ * Failure to store or read a result is logged but otherwise ignored, as the cache
+ * is only an optimisation.
+ */
+public final class RResultCache
+{
+    // Limit on the total size of the results in the per-user cache:
+    private static final long USER_CACHE_MAX_BYTES = 256L * 1024L * 1024L;
+    private static @MonotonicNonNull RResultCache userCache;
+    
+    private final File directory;
+    private final long maxBytes;
+
+    public RResultCache(File directory, long maxBytes)
+    {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * The cache in the user's Columnal storage directory.
+     */
+    public static synchronized RResultCache getUserCache()
+    {
+        if (userCache == null)
+            userCache = new RResultCache(new File(Utility.getStorageDirectory(), "Rcache"), USER_CACHE_MAX_BYTES);
+        return userCache;
+    }
+
+    /**
+     * Gets the result stored with the given key, or null if there is none (or it can't be read).
+     */
+    public synchronized @Nullable RValue get(String key) throws InternalException
+    {
+        File cachedFile = getFile(key);
+        if (!cachedFile.isFile())
+            return null;
+        try
+        {
+            RValue cached = RRead.readRData(cachedFile);
+            // Mark as recently used, so that it is not removed when trimming:
+            cachedFile.setLastModified(System.currentTimeMillis());
+            return cached;
+        }
+        catch (IOException | UserException e)
+        {
+            // Corrupt cache file; caller will run R instead:
+            Log.log("Problem reading cached R result " + cachedFile.getAbsolutePath(), e);
+            return null;
+        }
+    }
+
+    /**
+     * Copies the given RDS file into the cache with the given key, then removes
+     * the least recently used results if the cache is over its size limit.
+     */
+    public synchronized void put(String key, File resultFile)
+    {
+        try
+        {
+            if (!directory.exists() && !directory.mkdirs())
+            {
+                throw new IOException("Could not create R cache directory: " + directory.getAbsolutePath());
+            }
+            // Copy then move, so that a half-written file is never seen under the cache name:
+            File temp = File.createTempFile("result", ".tmp", directory);
+            Files.copy(resultFile.toPath(), temp.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            Files.move(temp.toPath(), getFile(key).toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            trim();
+        }
+        catch (IOException e)
+        {
+            Log.log("Problem storing R result in cache", e);
+        }
+    }
+
+    // Removes least recently used results until the total size is within the limit:
+    private void trim()
+    {
+        File[] cached = directory.listFiles((dir, name) -> name.endsWith(".rds"));
+        if (cached == null)
+            return;
+        long totalBytes = 0;
+        for (File f : cached)
+        {
+            totalBytes += f.length();
+        }
+        Arrays.sort(cached, Comparator.comparingLong(File::lastModified));
+        for (int i = 0; i < cached.length && totalBytes > maxBytes; i++)
+        {
+            long length = cached[i].length();
+            if (cached[i].delete())
+                totalBytes -= length;
+        }
+    }
+
+    private File getFile(String key)
+    {
+        return new File(directory, key + ".rds");
+    }
+}
@@ -0,0 +1,252 @@
+/*
+ * Columnal: Safer, smoother data table processing.
+ * Copyright (c) Neil Brown, 2016-2020, 2022.
+ *
+ * This file is part of Columnal.
+ *
+ * Columnal is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * Columnal is distributed in the hope that it will be useful, but WITHOUT 
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or 
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for 
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along 
+ * with Columnal. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package xyz.columnal.rinterop;
+
+import com.google.common.collect.ImmutableList;
+import xyz.columnal.error.UserException;
+import xyz.columnal.log.Log;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A long-running R process which we send code to via its stdin.  After each
+ * evaluation, the code we send makes R write a marker line to stdout with the
+ * outcome, so we can tell when it is done without the process having to exit.
+ * This saves starting R (and loading packages) afresh each time.
+ *
+ * Each evaluation happens in a new environment.  Once {@link #saveBaseline} has been
+ * called (after loading packages), R's global state is also put back before each
+ * evaluation: the global environment is emptied (which also resets the random number
+ * seed), and the random number generator kind, options, working directory, environment
+ * variables and attached packages are restored.  Namespaces which were loaded, S4
+ * classes and methods which were defined, and connections which were left open do
+ * carry over.
+ *
+ * If an evaluation times out or is interrupted, or R exits, the session is
+ * broken and should be destroyed.  An error in the R code does not break it.
+ */
+public final class RSession
+{
+    // Must not be something R would print by itself:
+    static final String MARKER = "@@COLUMNAL@@";
+    // The name of the attached environment holding the state to restore:
+    private static final String BASELINE = ".columnal.baseline";
+    
+    private final Process process;
+    private final PrintStream toR;
+    // Lines of R's stdout, then empty once it has closed:
+    private final LinkedBlockingQueue<Optional<String>> fromR = new LinkedBlockingQueue<>();
+    // R's stderr during the current evaluation:
+    private final StringBuffer errors = new StringBuffer();
+    private int nextEvaluationId = 0;
+    private boolean broken = false;
+    private boolean hasBaseline = false;
+
+    /**
+     * Starts the session.  The command is normally R with arguments
+     * to read from stdin and not echo, but can be anything which
+     * behaves the same.
+     */
+    public RSession(ImmutableList<String> command) throws IOException
+    {
+        this.process = new ProcessBuilder(command).start();
+        this.toR = new PrintStream(process.getOutputStream(), false, StandardCharsets.UTF_8);
+        new ReadLinesThread(process.getInputStream(), line -> fromR.add(Optional.of(line)), () -> fromR.add(Optional.empty())).start();
+        new ReadLinesThread(process.getErrorStream(), line -> errors.append(line).append("\n"), () -> {}).start();
+    }
+
+    /**
+     * Evaluates each of the given pieces of R code in turn, in a new environment.
+     * Returns R's output.  Throws a UserException if the R code gives an error, if R stops, or if
+     * the timeout passes.  If interrupted, the session is broken and the exception is passed on.
+     */
+    public synchronized String evaluate(List<String> rCode, long timeout, TimeUnit timeoutUnit) throws UserException, InterruptedException
+    {
+        if (broken)
+            throw new UserException("R session has already stopped");
+        int id = nextEvaluationId++;
+        errors.setLength(0);
+        toR.println(makeEvaluation(rCode, id, hasBaseline));
+        toR.flush();
+        
+        String markerPrefix = MARKER + " " + id + " ";
+        StringBuilder output = new StringBuilder();
+        long deadline = System.nanoTime() + timeoutUnit.toNanos(timeout);
+        try
+        {
+            while (true)
+            {
+                long remaining = deadline - System.nanoTime();
+                Optional<String> line = remaining <= 0 ? null : fromR.poll(remaining, TimeUnit.NANOSECONDS);
+                if (line == null)
+                {
+                    destroy();
+                    throw new UserException("R process took too long to complete, giving up.\nOutput was:\n" + output + "\nError was:\n" + errors);
+                }
+                else if (!line.isPresent())
+                {
+                    destroy();
+                    throw new UserException("R stopped unexpectedly.  Output was:\n" + output + "\nError was:\n" + errors);
+                }
+                else if (line.get().startsWith(markerPrefix))
+                {
+                    String outcome = line.get().substring(markerPrefix.length());
+                    if (outcome.equals("OK"))
+                        return output.toString();
+                    else
+                        throw new UserException("Error running R: " + outcome.replaceFirst("^ERROR ", "") + "\nOutput was:\n" + output + "\nError was:\n" + errors);
+                }
+                else
+                {
+                    output.append(line.get()).append("\n");
+                }
+            }
+        }
+        catch (InterruptedException e)
+        {
+            // We don't know what state R is in, so can't use it again:
+            destroy();
+            throw e;
+        }
+    }
+
+    /**
+     * Records R's current global state (see the class comment), which will
+     * be restored before every later evaluation.  Only has an effect the first time.
+     */
+    public synchronized void saveBaseline(long timeout, TimeUnit timeoutUnit) throws UserException, InterruptedException
+    {
+        if (hasBaseline)
+            return;
+        // The baseline is kept in its own environment on the search path, which is then part of the baseline:
+        evaluate(ImmutableList.of(
+            "local({\n" +
+            "b <- attach(NULL, name=\"" + BASELINE + "\")\n" +
+            "assign(\"options\", options(), envir=b)\n" +
+            "assign(\"wd\", getwd(), envir=b)\n" +
+            "assign(\"env\", as.list(Sys.getenv()), envir=b)\n" +
+            "assign(\"rngkind\", as.list(RNGkind()), envir=b)\n" +
+            "assign(\"search\", search(), envir=b)\n" +
+            "})"), timeout, timeoutUnit);
+        hasBaseline = true;
+    }
+
+    /**
+     * The R code to evaluate the given code, and then write the marker line.
+     * Each piece of code is passed as a string and parsed within the
+     * tryCatch, so that syntax errors are caught too.
+     */
+    private static String makeEvaluation(List<String> rCode, int id, boolean resetToBaseline)
+    {
+        StringBuilder r = new StringBuilder();
+        r.append("local({\n");
+        r.append(".columnal.env <- new.env(parent=globalenv())\n");
+        r.append(".columnal.outcome <- tryCatch({\n");
+        if (resetToBaseline)
+        {
+            r.append("local({\n");
+            r.append("b <- as.environment(\"").append(BASELINE).append("\")\n");
+            r.append("for (s in setdiff(search(), b$search)) detach(s, character.only=TRUE)\n");
+            // Setting the kind creates a seed, so must come before emptying the global environment:
+            r.append("do.call(RNGkind, b$rngkind)\n");
+            r.append("rm(list=ls(globalenv(), all.names=TRUE), envir=globalenv())\n");
+            r.append("options(c(sapply(setdiff(names(options()), names(b$options)), function(n) NULL, simplify=FALSE), b$options))\n");
+            r.append("setwd(b$wd)\n");
+            r.append("e <- setdiff(names(Sys.getenv()), names(b$env))\n");
+            r.append("if (length(e) > 0) Sys.unsetenv(e)\n");
+            r.append("if (length(b$env) > 0) do.call(Sys.setenv, b$env)\n");
+            r.append("})\n");
+        }
+        for (String code : rCode)
+        {
+            r.append("eval(parse(text=").append(RUtility.escapeString(code, true)).append("), envir=.columnal.env)\n");
+        }
+        r.append("\"OK\"\n");
+        r.append("}, error=function(e) paste(\"ERROR\", gsub(\"[\\r\\n]+\", \" \", conditionMessage(e))))\n");
+        r.append("cat(\"\\n").append(MARKER).append(" ").append(id).append(" \", .columnal.outcome, \"\\n\", sep=\"\")\n");
+        r.append("flush(stdout())\n");
+        r.append("})");
+        return r.toString();
+    }
+
+    public synchronized boolean isBroken()
+    {
+        return broken || !process.isAlive();
+    }
+
+    public synchronized void destroy()
+    {
+        broken = true;
+        toR.close();
+        process.destroyForcibly();
+    }
+
+    private static interface LineHandler
+    {
+        public void line(String line);
+    }
+
+    private static class ReadLinesThread extends Thread
+    {
+        private final InputStream source;
+        private final LineHandler onLine;
+        private final Runnable onEnd;
+
+        private ReadLinesThread(InputStream source, LineHandler onLine, Runnable onEnd)
+        {
+            this.source = source;
+            this.onLine = onLine;
+            this.onEnd = onEnd;
+            // Mustn't keep the program running:
+            setDaemon(true);
+        }
+
+        @Override
+        public void run()
+        {
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(source, StandardCharsets.UTF_8)))
+            {
+                String line;
+                while ((line = reader.readLine()) != null)
+                {
+                    onLine.line(line);
+                }
+            }
+            catch (IOException e)
+            {
+                Log.log(e);
+            }
+            finally
+            {
+                onEnd.run();
+            }
+        }
+    }
+}
@@ -29,10 +29,12 @@ import xyz.columnal.error.InternalException;
 import xyz.columnal.error.UserException;
 import xyz.columnal.utility.Utility;
 
+import java.io.BufferedOutputStream;
 import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.nio.charset.StandardCharsets;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
@@ -47,8 +49,25 @@ public class RWrite
 {
     public static void writeRData(File destFile, RValue topLevel) throws IOException, UserException, InternalException
     {
-        final DataOutputStream d = new DataOutputStream(new FileOutputStream(destFile, false));
-        // TODO compress
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(destFile, false)))
+        {
+            writeRData(out, topLevel);
+        }
+    }
+
+    /**
+     * Writes the value in RDS format to the given stream, which is flushed but not closed.
+     * The output is not compressed; R's readRDS accepts uncompressed files, and it is
+     * much quicker for both sides than compressing and decompressing a file which is
+     * only going to be read once.
+     * 
+     * Values are written as they are visited, so if topLevel calculates its items on
+     * demand (as ConvertToR.convertTableToR does for columns) only one item
+     * need be in memory at once.
+     */
+    public static void writeRData(OutputStream out, RValue topLevel) throws IOException, UserException, InternalException
+    {
+        final DataOutputStream d = new DataOutputStream(out);
         d.writeByte('X');
         d.writeByte('\n');
         d.writeInt(3);
@@ -337,6 +356,5 @@ public class RWrite
             }
         });
         d.flush();
-        d.close();
     }
 }
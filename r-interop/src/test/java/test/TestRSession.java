@@ -0,0 +1,132 @@
+/*
+ * Columnal: Safer, smoother data table processing.
+ * Copyright (c) Neil Brown, 2016-2020, 2022.
+ *
+ * This file is part of Columnal.
+ *
+ * Columnal is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * Columnal is distributed in the hope that it will be useful, but WITHOUT 
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or 
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for 
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along 
+ * with Columnal. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package test;
+
+import com.google.common.collect.ImmutableList;
+import org.junit.Assume;
+import org.junit.Test;
+import threadchecker.OnThread;
+import threadchecker.Tag;
+import xyz.columnal.error.UserException;
+import xyz.columnal.rinterop.RSession;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests RSession against a shell script which stands in for R: it replies
+ * to each evaluation's marker line, with an error if the code mentioned
+ * stop, and never replies if the code mentioned hang.
+ */
+@OnThread(Tag.Simulation)
+public class TestRSession
+{
+    private static final String STAND_IN =
+        "fail=\"\"\n" +
+        "while IFS= read -r line; do\n" +
+        "  case \"$line\" in\n" +
+        "    *stop*) fail=\"yes\";;\n" +
+        "    *hang*) sleep 60;;\n" +
+        "    *@@COLUMNAL@@*)\n" +
+        "      id=$(printf '%s\\n' \"$line\" | sed 's/.*@@COLUMNAL@@ \\([0-9]*\\).*/\\1/')\n" +
+        "      if [ -n \"$fail\" ]; then echo \"@@COLUMNAL@@ $id ERROR stopped\"; else echo \"output $id\"; echo \"@@COLUMNAL@@ $id OK\"; fi\n" +
+        "      fail=\"\";;\n" +
+        "  esac\n" +
+        "done\n";
+    
+    private static RSession start() throws IOException
+    {
+        Assume.assumeTrue(new File("/bin/sh").exists());
+        File script = File.createTempFile("standin", ".sh");
+        script.deleteOnExit();
+        Files.write(script.toPath(), STAND_IN.getBytes(StandardCharsets.UTF_8));
+        return new RSession(ImmutableList.of("/bin/sh", script.getAbsolutePath()));
+    }
+
+    @Test
+    public void testReuse() throws IOException, UserException, InterruptedException
+    {
+        RSession session = start();
+        try
+        {
+            assertTrue(session.evaluate(ImmutableList.of("x <- 1"), 10, TimeUnit.SECONDS).contains("output 0"));
+            // Same process answers the second time:
+            assertTrue(session.evaluate(ImmutableList.of("x <- 2", "x"), 10, TimeUnit.SECONDS).contains("output 1"));
+            assertFalse(session.isBroken());
+        }
+        finally
+        {
+            session.destroy();
+        }
+    }
+
+    @Test
+    public void testError() throws IOException, UserException, InterruptedException
+    {
+        RSession session = start();
+        try
+        {
+            try
+            {
+                session.evaluate(ImmutableList.of("stop(\"no\")"), 10, TimeUnit.SECONDS);
+                fail("Expected error");
+            }
+            catch (UserException e)
+            {
+                assertTrue(e.getLocalizedMessage(), e.getLocalizedMessage().contains("stopped"));
+            }
+            // An error in the R code doesn't stop the session:
+            assertFalse(session.isBroken());
+            assertTrue(session.evaluate(ImmutableList.of("x <- 1"), 10, TimeUnit.SECONDS).contains("output 1"));
+        }
+        finally
+        {
+            session.destroy();
+        }
+    }
+
+    @Test
+    public void testTimeout() throws IOException, InterruptedException
+    {
+        RSession session = start();
+        try
+        {
+            session.evaluate(ImmutableList.of("hang"), 1, TimeUnit.SECONDS);
+            fail("Expected timeout");
+        }
+        catch (UserException e)
+        {
+            // Expected
+        }
+        finally
+        {
+            session.destroy();
+        }
+        assertTrue(session.isBroken());
+    }
+}
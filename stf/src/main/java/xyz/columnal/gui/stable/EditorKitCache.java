@@ -52,6 +52,7 @@ import threadchecker.Tag;
 import xyz.columnal.utility.adt.Either;
 import xyz.columnal.utility.function.fx.FXPlatformBiConsumer;
 import xyz.columnal.utility.function.fx.FXPlatformConsumer;
+import xyz.columnal.utility.function.fx.FXPlatformRunnable;
 import xyz.columnal.utility.adt.Pair;
 import xyz.columnal.utility.Utility;
 import xyz.columnal.utility.Workers;
@@ -60,7 +61,9 @@ import xyz.columnal.utility.Workers.Worker;
 import xyz.columnal.utility.gui.FXUtility;
 import xyz.columnal.utility.TranslationUtility;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
 import java.util.Map.Entry;
 import java.util.OptionalInt;
 import java.util.TreeMap;
@@ -86,9 +89,16 @@ public final class EditorKitCache<V extends @NonNull @Value Object> implements C
     // be multiplied by number of rows:
     private static final int INITIAL_DISPLAY_CACHE_SIZE = 50;
     private static final int MAX_DISPLAY_CACHE_SIZE = 100;
+    // The most rows which will be loaded by a single worker:
+    private static final int MAX_LOAD_BLOCK_SIZE = 64;
     // Maps row index to cached item:
     @OnThread(Tag.FXPlatform)
     private final Cache<@NonNull Integer, @NonNull DisplayCacheItem> displayCacheItems;
+    // Items which are waiting to be handed to a loader, by row index:
+    @OnThread(Tag.FXPlatform)
+    private final TreeMap<@NonNull Integer, @NonNull DisplayCacheItem> pendingLoads = new TreeMap<>();
+    @OnThread(Tag.FXPlatform)
+    private boolean loadPendingScheduled = false;
 
     @OnThread(Tag.Any)
     private final GetValue<@Value V> getValue;
@@ -157,7 +167,10 @@ public final class EditorKitCache<V extends @NonNull @Value Object> implements C
     {
         try
         {
-            displayCacheItems.get(rowIndex, () -> new DisplayCacheItem(rowIndex, focusListener, relinquishFocus, setCellContent)).updateDisplay();
+            DisplayCacheItem item = displayCacheItems.get(rowIndex, () -> new DisplayCacheItem(rowIndex, focusListener, relinquishFocus, setCellContent));
+            if (!item.loadRequested)
+                queueLoad(item);
+            item.updateDisplay();
         }
         catch (ExecutionException e)
         {
@@ -269,14 +282,17 @@ public final class EditorKitCache<V extends @NonNull @Value Object> implements C
     /*
 
     /**
-     * A display cache.  This sets off the loader for its value, and in the mean time
+     * A display cache.  This waits for its value to be loaded, and in the mean time
      * displays a loading bar, until it turns into either an error message or loaded item;
      */
     @OnThread(Tag.FXPlatform)
     private class DisplayCacheItem
     {
-        // The loader which is fetching the item
-        private final ValueLoader loader;
+        // The loader which is fetching the item.  Null until the item's block has been formed.
+        private @Nullable BlockLoader loader;
+        // Whether we have been queued for loading yet
+        private boolean loadRequested = false;
+        private boolean cancelled = false;
         // The row index (fixed) of this item
         private final @TableDataRowIndex int rowIndex;
         // The result of loading: either value or error.  If null, still loading
@@ -291,15 +307,15 @@ public final class EditorKitCache<V extends @NonNull @Value Object> implements C
         public DisplayCacheItem(@TableDataRowIndex int index, FXPlatformConsumer<Boolean> onFocusChange, FXPlatformBiConsumer<KeyCode, CellPosition> relinquishFocus, EditorKitCallback callbackSetCellContent)
         {
             this.rowIndex = index;
-            loader = new ValueLoader(index, Utility.later(this));
             this.onFocusChange = onFocusChange;
             this.relinquishFocus = relinquishFocus;
             this.callbackSetCellContent = callbackSetCellContent;
-            Workers.onWorkerThread("Value load for display: " + index, Priority.FETCH, loader);
         }
 
         public synchronized void update(String content, @Nullable @Value V loadedItem)
         {
+            if (cancelled)
+                return;
             FXUtility.alertOnErrorFX_(TranslationUtility.getString("error.loading.value"), () -> {
                 this.loadedItemOrError = Either.<Document, @Localized String>left(makeEditorKit.makeKit(rowIndex, new Pair<>(content, loadedItem), relinquishFocus)/*makeGraphical(rowIndex, loadedItem, onFocusChange, relinquishFocus)*/);
             });
@@ -323,7 +339,11 @@ public final class EditorKitCache<V extends @NonNull @Value Object> implements C
 
         public synchronized void cancelLoad()
         {
-            Workers.cancel(loader);
+            cancelled = true;
+            if (pendingLoads.get(rowIndex) == this)
+                pendingLoads.remove(rowIndex);
+            if (loader != null)
+                loader.cancelled();
         }
 
         public void updateProgress(ProgressState progressState, double progress)
@@ -335,58 +355,162 @@ public final class EditorKitCache<V extends @NonNull @Value Object> implements C
 
         public void error(@Localized String error)
         {
+            if (cancelled)
+                return;
             this.loadedItemOrError = Either.right(error);
             updateDisplay();
         }
     }
 
+    /**
+     * Queues the item to be loaded.  All the items queued during one pulse
+     * are loaded together, see loadPending.
+     */
+    private void queueLoad(DisplayCacheItem item)
+    {
+        item.loadRequested = true;
+        pendingLoads.put(item.rowIndex, item);
+        if (!loadPendingScheduled)
+        {
+            loadPendingScheduled = true;
+            FXUtility.runAfter(this::loadPending);
+        }
+    }
+
+    /**
+     * Splits the queued items into blocks of adjacent rows, and sets off one
+     * loader for each block.
+     */
+    private void loadPending()
+    {
+        loadPendingScheduled = false;
+        ArrayList<DisplayCacheItem> block = new ArrayList<>();
+        for (DisplayCacheItem item : pendingLoads.values())
+        {
+            if (!block.isEmpty() && (block.size() >= MAX_LOAD_BLOCK_SIZE || item.rowIndex != block.get(block.size() - 1).rowIndex + 1))
+            {
+                startLoad(block);
+                block = new ArrayList<>();
+            }
+            block.add(item);
+        }
+        if (!block.isEmpty())
+            startLoad(block);
+        pendingLoads.clear();
+    }
+
+    private void startLoad(List<DisplayCacheItem> items)
+    {
+        BlockLoader loader = new BlockLoader(ImmutableList.copyOf(items));
+        for (DisplayCacheItem item : items)
+        {
+            item.loader = loader;
+        }
+        Workers.onWorkerThread("Value load for display: " + loader.startRow + " to " + (loader.startRow + items.size() - 1), Priority.FETCH, loader);
+    }
 
-    private class ValueLoader implements Worker
+    /**
+     * Loads the values for a block of adjacent rows in one go, then
+     * updates all of their display items in a single pass on the FX thread.
+     */
+    private class BlockLoader implements Worker
     {
-        private final int originalIndex;
-        private final DisplayCacheItem displayCacheItem;
+        @OnThread(Tag.Any)
+        private final int startRow;
+        // Items in row order, starting at startRow:
+        @OnThread(Tag.Any)
+        private final ImmutableList<DisplayCacheItem> items;
+        @OnThread(Tag.FXPlatform)
+        private int cancelledCount = 0;
         @OnThread(value = Tag.Any, requireSynchronized = true)
         private long originalFinished;
         @OnThread(value = Tag.Any, requireSynchronized = true)
         private long us;
 
         @OnThread(Tag.FXPlatform)
-        public ValueLoader(int index, DisplayCacheItem displayCacheItem)
+        public BlockLoader(ImmutableList<DisplayCacheItem> items)
         {
-            this.originalIndex = index;
-            this.displayCacheItem = displayCacheItem;
+            this.startRow = items.get(0).rowIndex;
+            this.items = items;
+        }
+
+        // Called when one of our items is cancelled.  Once they all are, there is no need to load.
+        @OnThread(Tag.FXPlatform)
+        public void cancelled()
+        {
+            cancelledCount += 1;
+            if (cancelledCount >= items.size())
+                Workers.cancel(this);
         }
 
         public void run()
         {
+            ProgressListener prog = d -> {
+                Platform.runLater(() -> updateProgress(ProgressState.GETTING, d));
+            };
+            prog.progressUpdate(0.0);
+            ArrayList<FXPlatformRunnable> updates = new ArrayList<>(items.size());
             try
             {
-                ProgressListener prog = d -> {
-                    Platform.runLater(() -> displayCacheItem.updateProgress(ProgressState.GETTING, d));
-                };
-                prog.progressUpdate(0.0);
-                @Value V val = getValue.getWithProgress(originalIndex, prog);
+                ImmutableList<Either<UserException, @Value V>> values = getValue.getRange(startRow, startRow + items.size(), prog);
+                for (int i = 0; i < items.size(); i++)
+                {
+                    updates.add(makeUpdate(items.get(i), values.get(i)));
+                }
+            }
+            catch (InternalException e)
+            {
+                Log.log(e);
+                updates.clear();
+                for (DisplayCacheItem item : items)
+                {
+                    updates.add(makeError(item, e));
+                }
+            }
+            Platform.runLater(() -> {
+                for (FXPlatformRunnable update : updates)
+                {
+                    update.run();
+                }
+            });
+        }
+
+        @OnThread(Tag.Simulation)
+        private FXPlatformRunnable makeUpdate(DisplayCacheItem item, Either<UserException, @Value V> value)
+        {
+            try
+            {
+                @Value V val = value.<@Value V>eitherEx(e -> {throw e;}, v -> v);
                 String valAsStr = DataTypeUtility.valueToString(val);
-                Platform.runLater(() -> displayCacheItem.update(valAsStr, val));
+                return () -> item.update(valAsStr, val);
             }
             catch (InvalidImmediateValueException e)
             {
-                Platform.runLater(() -> displayCacheItem.update(e.getInvalid(), null));
+                return () -> item.update(e.getInvalid(), null);
             }
             catch (UserException | InternalException e)
             {
                 if (e instanceof InternalException)
                     Log.log(e);
-                Platform.runLater(new Runnable()
-                {
-                    @Override
-                    @OnThread(value = Tag.FXPlatform, ignoreParent = true)
-                    public void run()
-                    {
-                        String msg = e.getLocalizedMessage();
-                        displayCacheItem.error(msg == null ? TranslationUtility.getString("loading.error.nodetail") : TranslationUtility.getString("loading.error.detail", msg));
-                    }
-                });
+                return makeError(item, e);
+            }
+        }
+
+        @OnThread(Tag.Any)
+        private FXPlatformRunnable makeError(DisplayCacheItem item, Exception e)
+        {
+            return () -> {
+                String msg = e.getLocalizedMessage();
+                item.error(msg == null ? TranslationUtility.getString("loading.error.nodetail") : TranslationUtility.getString("loading.error.detail", msg));
+            };
+        }
+
+        @OnThread(Tag.FXPlatform)
+        private void updateProgress(ProgressState progressState, double progress)
+        {
+            for (DisplayCacheItem item : items)
+            {
+                item.updateProgress(progressState, progress);
             }
         }
 
@@ -395,7 +519,7 @@ public final class EditorKitCache<V extends @NonNull @Value Object> implements C
         public synchronized void queueMoved(long finished, long lastQueued)
         {
             double progress = (double)(finished - originalFinished) / (double)(us - originalFinished);
-            Platform.runLater(() -> displayCacheItem.updateProgress(ProgressState.QUEUED, progress));
+            Platform.runLater(() -> updateProgress(ProgressState.QUEUED, progress));
         }
 
         @Override
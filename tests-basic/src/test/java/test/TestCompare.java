@@ -64,6 +64,10 @@ public class TestCompare
         equal(o(d(1.0)), o(i(1)));
         less(o(d(0.99)), o(i(1)));
         less(o(i(1)), o(d(1.01)));
+        
+        equal(o(d(3.0), l(-7)), o(i(3), bd("-7.000")));
+        equal(o(l(Long.MAX_VALUE)), o(bd(Long.MAX_VALUE + ".00")));
+        equal(o(d(2.5)), o(bd("2.50")));
     }
 
     private @Value BigDecimal d(double v)
@@ -71,9 +75,14 @@ public class TestCompare
         return DataTypeUtility.value(new BigDecimal(v));
     }
 
-    private @Value Long l(int i)
+    private @Value BigDecimal bd(String v)
+    {
+        return DataTypeUtility.value(new BigDecimal(v));
+    }
+
+    private @Value Long l(long i)
     {
-        return DataTypeUtility.value((long)i);
+        return DataTypeUtility.value(i);
     }
 
     private @Value Byte by(int i)
@@ -98,6 +107,11 @@ public class TestCompare
     {
         assertEquals(0, Utility.compareLists(a, b));
         assertEquals(0, Utility.compareLists(b, a));
+        // Equal values must hash the same:
+        for (int i = 0; i < a.size(); i++)
+        {
+            assertEquals(Utility.hashValue(a.get(i)), Utility.hashValue(b.get(i)));
+        }
     }
 
     @OnThread(Tag.Simulation)
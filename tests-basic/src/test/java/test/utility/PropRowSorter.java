@@ -0,0 +1,57 @@
+/*
+ * Columnal: Safer, smoother data table processing.
+ * Copyright (c) Neil Brown, 2016-2020, 2022.
+ *
+ * This file is part of Columnal.
+ *
+ * Columnal is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * Columnal is distributed in the hope that it will be useful, but WITHOUT 
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or 
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for 
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along 
+ * with Columnal. If not, see <https://www.gnu.org/licenses/>.
+ */
+package test.utility;
+
+import com.pholser.junit.quickcheck.Property;
+import com.pholser.junit.quickcheck.generator.InRange;
+import com.pholser.junit.quickcheck.generator.Size;
+import com.pholser.junit.quickcheck.runner.JUnitQuickcheck;
+import org.junit.runner.RunWith;
+import threadchecker.OnThread;
+import threadchecker.Tag;
+import xyz.columnal.error.InternalException;
+import xyz.columnal.error.UserException;
+import xyz.columnal.utility.RowSorter;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import static org.junit.Assert.assertArrayEquals;
+
+@RunWith(JUnitQuickcheck.class)
+@OnThread(Tag.Simulation)
+public class PropRowSorter
+{
+    @Property(trials = 500)
+    public void testSortMatchesStableSort(@Size(max = 500) List<@InRange(minInt = -20, maxInt = 20) Integer> keys) throws InternalException, UserException
+    {
+        // Lots of duplicate keys, so this checks stability:
+        int[] expected = IntStream.range(0, keys.size()).boxed().sorted(Comparator.comparing(keys::get)).mapToInt(i -> i).toArray();
+        RowSorter.RowComparator comparator = (a, b) -> Integer.compare(keys.get(a), keys.get(b));
+        assertArrayEquals(expected, RowSorter.sortedRows(keys.size(), comparator));
+        
+        for (int k : new int[] {0, 1, 2, 7, keys.size() / 2, keys.size(), keys.size() + 1})
+        {
+            assertArrayEquals("k = " + k, Arrays.copyOf(expected, Math.min(k, keys.size())), RowSorter.smallestRows(keys.size(), k, comparator));
+        }
+    }
+}
@@ -28,10 +28,13 @@ import com.pholser.junit.quickcheck.runner.JUnitQuickcheck;
 import org.checkerframework.checker.nullness.qual.NonNull;
 import org.checkerframework.checker.nullness.qual.Nullable;
 import org.junit.runner.RunWith;
+import xyz.columnal.data.NumericColumnStorage;
 import xyz.columnal.data.TBasicUtil;
 import xyz.columnal.data.datatype.DataType;
 import xyz.columnal.data.datatype.DataType.SpecificDataTypeVisitor;
 import xyz.columnal.data.datatype.DataTypeUtility;
+import xyz.columnal.data.datatype.DataTypeValue;
+import xyz.columnal.data.datatype.DataTypeValue.ColumnList;
 import xyz.columnal.error.InternalException;
 import xyz.columnal.error.UserException;
 import xyz.columnal.transformations.function.list.Count;
@@ -39,14 +42,18 @@ import xyz.columnal.transformations.function.FunctionDefinition;
 import xyz.columnal.transformations.function.list.GetElement;
 import xyz.columnal.transformations.function.comparison.Max;
 import xyz.columnal.transformations.function.comparison.Min;
+import xyz.columnal.transformations.function.lookup.LookupFunctions;
 import test.gen.GenRandom;
 import test.gen.GenValueList;
 import threadchecker.OnThread;
 import threadchecker.Tag;
+import xyz.columnal.utility.adt.Either;
 import xyz.columnal.utility.adt.Pair;
 import xyz.columnal.utility.Utility;
+import xyz.columnal.utility.Utility.ListEx;
 import xyz.columnal.transformations.expression.function.ValueFunction;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Random;
 
@@ -179,6 +186,115 @@ public class PropListFunctions
         }
     }
 
+    @Property
+    @OnThread(Tag.Simulation)
+    public void propLookupAll(@From(GenValueList.class) GenValueList.ListAndType src) throws Throwable
+    {
+        FunctionDefinition function = LookupFunctions.getLookupFunctions().get(1);
+        @Nullable Pair<ValueFunction, DataType> checked = TFunctionUtil.typeCheckFunction(function, ImmutableList.of(src.type, getInnerType(src.type), DataType.array(DataType.NUMBER)));
+        if (checked == null)
+        {
+            fail("Type check failure");
+        }
+        else
+        {
+            ArrayList<@Value Object> rowNumbers = new ArrayList<>();
+            for (int i = 0; i < src.list.size(); i++)
+            {
+                rowNumbers.add(DataTypeUtility.value(i));
+            }
+            @Value ListEx values = DataTypeUtility.value(rowNumbers);
+            // Look up each item more than once, so that the second pass uses the index:
+            for (int pass = 0; pass < 2; pass++)
+            {
+                for (int i = 0; i < src.list.size(); i++)
+                {
+                    @Value Object item = src.list.get(i);
+                    ArrayList<@Value Object> expected = new ArrayList<>();
+                    for (int j = 0; j < src.list.size(); j++)
+                    {
+                        if (Utility.compareValues(src.list.get(j), item) == 0)
+                            expected.add(DataTypeUtility.value(j));
+                    }
+                    @Value Object actual = checked.getFirst().call(new @Value Object[] {src.list, item, values});
+                    TBasicUtil.assertValueEqual("Item " + i + " pass " + pass, DataTypeUtility.value(expected), actual);
+                }
+            }
+        }
+    }
+
+    @Property(trials = 20)
+    @OnThread(Tag.Simulation)
+    public void propLookupEditedColumn(@From(GenRandom.class) Random r) throws Throwable
+    {
+        FunctionDefinition function = LookupFunctions.getLookupFunctions().get(0);
+        @Nullable Pair<ValueFunction, DataType> checked = TFunctionUtil.typeCheckFunction(function, ImmutableList.of(DataType.array(DataType.NUMBER), DataType.NUMBER, DataType.array(DataType.NUMBER)));
+        if (checked == null)
+        {
+            fail("Type check failure");
+            return;
+        }
+        
+        int size = 1 + r.nextInt(50);
+        NumericColumnStorage storage = new NumericColumnStorage(true);
+        ArrayList<@Value Object> rowNumbers = new ArrayList<>();
+        for (int i = 0; i < size; i++)
+        {
+            storage.add(i);
+            rowNumbers.add(DataTypeUtility.value(i));
+        }
+        @Value ListEx values = DataTypeUtility.value(rowNumbers);
+        
+        for (int edit = 0; edit < 5; edit++)
+        {
+            // Look up each item more than once, so that later passes use the index:
+            for (int pass = 0; pass < 2; pass++)
+            {
+                for (int i = 0; i < size; i++)
+                {
+                    // Each reference to a column makes a new list:
+                    @Value ListEx column = DataTypeUtility.value(new ColumnAsList(storage.getType(), size));
+                    @Value Object actual = checked.getFirst().call(new @Value Object[] {column, storage.getType().getCollapsed(i), values});
+                    TBasicUtil.assertValueEqual("Item " + i + " pass " + pass + " edit " + edit, DataTypeUtility.value(i), actual);
+                }
+            }
+            // Change a value to one not seen before, without changing the length, so that
+            // an out of date index would not find it:
+            storage.getType().setCollapsed(r.nextInt(size), Either.<String, @Value Object>right(DataTypeUtility.value(1000 + edit)));
+        }
+    }
+    
+    // Like the list made when an expression refers to a whole column:
+    private static class ColumnAsList extends ListEx implements ColumnList
+    {
+        private final DataTypeValue column;
+        private final int size;
+
+        public ColumnAsList(DataTypeValue column, int size)
+        {
+            this.column = column;
+            this.size = size;
+        }
+
+        @Override
+        public int size() throws InternalException, UserException
+        {
+            return size;
+        }
+
+        @Override
+        public @Value Object get(int index) throws InternalException, UserException
+        {
+            return column.getCollapsed(index);
+        }
+
+        @Override
+        public DataTypeValue getColumn()
+        {
+            return column;
+        }
+    }
+
     private DataType getInnerType(DataType listType) throws InternalException
     {
         return listType.apply(new SpecificDataTypeVisitor<DataType>() {
@@ -20,6 +20,7 @@
 package test.gui;
 
 import javafx.stage.Stage;
+import org.apache.commons.io.FileUtils;
 import org.checkerframework.checker.nullness.qual.Nullable;
 import test.DummyManager;
 import test.TTableUtil;
@@ -35,12 +36,12 @@ import xyz.columnal.data.TableManager;
 import xyz.columnal.data.datatype.TypeManager;
 import xyz.columnal.gui.MainWindow;
 import xyz.columnal.id.TableId;
-import xyz.columnal.utility.adt.Pair;
 import xyz.columnal.utility.gui.FXUtility;
 
 import java.io.File;
 import java.io.IOException;
 import java.lang.reflect.InvocationTargetException;
+import java.nio.charset.StandardCharsets;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Supplier;
@@ -67,9 +68,10 @@ public class TAppUtil
         temp.deleteOnExit();
         String saved = TTableUtil.save(mgr);
         //System.out.println("Saving: {{{" + saved + "}}}");
+        FileUtils.writeStringToFile(temp, saved, StandardCharsets.UTF_8);
         AtomicReference<MainWindow.MainWindowActions> tableManagerAtomicReference = new AtomicReference<>();
         FXUtility.runFX(() -> TBasicUtil.checkedToRuntime_(() -> {
-            MainWindow.MainWindowActions mainWindowActions = MainWindow.show(windowToUse, temp, new Pair<>(temp, saved), null);
+            MainWindow.MainWindowActions mainWindowActions = MainWindow.show(windowToUse, temp, temp, null);
             tableManagerAtomicReference.set(mainWindowActions);
         }));
         // Wait until individual tables are actually loaded:
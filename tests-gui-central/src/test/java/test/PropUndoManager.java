@@ -0,0 +1,227 @@
+/*
+ * Columnal: Safer, smoother data table processing.
+ * Copyright (c) Neil Brown, 2016-2020, 2022.
+ *
+ * This file is part of Columnal.
+ *
+ * Columnal is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * Columnal is distributed in the hope that it will be useful, but WITHOUT 
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or 
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for 
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along 
+ * with Columnal. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package test;
+
+import com.pholser.junit.quickcheck.From;
+import com.pholser.junit.quickcheck.Property;
+import com.pholser.junit.quickcheck.runner.JUnitQuickcheck;
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import test.gen.GenRandom;
+import threadchecker.OnThread;
+import threadchecker.Tag;
+import xyz.columnal.gui.UndoManager;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(JUnitQuickcheck.class)
+@OnThread(Tag.Simulation)
+public class PropUndoManager
+{
+    @Property(trials = 50)
+    public void testUndoRoundTrip(@From(GenRandom.class) Random r) throws IOException
+    {
+        File undoDir = Files.createTempDirectory("undotest").toFile();
+        File file = File.createTempFile("project", ".clml");
+        try
+        {
+            UndoManager undoManager = new UndoManager(undoDir);
+            ArrayList<String> lines = makeProject(r);
+            ArrayList<String> versions = new ArrayList<>();
+            int saves = 1 + r.nextInt(15);
+            for (int i = 0; i < saves; i++)
+            {
+                String content = String.join("", lines);
+                // Back up the previous version before overwriting, as View does:
+                if (file.length() > 0)
+                {
+                    undoManager.backupForUndo(file, Instant.ofEpochMilli(i));
+                    versions.add(FileUtils.readFileToString(file, StandardCharsets.UTF_8));
+                }
+                FileUtils.writeStringToFile(file, content, StandardCharsets.UTF_8);
+                edit(lines, r);
+                checkReferences(undoDir);
+            }
+            
+            for (int i = versions.size() - 1; i >= 0; i--)
+            {
+                assertEquals(versions.get(i), undoManager.undo(file));
+                checkReferences(undoDir);
+            }
+            assertNull(undoManager.undo(file));
+        }
+        finally
+        {
+            file.delete();
+            FileUtils.deleteDirectory(undoDir);
+        }
+    }
+
+    @Test
+    public void testSharedBlocks() throws IOException
+    {
+        Random r = new Random(1);
+        File undoDir = Files.createTempDirectory("undotest").toFile();
+        File file = File.createTempFile("project", ".clml");
+        try
+        {
+            ArrayList<String> lines = makeProject(r);
+            String original = String.join("", lines);
+            FileUtils.writeStringToFile(file, original, StandardCharsets.UTF_8);
+            // Two windows (or two copies of the application) with the same file: 
+            UndoManager a = new UndoManager(undoDir);
+            UndoManager b = new UndoManager(undoDir);
+            a.backupForUndo(file, Instant.ofEpochMilli(1));
+            b.backupForUndo(file, Instant.ofEpochMilli(1));
+            
+            // Many more saves than are kept, all sharing most blocks:
+            for (int i = 2; i < 40; i++)
+            {
+                edit(lines, r);
+                FileUtils.writeStringToFile(file, String.join("", lines), StandardCharsets.UTF_8);
+                a.backupForUndo(file, Instant.ofEpochMilli(i));
+                checkReferences(undoDir);
+            }
+            // Undo all of a's, then exit:
+            while (a.undo(file) != null)
+            {
+                checkReferences(undoDir);
+            }
+            a.deleteAllButSafetyCopies();
+            checkReferences(undoDir);
+            
+            // Must not have affected b:
+            assertEquals(original, b.undo(file));
+            b.deleteAllButSafetyCopies();
+            checkReferences(undoDir);
+            
+            // b's safety copy is still there, but a's was trimmed with the rest of its history:
+            List<File> manifests = allFiles(undoDir).stream().filter(f -> f.getName().startsWith("undo-")).collect(Collectors.toList());
+            assertEquals(1, manifests.size());
+            StringBuilder recovered = new StringBuilder();
+            for (String block : FileUtils.readLines(manifests.get(0), StandardCharsets.UTF_8))
+            {
+                recovered.append(FileUtils.readFileToString(new File(manifests.get(0).getParentFile(), block), StandardCharsets.UTF_8));
+            }
+            assertEquals(original, recovered.toString());
+        }
+        finally
+        {
+            file.delete();
+            FileUtils.deleteDirectory(undoDir);
+        }
+    }
+
+    // Checks that each directory has exactly the blocks its manifests refer to:
+    private static void checkReferences(File undoDir) throws IOException
+    {
+        File[] sessionDirs = undoDir.listFiles();
+        if (sessionDirs == null)
+            return;
+        for (File sessionDir : sessionDirs)
+        {
+            HashSet<String> referenced = new HashSet<>();
+            HashSet<String> present = new HashSet<>();
+            for (File f : allFiles(sessionDir))
+            {
+                if (f.getName().startsWith("undo-"))
+                    referenced.addAll(FileUtils.readLines(f, StandardCharsets.UTF_8));
+                else
+                    present.add(f.getName());
+            }
+            assertEquals(referenced, present);
+        }
+    }
+    
+    private static List<File> allFiles(File dir)
+    {
+        File[] files = dir.listFiles();
+        if (files == null)
+            return new ArrayList<>();
+        ArrayList<File> r = new ArrayList<>();
+        for (File f : files)
+        {
+            if (f.isDirectory())
+                r.addAll(allFiles(f));
+            else
+                r.add(f);
+        }
+        return r;
+    }
+
+    // Each item is one line, including its line ending:
+    private static ArrayList<String> makeProject(Random r)
+    {
+        ArrayList<String> lines = new ArrayList<>(Arrays.asList("COLUMNAL\n", "VERSION 1\n", "\n"));
+        int blocks = 1 + r.nextInt(5);
+        for (int b = 0; b < blocks; b++)
+        {
+            lines.add("DATA @BEGIN T" + b + "\n");
+            int rows = r.nextInt(3000);
+            for (int i = 0; i < rows; i++)
+            {
+                lines.add("T" + b + " " + r.nextInt() + "," + r.nextInt(10) + (r.nextInt(10) == 0 ? "\r\n" : "\n"));
+            }
+            lines.add("@END T" + b + " DATA\n");
+        }
+        // Sometimes no line ending at the end:
+        if (r.nextBoolean())
+            lines.add("TRAILING");
+        return lines;
+    }
+
+    private static void edit(ArrayList<String> lines, Random r)
+    {
+        int count = 1 + r.nextInt(3);
+        for (int i = 0; i < count; i++)
+        {
+            int index = 3 + r.nextInt(lines.size() - 3);
+            switch (r.nextInt(3))
+            {
+                case 0:
+                    lines.set(index, "X " + r.nextInt() + "\n");
+                    break;
+                case 1:
+                    lines.add(index, "I " + r.nextInt() + "\n");
+                    break;
+                default:
+                    if (lines.size() > 4)
+                        lines.remove(index);
+                    break;
+            }
+        }
+    }
+}
@@ -0,0 +1,236 @@
+/*
+ * Columnal: Safer, smoother data table processing.
+ * Copyright (c) Neil Brown, 2016-2020, 2022.
+ *
+ * This file is part of Columnal.
+ *
+ * Columnal is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * Columnal is distributed in the hope that it will be useful, but WITHOUT 
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or 
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for 
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along 
+ * with Columnal. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package test;
+
+import com.google.common.collect.ImmutableList;
+import org.apache.poi.ss.usermodel.CellStyle;
+import org.apache.poi.ss.usermodel.FormulaError;
+import org.apache.poi.ss.util.CellRangeAddress;
+import org.apache.poi.xssf.usermodel.XSSFRow;
+import org.apache.poi.xssf.usermodel.XSSFSheet;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.junit.Test;
+import xyz.columnal.importers.ExcelSheetReader;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.Assert.assertEquals;
+
+public class TestExcelSheetReader
+{
+    @Test
+    public void testValues() throws IOException
+    {
+        File file = File.createTempFile("values", ".xlsx");
+        file.deleteOnExit();
+        try (XSSFWorkbook wb = new XSSFWorkbook())
+        {
+            // Make sure we pick the right sheet:
+            wb.createSheet("Other").createRow(0).createCell(0).setCellValue("Wrong sheet");
+            XSSFSheet sheet = wb.createSheet("Values");
+            XSSFRow row0 = sheet.createRow(0);
+            // XSSFWorkbook stores strings in the shared strings table:
+            row0.createCell(0).setCellValue("Shared");
+            row0.createCell(1).setCellValue("Shared");
+            row0.createCell(3).setCellValue("Other");
+            XSSFRow row1 = sheet.createRow(1);
+            row1.createCell(0).setCellValue(3.5);
+            row1.createCell(1).setCellValue(-2);
+            row1.createCell(2).setCellValue(true);
+            row1.createCell(3).setCellValue(false);
+            XSSFRow row2 = sheet.createRow(2);
+            row2.createCell(0).setCellErrorValue(FormulaError.DIV0);
+            row2.createCell(1).setCellValue("After error");
+            // Row 3 is missing entirely.
+            XSSFRow row4 = sheet.createRow(4);
+            row4.createCell(1).setCellValue("");
+            row4.createCell(2).setCellValue("Gap before");
+            write(wb, file);
+        }
+        
+        assertGrid(ImmutableList.of(
+            ImmutableList.of("Shared", "Shared", "", "Other"),
+            ImmutableList.of("3.500000", "-2.000000", "TRUE", "FALSE"),
+            ImmutableList.of("", "After error"),
+            ImmutableList.of(),
+            ImmutableList.of("", "", "Gap before")
+        ), ExcelSheetReader.readSheet(file, 1));
+        assertGrid(ImmutableList.of(ImmutableList.of("Wrong sheet")), ExcelSheetReader.readSheet(file, 0));
+    }
+    
+    @Test
+    public void testDates1900() throws IOException
+    {
+        testDates(false, "1900-01-01");
+    }
+
+    @Test
+    public void testDates1904() throws IOException
+    {
+        testDates(true, "1904-01-02");
+    }
+
+    private void testDates(boolean date1904, String dayOne) throws IOException
+    {
+        File file = File.createTempFile("dates", ".xlsx");
+        file.deleteOnExit();
+        try (XSSFWorkbook wb = new XSSFWorkbook())
+        {
+            wb.getCTWorkbook().getWorkbookPr().setDate1904(date1904);
+            CellStyle dateStyle = wb.createCellStyle();
+            dateStyle.setDataFormat(wb.getCreationHelper().createDataFormat().getFormat("yyyy-mm-dd"));
+            XSSFSheet sheet = wb.createSheet();
+            XSSFRow row = sheet.createRow(0);
+            // POI stores the date as a number in the workbook's date system:
+            row.createCell(0).setCellValue(LocalDate.of(2021, 3, 4));
+            row.getCell(0).setCellStyle(dateStyle);
+            // The same raw number means a different day in each system:
+            row.createCell(1).setCellValue(1.0);
+            row.getCell(1).setCellStyle(dateStyle);
+            // Without a date format, it's a number:
+            row.createCell(2).setCellValue(1.0);
+            write(wb, file);
+        }
+        
+        assertGrid(ImmutableList.of(ImmutableList.of("2021-03-04", dayOne, "1.000000")), ExcelSheetReader.readSheet(file, 0));
+    }
+    
+    @Test
+    public void testMerged() throws IOException
+    {
+        File file = File.createTempFile("merged", ".xlsx");
+        file.deleteOnExit();
+        try (XSSFWorkbook wb = new XSSFWorkbook())
+        {
+            XSSFSheet sheet = wb.createSheet();
+            sheet.createRow(0).createCell(0).setCellValue("Across");
+            sheet.addMergedRegion(new CellRangeAddress(0, 0, 0, 2));
+            sheet.createRow(1).createCell(1).setCellValue("Square");
+            sheet.addMergedRegion(new CellRangeAddress(1, 2, 1, 2));
+            sheet.getRow(1).createCell(3).setCellValue(7);
+            // Goes beyond the last row with any cells:
+            sheet.createRow(3).createCell(0).setCellValue("Down");
+            sheet.addMergedRegion(new CellRangeAddress(3, 5, 0, 0));
+            // No value, so stays blank:
+            sheet.addMergedRegion(new CellRangeAddress(6, 7, 2, 3));
+            write(wb, file);
+        }
+
+        assertGrid(ImmutableList.of(
+            ImmutableList.of("Across", "Across", "Across"),
+            ImmutableList.of("", "Square", "Square", "7.000000"),
+            ImmutableList.of("", "Square", "Square"),
+            ImmutableList.of("Down"),
+            ImmutableList.of("Down"),
+            ImmutableList.of("Down")
+        ), ExcelSheetReader.readSheet(file, 0));
+    }
+    
+    @Test
+    public void testHandWritten() throws IOException
+    {
+        // XSSFWorkbook always writes shared strings and cell references, but other programs
+        // may use inline strings and leave out the references, so we write the XML ourselves:
+        File template = File.createTempFile("template", ".xlsx");
+        template.deleteOnExit();
+        try (XSSFWorkbook wb = new XSSFWorkbook())
+        {
+            wb.createSheet().createRow(0).createCell(0).setCellValue("Replaced");
+            write(wb, template);
+        }
+        File file = File.createTempFile("handwritten", ".xlsx");
+        file.deleteOnExit();
+        replaceEntry(template, file, "xl/worksheets/sheet1.xml", 
+            "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>\n"
+            + "<worksheet xmlns=\"http://schemas.openxmlformats.org/spreadsheetml/2006/main\"><sheetData>\n"
+            + "<row r=\"1\"><c r=\"A1\" t=\"inlineStr\"><is><t>Inline</t></is></c><c r=\"C1\" t=\"inlineStr\"><is><r><t>Rich </t></r><r><rPr><b/></rPr><t>text</t></r></is></c></row>\n"
+            // No row or cell references, so they follow on from the previous:
+            + "<row><c t=\"inlineStr\"><is><t>No refs</t></is></c><c><v>2</v></c><c t=\"b\"><v>0</v></c></row>\n"
+            + "<row r=\"5\"><c r=\"B5\" t=\"str\"><f>\"a\"&amp;\"b\"</f><v>ab</v></c><c><v>7</v></c><c t=\"e\"><v>#N/A</v></c><c t=\"inlineStr\"><is><t>&lt;&amp;&gt;</t></is></c></row>\n"
+            + "</sheetData></worksheet>");
+
+        assertGrid(ImmutableList.of(
+            ImmutableList.of("Inline", "", "Rich text"),
+            ImmutableList.of("No refs", "2.000000", "FALSE"),
+            ImmutableList.of(),
+            ImmutableList.of(),
+            ImmutableList.of("", "ab", "7.000000", "", "<&>")
+        ), ExcelSheetReader.readSheet(file, 0));
+    }
+
+    private static void write(XSSFWorkbook wb, File file) throws IOException
+    {
+        try (FileOutputStream out = new FileOutputStream(file))
+        {
+            wb.write(out);
+        }
+    }
+
+    // Copies the zip file, replacing the content of the given entry
+    private static void replaceEntry(File src, File dest, String entryName, String content) throws IOException
+    {
+        try (ZipInputStream in = new ZipInputStream(new FileInputStream(src));
+             ZipOutputStream out = new ZipOutputStream(new FileOutputStream(dest)))
+        {
+            ZipEntry entry;
+            while ((entry = in.getNextEntry()) != null)
+            {
+                out.putNextEntry(new ZipEntry(entry.getName()));
+                if (entry.getName().equals(entryName))
+                    out.write(content.getBytes(StandardCharsets.UTF_8));
+                else
+                    in.transferTo(out);
+                out.closeEntry();
+            }
+        }
+    }
+
+    // Rows may be different lengths, so we compare them with blanks on the end removed:
+    private static void assertGrid(List<? extends List<String>> expected, List<? extends List<String>> actual)
+    {
+        assertEquals(trim(expected), trim(actual));
+    }
+    
+    private static List<List<String>> trim(List<? extends List<String>> grid)
+    {
+        List<List<String>> r = new ArrayList<>();
+        for (List<String> row : grid)
+        {
+            ArrayList<String> trimmed = new ArrayList<>(row);
+            while (!trimmed.isEmpty() && trimmed.get(trimmed.size() - 1).isEmpty())
+                trimmed.remove(trimmed.size() - 1);
+            r.add(trimmed);
+        }
+        while (!r.isEmpty() && r.get(r.size() - 1).isEmpty())
+            r.remove(r.size() - 1);
+        return r;
+    }
+}
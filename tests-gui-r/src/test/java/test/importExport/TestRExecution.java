@@ -53,6 +53,7 @@ import xyz.columnal.rinterop.ConvertFromR;
 import xyz.columnal.rinterop.RPrettyPrint;
 import xyz.columnal.rinterop.RValue;
 import xyz.columnal.rinterop.RExecution;
+import xyz.columnal.rinterop.RResultCache;
 import xyz.columnal.utility.adt.Either;
 import xyz.columnal.utility.function.simulation.SimulationFunction;
 import xyz.columnal.utility.TaggedValue;
@@ -60,11 +61,14 @@ import xyz.columnal.utility.Utility;
 import xyz.columnal.utility.Utility.ListEx;
 import xyz.columnal.utility.Utility.RecordMap;
 
+import java.io.IOException;
 import java.math.BigDecimal;
+import java.nio.file.Files;
 import java.util.Arrays;
 import java.util.stream.Stream;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
 
 @SuppressWarnings("valuetype")
 @RunWith(JUnitQuickcheck.class)
@@ -256,6 +260,59 @@ public class TestRExecution
         assertEquals("Qn1", taggedValue.getTagName());
     }
     
+    @Test
+    public void testCache() throws InternalException, UserException, IOException
+    {
+        RResultCache cache = new RResultCache(Files.createTempDirectory("rcache").toFile(), 1024L * 1024L);
+        // Gives a different result each time R actually runs:
+        String expression = "foo$bar + runif(1)";
+        ImmutableMap<String, RecordSet> table = ImmutableMap.of("foo", makeTable("3", "4", "5"));
+        
+        String first = runPrinted(expression, table, cache, true);
+        // Hit:
+        assertEquals(first, runPrinted(expression, table, cache, true));
+        // Misses, for different expression or table content:
+        String otherExpression = runPrinted(expression + " + 0", table, cache, true);
+        assertNotEquals(first, otherExpression);
+        assertNotEquals(first, runPrinted(expression, ImmutableMap.of("foo", makeTable("3", "4", "6")), cache, true));
+        assertNotEquals(first, runPrinted(expression, ImmutableMap.of("foo", makeTable("3", "4", "5", "5")), cache, true));
+        // Previous result still there:
+        assertEquals(first, runPrinted(expression, table, cache, true));
+        
+        // Explicit re-run doesn't use the cache, but does update it:
+        String rerun = runPrinted(expression, table, cache, false);
+        assertNotEquals(first, rerun);
+        assertEquals(rerun, runPrinted(expression, table, cache, true));
+        assertEquals(otherExpression, runPrinted(expression + " + 0", table, cache, true));
+        
+        // Without a cache, R is always run:
+        assertNotEquals(rerun, RPrettyPrint.prettyPrint(RExecution.runRExpression(expression, ImmutableList.of(), table)));
+    }
+    
+    @Test
+    public void testIsolation() throws InternalException, UserException
+    {
+        String wd = RPrettyPrint.prettyPrint(RExecution.runRExpression("getwd()"));
+        String firstRandom = RPrettyPrint.prettyPrint(RExecution.runRExpression("set.seed(1); runif(1)"));
+        // Change all sorts of global state:
+        RExecution.runRExpression("set.seed(1); options(columnal.test=\"set\"); Sys.setenv(COLUMNAL_TEST=\"set\"); columnalTest <<- 1; setwd(tempdir()); library(stats4); 0");
+        // None of it should be seen by the next evaluation:
+        assertNotEquals(firstRandom, RPrettyPrint.prettyPrint(RExecution.runRExpression("runif(1)")));
+        assertEquals(RPrettyPrint.prettyPrint(RExecution.runRExpression("c(FALSE, TRUE, TRUE, FALSE)")),
+            RPrettyPrint.prettyPrint(RExecution.runRExpression("c(exists(\"columnalTest\"), is.null(getOption(\"columnal.test\")), Sys.getenv(\"COLUMNAL_TEST\") == \"\", \"package:stats4\" %in% search())")));
+        assertEquals(wd, RPrettyPrint.prettyPrint(RExecution.runRExpression("getwd()")));
+    }
+
+    private static String runPrinted(String expression, ImmutableMap<String, RecordSet> tables, RResultCache cache, boolean useCachedResult) throws InternalException, UserException
+    {
+        return RPrettyPrint.prettyPrint(RExecution.runRExpression(expression, ImmutableList.of(), tables, cache, useCachedResult));
+    }
+
+    private static RecordSet makeTable(String... values) throws InternalException, UserException
+    {
+        return new <EditableColumn>KnownLengthRecordSet(ImmutableList.<SimulationFunction<RecordSet, EditableColumn>>of(rs -> new MemoryNumericColumn(rs, new ColumnId("bar"), NumberInfo.DEFAULT, Stream.of(values))), values.length);
+    }
+
     @Test
     public void testTimeout() throws InternalException
     {
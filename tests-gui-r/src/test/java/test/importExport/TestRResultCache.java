@@ -0,0 +1,118 @@
+/*
+ * Columnal: Safer, smoother data table processing.
+ * Copyright (c) Neil Brown, 2016-2020, 2022.
+ *
+ * This file is part of Columnal.
+ *
+ * Columnal is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * Columnal is distributed in the hope that it will be useful, but WITHOUT 
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or 
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for 
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along 
+ * with Columnal. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package test.importExport;
+
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.junit.Test;
+import xyz.columnal.error.InternalException;
+import xyz.columnal.error.UserException;
+import xyz.columnal.rinterop.RPrettyPrint;
+import xyz.columnal.rinterop.RResultCache;
+import xyz.columnal.rinterop.RUtility;
+import xyz.columnal.rinterop.RValue;
+import xyz.columnal.rinterop.RWrite;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class TestRResultCache
+{
+    @Test
+    public void testHitAndMiss() throws IOException, UserException, InternalException
+    {
+        File dir = Files.createTempDirectory("rcache").toFile();
+        RResultCache cache = new RResultCache(new File(dir, "sub"), 1024L * 1024L);
+        assertNull(cache.get("a"));
+        
+        cache.put("a", writeResult(dir, 1));
+        cache.put("b", writeResult(dir, 2));
+        assertEquals(print(1), print(cache.get("a")));
+        assertEquals(print(2), print(cache.get("b")));
+        assertNull(cache.get("c"));
+        
+        // Replacing a result:
+        cache.put("a", writeResult(dir, 3));
+        assertEquals(print(3), print(cache.get("a")));
+        
+        // A corrupt result is a miss:
+        Files.writeString(new File(new File(dir, "sub"), "a.rds").toPath(), "Not RDS");
+        assertNull(cache.get("a"));
+    }
+    
+    @Test
+    public void testTrim() throws IOException, UserException, InternalException
+    {
+        File dir = Files.createTempDirectory("rcache").toFile();
+        File cacheDir = new File(dir, "sub");
+        long resultSize = writeResult(dir, 0).length();
+        // Room for three results, but not four:
+        RResultCache cache = new RResultCache(cacheDir, resultSize * 3 + resultSize / 2);
+        
+        long start = System.currentTimeMillis() - 100_000;
+        for (int i = 0; i < 3; i++)
+        {
+            cache.put("r" + i, writeResult(dir, i));
+            // File times may be coarse, so make the order of use definite:
+            new File(cacheDir, "r" + i + ".rds").setLastModified(start + i * 10_000);
+        }
+        
+        // Using the oldest makes it the most recent, so the next-oldest is removed:
+        assertNotNull(cache.get("r0"));
+        cache.put("r3", writeResult(dir, 3));
+        assertNull(cache.get("r1"));
+        assertEquals(print(0), print(cache.get("r0")));
+        assertEquals(print(2), print(cache.get("r2")));
+        assertEquals(print(3), print(cache.get("r3")));
+        
+        // A result bigger than the whole limit is not kept:
+        RResultCache tiny = new RResultCache(cacheDir, resultSize / 2);
+        tiny.put("big", writeResult(dir, 4));
+        assertNull(tiny.get("big"));
+    }
+
+    private static File writeResult(File dir, int value) throws IOException, UserException, InternalException
+    {
+        File f = File.createTempFile("result", ".rds", dir);
+        RWrite.writeRData(f, makeValue(value));
+        return f;
+    }
+    
+    private static RValue makeValue(int value)
+    {
+        return RUtility.intVector(new int[] {value, value * 2}, null);
+    }
+    
+    private static String print(int value) throws UserException, InternalException
+    {
+        return RPrettyPrint.prettyPrint(makeValue(value));
+    }
+
+    private static String print(@Nullable RValue value) throws UserException, InternalException
+    {
+        assertNotNull(value);
+        return RPrettyPrint.prettyPrint(value);
+    }
+}
@@ -23,6 +23,8 @@ package test;
 import annotation.units.AbsColIndex;
 import annotation.units.AbsRowIndex;
 import com.google.common.collect.ImmutableList;
+import com.google.common.hash.Hashing;
+import com.google.common.io.CountingOutputStream;
 import com.pholser.junit.quickcheck.From;
 import com.pholser.junit.quickcheck.Property;
 import com.pholser.junit.quickcheck.random.SourceOfRandomness;
@@ -33,12 +35,19 @@ import xyz.columnal.data.CellPosition;
 import xyz.columnal.data.Column;
 import xyz.columnal.data.GridComment;
 import xyz.columnal.data.ImmediateDataSource;
+import xyz.columnal.data.ProjectContentIndex;
+import xyz.columnal.data.ProjectContentIndex.ContentBlock;
 import xyz.columnal.data.TBasicUtil;
 import xyz.columnal.data.Table;
+import xyz.columnal.data.Table.FullSaver;
+import xyz.columnal.data.Table.SaveFilePosition;
 import xyz.columnal.data.TableManager;
 import xyz.columnal.data.TableManager.Loaded;
 import xyz.columnal.error.InternalException;
 import xyz.columnal.error.UserException;
+import xyz.columnal.grammar.MainLexer2;
+import xyz.columnal.grammar.MainParser2;
+import xyz.columnal.grammar.MainParser2.ContentContext;
 import test.gen.GenImmediateData;
 import test.gen.GenImmediateData.NumTables;
 import test.gen.GenRandom;
@@ -48,9 +57,21 @@ import threadchecker.Tag;
 import xyz.columnal.id.SaveTag;
 import xyz.columnal.id.TableId;
 import xyz.columnal.utility.adt.Either;
+import xyz.columnal.utility.Utility;
 import xyz.columnal.utility.adt.Pair;
+import xyz.columnal.utility.function.simulation.SimulationRunnable;
 
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.lang.reflect.InvocationTargetException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
@@ -74,7 +95,7 @@ public class PropLoadSaveData
             @From(GenTableManager.class) TableManager mgr2,
             @From(GenImmediateData.class) @NumTables(maxTables = 4) GenImmediateData.ImmediateData_Mgr original,
             @From(GenRandom.class) Random r)
-        throws ExecutionException, InterruptedException, UserException, InternalException, InvocationTargetException
+        throws ExecutionException, InterruptedException, UserException, InternalException, InvocationTargetException, IOException
     {
         SourceOfRandomness sourceOfRandomness = new SourceOfRandomness(r);
         int[] next = new int[] {1};
@@ -94,7 +115,11 @@ public class PropLoadSaveData
             String savedMangled = saved.replaceAll("\n +", "\n");
             Pair<Map<TableId, Table>, List<GridComment>> loaded = toMap(mgr1.loadAll(savedMangled, w -> {}));
             String savedAgain = TTableUtil.save(mgr1);
-            Pair<Map<TableId, Table>, List<GridComment>> loadedAgain = toMap(mgr2.loadAll(savedAgain, w -> {}));
+            // Load the second time from a file:
+            File savedAgainFile = File.createTempFile("saved", ".clml");
+            savedAgainFile.deleteOnExit();
+            Files.writeString(savedAgainFile.toPath(), savedAgain, StandardCharsets.UTF_8);
+            Pair<Map<TableId, Table>, List<GridComment>> loadedAgain = toMap(mgr2.loadAll(savedAgainFile, w -> {}));
 
 
             assertEquals(saved, savedAgain);
@@ -148,6 +173,151 @@ public class PropLoadSaveData
         });
     }
 
+    @Property(trials = 20)
+    @OnThread(value = Tag.Simulation, ignoreParent = true)
+    public void testSaveAfterEdit(
+            @From(GenTableManager.class) TableManager mgr1,
+            @From(GenTableManager.class) TableManager mgr2,
+            @From(GenImmediateData.class) @NumTables(maxTables = 4) GenImmediateData.ImmediateData_Mgr original,
+            @From(GenRandom.class) Random r)
+            throws Exception
+    {
+        TBasicUtil.printSeedOnFail(() -> {
+            // Save first, so that any saved values are remembered:
+            TTableUtil.save(original.mgr);
+            // Then edit, and check the edits are saved:
+            for (int i = 0; i < 5; i++)
+            {
+                ImmediateDataSource table = original.data.get(r.nextInt(original.data.size()));
+                if (table.getData().getLength() > 0)
+                {
+                    int row = r.nextInt(table.getData().getLength());
+                    int colIndex = r.nextInt(table.getData().getColumns().size());
+                    setInvalid(table.getData().getColumns().get(colIndex), row, r);
+                }
+                if (r.nextBoolean())
+                    table.getData().insertRows(r.nextInt(table.getData().getLength() + 1), 1 + r.nextInt(3));
+            }
+
+            testImmediate(mgr1, mgr2, original, r);
+        });
+    }
+
+    @Property(trials = 20)
+    @OnThread(value = Tag.Simulation, ignoreParent = true)
+    public void testSaveToFileAfterEdit(
+            @From(GenTableManager.class) TableManager mgr1,
+            @From(GenImmediateData.class) @NumTables(maxTables = 4) GenImmediateData.ImmediateData_Mgr original,
+            @From(GenRandom.class) Random r)
+            throws Exception
+    {
+        TBasicUtil.printSeedOnFail(() -> {
+            File file = File.createTempFile("saved", ".clml");
+            file.deleteOnExit();
+            saveToFile(original.mgr, file);
+            // Edit some tables but not others, so that some values are copied from the
+            // previous file on each save, and check that everything is saved correctly:
+            for (int round = 0; round < 3; round++)
+            {
+                for (ImmediateDataSource table : original.data)
+                {
+                    if (r.nextInt(3) != 0)
+                        continue;
+                    if (table.getData().getLength() > 0)
+                    {
+                        int row = r.nextInt(table.getData().getLength());
+                        int colIndex = r.nextInt(table.getData().getColumns().size());
+                        setInvalid(table.getData().getColumns().get(colIndex), row, r);
+                    }
+                    if (r.nextBoolean())
+                        table.getData().insertRows(r.nextInt(table.getData().getLength() + 1), 1 + r.nextInt(3));
+                }
+                saveToFile(original.mgr, file);
+            }
+            
+            Pair<Map<TableId, Table>, List<GridComment>> loaded = toMap(mgr1.loadAll(file, w -> {}));
+            assertEquals(toMap(new Loaded(ImmutableList.of(), original.data, ImmutableList.of())), loaded);
+        });
+    }
+
+    // Saves in the same way as the GUI: to a temporary file, which is then moved over the destination.
+    @OnThread(Tag.Simulation)
+    private static void saveToFile(TableManager mgr, File dest) throws IOException, InternalException
+    {
+        FullSaver saver = new FullSaver(null);
+        mgr.save(dest, saver);
+        File temp = new File(dest.getAbsolutePath() + ".saving");
+        CountingOutputStream countingStream = new CountingOutputStream(new FileOutputStream(temp));
+        ArrayList<SimulationRunnable> afterSave = new ArrayList<>();
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(countingStream, StandardCharsets.UTF_8)))
+        {
+            saver.writeCompleteFile(writer, new SaveFilePosition()
+            {
+                @Override
+                public File getDestination()
+                {
+                    return dest;
+                }
+
+                @Override
+                public long getBytePosition() throws IOException
+                {
+                    writer.flush();
+                    return countingStream.getCount();
+                }
+
+                @Override
+                public void onSaved(SimulationRunnable action)
+                {
+                    afterSave.add(action);
+                }
+            });
+        }
+        Files.move(temp.toPath(), dest.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        for (SimulationRunnable action : afterSave)
+        {
+            action.run();
+        }
+    }
+
+    @Property(trials = 20)
+    @OnThread(value = Tag.Simulation, ignoreParent = true)
+    public void testContentIndex(
+            @From(GenImmediateData.class) @NumTables(maxTables = 4) GenImmediateData.ImmediateData_Mgr original)
+        throws Exception
+    {
+        String saved = TTableUtil.save(original.mgr);
+        // Index should find the same blocks and detail as the full parse:
+        MainParser2.FileContext file = Utility.parseAsOne(saved, MainLexer2::new, MainParser2::new, p -> p.file());
+        // Also check reading from a file, with Windows line endings:
+        File savedFile = File.createTempFile("index", ".clml");
+        savedFile.deleteOnExit();
+        Files.writeString(savedFile.toPath(), saved.replace("\n", "\r\n"), StandardCharsets.UTF_8);
+        try (ProjectContentIndex fileIndex = ProjectContentIndex.open(savedFile))
+        {
+            assertEquals(Hashing.sha256().hashBytes(Files.readAllBytes(savedFile.toPath())), fileIndex.getContentHash());
+            // Replacing the file while the index is open should not affect what we read:
+            File replacement = File.createTempFile("index", ".clml");
+            Files.writeString(replacement.toPath(), "COLUMNAL\nVERSION 2\n", StandardCharsets.UTF_8);
+            Files.move(replacement.toPath(), savedFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+
+            ProjectContentIndex stringIndex = ProjectContentIndex.scan(saved);
+            assertEquals(Hashing.sha256().hashString(saved, StandardCharsets.UTF_8), stringIndex.getContentHash());
+            for (ProjectContentIndex index : ImmutableList.of(stringIndex, fileIndex))
+            {
+                assertEquals(file.content().size(), index.getBlocks().size());
+                for (int i = 0; i < file.content().size(); i++)
+                {
+                    ContentContext expected = file.content().get(i);
+                    ContentBlock actual = index.getBlocks().get(i);
+                    assertEquals(expected.ATOM(0).getText(), actual.contentType);
+                    assertEquals(new SaveTag(expected.detail()).getTag(), actual.saveTag.getTag());
+                    assertEquals(Utility.getDetail(expected.detail()), index.getDetail(actual));
+                }
+            }
+        }
+    }
+
     @OnThread(Tag.Simulation)
     private void setInvalid(Column column, int row, Random r) throws UserException, InternalException
     {
@@ -26,6 +26,7 @@ import com.pholser.junit.quickcheck.runner.JUnitQuickcheck;
 import org.junit.Assert;
 import org.junit.runner.RunWith;
 import xyz.columnal.data.Table;
+import xyz.columnal.data.Table.ContentWriter;
 import xyz.columnal.data.Table.FullSaver;
 import xyz.columnal.data.TableManager;
 import xyz.columnal.error.InternalException;
@@ -90,6 +91,13 @@ public class PropLoadSaveTransformation
                     // May be called multiple times, but that's fine, we just need last one:
                     r[0] = getCompleteFile();
                 }
+
+                @Override
+                public @OnThread(Tag.Simulation) void saveTable(String start, ContentWriter content, String end)
+                {
+                    super.saveTable(start, content, end);
+                    r[0] = getCompleteFile();
+                }
             });
         }
         catch (Throwable t)
@@ -24,23 +24,34 @@ import annotation.qual.Value;
 import annotation.units.TableDataRowIndex;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 import com.pholser.junit.quickcheck.From;
 import com.pholser.junit.quickcheck.Property;
 import com.pholser.junit.quickcheck.runner.JUnitQuickcheck;
+import org.checkerframework.checker.nullness.qual.Nullable;
 import org.hamcrest.MatcherAssert;
 import org.junit.Assert;
 import org.junit.runner.RunWith;
 import test.functions.TFunctionUtil;
+import xyz.columnal.data.CachedCalculatedColumn;
 import xyz.columnal.data.Column;
+import xyz.columnal.data.ColumnUtility;
+import xyz.columnal.data.EditableRecordSet;
+import xyz.columnal.data.ImmediateDataSource;
 import xyz.columnal.id.ColumnId;
 import xyz.columnal.data.TBasicUtil;
 import xyz.columnal.data.RecordSet;
+import xyz.columnal.data.Table.InitialLoadDetails;
+import xyz.columnal.data.TableManager;
 import xyz.columnal.id.TableId;
+import xyz.columnal.data.datatype.DataType;
 import xyz.columnal.data.datatype.DataTypeUtility;
 import xyz.columnal.data.datatype.DataTypeValue;
 import xyz.columnal.error.InternalException;
 import xyz.columnal.error.UserException;
 import xyz.columnal.transformations.Aggregate;
+import xyz.columnal.transformations.Check;
+import xyz.columnal.transformations.Check.CheckType;
 import xyz.columnal.transformations.Concatenate;
 import xyz.columnal.transformations.Concatenate.IncompleteColumnHandling;
 import xyz.columnal.transformations.Filter;
@@ -48,18 +59,26 @@ import xyz.columnal.transformations.HideColumns;
 import xyz.columnal.transformations.Sort;
 import xyz.columnal.transformations.Sort.Direction;
 import xyz.columnal.transformations.Calculate;
+import xyz.columnal.transformations.expression.AddSubtractExpression;
+import xyz.columnal.transformations.expression.AddSubtractExpression.AddSubtractOp;
 import xyz.columnal.transformations.expression.CallExpression;
 import xyz.columnal.transformations.expression.ComparisonExpression;
 import xyz.columnal.transformations.expression.ComparisonExpression.ComparisonOperator;
+import xyz.columnal.transformations.expression.DivideExpression;
+import xyz.columnal.transformations.expression.EvaluateState;
 import xyz.columnal.transformations.expression.Expression;
 import xyz.columnal.transformations.expression.IdentExpression;
 import xyz.columnal.transformations.expression.NumericLiteral;
+import xyz.columnal.transformations.expression.TimesExpression;
+import xyz.columnal.transformations.expression.explanation.Explanation;
+import xyz.columnal.transformations.expression.explanation.ExplanationLocation;
 import xyz.columnal.transformations.function.FunctionList;
 import test.gen.GenImmediateData;
 import test.gen.GenRandom;
 import threadchecker.OnThread;
 import threadchecker.Tag;
 import xyz.columnal.utility.IdentifierUtility;
+import xyz.columnal.utility.adt.Either;
 import xyz.columnal.utility.adt.Pair;
 import xyz.columnal.utility.Utility;
 
@@ -68,11 +87,14 @@ import java.math.MathContext;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Optional;
+import java.util.OptionalInt;
 import java.util.Random;
+import java.util.Set;
 import java.util.function.Function;
 import java.util.function.Predicate;
 import java.util.stream.Stream;
@@ -92,6 +114,9 @@ import static org.junit.Assume.assumeTrue;
 @RunWith(JUnitQuickcheck.class)
 public class PropRunTransformation
 {
+    private static final ColumnId BATCH_A = new ColumnId("A");
+    private static final ColumnId BATCH_B = new ColumnId("B");
+
     @Property
     @OnThread(Tag.Simulation)
     public void testSort(@From(GenImmediateData.class) GenImmediateData.ImmediateData_Mgr srcTable, @From(GenRandom.class) Random r) throws UserException, InternalException
@@ -274,6 +299,49 @@ public class PropRunTransformation
         MatcherAssert.assertThat(TTableUtil.toString(numericColumn.get()), Utility.toBigDecimal(Utility.valueNumber(summaryRS.getColumns().get(0).getType().getCollapsed(0))), comparesEqualTo(bdSum(numericColumn.get().getLength(), numericColumn.get().getType())));
     }
 
+    @Property
+    @OnThread(Tag.Simulation)
+    public void testSplitSummaries(@From(GenImmediateData.class) GenImmediateData.ImmediateData_Mgr original, @From(GenRandom.class) Random r) throws InternalException, UserException
+    {
+        RecordSet src = original.data().getData();
+        assumeTrue(src.getColumns().size() >= 2);
+        int splitIndex = r.nextInt(src.getColumns().size());
+        Column split = src.getColumns().get(splitIndex);
+        Column other = src.getColumns().get((splitIndex + 1) % src.getColumns().size());
+        
+        // Two summaries on the same column, to check each group gets the right rows:
+        Expression countExpression = new CallExpression(FunctionList.getFunctionLookup(original.mgr.getUnitManager()), "list length", IdentExpression.column(other.getName()));
+        Expression firstExpression = new CallExpression(FunctionList.getFunctionLookup(original.mgr.getUnitManager()), "element", IdentExpression.column(other.getName()), new NumericLiteral(1, null));
+        Aggregate aggregate = new Aggregate(original.mgr, TFunctionUtil.ILD, original.data().getId(), ImmutableList.of(new Pair<>(new ColumnId("COUNT"), countExpression), new Pair<>(new ColumnId("FIRST"), firstExpression)), ImmutableList.of(split.getName()));
+        RecordSet summaryRS = aggregate.getData();
+        
+        int total = 0;
+        for (int i = 0; i < summaryRS.getLength(); i++)
+        {
+            @Value Object splitValue = summaryRS.getColumn(split.getName()).getType().getCollapsed(i);
+            // Groups should be in ascending order of split value:
+            if (i > 0)
+                assertTrue(Utility.compareValues(summaryRS.getColumn(split.getName()).getType().getCollapsed(i - 1), splitValue) < 0);
+            
+            int expectedCount = 0;
+            int firstRow = -1;
+            for (int row = 0; row < src.getLength(); row++)
+            {
+                if (Utility.compareValues(split.getType().getCollapsed(row), splitValue) == 0)
+                {
+                    expectedCount += 1;
+                    if (firstRow == -1)
+                        firstRow = row;
+                }
+            }
+            assertTrue(firstRow >= 0);
+            assertEquals(expectedCount, DataTypeUtility.requireInteger(summaryRS.getColumn(new ColumnId("COUNT")).getType().getCollapsed(i)));
+            assertEquals(0, Utility.compareValues(other.getType().getCollapsed(firstRow), summaryRS.getColumn(new ColumnId("FIRST")).getType().getCollapsed(i)));
+            total += expectedCount;
+        }
+        assertEquals(src.getLength(), total);
+    }
+
     @OnThread(Tag.Simulation)
     private BigDecimal bdSum(int length, DataTypeValue type) throws UserException, InternalException
     {
@@ -491,4 +559,214 @@ public class PropRunTransformation
             toRemove.add(new Random().nextInt(toRemove.size()), c);
         }
     }
+
+    /**
+     * Checks that a calculated column filled in blocks (using batch evaluation)
+     * has the same values, and errors in the same rows, as evaluating the
+     * expression row-by-row.
+     */
+    @Property(trials = 50)
+    @OnThread(Tag.Simulation)
+    public void testCalculateBatch(@From(GenRandom.class) Random r) throws InternalException, UserException
+    {
+        DummyManager mgr = new DummyManager();
+        ImmediateDataSource src = makeDataWithErrors(mgr, r);
+        ColumnId result = new ColumnId("Result");
+        Calculate calculate = new Calculate(mgr, TFunctionUtil.ILD, src.getId(), ImmutableMap.of(result, makeBatchExpression(r)));
+        // Type-checked by the Calculate, so can now be evaluated alone:
+        Expression expression = TBasicUtil.checkNonNull(calculate.getCalculatedColumns().get(result));
+        DataTypeValue column = calculate.getData().getColumn(result).getType();
+        int length = calculate.getData().getLength();
+        assertEquals(src.getData().getLength(), length);
+        for (int row = 0; row < length; row++)
+        {
+            Either<String, @Value Object> expected = calculateRow(mgr, expression, row);
+            Either<String, @Value Object> actual;
+            try
+            {
+                actual = Either.right(column.getCollapsed(row));
+            }
+            catch (UserException e)
+            {
+                actual = Either.left(e.getLocalizedMessage());
+            }
+            assertEqualResults(expression + " row " + row, expected, actual);
+        }
+    }
+
+    /**
+     * Checks that a Filter (which examines rows in batches) keeps the same rows
+     * as evaluating its condition row-by-row, with erroring rows kept.
+     */
+    @SuppressWarnings("units")
+    @Property(trials = 50)
+    @OnThread(Tag.Simulation)
+    public void testFilterBatch(@From(GenRandom.class) Random r) throws InternalException, UserException
+    {
+        DummyManager mgr = new DummyManager();
+        ImmediateDataSource src = makeDataWithErrors(mgr, r);
+        Filter filter = new Filter(mgr, TFunctionUtil.ILD, src.getId(), makeBatchCondition(r));
+        int length = filter.getData().getLength();
+        // Type-checked by the Filter, so can now be evaluated alone:
+        Expression condition = filter.getFilterExpression();
+        List<Integer> expected = new ArrayList<>();
+        for (int row = 0; row < src.getData().getLength(); row++)
+        {
+            Either<String, @Value Object> keep = calculateRow(mgr, condition, row);
+            if (keep.isLeft() || Utility.cast(keep.getRight("keep"), Boolean.class))
+                expected.add(row);
+        }
+        List<@Nullable Integer> actual = new ArrayList<>();
+        for (int row = 0; row < length; row++)
+        {
+            actual.add(filter.getSourceRowFor(row));
+        }
+        assertEquals(condition.toString(), expected, actual);
+    }
+
+    /**
+     * Checks that a Check (which looks for its deciding row in batches) has the
+     * same outcome as evaluating its condition row-by-row, and that its
+     * explanation is for the same deciding row.  A row which errors before
+     * any deciding row must make the check fail with an error.
+     */
+    @Property(trials = 50)
+    @OnThread(Tag.Simulation)
+    public void testCheckBatch(@From(GenRandom.class) Random r) throws InternalException, UserException
+    {
+        DummyManager mgr = new DummyManager();
+        ImmediateDataSource src = makeDataWithErrors(mgr, r);
+        CheckType checkType = ImmutableList.of(CheckType.ALL_ROWS, CheckType.ANY_ROW, CheckType.NO_ROWS).get(r.nextInt(3));
+        Check check = new Check(mgr, TFunctionUtil.ILD, src.getId(), checkType, makeBatchCondition(r));
+        Either<String, @Value Object> actual;
+        try
+        {
+            actual = Either.right(check.getData().getColumns().get(0).getType().getCollapsed(0));
+        }
+        catch (UserException e)
+        {
+            actual = Either.left(e.getLocalizedMessage());
+        }
+
+        // Type-checked by getting the result, so can now be evaluated alone:
+        Expression condition = check.getCheckExpression();
+        boolean witnessValue = checkType != CheckType.ALL_ROWS;
+        int witnessRow = -1;
+        Either<String, @Value Object> expected = Either.right(DataTypeUtility.value(checkType != CheckType.ANY_ROW));
+        for (int row = 0; row < src.getData().getLength(); row++)
+        {
+            Either<String, @Value Object> thisRow = calculateRow(mgr, condition, row);
+            if (thisRow.isLeft())
+            {
+                expected = thisRow;
+                break;
+            }
+            if (Utility.cast(thisRow.getRight("thisRow"), Boolean.class) == witnessValue)
+            {
+                witnessRow = row;
+                expected = Either.right(DataTypeUtility.value(checkType == CheckType.ANY_ROW));
+                break;
+            }
+        }
+        assertEqualResults(checkType + " " + condition, expected, actual);
+        if (witnessRow >= 0)
+        {
+            // The explanation should only refer to the witness row:
+            Set<@Nullable Integer> explainedRows = new HashSet<>();
+            addExplainedRows(TBasicUtil.checkNonNull(check.getExplanation()), explainedRows);
+            assertEquals(checkType + " " + condition, ImmutableSet.of(witnessRow), explainedRows);
+        }
+    }
+
+    @OnThread(Tag.Simulation)
+    private static void addExplainedRows(Explanation explanation, Set<@Nullable Integer> rows) throws InternalException
+    {
+        for (ExplanationLocation location : explanation.getDirectlyUsedLocations())
+        {
+            rows.add(location.rowIndex);
+        }
+        @Nullable ExplanationLocation resultLocation = explanation.getResultIsLocation();
+        if (resultLocation != null)
+            rows.add(resultLocation.rowIndex);
+        for (Explanation sub : explanation.getDirectSubExplanations())
+        {
+            addExplainedRows(sub, rows);
+        }
+    }
+
+    // Makes a table with number columns A and B, long enough to span several calculation
+    // blocks, with error cells (and zeroes in B, for division errors) scattered through.
+    @OnThread(Tag.Simulation)
+    private static ImmediateDataSource makeDataWithErrors(TableManager mgr, Random r) throws InternalException, UserException
+    {
+        int length = 1 + r.nextInt(3 * CachedCalculatedColumn.DEFAULT_BLOCK_SIZE);
+        List<Either<String, @Value Object>> a = new ArrayList<>();
+        List<Either<String, @Value Object>> b = new ArrayList<>();
+        for (int i = 0; i < length; i++)
+        {
+            a.add(r.nextInt(20) == 0 ? Either.<String, @Value Object>left("Error in A " + i) : Either.<String, @Value Object>right(DataTypeUtility.value(r.nextInt(100) - 50)));
+            b.add(r.nextInt(20) == 0 ? Either.<String, @Value Object>left("Error in B " + i) : Either.<String, @Value Object>right(DataTypeUtility.value(r.nextInt(10))));
+        }
+        EditableRecordSet data = new EditableRecordSet(ImmutableList.of(
+            ColumnUtility.makeImmediateColumn(DataType.NUMBER, BATCH_A, a, DataTypeUtility.value(0)),
+            ColumnUtility.makeImmediateColumn(DataType.NUMBER, BATCH_B, b, DataTypeUtility.value(0))
+        ), () -> length);
+        return mgr.record(new ImmediateDataSource(mgr, new InitialLoadDetails(new TableId("Src"), null, null, null), data));
+    }
+
+    // Makes an expression using columns A and B which can be evaluated in batches.
+    private static Expression makeBatchExpression(Random r)
+    {
+        switch (r.nextInt(5))
+        {
+            case 0:
+                return new AddSubtractExpression(ImmutableList.of(IdentExpression.column(BATCH_A), new NumericLiteral(1, null)), ImmutableList.of(AddSubtractOp.ADD));
+            case 1:
+                return new DivideExpression(IdentExpression.column(BATCH_A), IdentExpression.column(BATCH_B));
+            case 2:
+                return new TimesExpression(ImmutableList.of(IdentExpression.column(BATCH_A), IdentExpression.column(BATCH_B)));
+            case 3:
+                return makeBatchCondition(r);
+            default:
+                return new ComparisonExpression(ImmutableList.of(new DivideExpression(IdentExpression.column(BATCH_B), IdentExpression.column(BATCH_A)), new NumericLiteral(0, null)), ImmutableList.of(ComparisonOperator.GREATER_THAN));
+        }
+    }
+
+    // Makes a boolean expression using columns A and B which can be evaluated in batches.
+    private static Expression makeBatchCondition(Random r)
+    {
+        switch (r.nextInt(3))
+        {
+            case 0:
+                return new ComparisonExpression(ImmutableList.of(IdentExpression.column(BATCH_A), IdentExpression.column(BATCH_B)), ImmutableList.of(ComparisonOperator.GREATER_THAN));
+            case 1:
+                return new ComparisonExpression(ImmutableList.of(IdentExpression.column(BATCH_A), new NumericLiteral(r.nextInt(100) - 50, null)), ImmutableList.of(ComparisonOperator.LESS_THAN_OR_EQUAL_TO));
+            default:
+                // Errors for rows where B is zero:
+                return new ComparisonExpression(ImmutableList.of(new DivideExpression(IdentExpression.column(BATCH_A), IdentExpression.column(BATCH_B)), new NumericLiteral(2, null)), ImmutableList.of(ComparisonOperator.LESS_THAN));
+        }
+    }
+
+    // Evaluates a type-checked expression for one row, giving the error message if it fails.
+    @OnThread(Tag.Simulation)
+    private static Either<String, @Value Object> calculateRow(TableManager mgr, Expression expression, int row) throws InternalException
+    {
+        try
+        {
+            return Either.right(expression.calculateValue(new EvaluateState(mgr.getTypeManager(), OptionalInt.of(row))).value);
+        }
+        catch (UserException e)
+        {
+            return Either.left(e.getLocalizedMessage());
+        }
+    }
+
+    // Errors only need to be in the same place; values must be equal.
+    @OnThread(Tag.Simulation)
+    private static void assertEqualResults(String message, Either<String, @Value Object> expected, Either<String, @Value Object> actual) throws InternalException, UserException
+    {
+        assertEquals(message + " expected " + expected + " but was " + actual, expected.isLeft(), actual.isLeft());
+        if (expected.isRight() && actual.isRight())
+            assertEquals(message, 0, Utility.compareValues(expected.getRight("expected"), actual.getRight("actual")));
+    }
 }
@@ -0,0 +1,120 @@
+/*
+ * Columnal: Safer, smoother data table processing.
+ * Copyright (c) Neil Brown, 2016-2020, 2022.
+ *
+ * This file is part of Columnal.
+ *
+ * Columnal is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * Columnal is distributed in the hope that it will be useful, but WITHOUT 
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or 
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for 
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along 
+ * with Columnal. If not, see <https://www.gnu.org/licenses/>.
+ */
+package test;
+
+import com.google.common.collect.ImmutableList;
+import com.pholser.junit.quickcheck.Property;
+import com.pholser.junit.quickcheck.runner.JUnitQuickcheck;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import xyz.columnal.data.StringColumnStorage;
+import xyz.columnal.data.datatype.DataTypeValue;
+import xyz.columnal.data.datatype.DataTypeValue.GetDictionaryCode;
+import xyz.columnal.error.InternalException;
+import xyz.columnal.error.UserException;
+import threadchecker.OnThread;
+import threadchecker.Tag;
+import xyz.columnal.utility.adt.Either;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(JUnitQuickcheck.class)
+public class PropStringStorage
+{
+    @Property(trials = 200)
+    @OnThread(Tag.Simulation)
+    public void testDictionaryEdits(List<Integer> initial, List<Integer> edits) throws InternalException, UserException
+    {
+        // Few distinct values, so lots of repeats:
+        List<String> expected = new ArrayList<>();
+        for (Integer n : initial)
+            expected.add("v" + Math.abs(n % 7));
+        StringColumnStorage storage = new StringColumnStorage(true);
+        storage.addAll(expected.stream().map(s -> Either.<String, String>right(s)));
+        
+        for (Integer edit : edits)
+        {
+            int index = expected.isEmpty() ? 0 : Math.abs(edit % expected.size());
+            String value = "v" + Math.abs(edit % 11);
+            if (edit % 2 == 0 && !expected.isEmpty())
+            {
+                storage.removeRows(index, 1);
+                expected.remove(index);
+            }
+            else
+            {
+                storage.insertRows(index, ImmutableList.of(Either.<String, String>right(value)));
+                expected.add(index, value);
+            }
+        }
+        
+        assertTrue(storage.isDictionaryEncoded());
+        checkValuesAndCodes(storage, expected);
+    }
+    
+    @Test
+    @OnThread(Tag.Simulation)
+    public void testHighCardinality() throws InternalException, UserException
+    {
+        List<String> expected = IntStream.range(0, 100_000).mapToObj(i -> "distinct " + i).collect(Collectors.toList());
+        StringColumnStorage storage = new StringColumnStorage(true);
+        storage.addAll(expected.stream().map(s -> Either.<String, String>right(s)));
+        assertFalse(storage.isDictionaryEncoded());
+        checkValuesAndCodes(storage, expected);
+        
+        // But many repeats of the same few values should stay encoded:
+        List<String> repeated = IntStream.range(0, 100_000).mapToObj(i -> "repeated " + (i % 100)).collect(Collectors.toList());
+        StringColumnStorage repeatedStorage = new StringColumnStorage(true);
+        repeatedStorage.addAll(repeated.stream().map(s -> Either.<String, String>right(s)));
+        assertTrue(repeatedStorage.isDictionaryEncoded());
+        checkValuesAndCodes(repeatedStorage, repeated);
+    }
+
+    @OnThread(Tag.Simulation)
+    private static void checkValuesAndCodes(StringColumnStorage storage, List<String> expected) throws InternalException, UserException
+    {
+        assertEquals(expected.size(), storage.filled());
+        DataTypeValue type = storage.getType();
+        GetDictionaryCode codes = type.getDictionaryCodes();
+        assertNotNull(codes);
+        for (int i = 0; i < expected.size(); i++)
+        {
+            assertEquals(expected.get(i), type.getCollapsed(i));
+            int code = codes.getCode(i);
+            assertEquals(storage.isDictionaryEncoded(), code >= 0);
+            if (code >= 0)
+            {
+                assertEquals(expected.get(i), codes.getDictionaryValue(code));
+                assertEquals(code, codes.getCodeOf(codes.getDictionaryValue(code)));
+                // Equal values have equal codes:
+                if (i > 0 && codes.getCode(i - 1) >= 0)
+                    assertEquals(expected.get(i).equals(expected.get(i - 1)), code == codes.getCode(i - 1));
+            }
+        }
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * Columnal: Safer, smoother data table processing.
+ * Copyright (c) Neil Brown, 2016-2020, 2022.
+ *
+ * This file is part of Columnal.
+ *
+ * Columnal is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * Columnal is distributed in the hope that it will be useful, but WITHOUT 
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or 
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for 
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along 
+ * with Columnal. If not, see <https://www.gnu.org/licenses/>.
+ */
+package test;
+
+import annotation.qual.Value;
+import com.google.common.collect.ImmutableList;
+import com.pholser.junit.quickcheck.Property;
+import com.pholser.junit.quickcheck.runner.JUnitQuickcheck;
+import org.junit.runner.RunWith;
+import xyz.columnal.data.TemporalColumnStorage;
+import xyz.columnal.data.datatype.DataType.DateTimeInfo;
+import xyz.columnal.data.datatype.DataType.DateTimeInfo.DateTimeType;
+import xyz.columnal.data.datatype.DataTypeValue;
+import xyz.columnal.error.InternalException;
+import xyz.columnal.error.UserException;
+import threadchecker.OnThread;
+import threadchecker.Tag;
+import xyz.columnal.utility.adt.Either;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.YearMonth;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.temporal.TemporalAccessor;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThrows;
+
+@RunWith(JUnitQuickcheck.class)
+public class PropTemporalStorage
+{
+    private static final ImmutableList<ZoneId> ZONES = ImmutableList.of(ZoneId.of("UTC"), ZoneId.of("Europe/London"), ZoneId.of("America/New_York"), ZoneOffset.ofHours(5));
+    
+    @Property(trials = 200)
+    @OnThread(Tag.Simulation)
+    public void testStorage(List<Long> initial, List<Long> edits) throws InternalException, UserException
+    {
+        for (DateTimeType dateTimeType : DateTimeType.values())
+        {
+            DateTimeInfo dateTimeInfo = new DateTimeInfo(dateTimeType);
+            List<TemporalAccessor> expected = new ArrayList<>();
+            for (Long seed : initial)
+                expected.add(make(dateTimeType, seed));
+            TemporalColumnStorage storage = new TemporalColumnStorage(dateTimeInfo, true);
+            storage.addAll(expected.stream().map(t -> Either.<String, TemporalAccessor>right(t)));
+            check(storage, expected);
+            
+            for (Long edit : edits)
+            {
+                int index = expected.isEmpty() ? 0 : (int)Math.floorMod(edit, (long)expected.size());
+                if (edit % 3 == 0 && !expected.isEmpty())
+                {
+                    storage.removeRows(index, 1);
+                    expected.remove(index);
+                }
+                else if (edit % 3 == 1 && !expected.isEmpty())
+                {
+                    @Value TemporalAccessor value = make(dateTimeType, edit * 31);
+                    storage.getType().setCollapsed(index, Either.<String, @Value Object>right(value));
+                    expected.set(index, value);
+                }
+                else
+                {
+                    TemporalAccessor value = make(dateTimeType, edit);
+                    storage.insertRows(index, ImmutableList.of(Either.<String, TemporalAccessor>right(value)));
+                    expected.add(index, value);
+                }
+            }
+            check(storage, expected);
+            
+            // Can't set past the end:
+            @Value TemporalAccessor past = make(dateTimeType, 0);
+            assertThrows(InternalException.class, () -> storage.getType().setCollapsed(expected.size(), Either.<String, @Value Object>right(past)));
+            assertEquals(expected.size(), storage.filled());
+        }
+    }
+
+    @OnThread(Tag.Simulation)
+    private static void check(TemporalColumnStorage storage, List<TemporalAccessor> expected) throws InternalException, UserException
+    {
+        assertEquals(expected.size(), storage.filled());
+        DataTypeValue type = storage.getType();
+        for (int i = 0; i < expected.size(); i++)
+        {
+            assertEquals(expected.get(i), type.getCollapsed(i));
+        }
+    }
+
+    @SuppressWarnings("valuetype")
+    private static @Value TemporalAccessor make(DateTimeType dateTimeType, long seed)
+    {
+        // Only some have nanos, to check we cope with switching from none:
+        int nano = seed % 4 == 0 ? (int)Math.floorMod(seed, 1_000_000_000L) : 0;
+        long second = seed % 100_000_000_000L;
+        switch (dateTimeType)
+        {
+            case YEARMONTHDAY:
+                return LocalDate.ofEpochDay(seed % 3_000_000L);
+            case YEARMONTH:
+                return YearMonth.of((int)(seed % 10_000L), (int)Math.floorMod(seed, 12L) + 1);
+            case TIMEOFDAY:
+                return LocalTime.ofNanoOfDay(Math.floorMod(seed, 86_400_000_000_000L));
+            case DATETIME:
+                return LocalDateTime.ofEpochSecond(second, nano, ZoneOffset.UTC);
+            case DATETIMEZONED:
+            default:
+                return ZonedDateTime.ofInstant(Instant.ofEpochSecond(second, nano), ZONES.get((int)Math.floorMod(seed, (long)ZONES.size())));
+        }
+    }
+}
@@ -0,0 +1,203 @@
+/*
+ * Columnal: Safer, smoother data table processing.
+ * Copyright (c) Neil Brown, 2016-2020, 2022.
+ *
+ * This file is part of Columnal.
+ *
+ * Columnal is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * Columnal is distributed in the hope that it will be useful, but WITHOUT 
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or 
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for 
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along 
+ * with Columnal. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package test;
+
+import annotation.qual.Value;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import org.junit.Test;
+import xyz.columnal.data.CellPosition;
+import xyz.columnal.data.ColumnUtility;
+import xyz.columnal.data.EditableRecordSet;
+import xyz.columnal.data.ImmediateDataSource;
+import xyz.columnal.data.RecordSet;
+import xyz.columnal.data.RenameOnEdit;
+import xyz.columnal.data.Table;
+import xyz.columnal.data.Table.InitialLoadDetails;
+import xyz.columnal.data.TableManager;
+import xyz.columnal.data.datatype.DataType;
+import xyz.columnal.data.datatype.DataTypeUtility;
+import xyz.columnal.error.InternalException;
+import xyz.columnal.error.UserException;
+import xyz.columnal.id.ColumnId;
+import xyz.columnal.id.TableId;
+import xyz.columnal.transformations.Calculate;
+import xyz.columnal.transformations.Filter;
+import xyz.columnal.transformations.Sort;
+import xyz.columnal.transformations.Sort.Direction;
+import xyz.columnal.transformations.expression.AddSubtractExpression;
+import xyz.columnal.transformations.expression.AddSubtractExpression.AddSubtractOp;
+import xyz.columnal.transformations.expression.ComparisonExpression;
+import xyz.columnal.transformations.expression.ComparisonExpression.ComparisonOperator;
+import xyz.columnal.transformations.expression.IdentExpression;
+import xyz.columnal.transformations.expression.NumericLiteral;
+import threadchecker.OnThread;
+import threadchecker.Tag;
+import xyz.columnal.utility.adt.Either;
+import xyz.columnal.utility.adt.Pair;
+
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class TestEditSourceTable
+{
+    private static final ColumnId A = new ColumnId("A");
+    private static final ColumnId B = new ColumnId("B");
+    
+    /**
+     * Replaces a data table which has a chain of single-source dependents,
+     * and checks that the dependents are re-created in the same place,
+     * with their values calculated from the new data.
+     */
+    @Test
+    @OnThread(Tag.Simulation)
+    public void testEditSourceWithDependents() throws Exception
+    {
+        TableManager mgr = new DummyManager();
+        ImmediateDataSource src = mgr.record(new ImmediateDataSource(mgr, new InitialLoadDetails(new TableId("Src"), null, CellPosition.ORIGIN.offsetByRowCols(1, 1), null), makeData(1, 2, 3)));
+        CellPosition filterPos = CellPosition.ORIGIN.offsetByRowCols(1, 4);
+        Filter filter = mgr.record(new Filter(mgr, new InitialLoadDetails(new TableId("T1"), null, filterPos, null), src.getId(),
+            new ComparisonExpression(Arrays.asList(IdentExpression.column(A), new NumericLiteral(1, null)), ImmutableList.of(ComparisonOperator.GREATER_THAN))));
+        CellPosition sortPos = CellPosition.ORIGIN.offsetByRowCols(3, 7);
+        Sort sort = mgr.record(new Sort(mgr, new InitialLoadDetails(new TableId("T2"), null, sortPos, null), filter.getId(), ImmutableList.of(new Pair<>(A, Direction.DESCENDING))));
+        assertEquals(ImmutableList.of(2, 3), getValues(filter));
+        assertEquals(ImmutableList.of(3, 2), getValues(sort));
+        
+        mgr.edit(src, id -> new ImmediateDataSource(mgr, src.getDetailsForCopy(id), makeData(0, 5, 7, 9)), RenameOnEdit.UNNEEDED);
+        
+        Filter newFilter = (Filter) mgr.getSingleTableOrThrow(filter.getId());
+        Sort newSort = (Sort) mgr.getSingleTableOrThrow(sort.getId());
+        assertNotSame(filter, newFilter);
+        assertNotSame(sort, newSort);
+        // The old filter may still be evaluating, so the new one must have its own expression:
+        assertNotSame(filter.getFilterExpression(), newFilter.getFilterExpression());
+        assertEquals(filter.getFilterExpression(), newFilter.getFilterExpression());
+        assertEquals(filterPos, newFilter._test_getPrevPosition());
+        assertEquals(sortPos, newSort._test_getPrevPosition());
+        assertEquals(ImmutableList.of(5, 7, 9), getValues(newFilter));
+        assertEquals(ImmutableList.of(9, 7, 5), getValues(newSort));
+    }
+
+    /**
+     * Edits one column of a data table, and checks that a Calculate
+     * keeps the calculated column which doesn't read it, and only
+     * recalculates the one which does.
+     */
+    @Test
+    @OnThread(Tag.Simulation)
+    public void testEditKeepsUnaffectedColumns() throws Exception
+    {
+        TableManager mgr = new DummyManager();
+        ImmutableList<Either<String, @Value Object>> a = Arrays.stream(new int[] {1, 2, 3}).mapToObj(n -> Either.<String, @Value Object>right(DataTypeUtility.value(n))).collect(ImmutableList.toImmutableList());
+        ImmutableList<Either<String, @Value Object>> b = Arrays.stream(new int[] {10, 20, 30}).mapToObj(n -> Either.<String, @Value Object>right(DataTypeUtility.value(n))).collect(ImmutableList.toImmutableList());
+        ImmediateDataSource src = mgr.record(new ImmediateDataSource(mgr, new InitialLoadDetails(new TableId("Src"), null, CellPosition.ORIGIN.offsetByRowCols(1, 1), null),
+            new EditableRecordSet(ImmutableList.of(ColumnUtility.makeImmediateColumn(DataType.NUMBER, A, a, DataTypeUtility.value(0)), ColumnUtility.makeImmediateColumn(DataType.NUMBER, B, b, DataTypeUtility.value(0))), () -> 3)));
+        ColumnId x = new ColumnId("X");
+        ColumnId y = new ColumnId("Y");
+        Calculate calc = mgr.record(new Calculate(mgr, new InitialLoadDetails(new TableId("T1"), null, CellPosition.ORIGIN.offsetByRowCols(1, 5), null), src.getId(), ImmutableMap.of(
+            x, new AddSubtractExpression(ImmutableList.of(IdentExpression.column(A), new NumericLiteral(1, null)), ImmutableList.of(AddSubtractOp.ADD)),
+            y, new AddSubtractExpression(ImmutableList.of(IdentExpression.column(B), new NumericLiteral(1, null)), ImmutableList.of(AddSubtractOp.ADD))
+        )));
+        assertEquals(ImmutableList.of(2, 3, 4), getValues(calc, x));
+        assertEquals(ImmutableList.of(11, 21, 31), getValues(calc, y));
+
+        src.getData().getColumn(B).getType().setCollapsed(1, Either.<String, @Value Object>right(DataTypeUtility.value(25)));
+        mgr.reRun(src);
+
+        Calculate newCalc = (Calculate) mgr.getSingleTableOrThrow(calc.getId());
+        assertNotSame(calc, newCalc);
+        // X only reads A, which is unchanged, so it is kept along with its expression:
+        assertSame(calc.getCalculatedColumns().get(x), newCalc.getCalculatedColumns().get(x));
+        assertNotSame(calc.getCalculatedColumns().get(y), newCalc.getCalculatedColumns().get(y));
+        assertEquals(ImmutableList.of(2, 3, 4), getValues(newCalc, x));
+        assertEquals(ImmutableList.of(11, 26, 31), getValues(newCalc, y));
+    }
+
+    /**
+     * The new table takes over the kept column's values, but shouldn't keep
+     * the old table (or its record set) alive.
+     */
+    @Test
+    @OnThread(Tag.Simulation)
+    public void testReRunReleasesOldTable() throws Exception
+    {
+        TableManager mgr = new DummyManager();
+        WeakReference<Calculate> oldCalc = makeCalculateAndReRun(mgr);
+        for (int i = 0; i < 10 && oldCalc.get() != null; i++)
+        {
+            System.gc();
+            Thread.sleep(50);
+        }
+        assertNull(oldCalc.get());
+        Calculate newCalc = (Calculate) mgr.getSingleTableOrThrow(new TableId("T1"));
+        assertEquals(ImmutableList.of(2, 3, 4), getValues(newCalc, new ColumnId("X")));
+        assertEquals(ImmutableList.of(11, 26, 31), getValues(newCalc, new ColumnId("Y")));
+    }
+
+    // Separate method so that no local variable refers to the old table afterwards:
+    @OnThread(Tag.Simulation)
+    private static WeakReference<Calculate> makeCalculateAndReRun(TableManager mgr) throws InternalException, UserException
+    {
+        ImmutableList<Either<String, @Value Object>> a = Arrays.stream(new int[] {1, 2, 3}).mapToObj(n -> Either.<String, @Value Object>right(DataTypeUtility.value(n))).collect(ImmutableList.toImmutableList());
+        ImmutableList<Either<String, @Value Object>> b = Arrays.stream(new int[] {10, 20, 30}).mapToObj(n -> Either.<String, @Value Object>right(DataTypeUtility.value(n))).collect(ImmutableList.toImmutableList());
+        ImmediateDataSource src = mgr.record(new ImmediateDataSource(mgr, new InitialLoadDetails(new TableId("Src"), null, CellPosition.ORIGIN.offsetByRowCols(1, 1), null),
+            new EditableRecordSet(ImmutableList.of(ColumnUtility.makeImmediateColumn(DataType.NUMBER, A, a, DataTypeUtility.value(0)), ColumnUtility.makeImmediateColumn(DataType.NUMBER, B, b, DataTypeUtility.value(0))), () -> 3)));
+        Calculate calc = mgr.record(new Calculate(mgr, new InitialLoadDetails(new TableId("T1"), null, CellPosition.ORIGIN.offsetByRowCols(1, 5), null), src.getId(), ImmutableMap.of(
+            new ColumnId("X"), new AddSubtractExpression(ImmutableList.of(IdentExpression.column(A), new NumericLiteral(1, null)), ImmutableList.of(AddSubtractOp.ADD)),
+            new ColumnId("Y"), new AddSubtractExpression(ImmutableList.of(IdentExpression.column(B), new NumericLiteral(1, null)), ImmutableList.of(AddSubtractOp.ADD))
+        )));
+        // Calculate the values, so that there is something to take over:
+        assertEquals(ImmutableList.of(2, 3, 4), getValues(calc, new ColumnId("X")));
+        assertEquals(ImmutableList.of(11, 21, 31), getValues(calc, new ColumnId("Y")));
+
+        src.getData().getColumn(B).getType().setCollapsed(1, Either.<String, @Value Object>right(DataTypeUtility.value(25)));
+        mgr.reRun(src);
+        assertNotSame(calc, mgr.getSingleTableOrThrow(calc.getId()));
+        return new WeakReference<>(calc);
+    }
+
+    @OnThread(Tag.Simulation)
+    private static EditableRecordSet makeData(int... values) throws InternalException, UserException
+    {
+        List<Either<String, @Value Object>> column = Arrays.stream(values).mapToObj(n -> Either.<String, @Value Object>right(DataTypeUtility.value(n))).collect(Collectors.toList());
+        return new EditableRecordSet(ImmutableList.of(ColumnUtility.makeImmediateColumn(DataType.NUMBER, A, column, DataTypeUtility.value(0))), () -> values.length);
+    }
+
+    @OnThread(Tag.Simulation)
+    private static ImmutableList<Integer> getValues(Table table) throws InternalException, UserException
+    {
+        return getValues(table, A);
+    }
+
+    @OnThread(Tag.Simulation)
+    private static ImmutableList<Integer> getValues(Table table, ColumnId columnId) throws InternalException, UserException
+    {
+        RecordSet data = table.getData();
+        return TTableUtil.streamFlattened(data.getColumn(columnId)).map(v -> ((Number)v).intValue()).collect(ImmutableList.toImmutableList());
+    }
+}
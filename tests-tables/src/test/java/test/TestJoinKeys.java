@@ -0,0 +1,147 @@
+/*
+ * Columnal: Safer, smoother data table processing.
+ * Copyright (c) Neil Brown, 2016-2020, 2022.
+ *
+ * This file is part of Columnal.
+ *
+ * Columnal is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * Columnal is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with Columnal. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package test;
+
+import annotation.qual.Value;
+import com.google.common.collect.ImmutableList;
+import org.junit.Test;
+import xyz.columnal.data.CellPosition;
+import xyz.columnal.data.ColumnUtility;
+import xyz.columnal.data.EditableRecordSet;
+import xyz.columnal.data.ImmediateDataSource;
+import xyz.columnal.data.RecordSet;
+import xyz.columnal.data.Table.InitialLoadDetails;
+import xyz.columnal.data.TableManager;
+import xyz.columnal.data.datatype.DataType;
+import xyz.columnal.data.datatype.DataTypeUtility;
+import xyz.columnal.error.InternalException;
+import xyz.columnal.error.UserException;
+import xyz.columnal.id.ColumnId;
+import xyz.columnal.id.TableId;
+import xyz.columnal.transformations.Join;
+import threadchecker.OnThread;
+import threadchecker.Tag;
+import xyz.columnal.utility.adt.Either;
+import xyz.columnal.utility.adt.Pair;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class TestJoinKeys
+{
+    private static final ColumnId K1 = new ColumnId("K1");
+    private static final ColumnId K2 = new ColumnId("K2");
+    private static final ColumnId V = new ColumnId("V");
+    private static final ColumnId W = new ColumnId("W");
+    private static final ImmutableList<Pair<ColumnId, ColumnId>> KEYS = ImmutableList.of(new Pair<>(K1, K1), new Pair<>(K2, K2));
+
+    /**
+     * Error cells in the second key column, on both sides, which are never
+     * reached because the first key column doesn't match, should not stop the join.
+     */
+    @Test
+    @OnThread(Tag.Simulation)
+    public void testUnreachedKeyErrors() throws Exception
+    {
+        TableManager mgr = new DummyManager();
+        ImmediateDataSource primary = makeTable(mgr, "Primary", V, new Object[][] {
+            {1, 10, 100},
+            {2, null, 200},
+            {3, 30, 300}
+        });
+        ImmediateDataSource secondary = makeTable(mgr, "Secondary", W, new Object[][] {
+            {1, 10, 1000},
+            {4, null, 4000},
+            {3, 30, 3000}
+        });
+
+        Join inner = new Join(mgr, new InitialLoadDetails(new TableId("Inner"), null, null, null), primary.getId(), secondary.getId(), false, KEYS);
+        assertEquals(ImmutableList.of(100, 300), getValues(inner.getData(), V));
+        assertEquals(ImmutableList.of(1000, 3000), getValues(inner.getData(), W));
+
+        Join left = new Join(mgr, new InitialLoadDetails(new TableId("Left"), null, null, null), primary.getId(), secondary.getId(), true, KEYS);
+        assertEquals(ImmutableList.of(100, 200, 300), getValues(left.getData(), V));
+    }
+
+    /**
+     * An error cell in a key column which a comparison does reach
+     * (because the earlier key column matches) is an error in the join.
+     */
+    @Test
+    @OnThread(Tag.Simulation)
+    public void testReachedKeyError() throws Exception
+    {
+        TableManager mgr = new DummyManager();
+        ImmediateDataSource primary = makeTable(mgr, "Primary", V, new Object[][] {
+            {1, 10, 100},
+            {4, 40, 400}
+        });
+        ImmediateDataSource secondary = makeTable(mgr, "Secondary", W, new Object[][] {
+            {1, 10, 1000},
+            {4, null, 4000}
+        });
+
+        Join inner = new Join(mgr, new InitialLoadDetails(new TableId("Inner"), null, null, null), primary.getId(), secondary.getId(), false, KEYS);
+        try
+        {
+            RecordSet data = inner.getData();
+            for (int i = 0; data.indexValid(i); i++)
+            {
+                data.getColumn(V).getType().getCollapsed(i);
+            }
+            fail("Expected error from comparing against error key");
+        }
+        catch (UserException e)
+        {
+            // As expected
+        }
+    }
+
+    // Each row is K1, K2, then the value column.  A null K2 is an error cell.
+    @OnThread(Tag.Simulation)
+    private static ImmediateDataSource makeTable(TableManager mgr, String name, ColumnId valueColumn, Object[][] rows) throws InternalException, UserException
+    {
+        List<Either<String, @Value Object>> k1 = new ArrayList<>();
+        List<Either<String, @Value Object>> k2 = new ArrayList<>();
+        List<Either<String, @Value Object>> value = new ArrayList<>();
+        for (Object[] row : rows)
+        {
+            k1.add(Either.<String, @Value Object>right(DataTypeUtility.value((Integer)row[0])));
+            k2.add(row[1] == null ? Either.<String, @Value Object>left("Error in " + name) : Either.<String, @Value Object>right(DataTypeUtility.value((Integer)row[1])));
+            value.add(Either.<String, @Value Object>right(DataTypeUtility.value((Integer)row[2])));
+        }
+        EditableRecordSet data = new EditableRecordSet(ImmutableList.of(
+            ColumnUtility.makeImmediateColumn(DataType.NUMBER, K1, k1, DataTypeUtility.value(0)),
+            ColumnUtility.makeImmediateColumn(DataType.NUMBER, K2, k2, DataTypeUtility.value(0)),
+            ColumnUtility.makeImmediateColumn(DataType.NUMBER, valueColumn, value, DataTypeUtility.value(0))
+        ), () -> rows.length);
+        return mgr.record(new ImmediateDataSource(mgr, new InitialLoadDetails(new TableId(name), null, CellPosition.ORIGIN, null), data));
+    }
+
+    @OnThread(Tag.Simulation)
+    private static ImmutableList<Integer> getValues(RecordSet data, ColumnId columnId) throws InternalException, UserException
+    {
+        return TTableUtil.streamFlattened(data.getColumn(columnId)).map(v -> ((Number)v).intValue()).collect(ImmutableList.toImmutableList());
+    }
+}
@@ -0,0 +1,188 @@
+/*
+ * Columnal: Safer, smoother data table processing.
+ * Copyright (c) Neil Brown, 2016-2020, 2022.
+ *
+ * This file is part of Columnal.
+ *
+ * Columnal is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * Columnal is distributed in the hope that it will be useful, but WITHOUT 
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or 
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for 
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along 
+ * with Columnal. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package test.data;
+
+import com.pholser.junit.quickcheck.From;
+import com.pholser.junit.quickcheck.Property;
+import com.pholser.junit.quickcheck.runner.JUnitQuickcheck;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import test.gen.GenRandom;
+import threadchecker.OnThread;
+import threadchecker.Tag;
+import xyz.columnal.utility.TextFileRowReader;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.Assert.assertEquals;
+
+@RunWith(JUnitQuickcheck.class)
+@OnThread(Tag.Simulation)
+public class PropTextFileRowReader
+{
+    @Property(trials = 100)
+    public void testReadAll(@From(GenRandom.class) Random r) throws IOException
+    {
+        int columnCount = 1 + r.nextInt(5);
+        int firstLine = r.nextInt(3);
+        List<List<String>> expected = new ArrayList<>();
+        StringBuilder content = new StringBuilder();
+        for (int i = 0; i < firstLine; i++)
+        {
+            content.append("header").append(i).append(lineEnd(r));
+        }
+        int rows = r.nextInt(3000);
+        for (int row = 0; row < rows; row++)
+        {
+            List<String> values = new ArrayList<>();
+            for (int column = 0; column < columnCount; column++)
+            {
+                values.add(randomValue(r));
+            }
+            expected.add(values);
+            content.append(String.join(",", values));
+            if (row < rows - 1 || r.nextBoolean())
+                content.append(lineEnd(r));
+        }
+        
+        File file = File.createTempFile("rows", ".csv");
+        try
+        {
+            Files.writeString(file.toPath(), content, StandardCharsets.UTF_8);
+            // Memory map everything (with small regions to test lines across region boundaries), or nothing:
+            boolean mapped = r.nextBoolean();
+            TextFileRowReader reader = new TextFileRowReader(file, StandardCharsets.UTF_8, firstLine, ",", null, IntStream.range(0, columnCount).toArray(), mapped ? 0 : Long.MAX_VALUE, 8 + r.nextInt(256));
+            List<List<String>> actual = readAll(reader, columnCount, r.nextBoolean() ? r : null);
+            for (int column = 0; column < columnCount; column++)
+            {
+                int c = column;
+                assertEquals("Column " + column + " mapped: " + mapped, expected.stream().map(row -> row.get(c)).collect(Collectors.toList()), actual.get(column));
+            }
+        }
+        finally
+        {
+            file.delete();
+        }
+    }
+
+    /**
+     * Reading one column at a time (as copying a record set does) should work,
+     * even when it is enough to make the other columns fall behind.
+     */
+    @Test
+    public void testReadColumnByColumn() throws IOException
+    {
+        Random r = new Random(1);
+        int rows = 300_000;
+        StringBuilder content = new StringBuilder();
+        for (int row = 0; row < rows; row++)
+        {
+            content.append(row).append(",").append(-row).append(",").append(row * 2).append(lineEnd(r));
+        }
+        File file = File.createTempFile("rows", ".csv");
+        try
+        {
+            Files.writeString(file.toPath(), content, StandardCharsets.UTF_8);
+            for (boolean mapped : new boolean[] {false, true})
+            {
+                TextFileRowReader reader = new TextFileRowReader(file, StandardCharsets.UTF_8, 0, ",", null, new int[] {0, 1, 2}, mapped ? 0 : Long.MAX_VALUE, 64 * 1024);
+                List<List<String>> actual = readAll(reader, 3, null);
+                for (int row = 0; row < rows; row++)
+                {
+                    assertEquals(Integer.toString(row), actual.get(0).get(row));
+                    assertEquals(Integer.toString(-row), actual.get(1).get(row));
+                    assertEquals(Integer.toString(row * 2), actual.get(2).get(row));
+                }
+                assertEquals(rows, actual.get(2).size());
+            }
+        }
+        finally
+        {
+            file.delete();
+        }
+    }
+
+    // If r is null, reads each column in turn, otherwise picks columns at random
+    private static List<List<String>> readAll(TextFileRowReader reader, int columnCount, @Nullable Random r) throws IOException
+    {
+        List<List<String>> actual = new ArrayList<>();
+        boolean[] finished = new boolean[columnCount];
+        for (int column = 0; column < columnCount; column++)
+        {
+            actual.add(new ArrayList<>());
+        }
+        int column = 0;
+        while (column < columnCount)
+        {
+            int readColumn = column;
+            if (r != null)
+            {
+                do
+                {
+                    readColumn = r.nextInt(columnCount);
+                }
+                while (finished[readColumn]);
+            }
+            ArrayList<String> next = new ArrayList<>();
+            reader.readColumnChunk(readColumn, next);
+            if (next.isEmpty())
+                finished[readColumn] = true;
+            actual.get(readColumn).addAll(next);
+            while (column < columnCount && finished[column])
+                column += 1;
+        }
+        return actual;
+    }
+
+    private static String lineEnd(Random r)
+    {
+        switch (r.nextInt(3))
+        {
+            case 0:
+                return "\n";
+            case 1:
+                return "\r";
+            default:
+                return "\r\n";
+        }
+    }
+
+    private static String randomValue(Random r)
+    {
+        StringBuilder s = new StringBuilder();
+        int length = 1 + r.nextInt(8);
+        for (int i = 0; i < length; i++)
+        {
+            // Include some non-ASCII, to check decoding in regions:
+            s.append(r.nextInt(10) == 0 ? '\u00e9' : (char)('a' + r.nextInt(26)));
+        }
+        return s.toString();
+    }
+}
@@ -46,11 +46,12 @@ import threadchecker.OnThread;
 import threadchecker.Tag;
 import xyz.columnal.utility.adt.Either;
 import xyz.columnal.utility.IdentifierUtility;
+import xyz.columnal.utility.TextFileRowReader;
 import xyz.columnal.utility.function.simulation.SimulationFunction;
 import xyz.columnal.utility.Utility;
-import xyz.columnal.utility.Utility.ReadState;
 
 import java.io.IOException;
+import java.util.stream.IntStream;
 
 @RunWith(JUnitQuickcheck.class)
 public class TestTextFileColumn
@@ -59,8 +60,17 @@ public class TestTextFileColumn
     @OnThread(Tag.Simulation)
     public void testTextFileColumn(@From(GenFile.class) GeneratedTextFile generatedTextFile) throws UserException, InternalException
     {
+        TextFileRowReader reader;
+        try
+        {
+            reader = new TextFileRowReader(generatedTextFile.getFile(), generatedTextFile.getCharset(), 0, generatedTextFile.getSeparator(), generatedTextFile.getQuote(), IntStream.range(0, generatedTextFile.getColumnCount()).toArray());
+        }
+        catch (IOException e)
+        {
+            throw new UserException("IO", e);
+        }
         KnownLengthRecordSet recordSet = new KnownLengthRecordSet(
-                Utility.mapListExI_Index(generatedTextFile.getColumnTypes(), (i, t) -> makeColumn(generatedTextFile, i, t)), generatedTextFile.getLineCount());
+                Utility.mapListExI_Index(generatedTextFile.getColumnTypes(), (i, t) -> makeColumn(generatedTextFile, reader, i, t)), generatedTextFile.getLineCount());
 
         for (int column = 0; column < generatedTextFile.getColumnCount(); column++)
         {
@@ -71,69 +81,61 @@ public class TestTextFileColumn
         }
     }
     
-    private SimulationFunction<RecordSet, TextFileColumn> makeColumn(GeneratedTextFile f, int index, DataType dataType) throws UserException, InternalException
+    private SimulationFunction<RecordSet, TextFileColumn> makeColumn(GeneratedTextFile f, TextFileRowReader reader, int index, DataType dataType) throws UserException, InternalException
     {
-        try
+        ColumnId columnName = new ColumnId(IdentifierUtility.identNum("C", index));
+        return rs -> dataType.apply(new DataTypeVisitor<TextFileColumn>()
         {
-            ColumnId columnName = new ColumnId(IdentifierUtility.identNum("C", index));
-            ReadState readState = new ReadState(f.getFile(), f.getCharset(), 0);
-            return rs -> dataType.apply(new DataTypeVisitor<TextFileColumn>()
+            @Override
+            public TextFileColumn number(NumberInfo numberInfo) throws InternalException, UserException
             {
-                @Override
-                public TextFileColumn number(NumberInfo numberInfo) throws InternalException, UserException
-                {
-                    return TextFileColumn.numericColumn(rs, readState, f.getSeparator(), f.getQuote(), columnName, index, f.getColumnCount(), numberInfo, s -> s);
-                }
+                return TextFileColumn.numericColumn(rs, reader, columnName, index, numberInfo, s -> s);
+            }
 
-                @Override
-                public TextFileColumn text() throws InternalException, UserException
-                {
-                    return TextFileColumn.stringColumn(rs, readState, f.getSeparator(), f.getQuote(), columnName, index, f.getColumnCount());
-                }
+            @Override
+            public TextFileColumn text() throws InternalException, UserException
+            {
+                return TextFileColumn.stringColumn(rs, reader, columnName, index);
+            }
 
-                @Override
-                public TextFileColumn date(DateTimeInfo dateTimeInfo) throws InternalException, UserException
-                {
-                    return TextFileColumn.dateColumn(rs, readState, f.getSeparator(), f.getQuote(), columnName, index, f.getColumnCount(), dateTimeInfo, (String s) -> {
-                        try
-                        {
-                            return Either.right(dateTimeInfo.fromParsed(dateTimeInfo.getStrictFormatter().parse(s)));
-                        }
-                        catch (InternalException e)
-                        {
-                            throw new RuntimeException(e);
-                        }
-                    });
-                }
+            @Override
+            public TextFileColumn date(DateTimeInfo dateTimeInfo) throws InternalException, UserException
+            {
+                return TextFileColumn.dateColumn(rs, reader, columnName, index, dateTimeInfo, (String s) -> {
+                    try
+                    {
+                        return Either.right(dateTimeInfo.fromParsed(dateTimeInfo.getStrictFormatter().parse(s)));
+                    }
+                    catch (InternalException e)
+                    {
+                        throw new RuntimeException(e);
+                    }
+                });
+            }
 
-                @Override
-                public TextFileColumn bool() throws InternalException, UserException
-                {
-                    throw new InternalException("bool");
-                }
+            @Override
+            public TextFileColumn bool() throws InternalException, UserException
+            {
+                throw new InternalException("bool");
+            }
 
-                @Override
-                public TextFileColumn tagged(TypeId typeName, ImmutableList<Either<Unit, DataType>> typeVars, ImmutableList<TagType<DataType>> tags) throws InternalException, UserException
-                {
-                    throw new InternalException("tagged");
-                }
+            @Override
+            public TextFileColumn tagged(TypeId typeName, ImmutableList<Either<Unit, DataType>> typeVars, ImmutableList<TagType<DataType>> tags) throws InternalException, UserException
+            {
+                throw new InternalException("tagged");
+            }
 
-                @Override
-                public TextFileColumn record(ImmutableMap<@ExpressionIdentifier String, DataType> fields) throws InternalException, UserException
-                {
-                    throw new InternalException("record");
-                }
+            @Override
+            public TextFileColumn record(ImmutableMap<@ExpressionIdentifier String, DataType> fields) throws InternalException, UserException
+            {
+                throw new InternalException("record");
+            }
 
-                @Override
-                public TextFileColumn array(DataType inner) throws InternalException, UserException
-                {
-                    throw new InternalException("array");
-                }
-            });
-        }
-        catch (IOException e)
-        {
-            throw new UserException("IO", e);
-        }
+            @Override
+            public TextFileColumn array(DataType inner) throws InternalException, UserException
+            {
+                throw new InternalException("array");
+            }
+        });
     }
 }
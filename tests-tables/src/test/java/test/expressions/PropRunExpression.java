@@ -25,13 +25,17 @@ import com.pholser.junit.quickcheck.From;
 import com.pholser.junit.quickcheck.Property;
 import com.pholser.junit.quickcheck.runner.JUnitQuickcheck;
 import org.checkerframework.checker.nullness.qual.Nullable;
+import org.junit.AfterClass;
 import org.junit.runner.RunWith;
 import test.TTableUtil;
 import test.functions.TFunctionUtil;
 import xyz.columnal.error.InternalException;
 import xyz.columnal.error.UserException;
+import xyz.columnal.transformations.expression.BatchEvaluator;
+import xyz.columnal.transformations.expression.BatchEvaluator.Vector;
 import xyz.columnal.transformations.expression.ErrorAndTypeRecorderStorer;
 import xyz.columnal.transformations.expression.EvaluateState;
+import xyz.columnal.transformations.expression.RowInvariantCache;
 import xyz.columnal.typeExp.TypeExp;
 import test.DummyManager;
 import test.gen.ExpressionValue;
@@ -56,6 +60,10 @@ import static org.junit.Assert.*;
 @RunWith(JUnitQuickcheck.class)
 public class PropRunExpression
 {
+    // Counts for propBatchExpression, across all its trials:
+    private static int batchTrials = 0;
+    private static int batchRowsSucceeded = 0;
+
     @Property(trials = 2000)
     @OnThread(Tag.Simulation)
     public void propRunExpression(
@@ -85,6 +93,63 @@ public class PropRunExpression
         }
     }
 
+    @Property(trials = 1000)
+    @OnThread(Tag.Simulation)
+    public void propBatchExpression(
+            @From(GenExpressionValueBackwards.class) @From(GenExpressionValueForwards.class) ExpressionValue src) throws InternalException, UserException
+    {
+        DummyManager dummyManager = TFunctionUtil.managerWithTestTypes().getFirst();
+        ErrorAndTypeRecorderStorer errors = new ErrorAndTypeRecorderStorer();
+        @Nullable TypeExp checked = src.expression.checkExpression(src, TFunctionUtil.createTypeState(dummyManager.getTypeManager()), errors);
+        errors.withFirst(s -> {throw new InternalException(s.toPlain());});
+        @Nullable BatchEvaluator batchEvaluator = BatchEvaluator.compile(src.expression, dummyManager.getTypeManager());
+        if (checked == null || batchEvaluator == null)
+            return;
+        batchTrials += 1;
+        Vector results = batchEvaluator.evaluate(0, src.value.size());
+        assertEquals(src.value.size(), results.size());
+        for (int row = 0; row < src.value.size(); row++)
+        {
+            // Failed rows are re-run individually, so only successful rows need to match:
+            if (results.isFailed(row))
+                continue;
+            batchRowsSucceeded += 1;
+            @Value Object expected = src.expression.calculateValue(new EvaluateState(dummyManager.getTypeManager(), OptionalInt.of(row))).value;
+            assertEquals("{{{" + src.expression.toString() + "}}} row " + row, 0, Utility.compareValues(expected, results.get(row)));
+        }
+    }
+
+    @AfterClass
+    public static void checkBatchSucceeded()
+    {
+        // If everything falls back to row-by-row evaluation, propBatchExpression checks nothing:
+        if (batchTrials > 0)
+            assertNotEquals("No batch-evaluated rows succeeded in " + batchTrials + " trials", 0, batchRowsSucceeded);
+    }
+
+    @Property(trials = 1000)
+    @OnThread(Tag.Simulation)
+    public void propRowInvariantCache(
+            @From(GenExpressionValueBackwards.class) @From(GenExpressionValueForwards.class) ExpressionValue src) throws InternalException, UserException
+    {
+        DummyManager dummyManager = TFunctionUtil.managerWithTestTypes().getFirst();
+        ErrorAndTypeRecorderStorer errors = new ErrorAndTypeRecorderStorer();
+        @Nullable TypeExp checked = src.expression.checkExpression(src, TFunctionUtil.createTypeState(dummyManager.getTypeManager()), errors);
+        errors.withFirst(s -> {throw new InternalException(s.toPlain());});
+        if (checked == null)
+            return;
+        // Evaluate all rows twice, so that the second pass uses cached values:
+        RowInvariantCache invariantCache = new RowInvariantCache();
+        for (int pass = 0; pass < 2; pass++)
+        {
+            for (int row = 0; row < src.value.size(); row++)
+            {
+                @Value Object actualValue = src.expression.calculateValueCached(new EvaluateState(dummyManager.getTypeManager(), OptionalInt.of(row), invariantCache)).value;
+                assertEquals("{{{" + src.expression.toString() + "}}} row " + row, 0, Utility.compareValues(src.value.get(row), actualValue, new Pair<>(EpsilonType.RELATIVE, new BigDecimal("0.000000001"))));
+            }
+        }
+    }
+
     private String toString(List<Object> value)
     {
         return "[" + value.stream().map(Object::toString).collect(Collectors.joining(", ")) + "]";
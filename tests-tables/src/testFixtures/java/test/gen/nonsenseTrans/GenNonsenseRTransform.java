@@ -56,7 +56,7 @@ public class GenNonsenseRTransform extends Generator<Transformation_Mgr>
             ImmutableList<String> pkgs = TBasicUtil.makeList(sourceOfRandomness, 0, 10, () -> TBasicUtil.generateIdent(sourceOfRandomness));
             String rExpression = TBasicUtil.generateNumberV(sourceOfRandomness, generationStatus).toString();
             
-            return new Transformation_Mgr(mgr, new RTransformation(mgr, TFunctionUtil.ILD, srcIds, pkgs, rExpression));
+            return new Transformation_Mgr(mgr, new RTransformation(mgr, TFunctionUtil.ILD, srcIds, pkgs, rExpression, sourceOfRandomness.nextBoolean()));
         }
         catch (InternalException e)
         {
@@ -40,14 +40,13 @@ import xyz.columnal.id.TableAndColumnRenames;
 import xyz.columnal.id.TableId;
 import xyz.columnal.log.Log;
 import org.checkerframework.checker.initialization.qual.UnknownInitialization;
-import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
 import org.checkerframework.checker.nullness.qual.NonNull;
 import org.checkerframework.checker.nullness.qual.Nullable;
 import org.checkerframework.checker.nullness.qual.RequiresNonNull;
 import xyz.columnal.data.datatype.DataType;
 import xyz.columnal.data.datatype.DataTypeUtility;
-import xyz.columnal.data.datatype.DataTypeUtility.ComparableValue;
 import xyz.columnal.data.datatype.DataTypeValue;
+import xyz.columnal.data.datatype.DataTypeValue.GetDictionaryCode;
 import xyz.columnal.data.datatype.ListExDTV;
 import xyz.columnal.data.datatype.TypeManager;
 import xyz.columnal.error.InternalException;
@@ -65,6 +64,7 @@ import xyz.columnal.transformations.expression.Expression;
 import xyz.columnal.transformations.expression.Expression.ColumnLookup;
 import xyz.columnal.transformations.expression.Expression.SaveDestination;
 import xyz.columnal.transformations.expression.ExpressionUtil;
+import xyz.columnal.transformations.expression.function.FunctionLookup;
 import xyz.columnal.transformations.expression.IdentExpression;
 import xyz.columnal.transformations.expression.TypeState;
 import xyz.columnal.transformations.function.FunctionList;
@@ -73,6 +73,8 @@ import xyz.columnal.styled.StyledString;
 import threadchecker.OnThread;
 import threadchecker.Tag;
 import xyz.columnal.utility.IdentifierUtility;
+import xyz.columnal.utility.IntList;
+import xyz.columnal.utility.RowSorter;
 import xyz.columnal.utility.adt.Pair;
 import xyz.columnal.utility.function.simulation.SimulationFunctionInt;
 import xyz.columnal.utility.Utility;
@@ -80,10 +82,9 @@ import xyz.columnal.utility.Utility;
 import java.io.File;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.BitSet;
+import java.util.HashMap;
 import java.util.List;
 import java.util.OptionalInt;
-import java.util.TreeMap;
 import java.util.function.Function;
 import java.util.stream.Stream;
 
@@ -108,28 +109,18 @@ public class Aggregate extends VisitableTransformation implements SingleSourceTr
     private final @Nullable TransformationRecordSet result;
     private final JoinedSplit splits;
 
-    // A BitSet, with a cached array of int indexes indicating the set bits 
+    // The source row indexes which fall into a particular group, in ascending order
     public static class Occurrences
     {
-        private final BitSet bitSet;
-        private int @MonotonicNonNull [] indexes; // The indexes of the set bits
+        private final int[] indexes;
 
-        public Occurrences(BitSet bitSet)
+        public Occurrences(int[] indexes)
         {
-            this.bitSet = bitSet;
+            this.indexes = indexes;
         }
 
         public int[] getIndexes()
         {
-            if (indexes == null)
-            {
-                indexes = new int[bitSet.cardinality()];
-                int dest = 0;
-                for (int i = bitSet.nextSetBit(0); i >= 0; i = bitSet.nextSetBit(i+1))
-                {
-                    indexes[dest++] = i;
-                }
-            }
             return indexes;
         }
     }
@@ -146,39 +137,19 @@ public class Aggregate extends VisitableTransformation implements SingleSourceTr
         public JoinedSplit(int length)
         {
             columns = ImmutableList.of();
-            BitSet bitSet = new BitSet();
-            bitSet.set(0, length);
-            valuesAndOccurrences = ImmutableList.of(new Pair<List<@Value Object>, Occurrences>(ImmutableList.<@Value Object>of(), new Occurrences(bitSet)));
-        }
-
-        public JoinedSplit(Column column, TreeMap<ComparableValue, BitSet> valuesAndOccurrences)
-        {
-            this.columns = ImmutableList.of(column);
-            ImmutableList.Builder<Pair<List<@Value Object>, Occurrences>> valOccBuilder = ImmutableList.builderWithExpectedSize(valuesAndOccurrences.size());
-            valuesAndOccurrences.forEach((ComparableValue k, BitSet v) ->
+            int[] all = new int[length];
+            for (int i = 0; i < length; i++)
             {
-                valOccBuilder.add(new Pair<>(ImmutableList.<@Value Object>of(k.getValue()), new Occurrences(v)));
-            });
-            this.valuesAndOccurrences = valOccBuilder.build();
+                all[i] = i;
+            }
+            valuesAndOccurrences = ImmutableList.of(new Pair<List<@Value Object>, Occurrences>(ImmutableList.<@Value Object>of(), new Occurrences(all)));
         }
-        
+
         public JoinedSplit(ImmutableList<Column> columns, ImmutableList<Pair<List<@Value Object>, Occurrences>> valuesAndOccurrences)
         {
             this.columns = columns;
             this.valuesAndOccurrences = valuesAndOccurrences;
         }
-
-        /*
-        public boolean satisfied(int index) throws InternalException, UserException
-        {
-            for (int c = 0; c < colName.size(); c++)
-            {
-                if (Utility.compareValues(colName.get(c).getType().getCollapsed(index), colValue.get(c)) != 0)
-                    return false;
-            }
-            return true;
-        }
-        */
     }
 
     public Aggregate(TableManager mgr, InitialLoadDetails initialLoadDetails, TableId srcTableId, ImmutableList<Pair<ColumnId, Expression>> summaries, ImmutableList<ColumnId> splitBy) throws InternalException
@@ -310,7 +281,7 @@ public class Aggregate extends VisitableTransformation implements SingleSourceTr
     private static EvaluateState makeEvaluateState(JoinedSplit splits, TypeManager mgr, int rowIndex, boolean recordExplanation) throws InternalException
     {
         EvaluateState evaluateState = new EvaluateState(mgr, OptionalInt.of(rowIndex), recordExplanation);
-        evaluateState = evaluateState.add(TypeState.GROUP_COUNT, DataTypeUtility.value(splits.valuesAndOccurrences.get(rowIndex).getSecond().bitSet.cardinality()));
+        evaluateState = evaluateState.add(TypeState.GROUP_COUNT, DataTypeUtility.value(splits.valuesAndOccurrences.get(rowIndex).getSecond().getIndexes().length));
         return evaluateState;
     }
     
@@ -331,106 +302,132 @@ public class Aggregate extends VisitableTransformation implements SingleSourceTr
             throw new InternalException("group count variable was already added");
     }
 
-    private static class SingleSplit
+    private static JoinedSplit calcSplits(RecordSet src, int srcLength, List<ColumnId> splitBy) throws UserException, InternalException
     {
-        private final Column column;
-        private final TreeMap<@NonNull ComparableValue, BitSet> valuesAndOccurrences;
-
-        public SingleSplit(Column column, TreeMap<@NonNull ComparableValue, BitSet> valuesAndOccurrences)
-        {
-            this.column = column;
-            this.valuesAndOccurrences = valuesAndOccurrences;
-        }
+        if (splitBy.isEmpty())
+            return new JoinedSplit(srcLength);
+        
+        ImmutableList<Column> columns = Utility.<ColumnId, Column>mapListExI(splitBy, src::getColumn);
+        ImmutableList<DataTypeValue> types = Utility.<Column, DataTypeValue>mapListExI(columns, Column::getType);
+        
+        @Nullable JoinedSplit split = calcSplits(columns, types, true);
+        // Only null if a column stopped being dictionary encoded part way through:
+        if (split == null)
+            split = calcSplits(columns, types, false);
+        if (split == null)
+            throw new InternalException("Could not split without dictionary codes");
+        return split;
     }
 
-    private static JoinedSplit calcSplits(RecordSet src, int srcLength, List<ColumnId> splitBy) throws UserException, InternalException
+    // If useDictionaryCodes is true, returns null if any of the codes are unavailable.
+    private static @Nullable JoinedSplit calcSplits(ImmutableList<Column> columns, ImmutableList<DataTypeValue> types, boolean useDictionaryCodes) throws UserException, InternalException
     {
-        // Each item in outer is a column in the set of columns which we are splitting by.
-        // Each item in inner.values is a possible value of that column;
-        List<SingleSplit> splits = new ArrayList<>();
-        for (ColumnId colName : splitBy)
+        // Where a split column is dictionary encoded, we compare its codes
+        // rather than its values, and only fetch the value once per group:
+        ArrayList<@Nullable GetDictionaryCode> dictionaryCodes = new ArrayList<>();
+        for (DataTypeValue type : types)
         {
-            Column c = src.getColumn(colName);
-            //Optional<List<@NonNull ?>> fastDistinct = c.fastDistinct();
-            //if (fastDistinct.isPresent())
-            //    splits.add(new SingleSplit(c, fastDistinct.get()));
-            //else
-            //{
-                // A bit is set if the value occurred at a particular index:
-                TreeMap<ComparableValue, BitSet> r = new TreeMap<>();
-                try
+            dictionaryCodes.add(useDictionaryCodes ? type.getDictionaryCodes() : null);
+        }
+        
+        // We go through the rows once, giving each row the id of the group
+        // with its combination of split values, and making a new group if we haven't
+        // seen that combination before.  So only combinations that occur get a group.
+        ArrayList<ImmutableList<@Value Object>> groupValues = new ArrayList<>();
+        // The codes of each group, -1 for columns without codes:
+        ArrayList<int[]> groupCodes = new ArrayList<>();
+        ArrayList<IntList> groupRows = new ArrayList<>();
+        // Hash of values to the ids of groups with that hash:
+        HashMap<Integer, IntList> groupsByHash = new HashMap<>();
+        for (int i = 0; columns.get(0).indexValid(i); i++)
+        {
+            int[] codes = new int[types.size()];
+            @Nullable @Value Object[] values = new @Nullable @Value Object[types.size()];
+            int hash = 1;
+            for (int t = 0; t < types.size(); t++)
+            {
+                @Nullable GetDictionaryCode codesForType = dictionaryCodes.get(t);
+                if (codesForType != null)
                 {
-                    for (int i = 0; c.indexValid(i); i++)
-                    {
-                        int iFinal = i;
-                        r.compute(new ComparableValue(c.getType().getCollapsed(i)), (k, bs) -> {
-                            if (bs == null)
-                                bs = new BitSet();
-                            bs.set(iFinal);
-                            return bs;
-                        });
-                    }
-                    splits.add(new SingleSplit(c, r));
+                    int code = codesForType.getCode(i);
+                    if (code < 0)
+                        return null;
+                    codes[t] = code;
+                    hash = 31 * hash + code;
                 }
-                // Unwrap exceptions that occur in the comparator:
-                catch (RuntimeException e)
+                else
                 {
-                    if (e.getCause() instanceof UserException)
-                        throw (UserException)e.getCause();
-                    if (e.getCause() instanceof InternalException)
-                        throw (InternalException) e.getCause();
-                    throw new InternalException("Unexpected Runtime exception", e);
+                    @Value Object value = types.get(t).getCollapsed(i);
+                    codes[t] = -1;
+                    values[t] = value;
+                    hash = 31 * hash + Utility.hashValue(value);
                 }
-            //}
-
+            }
+            
+            IntList candidates = groupsByHash.get(hash);
+            if (candidates == null)
+            {
+                candidates = new IntList(1);
+                groupsByHash.put(hash, candidates);
+            }
+            int groupId = -1;
+            // Hashes may collide, so must check the values:
+            for (int c = 0; c < candidates.size(); c++)
+            {
+                if (sameGroup(groupCodes.get(candidates.get(c)), groupValues.get(candidates.get(c)), codes, values))
+                {
+                    groupId = candidates.get(c);
+                    break;
+                }
+            }
+            if (groupId == -1)
+            {
+                groupId = groupValues.size();
+                ImmutableList.Builder<@Value Object> valuesBuilder = ImmutableList.builderWithExpectedSize(types.size());
+                for (int t = 0; t < types.size(); t++)
+                {
+                    @Nullable GetDictionaryCode codesForType = dictionaryCodes.get(t);
+                    @Nullable @Value Object value = codesForType != null ? codesForType.getDictionaryValue(codes[t]) : values[t];
+                    if (value == null)
+                        throw new InternalException("Missing split value");
+                    valuesBuilder.add(value);
+                }
+                groupValues.add(valuesBuilder.build());
+                groupCodes.add(codes);
+                groupRows.add(new IntList());
+                candidates.add(groupId);
+            }
+            groupRows.get(groupId).add(i);
+        }
+        
+        // The output is in order of first split column foremost, then second, and so on:
+        int[] sortedGroups = RowSorter.sortedRows(groupValues.size(), (a, b) -> Utility.compareLists(groupValues.get(a), groupValues.get(b)));
+        ImmutableList.Builder<Pair<List<@Value Object>, Occurrences>> valuesAndOccurrences = ImmutableList.builderWithExpectedSize(sortedGroups.length);
+        for (int groupId : sortedGroups)
+        {
+            valuesAndOccurrences.add(new Pair<>(groupValues.get(groupId), new Occurrences(groupRows.get(groupId).toArray())));
         }
-        // Now form cross-product:
-        return crossProduct(splits, srcLength);
+        return new JoinedSplit(columns, valuesAndOccurrences.build());
     }
 
-    /**
-     * Given a list of columns and their values and index occurrences, calculates the 
-     * set of all combinations that occur at least once.
-     * 
-     * @param allDistincts The list of per-single-column values and occurrences (one entry per column)
-     * @return The list of all joined value combinations of the split columns that actually occur at least once. 
-     */
-    private static JoinedSplit crossProduct(List<SingleSplit> allDistincts, int srcLength)
+    // Does the row with the given codes (and values, for columns without codes) belong in the group?
+    private static boolean sameGroup(int[] groupCodes, ImmutableList<@Value Object> groupValues, int[] codes, @Nullable @Value Object[] values) throws UserException, InternalException
     {
-        if (allDistincts.isEmpty())
-        {
-            return new JoinedSplit(srcLength);
-        }
-        else if (allDistincts.size() == 1)
-        {
-            // Turn single split into a joined split:
-            SingleSplit single = allDistincts.get(0);
-            return new JoinedSplit(single.column, single.valuesAndOccurrences);
-        }
-        // Take next list:
-        SingleSplit first = allDistincts.get(0);
-        // Recurse to get cross product of the rest:
-        JoinedSplit rest = crossProduct(allDistincts.subList(1, allDistincts.size()), srcLength);
-        // Don't know size in advance because not all combinations will occur:
-        ImmutableList.Builder<Pair<List<@Value Object>, Occurrences>> valuesAndOccurrences = ImmutableList.builder();
-        // Important that the first list is outermost, so that
-        // we add all the items with earliest value of first, thus
-        // keeping the result in order of first column foremost,
-        // then going by order of rest.
-        first.valuesAndOccurrences.forEach((firstVal, firstOcc) ->
+        for (int t = 0; t < codes.length; t++)
         {
-            for (Pair<List<@Value Object>, Occurrences> restPair : rest.valuesAndOccurrences)
+            if (codes[t] >= 0)
             {
-                // BitSet is mutable, so important to clone:
-                BitSet jointOccurrence = (BitSet)firstOcc.clone();
-                jointOccurrence.and(restPair.getSecond().bitSet);
-                if (!jointOccurrence.isEmpty())
-                {
-                    valuesAndOccurrences.add(new Pair<>(Utility.prependToList(firstVal.getValue(), restPair.getFirst()), new Occurrences(jointOccurrence)));
-                }
+                if (codes[t] != groupCodes[t])
+                    return false;
             }
-        });
-        return new JoinedSplit(Utility.prependToList(first.column, rest.columns), valuesAndOccurrences.build());
+            else
+            {
+                @Nullable @Value Object value = values[t];
+                if (value == null || Utility.compareValues(groupValues.get(t), value) != 0)
+                    return false;
+            }
+        }
+        return true;
     }
 
 
@@ -530,7 +527,8 @@ public class Aggregate extends VisitableTransformation implements SingleSourceTr
     @Override
     public @OnThread(Tag.Simulation) Transformation withNewSource(TableId newSrcTableId) throws InternalException
     {
-        return new Aggregate(getManager(), getDetailsForCopy(getId()), newSrcTableId, summaries, splitBy);
+        FunctionLookup functionLookup = FunctionList.getFunctionLookup(getManager().getUnitManager());
+        return new Aggregate(getManager(), getDetailsForCopy(getId()), newSrcTableId, Utility.mapListInt(summaries, p -> new Pair<>(p.getFirst(), ExpressionUtil.copy(p.getSecond(), getManager().getTypeManager(), functionLookup))), splitBy);
     }
 
     @Override
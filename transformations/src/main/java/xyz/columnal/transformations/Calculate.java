@@ -21,17 +21,23 @@
 package xyz.columnal.transformations;
 
 import annotation.identifier.qual.ExpressionIdentifier;
+import annotation.qual.Value;
 import annotation.units.TableDataRowIndex;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 import org.checkerframework.checker.initialization.qual.UnknownInitialization;
 import org.checkerframework.checker.nullness.qual.NonNull;
 import org.checkerframework.checker.nullness.qual.Nullable;
 import org.checkerframework.checker.nullness.qual.RequiresNonNull;
+import xyz.columnal.data.BooleanColumnStorage;
+import xyz.columnal.data.CachedCalculatedColumn;
 import xyz.columnal.data.CellPosition;
 import xyz.columnal.data.Column;
 import xyz.columnal.data.ColumnUtility;
+import xyz.columnal.data.ColumnUtility.BlockCalculator;
 import xyz.columnal.data.ErrorColumn;
+import xyz.columnal.data.NumericColumnStorage;
 import xyz.columnal.data.RecordSet;
 import xyz.columnal.data.RenameOnEdit;
 import xyz.columnal.data.SingleSourceTransformation;
@@ -52,6 +58,11 @@ import xyz.columnal.id.ColumnId;
 import xyz.columnal.id.TableAndColumnRenames;
 import xyz.columnal.id.TableId;
 import xyz.columnal.loadsave.OutputBuilder;
+import xyz.columnal.log.Log;
+import xyz.columnal.transformations.expression.BatchEvaluator;
+import xyz.columnal.transformations.expression.BatchEvaluator.BooleanVector;
+import xyz.columnal.transformations.expression.BatchEvaluator.NumberVector;
+import xyz.columnal.transformations.expression.BatchEvaluator.Vector;
 import xyz.columnal.transformations.expression.BracketedStatus;
 import xyz.columnal.transformations.expression.ErrorAndTypeRecorderStorer;
 import xyz.columnal.transformations.expression.EvaluateState;
@@ -60,6 +71,8 @@ import xyz.columnal.transformations.expression.Expression.ColumnLookup;
 import xyz.columnal.transformations.MultipleTableLookup.CalculationEditor;
 import xyz.columnal.transformations.expression.Expression.SaveDestination;
 import xyz.columnal.transformations.expression.ExpressionUtil;
+import xyz.columnal.transformations.expression.function.FunctionLookup;
+import xyz.columnal.transformations.expression.RowInvariantCache;
 import xyz.columnal.transformations.expression.TypeState;
 import xyz.columnal.transformations.function.FunctionList;
 import xyz.columnal.typeExp.TypeExp;
@@ -67,7 +80,9 @@ import xyz.columnal.styled.StyledString;
 import threadchecker.OnThread;
 import threadchecker.Tag;
 import xyz.columnal.utility.IdentifierUtility;
+import xyz.columnal.utility.adt.Either;
 import xyz.columnal.utility.adt.Pair;
+import xyz.columnal.utility.function.ExFunction;
 import xyz.columnal.utility.function.simulation.SimulationConsumer;
 import xyz.columnal.utility.function.simulation.SimulationFunction;
 import xyz.columnal.utility.TranslationUtility;
@@ -105,8 +120,20 @@ public class Calculate extends VisitableTransformation implements SingleSourceTr
     private final @Nullable RecordSet recordSet;
     @OnThread(Tag.Any)
     private StyledString error = StyledString.s("");
+    // For each calculated column which only reads values from the same row of source
+    // columns, those source columns and their modification counts when we were made.
+    // If these are unchanged when we are re-created, the column's values are kept.
+    private final HashMap<ColumnId, ImmutableList<Pair<Column, Integer>>> calculatedFrom = new HashMap<>();
 
     public Calculate(TableManager mgr, InitialLoadDetails initialLoadDetails, TableId srcTableId, ImmutableMap<ColumnId, Expression> toCalculate) throws InternalException
+    {
+        this(mgr, initialLoadDetails, srcTableId, toCalculate, ImmutableMap.of());
+    }
+
+    // Our columns take over the values already calculated by the columns in takeOverColumns,
+    // rather than calculating them again.  Their expressions in toCalculate must be the ones
+    // those columns were calculated with.
+    private Calculate(TableManager mgr, InitialLoadDetails initialLoadDetails, TableId srcTableId, ImmutableMap<ColumnId, Expression> toCalculate, ImmutableMap<ColumnId, CachedCalculatedColumn<?, ?>> takeOverColumns) throws InternalException
     {
         super(mgr, initialLoadDetails);
         this.srcTableId = srcTableId;
@@ -152,13 +179,20 @@ public class Calculate extends VisitableTransformation implements SingleSourceTr
                 }
                 else
                 {
-                    columns.add(makeCalcColumn(mgr, columnLookup.apply(c.getName()), c.getName(), overwrite));
+                    columns.add(makeCalcColumn(mgr, columnLookup.apply(c.getName()), c.getName(), overwrite, takeOverColumns.get(c.getName())));
                 }
             }
 
             for (Entry<ColumnId, Expression> newCol : stillToAdd.entrySet())
             {
-                columns.add(makeCalcColumn(mgr, columnLookup.apply(newCol.getKey()), newCol.getKey(), newCol.getValue()));
+                columns.add(makeCalcColumn(mgr, columnLookup.apply(newCol.getKey()), newCol.getKey(), newCol.getValue(), takeOverColumns.get(newCol.getKey())));
+            }
+            
+            for (Entry<ColumnId, Expression> newCol : newColumns.entrySet())
+            {
+                @Nullable ImmutableList<Pair<Column, Integer>> readColumns = findReadColumns(srcRecordSet, newCol.getValue());
+                if (readColumns != null)
+                    calculatedFrom.put(newCol.getKey(), readColumns);
             }
 
             theResult = new RecordSet(columns)
@@ -217,8 +251,38 @@ public class Calculate extends VisitableTransformation implements SingleSourceTr
         };
     }
 
+    // If the expression only reads values from the same row of source columns, gets those
+    // columns with their current modification counts.  Otherwise (including if any count
+    // is unavailable) returns null.
+    private static @Nullable ImmutableList<Pair<Column, Integer>> findReadColumns(RecordSet srcRecordSet, Expression expression) throws InternalException
+    {
+        // References to whole tables, or to other tables, are not tracked:
+        @Nullable ImmutableSet<ColumnId> references = ExpressionUtil.sameRowColumnsFromExpression(expression);
+        if (references == null)
+            return null;
+        ImmutableList.Builder<Pair<Column, Integer>> readColumns = ImmutableList.builder();
+        for (ColumnId reference : references)
+        {
+            @Nullable Column column = srcRecordSet.getColumnOrNull(reference);
+            if (column == null)
+                return null;
+            try
+            {
+                OptionalInt count = column.getType().getModificationCount();
+                if (!count.isPresent())
+                    return null;
+                readColumns.add(new Pair<>(column, count.getAsInt()));
+            }
+            catch (UserException e)
+            {
+                return null;
+            }
+        }
+        return readColumns.build();
+    }
+
     private SimulationFunction<RecordSet, Column> makeCalcColumn(@UnknownInitialization(Transformation.class) Calculate this,
-                                                                 TableManager mgr, ColumnLookup columnLookup, ColumnId columnId, Expression expression) throws InternalException
+                                                                 TableManager mgr, ColumnLookup columnLookup, ColumnId columnId, Expression expression, @Nullable CachedCalculatedColumn<?, ?> takeOverFrom) throws InternalException
     {
         try
         {
@@ -233,7 +297,11 @@ public class Calculate extends VisitableTransformation implements SingleSourceTr
                 throw new UserException(StyledString.concat(StyledString.s("Error in " + columnId.getRaw() + " expression: "), checkErrors.toPlain().isEmpty() ? StyledString.s("Invalid expression") : checkErrors)); // A bit redundant to throw and catch again below, but control flow will pan out right
             }
             @NonNull DataType typeFinal = concrete;
-            return rs -> ColumnUtility.makeCalculatedColumn(typeFinal, rs, columnId, index -> expression.calculateValue(new EvaluateState(mgr.getTypeManager(), OptionalInt.of(index))).value, t -> addManualEditSet(columnId, t));
+            // Parts of the expression which are the same for every row (e.g. sum of a whole column) are only calculated once:
+            RowInvariantCache invariantCache = new RowInvariantCache();
+            ExFunction<Integer, @Value Object> calculateRow = index -> expression.calculateValueCached(new EvaluateState(mgr.getTypeManager(), OptionalInt.of(index), invariantCache)).value;
+            @Nullable BatchEvaluator batchEvaluator = BatchEvaluator.compile(expression, mgr.getTypeManager(), invariantCache);
+            return rs -> ColumnUtility.makeCalculatedColumn(typeFinal, rs, columnId, calculateRow, batchEvaluator == null ? null : new BatchCalculator(batchEvaluator, calculateRow), t -> addManualEditSet(columnId, t), takeOverFrom);
         }
         catch (UserException e)
         {
@@ -241,6 +309,66 @@ public class Calculate extends VisitableTransformation implements SingleSourceTr
         }
     }
 
+    /**
+     * Calculates blocks of rows using a BatchEvaluator.  Rows which the batch
+     * evaluation couldn't handle are calculated individually as normal.
+     */
+    private static class BatchCalculator implements BlockCalculator
+    {
+        private final BatchEvaluator batchEvaluator;
+        private final ExFunction<Integer, @Value Object> calculateRow;
+
+        public BatchCalculator(BatchEvaluator batchEvaluator, ExFunction<Integer, @Value Object> calculateRow)
+        {
+            this.batchEvaluator = batchEvaluator;
+            this.calculateRow = calculateRow;
+        }
+
+        @Override
+        public void addNumbers(NumericColumnStorage storage, int startRowIncl, int endRowExcl) throws InternalException
+        {
+            Vector results = batchEvaluator.evaluate(startRowIncl, endRowExcl - startRowIncl);
+            @Nullable NumberVector numbers = results instanceof NumberVector ? (NumberVector) results : null;
+            for (int i = 0; i < results.size(); i++)
+            {
+                if (numbers != null && !numbers.isFailed(i) && numbers.isLong(i))
+                    storage.addLong(numbers.getLong(i));
+                else
+                    storage.addAll(Stream.<Either<String, Number>>of(getOne(results, i, startRowIncl + i, Number.class)));
+            }
+        }
+
+        @Override
+        public void addBooleans(BooleanColumnStorage storage, int startRowIncl, int endRowExcl) throws InternalException
+        {
+            Vector results = batchEvaluator.evaluate(startRowIncl, endRowExcl - startRowIncl);
+            @Nullable BooleanVector booleans = results instanceof BooleanVector ? (BooleanVector) results : null;
+            for (int i = 0; i < results.size(); i++)
+            {
+                if (booleans != null && !booleans.isFailed(i))
+                    storage.addBoolean(booleans.getBoolean(i));
+                else
+                    storage.addAll(Stream.<Either<String, Boolean>>of(getOne(results, i, startRowIncl + i, Boolean.class)));
+            }
+        }
+
+        // Gets the value from the results, or calculates the row individually if the batch failed on it
+        private <T> Either<String, @NonNull T> getOne(Vector results, int index, int row, Class<T> cls) throws InternalException
+        {
+            try
+            {
+                @Value Object value = results.isFailed(index) ? calculateRow.apply(row) : results.get(index);
+                return Either.right(Utility.cast(value, cls));
+            }
+            catch (InternalException | UserException e)
+            {
+                if (e instanceof InternalException)
+                    Log.log(e);
+                return Either.left(e.getLocalizedMessage());
+            }
+        }
+    }
+
     @OnThread(Tag.Any)
     public static TypeState makeTypeState(TableManager mgr) throws InternalException
     {
@@ -307,7 +435,52 @@ public class Calculate extends VisitableTransformation implements SingleSourceTr
     @Override
     public @OnThread(Tag.Simulation) Transformation withNewSource(TableId newSrcTableId) throws InternalException
     {
-        return new Calculate(getManager(), getDetailsForCopy(getId()), newSrcTableId, newColumns);
+        FunctionLookup functionLookup = FunctionList.getFunctionLookup(getManager().getUnitManager());
+        ImmutableMap<ColumnId, CachedCalculatedColumn<?, ?>> unchanged = newSrcTableId.equals(srcTableId) ? getUnchangedColumns() : ImmutableMap.of();
+        // Columns whose values are taken over keep the expression they were calculated
+        // with.  The others get a copy, as the old expression may still be in use by this table:
+        ImmutableMap.Builder<ColumnId, Expression> expressions = ImmutableMap.builder();
+        for (Entry<ColumnId, Expression> entry : newColumns.entrySet())
+        {
+            expressions.put(entry.getKey(), unchanged.containsKey(entry.getKey()) ? entry.getValue() : ExpressionUtil.copy(entry.getValue(), getManager().getTypeManager(), functionLookup));
+        }
+        return new Calculate(getManager(), getDetailsForCopy(getId()), newSrcTableId, expressions.build(), unchanged);
+    }
+
+    // Gets the calculated columns which can be kept: the source table is the same, and
+    // every source column they read is the same and has not been modified since we were made.
+    private ImmutableMap<ColumnId, CachedCalculatedColumn<?, ?>> getUnchangedColumns() throws InternalException
+    {
+        if (src == null || recordSet == null || getManager().getSingleTableOrNull(srcTableId) != src)
+            return ImmutableMap.of();
+        ImmutableMap.Builder<ColumnId, CachedCalculatedColumn<?, ?>> unchanged = ImmutableMap.builder();
+        try
+        {
+            RecordSet srcRecordSet = src.getData();
+            for (Entry<ColumnId, ImmutableList<Pair<Column, Integer>>> entry : calculatedFrom.entrySet())
+            {
+                boolean allSame = true;
+                for (Pair<Column, Integer> read : entry.getValue())
+                {
+                    @Nullable Column current = srcRecordSet.getColumnOrNull(read.getFirst().getName());
+                    OptionalInt count = current != null && current == read.getFirst() ? current.getType().getModificationCount() : OptionalInt.empty();
+                    if (!count.isPresent() || count.getAsInt() != read.getSecond())
+                    {
+                        allSame = false;
+                        break;
+                    }
+                }
+                @Nullable Column column = recordSet.getColumnOrNull(entry.getKey());
+                if (allSame && column instanceof CachedCalculatedColumn)
+                    unchanged.put(entry.getKey(), (CachedCalculatedColumn<?, ?>) column);
+            }
+        }
+        catch (UserException e)
+        {
+            // Just calculate everything again
+            return ImmutableMap.of();
+        }
+        return unchanged.build();
     }
 
     private void deleteColumn(ColumnId columnId)
@@ -49,6 +49,9 @@ import xyz.columnal.grammar.TransformationParser;
 import xyz.columnal.grammar.TransformationParser.CheckContext;
 import xyz.columnal.grammar.TransformationParser.CheckTypeContext;
 import xyz.columnal.grammar.Versions.ExpressionVersion;
+import xyz.columnal.transformations.expression.BatchEvaluator;
+import xyz.columnal.transformations.expression.BatchEvaluator.BooleanVector;
+import xyz.columnal.transformations.expression.BatchEvaluator.Vector;
 import xyz.columnal.transformations.expression.BooleanLiteral;
 import xyz.columnal.transformations.expression.BracketedStatus;
 import xyz.columnal.transformations.expression.ErrorAndTypeRecorderStorer;
@@ -60,6 +63,7 @@ import xyz.columnal.transformations.expression.Expression.SaveDestination;
 import xyz.columnal.transformations.expression.Expression.ValueResult;
 import xyz.columnal.transformations.expression.ExpressionUtil;
 import xyz.columnal.transformations.expression.IdentExpression;
+import xyz.columnal.transformations.expression.RowInvariantCache;
 import xyz.columnal.transformations.expression.TypeState;
 import xyz.columnal.transformations.expression.explanation.Explanation;
 import xyz.columnal.transformations.function.FunctionList;
@@ -85,6 +89,8 @@ public class Check extends VisitableTransformation implements SingleSourceTransf
 {
     public static final String NAME = "check";
     private static final String PREFIX = "CHECK";
+    // Number of rows evaluated at once when looking for the witness row:
+    private static final int BLOCK_SIZE = 256;
 
     public static enum CheckType
     {
@@ -186,25 +192,16 @@ public class Check extends VisitableTransformation implements SingleSourceTransf
                 if (srcTable != null)
                 {
                     int length = srcTable.getData().getLength();
-                    for (int row = 0; row < length; row++)
+                    // First find the witness row (the first which decides the outcome) without
+                    // recording explanations, as only the witness row's explanation is shown:
+                    int witnessRow = findWitnessRow(length);
+                    if (witnessRow >= 0)
                     {
-                        ValueResult r = checkExpression.calculateValue(new EvaluateState(getManager().getTypeManager(), OptionalInt.of(row), true));
+                        // Then evaluate just that row again, recording the explanation:
+                        ValueResult r = checkExpression.calculateValue(new EvaluateState(getManager().getTypeManager(), OptionalInt.of(witnessRow), true));
                         boolean thisRow = Utility.cast(r.value, Boolean.class);
-                        if (thisRow && checkType == CheckType.NO_ROWS)
-                        {
-                            explanation = r.makeExplanation(null);
-                            return DataTypeUtility.value(false);
-                        }
-                        else if (!thisRow && checkType == CheckType.ALL_ROWS)
-                        {
-                            explanation = r.makeExplanation(null);
-                            return DataTypeUtility.value(false);
-                        }
-                        else if (thisRow && checkType == CheckType.ANY_ROW)
-                        {
-                            explanation = r.makeExplanation(null);
-                            return DataTypeUtility.value(true);
-                        }
+                        explanation = r.makeExplanation(null);
+                        return DataTypeUtility.value(checkType == CheckType.ANY_ROW && thisRow);
                     }
                     if (checkType == CheckType.ANY_ROW)
                         return DataTypeUtility.value(false);
@@ -222,6 +219,56 @@ public class Check extends VisitableTransformation implements SingleSourceTransf
         }
     }
 
+    /**
+     * Finds the first row which decides the outcome of the check: a true row for ANY_ROW and NO_ROWS,
+     * a false row for ALL_ROWS.  Returns -1 if there is no such row.  Rows are evaluated in blocks where
+     * possible, without recording explanations.  If a row before the witness has an error, that row is
+     * evaluated again with explanations recorded so that the thrown exception has its explanation.
+     */
+    private int findWitnessRow(int length) throws InternalException, UserException
+    {
+        TypeManager typeManager = getManager().getTypeManager();
+        RowInvariantCache invariantCache = new RowInvariantCache();
+        @Nullable BatchEvaluator batchEvaluator = BatchEvaluator.compile(checkExpression, typeManager, invariantCache);
+        boolean witnessValue = checkType != CheckType.ALL_ROWS;
+        for (int start = 0; start < length; start += BLOCK_SIZE)
+        {
+            int count = Math.min(BLOCK_SIZE, length - start);
+            @Nullable BooleanVector results = null;
+            if (batchEvaluator != null)
+            {
+                Vector block = batchEvaluator.evaluate(start, count);
+                if (block instanceof BooleanVector)
+                    results = (BooleanVector) block;
+            }
+            for (int i = 0; i < count; i++)
+            {
+                int row = start + i;
+                boolean thisRow;
+                if (results != null && !results.isFailed(i))
+                {
+                    thisRow = results.getBoolean(i);
+                }
+                else
+                {
+                    try
+                    {
+                        thisRow = Utility.cast(checkExpression.calculateValueCached(new EvaluateState(typeManager, OptionalInt.of(row), invariantCache)).value, Boolean.class);
+                    }
+                    catch (UserException e)
+                    {
+                        // Should throw again, this time with the explanation:
+                        checkExpression.calculateValue(new EvaluateState(typeManager, OptionalInt.of(row), true));
+                        throw e;
+                    }
+                }
+                if (thisRow == witnessValue)
+                    return row;
+            }
+        }
+        return -1;
+    }
+
     @OnThread(Tag.Any)
     public ColumnLookup getColumnLookup()
     {
@@ -374,7 +421,7 @@ public class Check extends VisitableTransformation implements SingleSourceTransf
     @Override
     public @OnThread(Tag.Simulation) Transformation withNewSource(TableId newSrcTableId) throws InternalException
     {
-        return new Check(getManager(), getDetailsForCopy(getId()), newSrcTableId, checkType, checkExpression);
+        return new Check(getManager(), getDetailsForCopy(getId()), newSrcTableId, checkType, ExpressionUtil.copy(checkExpression, getManager().getTypeManager(), FunctionList.getFunctionLookup(getManager().getUnitManager())));
     }
 
     @OnThread(Tag.Any)
@@ -46,6 +46,9 @@ import xyz.columnal.error.expressions.ExpressionErrorException.EditableExpressio
 import xyz.columnal.grammar.Versions.ExpressionVersion;
 import xyz.columnal.id.TableAndColumnRenames;
 import xyz.columnal.id.TableId;
+import xyz.columnal.transformations.expression.BatchEvaluator;
+import xyz.columnal.transformations.expression.BatchEvaluator.BooleanVector;
+import xyz.columnal.transformations.expression.BatchEvaluator.Vector;
 import xyz.columnal.transformations.expression.BooleanLiteral;
 import xyz.columnal.transformations.expression.BracketedStatus;
 import xyz.columnal.transformations.expression.ErrorAndTypeRecorderStorer;
@@ -55,6 +58,7 @@ import xyz.columnal.transformations.expression.Expression.ColumnLookup;
 import xyz.columnal.transformations.expression.Expression.SaveDestination;
 import xyz.columnal.transformations.expression.ExpressionUtil;
 import xyz.columnal.transformations.expression.IdentExpression;
+import xyz.columnal.transformations.expression.RowInvariantCache;
 import xyz.columnal.transformations.expression.TypeState;
 import xyz.columnal.transformations.expression.visitor.ExpressionVisitorStream;
 import xyz.columnal.transformations.function.FunctionList;
@@ -85,6 +89,8 @@ public class Filter extends VisitableTransformation implements SingleSourceTrans
 {
     private static final String PREFIX = "KEEPIF";
     public static final String NAME = "filter";
+    // Number of source rows to examine at once when the filter expression can be evaluated in blocks:
+    private static final int BLOCK_SIZE = 256;
     private final TableId srcTableId;
     private final @Nullable Table src;
     // Not actually a column by itself, but holds a list of integers so reasonable to re-use:
@@ -100,6 +106,10 @@ public class Filter extends VisitableTransformation implements SingleSourceTrans
     private final Expression filterExpression;
     private @MonotonicNonNull DataType type;
     private boolean typeChecked = false;
+    // Compiled once after type checking; null if the expression can't be evaluated in blocks:
+    private @Nullable BatchEvaluator batchEvaluator;
+    // Parts of the filter expression which are the same for every row are only calculated once:
+    private final RowInvariantCache invariantCache = new RowInvariantCache();
 
     public Filter(TableManager mgr, InitialLoadDetails initialLoadDetails, TableId srcTableId, Expression filterExpression) throws InternalException
     {
@@ -194,33 +204,59 @@ public class Filter extends VisitableTransformation implements SingleSourceTrans
                     });
                 
                 type = typeFinal;
+                batchEvaluator = BatchEvaluator.compile(filterExpression, getManager().getTypeManager(), invariantCache);
             }
             if (type == null)
                 return;
         }
         ensureBoolean(type);
 
-        int start = indexMap.filled();
         while (indexMap.filled() <= index && recordSet.indexValid(nextIndexToExamine))
         {
-            boolean keep;
-            try
+            // Only use a block if the whole block is valid, otherwise fall back to single rows for the tail:
+            if (batchEvaluator != null && recordSet.indexValid(nextIndexToExamine + BLOCK_SIZE - 1))
             {
-                keep = Utility.cast(filterExpression.calculateValue(new EvaluateState(getManager().getTypeManager(), OptionalInt.of(nextIndexToExamine))).value, Boolean.class);
+                Vector results = batchEvaluator.evaluate(nextIndexToExamine, BLOCK_SIZE);
+                @Nullable BooleanVector booleans = results instanceof BooleanVector ? (BooleanVector) results : null;
+                for (int i = 0; i < BLOCK_SIZE; i++)
+                {
+                    if (booleans != null && !booleans.isFailed(i))
+                    {
+                        if (booleans.getBoolean(i))
+                            indexMap.addLong(nextIndexToExamine);
+                        nextIndexToExamine += 1;
+                    }
+                    else
+                    {
+                        // Re-run failed rows individually to get the exact value or error:
+                        examineNextRow();
+                    }
+                }
             }
-            catch (UserException e)
+            else
             {
-                // The row has an error, keep it but also record error:
-                errorsDuringFilter.put(nextIndexToExamine, e.getLocalizedMessage());
-                keep = true;
+                examineNextRow();
             }
-            if (keep)
-                indexMap.add(nextIndexToExamine);
-            nextIndexToExamine += 1;
+        }
+    }
 
-            //if (prog != null)
-                //prog.progressUpdate((double)(indexMap.filled() - start) / (double)(index - start));
+    // Evaluates the filter expression for nextIndexToExamine using calculateValue, and moves on to the next row.
+    private void examineNextRow() throws InternalException
+    {
+        boolean keep;
+        try
+        {
+            keep = Utility.cast(filterExpression.calculateValueCached(new EvaluateState(getManager().getTypeManager(), OptionalInt.of(nextIndexToExamine), invariantCache)).value, Boolean.class);
+        }
+        catch (UserException e)
+        {
+            // The row has an error, keep it but also record error:
+            errorsDuringFilter.put(nextIndexToExamine, e.getLocalizedMessage());
+            keep = true;
         }
+        if (keep)
+            indexMap.add(nextIndexToExamine);
+        nextIndexToExamine += 1;
     }
     
     // Given a row in this table, gets the index of the row in the source table that it came from.  Null if invalid or not yet available
@@ -292,7 +328,7 @@ public class Filter extends VisitableTransformation implements SingleSourceTrans
     @Override
     public @OnThread(Tag.Simulation) Transformation withNewSource(TableId newSrcTableId) throws InternalException
     {
-        return new Filter(getManager(), getDetailsForCopy(getId()), newSrcTableId, filterExpression);
+        return new Filter(getManager(), getDetailsForCopy(getId()), newSrcTableId, ExpressionUtil.copy(filterExpression, getManager().getTypeManager(), FunctionList.getFunctionLookup(getManager().getUnitManager())));
     }
 
     public static class Info extends SingleSourceTransformationInfo
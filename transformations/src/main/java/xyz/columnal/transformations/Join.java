@@ -21,7 +21,6 @@
 package xyz.columnal.transformations;
 
 import annotation.identifier.qual.ExpressionIdentifier;
-import annotation.qual.Value;
 import com.google.common.collect.ImmutableList;
 import xyz.columnal.data.CellPosition;
 import xyz.columnal.data.Column;
@@ -37,6 +36,7 @@ import xyz.columnal.log.Log;
 import org.checkerframework.checker.initialization.qual.UnknownInitialization;
 import org.checkerframework.checker.nullness.qual.Nullable;
 import xyz.columnal.data.datatype.DataTypeValue;
+import xyz.columnal.data.datatype.DataTypeValue.GetDictionaryCode;
 import xyz.columnal.data.datatype.TypeManager;
 import xyz.columnal.error.InternalException;
 import xyz.columnal.error.UserException;
@@ -50,6 +50,7 @@ import threadchecker.OnThread;
 import threadchecker.Tag;
 import xyz.columnal.utility.function.fx.FXPlatformSupplier;
 import xyz.columnal.utility.IdentifierUtility;
+import xyz.columnal.utility.IntList;
 import xyz.columnal.utility.adt.Pair;
 import xyz.columnal.utility.function.simulation.SimulationFunction;
 import xyz.columnal.utility.function.simulation.SimulationSupplier;
@@ -58,6 +59,7 @@ import xyz.columnal.utility.Utility;
 import java.io.File;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Objects;
 import java.util.Optional;
@@ -84,6 +86,9 @@ public class Join extends VisitableTransformation
     private final NumericColumnStorage primaryIndexMap;
     private final NumericColumnStorage secondaryIndexMap;
     private boolean examinedAllSourceRows = false;
+    // Index of the join key values in the secondary table.  Built when the first
+    // primary row is examined, and discarded once all the primary rows have been.
+    private @Nullable SecondaryIndex secondaryIndex;
     
     @OnThread(Tag.Any)
     private final @Nullable String error;
@@ -188,30 +193,65 @@ public class Join extends VisitableTransformation
     {
         if (examinedAllSourceRows)
             return;
+        ImmutableList<DataTypeValue> primaryKeys = Utility.<Pair<ColumnId, ColumnId>, DataTypeValue>mapListExI(columnsToMatch, p -> recordSets.getFirst().getColumn(p.getFirst()).getType());
+        ImmutableList<DataTypeValue> secondaryKeys = Utility.<Pair<ColumnId, ColumnId>, DataTypeValue>mapListExI(columnsToMatch, p -> recordSets.getSecond().getColumn(p.getSecond()).getType());
+        
+        ImmutableList.Builder<KeyMatcher> keyMatchersBuilder = ImmutableList.builderWithExpectedSize(primaryKeys.size());
+        for (int k = 0; k < primaryKeys.size(); k++)
+        {
+            keyMatchersBuilder.add(new KeyMatcher(primaryKeys.get(k), secondaryKeys.get(k)));
+        }
+        ImmutableList<KeyMatcher> keyMatchers = keyMatchersBuilder.build();
+        
         // We go down the rows of the primary table, looking for secondary matches
         // If (none && keepPrimaryWithNoMatch) || some, we add a result row 
         int nextPrimaryToExamine = primaryIndexMap.filled() == 0 ? 0 : (primaryIndexMap.getInt(primaryIndexMap.filled() - 1) + 1);
         while (recordSets.getFirst().indexValid(nextPrimaryToExamine))
         {
+            SecondaryIndex index = this.secondaryIndex;
+            if (index == null)
+            {
+                // Each secondary row must be looked at for every primary row anyway,
+                // so we may as well index the whole of the secondary table up front
+                // (but only once we know there is a primary row):
+                index = new SecondaryIndex(secondaryKeys, recordSets.getSecond());
+                this.secondaryIndex = index;
+            }
+            
             boolean foundSecondary = false;
-            for (int secondaryIndex = 0; recordSets.getSecond().indexValid(secondaryIndex); secondaryIndex++)
+            // If the secondary table is empty, nothing can match, so don't read the primary key
+            // (which would throw on an error cell where a scan of no rows would not):
+            if (!index.isEmpty())
             {
-                boolean allMatch = true;
-                for (Pair<ColumnId, ColumnId> toMatch : columnsToMatch)
+                @Nullable Integer primaryHash = hashKey(primaryKeys, nextPrimaryToExamine);
+                if (primaryHash == null)
                 {
-                    @Value Object primaryVal = recordSets.getFirst().getColumn(toMatch.getFirst()).getType().getCollapsed(nextPrimaryToExamine);
-                    @Value Object secondaryVal = recordSets.getSecond().getColumn(toMatch.getSecond()).getType().getCollapsed(secondaryIndex);
-                    if (Utility.compareValues(primaryVal, secondaryVal) != 0)
+                    // The primary key has an error, so compare against every secondary row as if there was no index.
+                    // That way, the error is only thrown if a comparison reaches the erroring value:
+                    for (int secondaryIndex = 0; recordSets.getSecond().indexValid(secondaryIndex); secondaryIndex++)
                     {
-                        allMatch = false;
-                        break;
+                        foundSecondary |= addIfMatches(keyMatchers, nextPrimaryToExamine, secondaryIndex);
                     }
                 }
-                if (allMatch)
+                else
                 {
-                    foundSecondary = true;
-                    primaryIndexMap.add(nextPrimaryToExamine);
-                    secondaryIndexMap.add(secondaryIndex);
+                    // Candidates are the rows with the same hash, plus the rows whose key has an error.
+                    // We merge the two lists (both in ascending order), so output order is same as a full
+                    // scan of the secondary table.  The hash may collide, so we must still check all the values:
+                    @Nullable IntList sameHash = index.byHash.get(primaryHash);
+                    IntList hashed = sameHash == null ? NO_ROWS : sameHash;
+                    IntList withErrors = index.withErrors;
+                    int h = 0;
+                    int e = 0;
+                    while (h < hashed.size() || e < withErrors.size())
+                    {
+                        int secondaryIndex;
+                        if (e >= withErrors.size() || (h < hashed.size() && hashed.get(h) < withErrors.get(e)))
+                            secondaryIndex = hashed.get(h++);
+                        else
+                            secondaryIndex = withErrors.get(e++);
+                        foundSecondary |= addIfMatches(keyMatchers, nextPrimaryToExamine, secondaryIndex);
+                    }
                 }
             }
             
@@ -228,6 +268,133 @@ public class Join extends VisitableTransformation
                 nextPrimaryToExamine += 1;
         }
         examinedAllSourceRows = true;
+        // No longer needed once we've seen all the primary rows:
+        this.secondaryIndex = null;
+    }
+
+    // Compares all the key columns (stopping at the first which doesn't match), and if
+    // they all match, adds the pair of rows to the join.  Returns true if they matched.
+    @OnThread(Tag.Simulation)
+    private boolean addIfMatches(ImmutableList<KeyMatcher> keyMatchers, int primaryIndex, int secondaryIndex) throws InternalException, UserException
+    {
+        for (int k = 0; k < keyMatchers.size(); k++)
+        {
+            if (!keyMatchers.get(k).matches(primaryIndex, secondaryIndex))
+                return false;
+        }
+        primaryIndexMap.add(primaryIndex);
+        secondaryIndexMap.add(secondaryIndex);
+        return true;
+    }
+
+    private static final IntList NO_ROWS = new IntList();
+
+    /**
+     * The rows of the secondary table, grouped by the hash of their join key.
+     * Rows where any key value is an error can't be hashed, so they are kept
+     * separately and compared against every primary row.
+     */
+    @OnThread(Tag.Simulation)
+    private static class SecondaryIndex
+    {
+        private final HashMap<Integer, IntList> byHash = new HashMap<>();
+        private final IntList withErrors = new IntList();
+
+        public SecondaryIndex(ImmutableList<DataTypeValue> secondaryKeys, RecordSet secondary) throws InternalException, UserException
+        {
+            for (int secondaryIndex = 0; secondary.indexValid(secondaryIndex); secondaryIndex++)
+            {
+                @Nullable Integer hash = hashKey(secondaryKeys, secondaryIndex);
+                if (hash == null)
+                {
+                    withErrors.add(secondaryIndex);
+                    continue;
+                }
+                IntList rows = byHash.get(hash);
+                if (rows == null)
+                {
+                    rows = new IntList();
+                    byHash.put(hash, rows);
+                }
+                rows.add(secondaryIndex);
+            }
+        }
+
+        public boolean isEmpty()
+        {
+            return byHash.isEmpty() && withErrors.size() == 0;
+        }
+    }
+
+    /**
+     * Compares the values of one key column between the primary and secondary tables.
+     * When both columns are dictionary encoded, each distinct primary value is looked
+     * up in the secondary dictionary once, after which rows are matched by comparing codes.
+     */
+    @OnThread(Tag.Simulation)
+    private static class KeyMatcher
+    {
+        private static final int NOT_LOOKED_UP = -2;
+        private final DataTypeValue primary;
+        private final DataTypeValue secondary;
+        private final @Nullable GetDictionaryCode primaryCodes;
+        private final @Nullable GetDictionaryCode secondaryCodes;
+        // Index is primary code, value is secondary code, or -1 if the value is not in the secondary dictionary:
+        private int[] secondaryCodeOf = new int[0];
+
+        public KeyMatcher(DataTypeValue primary, DataTypeValue secondary)
+        {
+            this.primary = primary;
+            this.secondary = secondary;
+            this.primaryCodes = primary.getDictionaryCodes();
+            this.secondaryCodes = secondary.getDictionaryCodes();
+        }
+
+        public boolean matches(int primaryIndex, int secondaryIndex) throws InternalException, UserException
+        {
+            if (primaryCodes != null && secondaryCodes != null)
+            {
+                int primaryCode = primaryCodes.getCode(primaryIndex);
+                int secondaryCode = secondaryCodes.getCode(secondaryIndex);
+                if (primaryCode >= 0 && secondaryCode >= 0)
+                {
+                    if (primaryCode >= secondaryCodeOf.length)
+                    {
+                        int oldLength = secondaryCodeOf.length;
+                        secondaryCodeOf = Arrays.copyOf(secondaryCodeOf, Math.max(primaryCode + 1, oldLength * 2));
+                        Arrays.fill(secondaryCodeOf, oldLength, secondaryCodeOf.length, NOT_LOOKED_UP);
+                    }
+                    if (secondaryCodeOf[primaryCode] == NOT_LOOKED_UP)
+                        secondaryCodeOf[primaryCode] = secondaryCodes.getCodeOf(primaryCodes.getDictionaryValue(primaryCode));
+                    return secondaryCodeOf[primaryCode] == secondaryCode;
+                }
+            }
+            return Utility.compareValues(primary.getCollapsed(primaryIndex), secondary.getCollapsed(secondaryIndex)) == 0;
+        }
+    }
+
+    /**
+     * Hashes the join key of the given row, consistent with comparing
+     * each key value using Utility.compareValues.  If there are no key columns,
+     * all rows hash the same, which gives the full cross join.  Returns null
+     * if any of the key values is an error.
+     */
+    @OnThread(Tag.Simulation)
+    private static @Nullable Integer hashKey(ImmutableList<DataTypeValue> keyColumns, int index) throws InternalException
+    {
+        int hash = 1;
+        for (DataTypeValue keyColumn : keyColumns)
+        {
+            try
+            {
+                hash = 31 * hash + Utility.hashValue(keyColumn.getCollapsed(index));
+            }
+            catch (UserException e)
+            {
+                return null;
+            }
+        }
+        return hash;
     }
 
     @Override
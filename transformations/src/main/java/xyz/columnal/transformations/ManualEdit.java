@@ -589,7 +589,7 @@ edit : editHeader editColumn*;
     @OnThread(Tag.Simulation)
     public synchronized Transformation withNewSource(TableId newSrcTableId) throws InternalException
     {
-        return new ManualEdit(getManager(), getDetailsForCopy(getId()), newSrcTableId, keyColumn == null ? null : keyColumn.mapFirst(c -> c.getName()), ImmutableMap.copyOf(replacements));
+        return new ManualEdit(getManager(), getDetailsForCopy(getId()), newSrcTableId, keyColumn == null ? null : keyColumn.mapFirst(c -> c.getName()), Utility.mapValues(replacements, crv -> crv.makeCopy()));
     }
 
     @OnThread(Tag.Simulation)
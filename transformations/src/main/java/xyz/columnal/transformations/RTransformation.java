@@ -40,6 +40,7 @@ import xyz.columnal.error.UserException;
 import xyz.columnal.grammar.Versions.ExpressionVersion;
 import xyz.columnal.rinterop.ConvertFromR;
 import xyz.columnal.rinterop.RExecution;
+import xyz.columnal.rinterop.RResultCache;
 import xyz.columnal.rinterop.RValue;
 import xyz.columnal.styled.StyledString;
 import threadchecker.OnThread;
@@ -66,6 +67,8 @@ import java.util.stream.Stream;
 public class RTransformation extends VisitableTransformation
 {
     public static final String NAME = "runr";
+    // Saved in the detail if the result cache should not be used:
+    private static final String NO_CACHE = "@NOCACHE";
     // Each table id maps to an R variable by replacing space with dot.
     @OnThread(Tag.Any)
     private final ImmutableList<TableId> srcTableIds;
@@ -75,17 +78,38 @@ public class RTransformation extends VisitableTransformation
     // This is the expression to calculate in R:
     @OnThread(Tag.Any)
     private final String rExpression;
+    // Whether a previous result may be used instead of running R (see RResultCache):
+    @OnThread(Tag.Any)
+    private final boolean useResultCache;
     
     @OnThread(Tag.Any)
     private final Either<StyledString, RecordSet> result;
     
     public RTransformation(TableManager tableManager, InitialLoadDetails initialLoadDetails, ImmutableList<TableId> srcTableIds, ImmutableList<String> packagesToLoad, String rExpression) throws InternalException
+    {
+        this(tableManager, initialLoadDetails, srcTableIds, packagesToLoad, rExpression, true);
+    }
+
+    /**
+     * If useResultCache is true, a previous result for the same expression, packages and
+     * source table contents is used rather than running R again.  R code which reads files,
+     * the clock or unseeded random numbers may not give the same result each time, so
+     * the user can turn this off for a transformation.
+     */
+    public RTransformation(TableManager tableManager, InitialLoadDetails initialLoadDetails, ImmutableList<TableId> srcTableIds, ImmutableList<String> packagesToLoad, String rExpression, boolean useResultCache) throws InternalException
+    {
+        this(tableManager, initialLoadDetails, srcTableIds, packagesToLoad, rExpression, useResultCache, useResultCache);
+    }
+
+    // An explicit re-run passes false for useCachedResult, to always run R:
+    private RTransformation(TableManager tableManager, InitialLoadDetails initialLoadDetails, ImmutableList<TableId> srcTableIds, ImmutableList<String> packagesToLoad, String rExpression, boolean useResultCache, boolean useCachedResult) throws InternalException
     {
         super(tableManager, initialLoadDetails);
         this.srcTableIds = srcTableIds;
         this.packagesToLoad = packagesToLoad;
         this.rExpression = rExpression;
-        this.result = runR();
+        this.useResultCache = useResultCache;
+        this.result = runR(useCachedResult);
     }
 
     @Override
@@ -112,8 +136,9 @@ public class RTransformation extends VisitableTransformation
     @Override
     protected List<String> saveDetail(@Nullable File destination, TableAndColumnRenames renames)
     {
-        return Stream.<String>concat(
-            packagesToLoad.stream().<String>map(pkg -> "@PACKAGE " + pkg),
+        return Stream.<String>concat(Stream.<String>concat(
+            useResultCache ? Stream.<String>of() : Stream.<String>of(NO_CACHE),
+            packagesToLoad.stream().<String>map(pkg -> "@PACKAGE " + pkg)),
             Arrays.stream(Utility.splitLines(rExpression)).<String>map(l -> "@R " + l))
             .collect(ImmutableList.<String>toImmutableList());
     }
@@ -121,7 +146,7 @@ public class RTransformation extends VisitableTransformation
     @Override
     protected int transformationHashCode()
     {
-        return Objects.hash(packagesToLoad, srcTableIds, rExpression);
+        return Objects.hash(packagesToLoad, srcTableIds, rExpression, useResultCache);
     }
 
     @Override
@@ -131,7 +156,7 @@ public class RTransformation extends VisitableTransformation
             return false;
         RTransformation that = (RTransformation)obj;
         
-        return srcTableIds.equals(that.srcTableIds) && packagesToLoad.equals(that.packagesToLoad) && rExpression.equals(that.rExpression);
+        return srcTableIds.equals(that.srcTableIds) && packagesToLoad.equals(that.packagesToLoad) && rExpression.equals(that.rExpression) && useResultCache == that.useResultCache;
     }
 
     @Override
@@ -143,7 +168,7 @@ public class RTransformation extends VisitableTransformation
     
     @RequiresNonNull({"srcTableIds", "rExpression", "packagesToLoad"})
     @OnThread(Tag.Simulation)
-    private Either<StyledString, RecordSet> runR(@UnknownInitialization(Transformation.class) RTransformation this) throws InternalException
+    private Either<StyledString, RecordSet> runR(@UnknownInitialization(Transformation.class) RTransformation this, boolean useCachedResult) throws InternalException
     {
         try
         {
@@ -158,7 +183,7 @@ public class RTransformation extends VisitableTransformation
                 tablesToPass.put(ConvertFromR.usToRTable(t.getId()), t.getData());
             }
 
-            RValue rResult = RExecution.runRExpression(rExpression, packagesToLoad, ImmutableMap.copyOf(tablesToPass));
+            RValue rResult = RExecution.runRExpression(rExpression, packagesToLoad, ImmutableMap.copyOf(tablesToPass), useResultCache ? RResultCache.getUserCache() : null, useCachedResult);
 
             ImmutableList<Pair<String, EditableRecordSet>> tables = ConvertFromR.convertRToTable(getManager().getTypeManager(), rResult, false);
 
@@ -193,7 +218,7 @@ public class RTransformation extends VisitableTransformation
                 @Override
                 public RTransformation apply(TableId id) throws InternalException
                 {
-                    return new RTransformation(RTransformation.this.getManager(), RTransformation.this.getDetailsForCopy(id), srcTableIds, packagesToLoad, rExpression);
+                    return new RTransformation(RTransformation.this.getManager(), RTransformation.this.getDetailsForCopy(id), srcTableIds, packagesToLoad, rExpression, useResultCache, false);
                 }
             }, RenameOnEdit.UNNEEDED /* Name is unchanged so don't need to worry about that */);
         };
@@ -220,6 +245,13 @@ public class RTransformation extends VisitableTransformation
         return srcTableIds;
     }
 
+    @Pure
+    @OnThread(Tag.Any)
+    public boolean isUsingResultCache()
+    {
+        return useResultCache;
+    }
+
     public static class Info extends TransformationInfo
     {
         public Info()
@@ -234,8 +266,9 @@ public class RTransformation extends VisitableTransformation
             ImmutableList<String> pkgs = Arrays.stream(lines).filter(s -> s.startsWith("@PACKAGE ")).map(s -> s.substring("@PACKAGE ".length())).collect(ImmutableList.<String>toImmutableList());
             
             String rExpression = Arrays.stream(lines).filter(s -> s.startsWith("@R ")).map(s -> s.substring("@R ".length())).collect(Collectors.joining("\n"));
+            boolean useResultCache = Arrays.stream(lines).noneMatch(s -> s.trim().equals(NO_CACHE));
             
-            return new RTransformation(mgr, initialLoadDetails, ImmutableList.copyOf(source), pkgs, rExpression);
+            return new RTransformation(mgr, initialLoadDetails, ImmutableList.copyOf(source), pkgs, rExpression, useResultCache);
         }
 
         @Override
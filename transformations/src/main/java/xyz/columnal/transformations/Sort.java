@@ -38,9 +38,9 @@ import xyz.columnal.id.TableId;
 import xyz.columnal.log.Log;
 import org.checkerframework.checker.nullness.qual.NonNull;
 import org.checkerframework.checker.nullness.qual.Nullable;
-import org.checkerframework.dataflow.qual.Pure;
 import xyz.columnal.data.datatype.DataTypeUtility;
 import xyz.columnal.data.datatype.DataTypeValue;
+import xyz.columnal.data.datatype.DataTypeValue.GetDictionaryCode;
 import xyz.columnal.data.datatype.NumberInfo;
 import xyz.columnal.error.InternalException;
 import xyz.columnal.error.InvalidImmediateValueException;
@@ -55,14 +55,17 @@ import xyz.columnal.styled.StyledShowable;
 import xyz.columnal.styled.StyledString;
 import threadchecker.OnThread;
 import threadchecker.Tag;
-import xyz.columnal.utility.adt.Either;
 import xyz.columnal.utility.IdentifierUtility;
+import xyz.columnal.utility.IntList;
 import xyz.columnal.utility.adt.Pair;
 import xyz.columnal.utility.function.simulation.SimulationFunction;
+import xyz.columnal.utility.RowSorter;
 import xyz.columnal.utility.Utility;
 
 import java.io.File;
+import java.math.BigDecimal;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.stream.Stream;
@@ -100,25 +103,16 @@ public class Sort extends VisitableTransformation implements SingleSourceTransfo
     // Not actually a column by itself, but holds a list of integers so reasonable to re-use:
     private final @Nullable NumericColumnStorage sortMap;
 
-    // This works like a linked list, but flattened into an integer array.
-    // The first item is the head, then others point onwards.  (Irritatingly, stillToOrder[n]
-    // corresponds to originalIndex=n-1, due to having the head.
-    // To begin with, each item points to the next:
-    // 0 : 1 [HEAD: originalIndex = 0]
-    // 1 : 2 [next item after originalIndex=0 is originalIndex=1]
-    // 2 : 3 [next item after originalIndex=1 is originalIndex=2]
-    // 3 : 4, etc
-    // Then, when we use an item from the list, e.g. item 2 from original list, we update pointers:
-    // 0 : 1
-    // 1 : 2
-    // 2 : 4 [next item after originalIndex=1 is originalIndex=3]
-    // 3 : 4 [now stillToOrder], etc
-    // Then if we use item 1, we update again:
-    // 0 : 1
-    // 1 : 4 [next item after originalIndex=0 is originalIndex=3]
-    // 2 : 4
-    // 3 : 4 [now stillToOrder], etc
-    private int @Nullable [] stillToOrder;
+    // Number of rows in the source table.
+    private int srcLength;
+    // The sort keys for each row, extracted from the sort-by columns on first use,
+    // and discarded once the sort map is complete.
+    private @Nullable ImmutableList<SortKey> sortKeys;
+    // If only the first few rows are requested and they are less than this fraction
+    // of the whole table, we just find the smallest rows rather than sorting them all:
+    private static final int PARTIAL_SORT_FRACTION = 8;
+    // The minimum number of rows to find when doing a partial sort:
+    private static final int PARTIAL_SORT_MINIMUM = 256;
 
     @OnThread(Tag.Any)
     private final @NonNull ImmutableList<Pair<ColumnId, Direction>> originalSortBy;
@@ -173,10 +167,7 @@ public class Sort extends VisitableTransformation implements SingleSourceTransfo
 
             List<SimulationFunction<RecordSet, Column>> columns = new ArrayList<>();
 
-            this.stillToOrder = new int[srcDataLength + 1];
-            for (int i = 0; i < stillToOrder.length - 1; i++)
-                stillToOrder[i] = i + 1;
-            stillToOrder[stillToOrder.length - 1] = -1;
+            this.srcLength = srcDataLength;
             for (Column c : srcData.getColumns())
             {
                 columns.add(rs -> new Column(rs, c.getName())
@@ -230,106 +221,253 @@ public class Sort extends VisitableTransformation implements SingleSourceTransfo
     {
         if (sortMap == null)
             throw new InternalException("Trying to fill null sort map; error in initialisation carried forward.");
-        int destStart = sortMap.filled();
-        Direction[] justDirections = originalSortBy.stream().map(p -> p.getSecond()).toArray(Direction[]::new);
-        for (int dest = destStart; dest <= target; dest++)
+        int filled = sortMap.filled();
+        if (target < filled)
+            return;
+        if (target >= srcLength)
+            throw new InternalException("Not enough items available to fill source list");
+        
+        ImmutableList<SortKey> keys = getSortKeys();
+        RowSorter.RowComparator comparator = (a, b) -> compareRows(keys, a, b);
+        // We may only be asked for the first screenful of rows, in which case
+        // we only find those rather than sorting the whole table.  The amount we find
+        // doubles each time, so that scrolling down doesn't keep redoing it:
+        int partialCount = Math.max(target + 1, Math.max(filled * 2, PARTIAL_SORT_MINIMUM));
+        if (partialCount < srcLength / PARTIAL_SORT_FRACTION)
         {
-            int lowestIndex = 0;
-            ImmutableList<Either<String, @Value Object>> lowest = null;
-            int pointerToLowestIndex = -1;
-            int prevSrc = 0;
-            if (stillToOrder == null)
-                throw new InternalException("Trying to re-sort an already sorted list");
-            // stillToOrder shouldn't possibly become null during this loop, but need to satisfy checker:
-            for (int src = stillToOrder[prevSrc]; src != -1; src = stillToOrder == null ? -1 : stillToOrder[src])
-            {
-                // src is in stillToOrder terms, which is one more than original indexes
-                ImmutableList<Either<String, @Value Object>> cur = getItem(src - 1);
-                if (lowest == null || compareFixedSet(cur, lowest, justDirections) < 0)
-                {
-                    lowest = cur;
-                    lowestIndex = src;
-                    pointerToLowestIndex = prevSrc;
-                }
-                prevSrc = src;
-            }
-            if (lowest != null && stillToOrder != null)
+            int[] smallest = RowSorter.smallestRows(srcLength, partialCount, comparator);
+            for (int dest = filled; dest < smallest.length; dest++)
             {
-                // Make the pointer behind lowest point to entry after lowest:
-                stillToOrder[pointerToLowestIndex] = stillToOrder[lowestIndex];
-                // Still to order is empty, so null it to garbage collect the memory:
-                if (stillToOrder[0] == -1)
-                    stillToOrder = null;
-                // lowestIndex is in stillToOrder terms, which is one more than original indexes
-                sortMap.add(lowestIndex - 1);
+                sortMap.add(smallest[dest]);
             }
-            else
+        }
+        else
+        {
+            int[] sorted = RowSorter.sortedRows(srcLength, comparator);
+            for (int dest = filled; dest < sorted.length; dest++)
             {
-                throw new InternalException("Not enough items available to fill source list");
+                sortMap.add(sorted[dest]);
             }
-
-            //if (prog != null)
-                //prog.progressUpdate((double)(dest - destStart) / (double)(target - dest));
+            // Sort map is now complete so don't need to keep the keys in memory:
+            sortKeys = null;
         }
     }
 
-    // All arrays must be same length.
-    // Returns -1 if a is before b, given the directions.
-    // e.g. compareFixedSet({0}, {1}, DESCENDING) will return positive number, because 0 is after 1 when descending
-    private static int compareFixedSet(ImmutableList<Either<String, @Value Object>> a, ImmutableList<Either<String, @Value Object>> b, Direction[] justDirections) throws UserException, InternalException
+    // Returns -1 if row a is before b, given the directions.
+    // e.g. comparing 0 to 1 with DESCENDING will return positive number, because 0 is after 1 when descending
+    private static int compareRows(ImmutableList<SortKey> keys, int a, int b) throws UserException, InternalException
     {
-        for (int i = 0; i < a.size(); i++)
+        for (int i = 0; i < keys.size(); i++)
         {
-            Either<String, @Value Object> ax = a.get(i);
-            Either<String, @Value Object> bx = b.get(i);
-            // Errors are always first, whether descending or ascending:
-            if (ax.isLeft())
-            {
-                if (bx.isLeft())
-                    return ax.getLeft("Impossible ax").compareTo(bx.getLeft("Impossible bx"));
-                else
-                    return -1;
-            }
-            else if (bx.isLeft())
-            {
-                return 1;
-            }
-            int cmp = Utility.compareValues(ax.getRight("Impossible ax"), bx.getRight("Impossible bx"));
-            if (justDirections[i] == Direction.DESCENDING)
-                cmp = -cmp;
+            int cmp = keys.get(i).compare(a, b);
             if (cmp != 0)
                 return cmp;
         }
         return 0;
     }
 
-    @Pure
-    private ImmutableList<Either<String, @Value Object>> getItem(int srcIndex) throws UserException, InternalException
+    private ImmutableList<SortKey> getSortKeys() throws UserException, InternalException
     {
+        if (sortKeys != null)
+            return sortKeys;
         if (sortBy == null)
             throw new UserException(sortByError);
-        ImmutableList.Builder<Either<String, @Value Object>> r = ImmutableList.builderWithExpectedSize(sortBy.size());
-        for (int i = 0; i < sortBy.size(); i++)
+        ImmutableList.Builder<SortKey> r = ImmutableList.builderWithExpectedSize(sortBy.size());
+        for (Pair<Column, Direction> c : sortBy)
         {
-            Pair<Column, Direction> c = sortBy.get(i);
-            Either<String, @Value Object> val;
-            try
+            r.add(new SortKey(c.getFirst().getType(), c.getSecond(), srcLength));
+        }
+        ImmutableList<SortKey> keys = r.build();
+        sortKeys = keys;
+        return keys;
+    }
+
+    /**
+     * The values of one sort-by column, fetched once from the source column
+     * so that comparisons during sorting don't have to go back to the column.
+     * If all the values are integers, they are held in a primitive array.
+     * If the column is dictionary encoded, we sort the distinct values once
+     * and hold each row's rank among them in the same primitive array.
+     */
+    private static class SortKey
+    {
+        private final boolean descending;
+        // Null until we find any errors.  Non-null items are errors.
+        private @Nullable String @Nullable [] errors;
+        // Exactly one of these is non-null:
+        private final long @Nullable [] longs;
+        // Items are null where there is an error:
+        private final @Nullable @Value Object @Nullable [] values;
+
+        public SortKey(DataTypeValue column, Direction direction, int length)
+        {
+            this.descending = direction == Direction.DESCENDING;
+            @Nullable GetDictionaryCode dictionaryCodes = column.getDictionaryCodes();
+            long @Nullable [] ranks = dictionaryCodes == null ? null : rankByCode(dictionaryCodes, length);
+            if (ranks != null)
             {
-                val = Either.right(c.getFirst().getType().getCollapsed(srcIndex));
+                this.longs = ranks;
+                this.values = null;
+                return;
             }
-            catch (InvalidImmediateValueException e)
+            
+            @Nullable @Value Object[] fetched = new @Nullable @Value Object[length];
+            boolean allIntegers = true;
+            for (int i = 0; i < length; i++)
+            {
+                try
+                {
+                    @Value Object value = column.getCollapsed(i);
+                    fetched[i] = value;
+                    allIntegers = allIntegers && asLong(value) != null;
+                }
+                catch (InvalidImmediateValueException e)
+                {
+                    addError(i, e.getInvalid(), length);
+                }
+                catch (InternalException | UserException e)
+                {
+                    if (e instanceof InternalException)
+                        Log.log(e);
+                    addError(i, e.getLocalizedMessage(), length);
+                }
+            }
+            
+            if (allIntegers)
             {
-                val = Either.left(e.getInvalid());
+                long[] theLongs = new long[length];
+                for (int i = 0; i < length; i++)
+                {
+                    @Nullable @Value Object value = fetched[i];
+                    @Nullable Long l = value == null ? null : asLong(value);
+                    theLongs[i] = l == null ? 0 : l;
+                }
+                this.longs = theLongs;
+                this.values = null;
+            }
+            else
+            {
+                this.longs = null;
+                this.values = fetched;
+            }
+        }
+
+        // Gets the rank of each row's value among the distinct values, or null if
+        // the column stops being dictionary encoded before we have all the codes.
+        private long @Nullable [] rankByCode(GetDictionaryCode dictionaryCodes, int length)
+        {
+            int[] codes = new int[length];
+            boolean[] used = new boolean[0];
+            for (int i = 0; i < length; i++)
+            {
+                codes[i] = -1;
+                try
+                {
+                    int code = dictionaryCodes.getCode(i);
+                    if (code < 0)
+                    {
+                        errors = null;
+                        return null;
+                    }
+                    codes[i] = code;
+                    if (code >= used.length)
+                        used = Arrays.copyOf(used, Math.max(code + 1, used.length * 2));
+                    used[code] = true;
+                }
+                catch (InvalidImmediateValueException e)
+                {
+                    addError(i, e.getInvalid(), length);
+                }
+                catch (InternalException | UserException e)
+                {
+                    if (e instanceof InternalException)
+                        Log.log(e);
+                    addError(i, e.getLocalizedMessage(), length);
+                }
+            }
+            
+            try
+            {
+                IntList distinct = new IntList();
+                for (int code = 0; code < used.length; code++)
+                {
+                    if (used[code])
+                        distinct.add(code);
+                }
+                int[] sortedDistinct = RowSorter.sortedRows(distinct.size(), (a, b) -> Utility.compareValues(dictionaryCodes.getDictionaryValue(distinct.get(a)), dictionaryCodes.getDictionaryValue(distinct.get(b))));
+                long[] rankOfCode = new long[used.length];
+                for (int rank = 0; rank < sortedDistinct.length; rank++)
+                {
+                    rankOfCode[distinct.get(sortedDistinct[rank])] = rank;
+                }
+                long[] ranks = new long[length];
+                for (int i = 0; i < length; i++)
+                {
+                    // Rows with errors are sorted by their error, so rank doesn't matter:
+                    ranks[i] = codes[i] < 0 ? 0 : rankOfCode[codes[i]];
+                }
+                return ranks;
             }
             catch (InternalException | UserException e)
             {
-                if (e instanceof InternalException)
-                    Log.log(e);
-                val = Either.left(e.getLocalizedMessage());
+                Log.log(e);
+                errors = null;
+                return null;
+            }
+        }
+
+        private void addError(int index, @Nullable String error, int length)
+        {
+            if (errors == null)
+                errors = new String[length];
+            errors[index] = error == null ? "" : error;
+        }
+
+        // Gets the value as a long if it is an integer which fits in a long, consistent with Utility.compareNumbers
+        private static @Nullable Long asLong(@Value Object value)
+        {
+            if (value instanceof BigDecimal)
+            {
+                try
+                {
+                    return ((BigDecimal) value).longValueExact();
+                }
+                catch (ArithmeticException e)
+                {
+                    return null;
+                }
+            }
+            else if (value instanceof Number)
+                return ((Number) value).longValue();
+            else
+                return null;
+        }
+
+        public int compare(int a, int b) throws UserException, InternalException
+        {
+            if (errors != null)
+            {
+                // Errors are always first, whether descending or ascending:
+                @Nullable String errorA = errors[a];
+                @Nullable String errorB = errors[b];
+                if (errorA != null)
+                    return errorB != null ? errorA.compareTo(errorB) : -1;
+                else if (errorB != null)
+                    return 1;
+            }
+            int cmp;
+            if (longs != null)
+                cmp = Long.compare(longs[a], longs[b]);
+            else
+            {
+                @Nullable @Value Object valueA = values == null ? null : values[a];
+                @Nullable @Value Object valueB = values == null ? null : values[b];
+                if (valueA == null || valueB == null)
+                    throw new InternalException("Missing sort value without error");
+                cmp = Utility.compareValues(valueA, valueB);
             }
-            r.add(val);
+            return descending ? -cmp : cmp;
         }
-        return r.build();
     }
 
     @Override
@@ -46,6 +46,7 @@ import xyz.columnal.utility.Utility.Record;
 
 import java.time.temporal.TemporalAccessor;
 import java.util.Map;
+import java.util.OptionalInt;
 import java.util.function.Function;
 
 /**
@@ -187,6 +188,36 @@ public final class DataTypeValue
         return dataType;
     }
 
+    /**
+     * If this is a text column stored as dictionary codes, gets access to the codes.
+     * Otherwise (including for copies of a column, e.g. via copyReorder) returns null.
+     */
+    @Pure
+    public @Nullable GetDictionaryCode getDictionaryCodes()
+    {
+        if (getText instanceof GetDictionaryCode)
+            return (GetDictionaryCode) getText;
+        else
+            return null;
+    }
+
+    /**
+     * If the values are stored (see GetModificationCount), gets a count which
+     * changes whenever a stored value is set or rows are inserted or removed.
+     * Otherwise (including for copies of a column) returns empty, in which case
+     * there is no way to tell if the values have changed.
+     */
+    @OnThread(Tag.Simulation)
+    public OptionalInt getModificationCount()
+    {
+        for (@Nullable GetValue<?> g : new @Nullable GetValue<?>[] {getNumber, getText, getDate, getBoolean, getTag, getRecord, getArrayContent})
+        {
+            if (g instanceof GetModificationCount)
+                return OptionalInt.of(((GetModificationCount) g).getModificationCount());
+        }
+        return OptionalInt.empty();
+    }
+
     public static class SpecificDataTypeVisitorGet<R> implements DataTypeVisitorGet<R>
     {
         private final @Nullable InternalException internal;
@@ -360,6 +391,33 @@ public final class DataTypeValue
         @OnThread(Tag.Simulation)
         default @NonNull @Value T get(int index) throws UserException, InternalException { return getWithProgress(index, null); }
 
+        /**
+         * Gets the values of rows startIncl (inclusive) to endExcl (exclusive), in order.
+         * A user error fetching one row does not stop the rest being fetched; the
+         * error is returned in place of that row's value.
+         *
+         * The progress listener is only given to the first fetch, as that is the one
+         * which may need to calculate all the rows before it.  Implementations may
+         * override this if they can fetch a block of rows more cheaply.
+         */
+        @OnThread(Tag.Simulation)
+        default ImmutableList<Either<UserException, @Value T>> getRange(int startIncl, int endExcl, @Nullable ProgressListener progressListener) throws InternalException
+        {
+            ImmutableList.Builder<Either<UserException, @Value T>> r = ImmutableList.builderWithExpectedSize(Math.max(0, endExcl - startIncl));
+            for (int index = startIncl; index < endExcl; index++)
+            {
+                try
+                {
+                    r.add(Either.<UserException, @Value T>right(getWithProgress(index, index == startIncl ? progressListener : null)));
+                }
+                catch (UserException e)
+                {
+                    r.add(Either.<UserException, @Value T>left(e));
+                }
+            }
+            return r.build();
+        }
+
         @OnThread(Tag.Simulation)
         default void set(int index, Either<String, @Value T> value) throws InternalException, UserException
         {
@@ -367,6 +425,61 @@ public final class DataTypeValue
         };
     }
 
+    /**
+     * Implemented by the GetValue of a text column which stores each value as an
+     * int code into a dictionary of the distinct values.  Two values from the same
+     * column are equal if and only if their codes are equal, and the code of
+     * a value never changes, so sorting, grouping and matching can be done on the
+     * codes rather than the strings.  Codes from different columns are unrelated.
+     */
+    public static interface GetDictionaryCode
+    {
+        /**
+         * Gets the code of the value at the given index, throwing the same
+         * exception as fetching the value would.  Returns -1 if the column is
+         * no longer dictionary encoded (which may happen at any time,
+         * and is permanent), in which case the values must be used instead.
+         */
+        @OnThread(Tag.Simulation)
+        int getCode(int index) throws UserException, InternalException;
+
+        /**
+         * Gets the value with the given code.
+         */
+        @OnThread(Tag.Simulation)
+        @Value String getDictionaryValue(int code) throws InternalException;
+
+        /**
+         * Gets the code for the given value, or -1 if it has no code (which
+         * includes when the column is no longer dictionary encoded).
+         */
+        @OnThread(Tag.Simulation)
+        int getCodeOf(@Value String value);
+    }
+
+
+    /**
+     * Implemented by the GetValue of a column whose values are stored, rather
+     * than fetched from elsewhere each time.  Adding values on the end (e.g. as
+     * they are calculated) does not count as a modification.
+     */
+    public static interface GetModificationCount
+    {
+        @OnThread(Tag.Simulation)
+        int getModificationCount();
+    }
+
+    /**
+     * Implemented by a ListEx which is all the values of a column, so that work
+     * done on the list (such as building an index) can be shared with other lists
+     * of the same column.
+     */
+    public static interface ColumnList
+    {
+        @OnThread(Tag.Any)
+        public DataTypeValue getColumn();
+    }
+
 
     /**
      * Gets the collapsed, dynamically typed value at the given index
@@ -0,0 +1,71 @@
+/*
+ * Columnal: Safer, smoother data table processing.
+ * Copyright (c) Neil Brown, 2016-2020, 2022.
+ *
+ * This file is part of Columnal.
+ *
+ * Columnal is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * Columnal is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with Columnal. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package xyz.columnal.utility;
+
+import java.util.Arrays;
+
+/**
+ * A growable list of ints, such as row indexes, which avoids
+ * the boxing that an ArrayList of Integer would need.
+ * Not thread-safe.
+ */
+public final class IntList
+{
+    private int[] items;
+    private int size = 0;
+
+    public IntList()
+    {
+        this(4);
+    }
+
+    public IntList(int initialCapacity)
+    {
+        this.items = new int[Math.max(1, initialCapacity)];
+    }
+
+    public void add(int item)
+    {
+        if (size == items.length)
+            items = Arrays.copyOf(items, items.length * 2);
+        items[size++] = item;
+    }
+
+    public int get(int index)
+    {
+        if (index >= size)
+            throw new IndexOutOfBoundsException("Index " + index + " but size " + size);
+        return items[index];
+    }
+
+    public int size()
+    {
+        return size;
+    }
+
+    /**
+     * Returns a copy of the items, exactly as long as the list.
+     */
+    public int[] toArray()
+    {
+        return Arrays.copyOf(items, size);
+    }
+}
@@ -0,0 +1,200 @@
+/*
+ * Columnal: Safer, smoother data table processing.
+ * Copyright (c) Neil Brown, 2016-2020, 2022.
+ *
+ * This file is part of Columnal.
+ *
+ * Columnal is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * Columnal is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with Columnal. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package xyz.columnal.utility;
+
+import threadchecker.OnThread;
+import threadchecker.Tag;
+import xyz.columnal.error.InternalException;
+import xyz.columnal.error.UserException;
+
+/**
+ * Sorting of row indexes, where the comparison between two rows
+ * may throw (e.g. because it needs to fetch values from a column).
+ *
+ * Rows are held in a plain int array to avoid boxing every row index,
+ * which matters when sorting tables with millions of rows.
+ * Both sorts are stable: rows which compare equal stay in ascending
+ * row index order.
+ */
+@OnThread(Tag.Simulation)
+public class RowSorter
+{
+    // Below this size, runs are sorted by insertion sort:
+    private static final int INSERTION_SORT_THRESHOLD = 16;
+
+    public static interface RowComparator
+    {
+        /**
+         * Returns negative if row a should be before row b,
+         * positive if after, zero if they are equal.
+         */
+        public int compare(int a, int b) throws InternalException, UserException;
+    }
+
+    /**
+     * Returns the row indexes 0 to rowCount (exclusive) sorted
+     * by the given comparator.  O(n log n) comparisons.
+     */
+    public static int[] sortedRows(int rowCount, RowComparator comparator) throws InternalException, UserException
+    {
+        int[] rows = new int[rowCount];
+        for (int i = 0; i < rowCount; i++)
+        {
+            rows[i] = i;
+        }
+        sort(rows, comparator);
+        return rows;
+    }
+
+    /**
+     * Stable merge sort of the given array, in place.
+     */
+    public static void sort(int[] rows, RowComparator comparator) throws InternalException, UserException
+    {
+        if (rows.length < 2)
+            return;
+        int[] scratch = new int[rows.length];
+
+        // First insertion sort small runs:
+        for (int start = 0; start < rows.length; start += INSERTION_SORT_THRESHOLD)
+        {
+            insertionSort(rows, start, Math.min(start + INSERTION_SORT_THRESHOLD, rows.length), comparator);
+        }
+
+        // Then merge runs bottom-up, swapping between the two arrays:
+        int[] from = rows;
+        int[] to = scratch;
+        for (int width = INSERTION_SORT_THRESHOLD; width < rows.length; width *= 2)
+        {
+            for (int start = 0; start < rows.length; start += 2 * width)
+            {
+                int mid = Math.min(start + width, rows.length);
+                int end = Math.min(start + 2 * width, rows.length);
+                merge(from, to, start, mid, end, comparator);
+            }
+            int[] tmp = from;
+            from = to;
+            to = tmp;
+        }
+        if (from != rows)
+            System.arraycopy(from, 0, rows, 0, rows.length);
+    }
+
+    private static void insertionSort(int[] rows, int start, int end, RowComparator comparator) throws InternalException, UserException
+    {
+        for (int i = start + 1; i < end; i++)
+        {
+            int row = rows[i];
+            int j = i - 1;
+            // Strictly greater, to keep it stable:
+            while (j >= start && comparator.compare(rows[j], row) > 0)
+            {
+                rows[j + 1] = rows[j];
+                j -= 1;
+            }
+            rows[j + 1] = row;
+        }
+    }
+
+    private static void merge(int[] from, int[] to, int start, int mid, int end, RowComparator comparator) throws InternalException, UserException
+    {
+        // Already in order, so just copy across:
+        if (mid >= end || comparator.compare(from[mid - 1], from[mid]) <= 0)
+        {
+            System.arraycopy(from, start, to, start, end - start);
+            return;
+        }
+
+        int left = start;
+        int right = mid;
+        for (int dest = start; dest < end; dest++)
+        {
+            // Take from left when equal, to keep it stable:
+            if (right >= end || (left < mid && comparator.compare(from[left], from[right]) <= 0))
+                to[dest] = from[left++];
+            else
+                to[dest] = from[right++];
+        }
+    }
+
+    /**
+     * Returns the first k rows (in sorted order) of what sortedRows(rowCount, comparator)
+     * would return, but only uses O(k) memory and O(n log k) comparisons.  Useful
+     * when only the first few rows of a large table are needed.
+     */
+    public static int[] smallestRows(int rowCount, int k, RowComparator comparator) throws InternalException, UserException
+    {
+        k = Math.min(k, rowCount);
+        if (k <= 0)
+            return new int[0];
+        // Ties are broken by row index, which makes this match the stable sort:
+        RowComparator stable = (a, b) -> {
+            int cmp = comparator.compare(a, b);
+            return cmp != 0 ? cmp : Integer.compare(a, b);
+        };
+
+        // A max-heap of the k smallest rows seen so far; heap[0] is the largest of them:
+        int[] heap = new int[k];
+        int heapSize = 0;
+        for (int row = 0; row < rowCount; row++)
+        {
+            if (heapSize < k)
+            {
+                // Sift up:
+                int pos = heapSize++;
+                while (pos > 0)
+                {
+                    int parent = (pos - 1) / 2;
+                    if (stable.compare(heap[parent], row) >= 0)
+                        break;
+                    heap[pos] = heap[parent];
+                    pos = parent;
+                }
+                heap[pos] = row;
+            }
+            else if (stable.compare(row, heap[0]) < 0)
+            {
+                siftDown(heap, heapSize, row, stable);
+            }
+        }
+        sort(heap, stable);
+        return heap;
+    }
+
+    // Puts the given row at the top of the heap, replacing whatever was there, then sifts it down.
+    private static void siftDown(int[] heap, int heapSize, int row, RowComparator comparator) throws InternalException, UserException
+    {
+        int pos = 0;
+        while (true)
+        {
+            int child = 2 * pos + 1;
+            if (child >= heapSize)
+                break;
+            if (child + 1 < heapSize && comparator.compare(heap[child + 1], heap[child]) > 0)
+                child += 1;
+            if (comparator.compare(heap[child], row) <= 0)
+                break;
+            heap[pos] = heap[child];
+            pos = child;
+        }
+        heap[pos] = row;
+    }
+}
@@ -0,0 +1,452 @@
+/*
+ * Columnal: Safer, smoother data table processing.
+ * Copyright (c) Neil Brown, 2016-2020, 2022.
+ *
+ * This file is part of Columnal.
+ *
+ * Columnal is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * Columnal is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with Columnal. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package xyz.columnal.utility;
+
+import org.checkerframework.checker.nullness.qual.Nullable;
+import threadchecker.OnThread;
+import threadchecker.Tag;
+import xyz.columnal.utility.Utility.ReadState;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * Reads a delimited text file on behalf of all its columns.  Each line
+ * is split once, and the values are handed out to each column as that column
+ * asks for more.  Values which have been read but not yet asked for are held
+ * in a pending list for that column.
+ * 
+ * Columns are not always read at the same pace; for example, copying a record set
+ * reads all of one column before starting the next.  So that the pending values
+ * don't build up to the whole file, a column which falls too far behind is detached:
+ * its pending values are dropped, and when it next asks for values, the file is read
+ * again from where it got up to (on behalf of all the columns which were detached
+ * at the same point).
+ *
+ * Large files are read using memory mapping (when the character set allows us
+ * to find line ends without decoding), and large chunks of lines are split
+ * in parallel.
+ */
+@OnThread(Tag.Simulation)
+public class TextFileRowReader
+{
+    // Files at least this large are read by memory mapping:
+    private static final long MAPPED_FILE_THRESHOLD = 64L * 1024 * 1024;
+    // The size of each memory mapped region; a region may be extended if a line is longer:
+    private static final int MAPPED_REGION_SIZE = 8 * 1024 * 1024;
+    // Number of lines read at once when not memory mapping:
+    private static final int LINES_PER_CHUNK = 1024;
+    // Chunks with at least this many lines are split in parallel:
+    private static final int PARALLEL_SPLIT_THRESHOLD = 4096;
+    // A column with more than this many pending values (and more than one chunk) is detached:
+    private static final int MAX_PENDING_VALUES = 64 * 1024;
+
+    private final File file;
+    private final Charset charset;
+    private final int firstLine;
+    private final @Nullable String delimiter;
+    private final @Nullable String quote;
+    private final long mappedFileThreshold;
+    private final int mappedRegionSize;
+    // Maps column index to its state:
+    private final HashMap<Integer, ColumnState> columns = new HashMap<>();
+
+    /**
+     * Reads the given file, skipping the first firstLine lines.  Only the given column
+     * indexes (zero-based, in the file) will be asked for.
+     */
+    public TextFileRowReader(File file, Charset charset, int firstLine, @Nullable String delimiter, @Nullable String quote, int[] columnIndexes) throws IOException
+    {
+        this(file, charset, firstLine, delimiter, quote, columnIndexes, MAPPED_FILE_THRESHOLD, MAPPED_REGION_SIZE);
+    }
+
+    /**
+     * As the other constructor, but with the given memory mapping threshold and region size,
+     * so that memory mapping can be tested without enormous files.
+     */
+    public TextFileRowReader(File file, Charset charset, int firstLine, @Nullable String delimiter, @Nullable String quote, int[] columnIndexes, long mappedFileThreshold, int mappedRegionSize) throws IOException
+    {
+        // This would send us into an infinite loop, so guard against it:
+        if (quote != null && quote.isEmpty())
+            throw new IllegalArgumentException("Quote cannot be empty");
+        this.file = file;
+        this.charset = charset;
+        this.firstLine = firstLine;
+        this.delimiter = delimiter;
+        this.quote = quote;
+        this.mappedFileThreshold = mappedFileThreshold;
+        this.mappedRegionSize = mappedRegionSize;
+        ArrayList<ColumnState> all = new ArrayList<>();
+        for (int columnIndex : columnIndexes)
+        {
+            ColumnState columnState = new ColumnState(columnIndex);
+            columns.put(columnIndex, columnState);
+            all.add(columnState);
+        }
+        // Check we can open it now, rather than on first read:
+        Cursor cursor = new Cursor(openLines(0), all);
+        for (ColumnState columnState : all)
+        {
+            columnState.cursor = cursor;
+        }
+    }
+
+    // Opens the file, skipping the first firstLine lines and then the given number of rows
+    private LineSource openLines(int skipRows) throws IOException
+    {
+        if (file.length() >= mappedFileThreshold && canFindLineEndsInBytes(charset))
+            return new MappedLineSource(file, charset, firstLine + skipRows, mappedRegionSize);
+        else
+            return new ReadStateLineSource(new ReadState(file, charset, firstLine + skipRows));
+    }
+
+    /**
+     * Adds the next values for the given column to fill.  If nothing is added,
+     * the end of the file has been reached.
+     */
+    public synchronized void readColumnChunk(int columnIndex, ArrayList<String> fill) throws IOException
+    {
+        ColumnState ours = columns.get(columnIndex);
+        if (ours == null)
+            throw new IllegalArgumentException("Column " + columnIndex + " was not requested from reader for " + file.getAbsolutePath());
+        if (ours.pending.isEmpty())
+        {
+            Cursor cursor = ours.cursor;
+            if (cursor == null)
+            {
+                // We were detached, so read again from where we got up to, along with any
+                // others detached at the same point (as they'll likely want reading next):
+                ArrayList<ColumnState> following = new ArrayList<>();
+                for (ColumnState columnState : columns.values())
+                {
+                    if (columnState.cursor == null && columnState.rowsTaken == ours.rowsTaken)
+                        following.add(columnState);
+                }
+                cursor = new Cursor(openLines(ours.rowsTaken), following);
+                for (ColumnState columnState : following)
+                {
+                    columnState.cursor = cursor;
+                }
+            }
+            readNextChunk(cursor, ours);
+        }
+        fill.addAll(ours.pending);
+        ours.rowsTaken += ours.pending.size();
+        ours.pending = new ArrayList<>();
+        ours.pendingChunks = 0;
+    }
+
+    public String getAbsolutePath()
+    {
+        return file.getAbsolutePath();
+    }
+
+    // Reads and splits the next chunk of lines, and adds the values to the pending lists of the columns following the cursor.
+    private void readNextChunk(Cursor cursor, ColumnState requester) throws IOException
+    {
+        List<String> chunk = cursor.lines.nextLines();
+        if (chunk.isEmpty())
+            return;
+        int[] columnIndexes = cursor.following.stream().mapToInt(c -> c.columnIndex).toArray();
+        String[][] split = new String[chunk.size()][];
+        IntStream indexes = IntStream.range(0, chunk.size());
+        if (chunk.size() >= PARALLEL_SPLIT_THRESHOLD)
+            indexes = indexes.parallel();
+        indexes.forEach(i -> split[i] = splitLine(chunk.get(i), delimiter, quote, columnIndexes));
+
+        for (int c = 0; c < columnIndexes.length; c++)
+        {
+            ArrayList<String> columnValues = cursor.following.get(c).pending;
+            columnValues.ensureCapacity(columnValues.size() + split.length);
+            for (String[] row : split)
+            {
+                columnValues.add(row[c]);
+            }
+            cursor.following.get(c).pendingChunks += 1;
+        }
+        
+        // Detach any which have fallen too far behind:
+        for (Iterator<ColumnState> iterator = cursor.following.iterator(); iterator.hasNext(); )
+        {
+            ColumnState columnState = iterator.next();
+            if (columnState != requester && columnState.pending.size() > MAX_PENDING_VALUES && columnState.pendingChunks > 1)
+            {
+                columnState.pending = new ArrayList<>();
+                columnState.pendingChunks = 0;
+                columnState.cursor = null;
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Splits the line and returns the values for the given column indexes, in the
+     * same order.  Columns beyond the end of the line are blank.  If the delimiter
+     * is null, the whole line is the value for every column.
+     */
+    @OnThread(Tag.Any)
+    public static String[] splitLine(String line, @Nullable String delimiter, @Nullable String quote, int[] columnIndexes)
+    {
+        String[] r = new String[columnIndexes.length];
+        if (delimiter == null)
+        {
+            // All just one column:
+            for (int i = 0; i < r.length; i++)
+            {
+                r[i] = line;
+            }
+            return r;
+        }
+
+        ArrayList<String> fields = new ArrayList<>();
+        int currentColStart = 0;
+        boolean inQuote = false;
+        // If null, no quote seen yet in this column:
+        @Nullable StringBuilder withoutQuotes = null;
+        for (int i = 0; i < line.length(); i++)
+        {
+            if (!inQuote && line.regionMatches(i, delimiter, 0, delimiter.length()))
+            {
+                fields.add(withoutQuotes != null ? withoutQuotes.toString() : line.substring(currentColStart, i));
+                currentColStart = i + delimiter.length();
+                // 1 will be added by loop:
+                i += delimiter.length() - 1;
+                withoutQuotes = null;
+            }
+            else if (quote != null && line.regionMatches(i, quote, 0, quote.length()))
+            {
+                if (!inQuote)
+                {
+                    inQuote = true;
+                    withoutQuotes = new StringBuilder();
+                }
+                else
+                {
+                    if (line.regionMatches(i + quote.length(), quote, 0, quote.length()))
+                    {
+                        // Escaped quote, no problem
+                        i += quote.length();
+                        if (withoutQuotes != null)
+                            withoutQuotes.append(quote);
+                    }
+                    else
+                    {
+                        inQuote = false;
+                    }
+                }
+                // 1 will be added by loop:
+                i += quote.length() - 1;
+            }
+            else if (withoutQuotes != null)
+            {
+                withoutQuotes.append(line.charAt(i));
+            }
+        }
+        fields.add(withoutQuotes != null ? withoutQuotes.toString() : line.substring(currentColStart));
+
+        for (int i = 0; i < r.length; i++)
+        {
+            r[i] = columnIndexes[i] < fields.size() ? fields.get(columnIndexes[i]) : "";
+        }
+        return r;
+    }
+
+    // We can only look for line ends in the raw bytes if a newline byte can never
+    // be part of another character:
+    private static boolean canFindLineEndsInBytes(Charset charset)
+    {
+        return charset.equals(StandardCharsets.UTF_8) || (charset.newEncoder().maxBytesPerChar() == 1.0f && "\r\n".equals(new String(new byte[] {'\r', '\n'}, charset)));
+    }
+
+    private static interface LineSource
+    {
+        // Returns an empty list once the end of the file is reached
+        public List<String> nextLines() throws IOException;
+    }
+
+    private static class ReadStateLineSource implements LineSource
+    {
+        private final ReadState readState;
+
+        public ReadStateLineSource(ReadState readState)
+        {
+            this.readState = readState;
+        }
+
+        @Override
+        public List<String> nextLines() throws IOException
+        {
+            ArrayList<String> r = new ArrayList<>();
+            for (int i = 0; i < LINES_PER_CHUNK; i++)
+            {
+                @Nullable String line = readState.nextLine();
+                if (line == null)
+                    break;
+                r.add(line);
+            }
+            return r;
+        }
+    }
+
+    /**
+     * Maps the file a region at a time.  Each region ends just after a newline byte
+     * (or at the end of the file), so it can be decoded by itself.  Lines are ended by
+     * \n, \r or \r\n, the same as ReadState.
+     */
+    private static class MappedLineSource implements LineSource
+    {
+        private final File file;
+        private final Charset charset;
+        private final int regionSize;
+        private final long fileSize;
+        private long position = 0;
+        private int linesToSkip;
+
+        public MappedLineSource(File file, Charset charset, int linesToSkip, int regionSize)
+        {
+            this.file = file;
+            this.charset = charset;
+            this.regionSize = regionSize;
+            this.fileSize = file.length();
+            this.linesToSkip = linesToSkip;
+        }
+
+        @Override
+        public List<String> nextLines() throws IOException
+        {
+            ArrayList<String> r = new ArrayList<>();
+            // Loop in case all the lines in a region are skipped:
+            while (r.isEmpty() && position < fileSize)
+            {
+                String text = decodeNextRegion();
+                int lineStart = 0;
+                for (int i = 0; i < text.length(); i++)
+                {
+                    char c = text.charAt(i);
+                    if (c == '\n' || c == '\r')
+                    {
+                        addLine(r, text.substring(lineStart, i));
+                        if (c == '\r' && i + 1 < text.length() && text.charAt(i + 1) == '\n')
+                            i += 1;
+                        lineStart = i + 1;
+                    }
+                }
+                // Only possible at the end of the file:
+                if (lineStart < text.length())
+                    addLine(r, text.substring(lineStart));
+            }
+            return r;
+        }
+
+        private void addLine(ArrayList<String> lines, String line)
+        {
+            if (linesToSkip > 0)
+                linesToSkip -= 1;
+            else
+                lines.add(line);
+        }
+
+        private String decodeNextRegion() throws IOException
+        {
+            // The mapping remains valid after the channel is closed:
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ))
+            {
+                long regionSize = Math.min(this.regionSize, fileSize - position);
+                while (true)
+                {
+                    MappedByteBuffer region = channel.map(MapMode.READ_ONLY, position, regionSize);
+                    int end = (int)regionSize;
+                    if (position + regionSize < fileSize)
+                    {
+                        // Find the last line end, and only decode up to there.  A \r as the
+                        // last byte doesn't count, as it may be followed by a \n in the next region:
+                        end = -1;
+                        for (int i = (int)regionSize - 1; i >= 0; i--)
+                        {
+                            byte b = region.get(i);
+                            if (b == '\n' || (b == '\r' && i < regionSize - 1))
+                            {
+                                end = i + 1;
+                                break;
+                            }
+                        }
+                        if (end == -1)
+                        {
+                            // Line longer than region, so try a larger region:
+                            long largerSize = Math.min(regionSize * 2, Math.min(fileSize - position, Integer.MAX_VALUE));
+                            if (largerSize == regionSize)
+                                throw new IOException("Line too long in file " + file.getAbsolutePath());
+                            regionSize = largerSize;
+                            continue;
+                        }
+                    }
+                    region.limit(end);
+                    position += end;
+                    return charset.decode(region).toString();
+                }
+            }
+        }
+    }
+
+    private static class ColumnState
+    {
+        private final int columnIndex;
+        // Number of values handed out to the column so far:
+        private int rowsTaken = 0;
+        // Values read but not yet handed out, following on from rowsTaken:
+        private ArrayList<String> pending = new ArrayList<>();
+        // Number of chunks in pending:
+        private int pendingChunks = 0;
+        // Null if detached:
+        private @Nullable Cursor cursor;
+
+        public ColumnState(int columnIndex)
+        {
+            this.columnIndex = columnIndex;
+        }
+    }
+
+    /**
+     * A position in the file, and the columns whose values are being read from there.
+     */
+    private static class Cursor
+    {
+        private final LineSource lines;
+        private final ArrayList<ColumnState> following;
+
+        public Cursor(LineSource lines, ArrayList<ColumnState> following)
+        {
+            this.lines = lines;
+            this.following = following;
+        }
+    }
+}
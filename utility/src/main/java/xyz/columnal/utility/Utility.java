@@ -424,6 +424,62 @@ public class Utility
         return cmp;
     }
 
+    private static final BigDecimal LONG_MIN_DECIMAL = BigDecimal.valueOf(Long.MIN_VALUE);
+    private static final BigDecimal LONG_MAX_DECIMAL = BigDecimal.valueOf(Long.MAX_VALUE);
+
+    /**
+     * Hashes a value consistently with compareValues (without epsilon), i.e.
+     * if compareValues(a, b) == 0 then hashValue(a) == hashValue(b).  This
+     * means, for example, that the Integer 1, the Long 1 and the BigDecimal 1.00
+     * all hash the same.  Like compareValues, the value must not be a function.
+     */
+    @OnThread(Tag.Simulation)
+    public static int hashValue(@Value Object x) throws InternalException, UserException
+    {
+        if (x instanceof BigDecimal)
+        {
+            BigDecimal stripped = ((BigDecimal) x).stripTrailingZeros();
+            // Integers which could also be held in a long must hash like the long:
+            if (stripped.scale() <= 0 && stripped.compareTo(LONG_MIN_DECIMAL) >= 0 && stripped.compareTo(LONG_MAX_DECIMAL) <= 0)
+                return Long.hashCode(stripped.longValue());
+            return stripped.hashCode();
+        }
+        else if (x instanceof Number)
+            return Long.hashCode(((Number) x).longValue());
+        else if (x instanceof ListEx)
+        {
+            ListEx list = cast(x, ListEx.class);
+            int size = list.size();
+            int result = size;
+            for (int i = 0; i < size; i++)
+            {
+                result = 31 * result + hashValue(list.get(i));
+            }
+            return result;
+        }
+        else if (x instanceof TaggedValue)
+        {
+            @Value TaggedValue tagged = cast(x, TaggedValue.class);
+            @Value Object inner = tagged.getInner();
+            return 31 * tagged.getTagIndex() + (inner == null ? 0 : hashValue(inner));
+        }
+        else if (x instanceof Record)
+        {
+            // Sum is independent of field order, which is what we want:
+            int result = 0;
+            for (Entry<@ExpressionIdentifier String, @Value Object> field : cast(x, Record.class).getFullContent().entrySet())
+            {
+                result += field.getKey().hashCode() ^ hashValue(field.getValue());
+            }
+            return result;
+        }
+        else if (x instanceof Comparable)
+            // String, Boolean and temporal types all have compareTo consistent with equals:
+            return x.hashCode();
+        else
+            throw new InternalException("Unhashable type: " + x.getClass());
+    }
+
     /**
      * Gets the fractional part as a String, excluding the dot
      *
@@ -1702,91 +1758,6 @@ public class Utility
         }
     }
 
-    public static ReadState readColumnChunk(ReadState readState, @Nullable String delimiter, @Nullable String quote, int columnIndex, ArrayList<String> fill) throws IOException
-    {
-        // This would send us into an infinite loop, so guard against it:
-        if (quote != null && quote.isEmpty())
-            throw new IllegalArgumentException("Quote cannot be empty");
-        
-        loopOverLines: for (int lineRead = 0; lineRead < 20; lineRead++)
-        {
-            String line = readState.nextLine();
-            if (line == null)
-                break loopOverLines; // No more lines to read!
-            if (delimiter == null)
-            {
-                // All just one column, so must be us:
-                fill.add(line);
-            }
-            else
-            {
-                int currentCol = 0;
-                int currentColStart = 0;
-                boolean inQuote = false;
-                // If null, unused for this column:
-                @Nullable StringBuilder withoutQuotes = null;
-                for (int i = 0; i < line.length(); i++)
-                {
-                    if (!inQuote && line.regionMatches(i, delimiter, 0, delimiter.length()))
-                    {
-                        if (currentCol == columnIndex)
-                        {
-                            fill.add(withoutQuotes != null ? withoutQuotes.toString() : line.substring(currentColStart, i));
-                            // No point going further in this line as we've found our column:
-                            continue loopOverLines;
-                        }
-                        currentCol += 1;
-                        currentColStart = i + delimiter.length();
-                        // 1 will be added by loop:
-                        i += delimiter.length() - 1;
-                        // TODO this doesn't handle the last column (should fail test)
-                        withoutQuotes = null;
-                    }
-                    else if (quote != null && line.regionMatches(i, quote, 0, quote.length()))
-                    {
-                        if (!inQuote)
-                        {
-                            inQuote = true;
-                            if (currentCol == columnIndex)
-                                withoutQuotes = new StringBuilder();
-                        }
-                        else
-                        {
-                            if (line.regionMatches(i + quote.length(), quote, 0, quote.length()))
-                            {
-                                // Escaped quote, no problem
-                                i += quote.length();
-                                if (withoutQuotes != null)
-                                    withoutQuotes.append(quote);
-                            }
-                            else
-                            {
-                                inQuote = false;
-                            }
-                        }
-                        // 1 will be added by loop:
-                        i += quote.length() - 1;
-                    }
-                    else if (withoutQuotes != null)
-                    {
-                        withoutQuotes.append(line.charAt(i));
-                    }
-                }
-                // Might be the last column we want:
-                if (currentCol == columnIndex)
-                {
-                    fill.add(withoutQuotes != null ? withoutQuotes.toString() : line.substring(currentColStart));
-                }
-                else if (currentCol < columnIndex)
-                {
-                    // Blank:
-                    fill.add("");
-                }
-            }
-        }
-        return readState;
-    }
-
     public static int countIn(String small, String large)
     {
         int total = 0;
@@ -1797,11 +1768,6 @@ public class Utility
         return total;
     }
 
-    public static ReadState skipFirstNRows(File src, Charset charset, final int headerRows) throws IOException
-    {
-        return new ReadState(src, charset, headerRows);
-    }
-
     public static int compareNumbers(final Number a, final Number b)
     {
         return compareNumbers(a, b, null);